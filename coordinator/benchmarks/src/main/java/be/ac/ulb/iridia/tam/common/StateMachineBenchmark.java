@@ -0,0 +1,125 @@
+package be.ac.ulb.iridia.tam.common;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures one step of a StateMachine shaped like the proof-of-concept task: states with a
+ * transition to the next state and a FAIL transition, guarded by the presence of two robots.
+ *
+ * stepIdle() checks the transitions of a state where none fires, stepCycle() fires one
+ * transition per step by toggling the presence of a robot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark
+{
+    // states of the benchmarked machine
+    public enum Task
+    {
+        WAIT_ARRIVE,
+        WORKING,
+        WAIT_LEAVE,
+        FAIL
+    }
+
+    // presence of the robots, read by the conditions
+    private boolean robotInA;
+    private boolean robotInB;
+
+    // machine waiting in WORKING for a delay that never elapses
+    private StateMachine<Task> idle;
+    // machine switching between WAIT_ARRIVE and WAIT_LEAVE
+    private StateMachine<Task> cycle;
+
+    // time passed to the machines, advanced on every step
+    private long now;
+
+
+    /**
+     * Builds the machines.
+     */
+    @Setup
+    public void setup()
+    {
+        Logger.getRootLogger().setLevel(Level.OFF);
+
+        StateMachine.Condition inA = new StateMachine.Condition()
+        {
+            public boolean evaluate()
+            {
+                return robotInA;
+            }
+        };
+        StateMachine.Condition inB = new StateMachine.Condition()
+        {
+            public boolean evaluate()
+            {
+                return robotInB;
+            }
+        };
+
+        robotInA = true;
+        robotInB = true;
+        idle = build(inA, inB, Task.WORKING);
+        cycle = build(inA, inB, Task.WAIT_ARRIVE);
+    }
+
+    /**
+     * Builds a machine over the conditions.
+     * @param inA           presence of the robot in A
+     * @param inB           presence of the robot in B
+     * @param initialState  state the machine starts in
+     * @return compiled machine
+     */
+    private StateMachine<Task> build(StateMachine.Condition inA, StateMachine.Condition inB, Task initialState)
+    {
+        StateMachine.Builder<Task> builder = new StateMachine.Builder<Task>(Task.class);
+        builder.transition(Task.WAIT_ARRIVE, Task.WAIT_LEAVE).when(inA).when(inB);
+        builder.transition(Task.WORKING, Task.WAIT_LEAVE).after(Long.MAX_VALUE / 2).when(inA).when(inB);
+        builder.transition(Task.WORKING, Task.FAIL).any().unless(inA).unless(inB);
+        builder.transition(Task.WAIT_LEAVE, Task.WAIT_ARRIVE).unless(inA);
+        builder.transition(Task.FAIL, Task.WAIT_ARRIVE).unless(inA).unless(inB);
+        return builder.build(initialState, 0);
+    }
+
+    /**
+     * Steps a machine where no transition fires.
+     * @return state, so the step is not optimized away
+     */
+    @Benchmark
+    public Task stepIdle()
+    {
+        idle.step(++now);
+        return idle.getState();
+    }
+
+    /**
+     * Steps a machine where one transition fires.
+     * @return state, so the step is not optimized away
+     */
+    @Benchmark
+    public Task stepCycle()
+    {
+        robotInA = !robotInA;
+        cycle.step(++now);
+        return cycle.getState();
+    }
+}
@@ -0,0 +1,106 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import be.ac.ulb.iridia.tam.common.ExperimentInterface;
+import be.ac.ulb.iridia.tam.user.experiments.RandomTaskExperiment;
+import com.rapplogic.xbee.api.BenchmarkFrames;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures one tick of the step task of the coordinator over a number of synthetic TAMs:
+ * stepping the experiment and the RandomTaskController of every TAM, including the commands
+ * the controllers queue.
+ *
+ * Every TAM reports its LEDs switched off once during setup, after that the TAMs stay silent,
+ * so commands pile up in the send queue and get coalesced as on a saturated network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinatorStepBenchmark
+{
+    // number of TAMs stepped per tick
+    @Param({"10", "200", "1000"})
+    public int numberOfTAMs;
+
+    // number of threads stepping the controllers, 1 steps them serially
+    @Param({"1", "4"})
+    public int stepParallelism;
+
+    // coordinator the TAMs belong to, never started
+    private Coordinator coordinator;
+
+    // experiment that attaches the controllers
+    private ExperimentInterface experiment;
+
+    // steps the controllers, as in the step task of the coordinator
+    private ControllerStepper controllerStepper;
+
+
+    /**
+     * Creates the coordinator and the TAMs with their controllers and feeds one status report per TAM.
+     */
+    @Setup
+    public void setup()
+    {
+        Logger.getRootLogger().setLevel(Level.OFF);
+
+        coordinator = new Coordinator((String) null, 9600);
+        experiment = new RandomTaskExperiment();
+        experiment.init(42);
+        coordinator.setExperiment(experiment);
+
+        TAMResponsePacketListener listener = new TAMResponsePacketListener(coordinator);
+        for (int i = 0; i < numberOfTAMs; i++)
+        {
+            XBeeAddress64 address64 = new XBeeAddress64(0x00, 0x13, 0xa2, 0x00, 0x50, 0x00, i >> 8, i & 0xff);
+            TAM tam = new TAM(String.format("TAM%02d", i), coordinator, address64);
+            coordinator.listOfTAMs.put(tam);
+            experiment.attachTAMController(tam);
+
+            listener.processResponse(BenchmarkFrames.decode(BenchmarkFrames.escaped(
+                    BenchmarkFrames.dmRx(address64, BenchmarkFrames.tamStatus(0, 0, 0, false, 0)))));
+        }
+
+        controllerStepper = new ControllerStepper(stepParallelism);
+    }
+
+    /**
+     * Stops the threads of the stepper and the coordinator's scheduler.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        controllerStepper.shutdown();
+        coordinator.getScheduler().shutdown();
+    }
+
+    /**
+     * Runs one tick of the step task.
+     */
+    @Benchmark
+    public void step()
+    {
+        experiment.step();
+        controllerStepper.step(coordinator.listOfTAMs.values());
+    }
+}
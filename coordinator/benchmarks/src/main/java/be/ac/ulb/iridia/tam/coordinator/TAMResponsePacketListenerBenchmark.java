@@ -0,0 +1,131 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.BenchmarkFrames;
+import com.rapplogic.xbee.api.FrameDecoder;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeResponse;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the handling of a single TAM status report by the TAMResponsePacketListener, i.e. the
+ * work done by a dispatcher thread for every heartbeat once the packet has been parsed.
+ *
+ * The reports are decoded up front and cycle through all TAMs, alternating between two LED colors
+ * so that every report publishes a new snapshot.
+ *
+ * The flyweight variant starts from the escaped packets instead, as in flyweight mode the frame
+ * decoder hands each report straight to the listener; it includes framing, but no parsing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TAMResponsePacketListenerBenchmark
+{
+    // number of TAMs known to the coordinator
+    @Param({"10", "200"})
+    public int numberOfTAMs;
+
+    // coordinator the listener updates, never started
+    private Coordinator coordinator;
+
+    // listener under test
+    private TAMResponsePacketListener listener;
+
+    // decoded status reports, two per TAM
+    private XBeeResponse[] responses;
+
+    // the same reports as received, for the flyweight variant
+    private ByteBuffer[] packets;
+
+    // decoder that hands the reports to the listener
+    private FrameDecoder flyweightDecoder;
+
+    // index of the next report to process
+    private int next;
+
+
+    /**
+     * Creates the coordinator, registers all TAMs and decodes their status reports.
+     */
+    @Setup
+    public void setup()
+    {
+        Logger.getRootLogger().setLevel(Level.OFF);
+
+        coordinator = new Coordinator((String) null, 9600);
+        listener = new TAMResponsePacketListener(coordinator);
+
+        responses = new XBeeResponse[numberOfTAMs * 2];
+        packets = new ByteBuffer[numberOfTAMs * 2];
+        for (int i = 0; i < numberOfTAMs; i++)
+        {
+            XBeeAddress64 address64 = new XBeeAddress64(0x00, 0x13, 0xa2, 0x00, 0x50, 0x00, i >> 8, i & 0xff);
+            coordinator.listOfTAMs.put(new TAM(String.format("TAM%02d", i), coordinator, address64));
+
+            byte[] first = BenchmarkFrames.escaped(BenchmarkFrames.dmRx(address64, BenchmarkFrames.tamStatus(0, 0, 0x7f, false, 0)));
+            byte[] second = BenchmarkFrames.escaped(BenchmarkFrames.dmRx(address64, BenchmarkFrames.tamStatus(0, 0x7f, 0, true, 42)));
+            responses[i * 2] = BenchmarkFrames.decode(first);
+            responses[i * 2 + 1] = BenchmarkFrames.decode(second);
+            packets[i * 2] = ByteBuffer.wrap(first);
+            packets[i * 2 + 1] = ByteBuffer.wrap(second);
+        }
+
+        flyweightDecoder = new FrameDecoder();
+        flyweightDecoder.setFrameListener(listener);
+    }
+
+    /**
+     * Stops the threads of the coordinator's scheduler.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        coordinator.getScheduler().shutdown();
+    }
+
+    /**
+     * Processes the next status report.
+     */
+    @Benchmark
+    public void processStatusReport()
+    {
+        listener.processResponse(responses[next]);
+
+        if (++next == responses.length)
+            next = 0;
+    }
+
+    /**
+     * Frames the next status report and processes it in flyweight mode.
+     */
+    @Benchmark
+    public void processStatusFrame()
+    {
+        ByteBuffer packet = packets[next];
+        packet.rewind();
+        flyweightDecoder.decode(packet);
+
+        if (++next == packets.length)
+            next = 0;
+    }
+}
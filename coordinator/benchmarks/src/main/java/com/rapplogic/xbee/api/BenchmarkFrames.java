@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds the frames the benchmarks parse, in the three forms the library handles them:
+ * frame data (api id onwards), un-escaped frame as handed to PacketParser by FrameDecoder,
+ * and escaped packet as read off the radio.
+ */
+public class BenchmarkFrames {
+
+	private BenchmarkFrames() {
+
+	}
+
+	/**
+	 * Returns the frame data of a DM RX packet, as sent by a TAM.
+	 *
+	 * @param address
+	 * @param data
+	 * @return
+	 */
+	public static int[] dmRx(XBeeAddress64 address, int[] data) {
+		int[] frameData = new int[12 + data.length];
+		frameData[0] = ApiId.DM_RX_RESPONSE.getValue();
+		System.arraycopy(address.getAddress(), 0, frameData, 1, 8);
+		frameData[9] = 0xff;
+		frameData[10] = 0xfe;
+		frameData[11] = 0x01;
+		System.arraycopy(data, 0, frameData, 12, data.length);
+		return frameData;
+	}
+
+	/**
+	 * Returns the frame data of a local AT command response.
+	 *
+	 * @param frameId
+	 * @param command
+	 * @param value
+	 * @return
+	 */
+	public static int[] atResponse(int frameId, String command, int[] value) {
+		int[] frameData = new int[5 + value.length];
+		frameData[0] = ApiId.AT_RESPONSE.getValue();
+		frameData[1] = frameId;
+		frameData[2] = command.charAt(0);
+		frameData[3] = command.charAt(1);
+		frameData[4] = 0;
+		System.arraycopy(value, 0, frameData, 5, value.length);
+		return frameData;
+	}
+
+	/**
+	 * Returns a TAM status report: LED color, robot presence, voltage and robot data.
+	 *
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @param robotPresent
+	 * @param robotData
+	 * @return
+	 */
+	public static int[] tamStatus(int red, int green, int blue, boolean robotPresent, int robotData) {
+		int voltage = 3700;
+		return new int[] { 0, red, green, blue, robotPresent ? 1 : 0, voltage & 0xff, voltage >> 8, robotData };
+	}
+
+	/**
+	 * Returns length, frame data and checksum, un-escaped, as handed to PacketParser by FrameDecoder.
+	 *
+	 * @param frameData
+	 * @return
+	 */
+	public static byte[] unescaped(int[] frameData) {
+		byte[] frame = new byte[frameData.length + 3];
+		frame[0] = (byte) (frameData.length >> 8);
+		frame[1] = (byte) frameData.length;
+
+		int checksum = 0;
+
+		for (int i = 0; i < frameData.length; i++) {
+			frame[2 + i] = (byte) frameData[i];
+			checksum += frameData[i];
+		}
+
+		frame[frame.length - 1] = (byte) (0xff - (checksum & 0xff));
+		return frame;
+	}
+
+	/**
+	 * Returns the complete escaped packet, as read off the radio.
+	 *
+	 * @param frameData
+	 * @return
+	 */
+	public static byte[] escaped(int[] frameData) {
+		FrameEncoder encoder = new FrameEncoder();
+		encoder.write(frameData);
+
+		byte[] packet = new byte[FrameEncoder.getMaxPacketLength(frameData.length)];
+		int length = encoder.encodeFrame(packet, 0);
+
+		byte[] result = new byte[length];
+		System.arraycopy(packet, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Decodes an escaped packet into a response, as the input stream thread does.
+	 *
+	 * @param packet
+	 * @return
+	 */
+	public static XBeeResponse decode(byte[] packet) {
+		XBeeResponse response = new FrameDecoder().decode(ByteBuffer.wrap(packet));
+
+		if (response == null || response.isError()) {
+			throw new IllegalStateException("Benchmark frame does not decode: " + response);
+		}
+
+		return response;
+	}
+}
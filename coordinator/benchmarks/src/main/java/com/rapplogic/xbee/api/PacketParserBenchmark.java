@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PacketParser.parsePacket on the two responses the coordinator receives most: TAM status reports
+ * (DM RX) and AT command responses (ND, DB).  The frame variants parse an un-escaped frame as
+ * handed over by FrameDecoder; the stream variant is the byte-at-a-time path of the original
+ * library; decode includes un-escaping by FrameDecoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketParserBenchmark {
+
+	private byte[] dmRxFrame;
+	private int[] dmRxRaw;
+	private byte[] dmRxPacket;
+
+	private byte[] atResponseFrame;
+	private int[] atResponseRaw;
+
+	private FrameDecoder decoder;
+
+	@Setup
+	public void setup() {
+		Logger.getRootLogger().setLevel(Level.OFF);
+
+		XBeeAddress64 address = new XBeeAddress64(0x00, 0x13, 0xa2, 0x00, 0x40, 0x8c, 0x04, 0xa4);
+		int[] dmRx = BenchmarkFrames.dmRx(address, BenchmarkFrames.tamStatus(0, 0x7f, 0x11, true, 42));
+		dmRxFrame = BenchmarkFrames.unescaped(dmRx);
+		dmRxRaw = toInts(dmRxFrame);
+		dmRxPacket = BenchmarkFrames.escaped(dmRx);
+
+		// ND record: 16bit address, 64bit address, "TAM01", parent, status
+		int[] ndRecord = { 0xff, 0xfe, 0x00, 0x13, 0xa2, 0x00, 0x40, 0x8c, 0x04, 0xa4, 'T', 'A', 'M', '0', '1', 0, 0xff, 0xfe, 0 };
+		atResponseFrame = BenchmarkFrames.unescaped(BenchmarkFrames.atResponse(1, "ND", ndRecord));
+		atResponseRaw = toInts(atResponseFrame);
+
+		decoder = new FrameDecoder();
+	}
+
+	@Benchmark
+	public XBeeResponse parseDmRxFrame() {
+		return new PacketParser(dmRxFrame, dmRxFrame.length, dmRxRaw).parsePacket();
+	}
+
+	@Benchmark
+	public XBeeResponse parseAtResponseFrame() {
+		return new PacketParser(atResponseFrame, atResponseFrame.length, atResponseRaw).parsePacket();
+	}
+
+	@Benchmark
+	public XBeeResponse parseDmRxStream() {
+		// the stream parser expects the bytes after the start byte
+		return new PacketParser(new ByteArrayInputStream(dmRxPacket, 1, dmRxPacket.length - 1)).parsePacket();
+	}
+
+	@Benchmark
+	public XBeeResponse decodeDmRx() {
+		return decoder.decode(ByteBuffer.wrap(dmRxPacket));
+	}
+
+	private static int[] toInts(byte[] bytes) {
+		int[] ints = new int[bytes.length];
+
+		for (int i = 0; i < bytes.length; i++) {
+			ints[i] = bytes[i] & 0xff;
+		}
+
+		return ints;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rapplogic.xbee.api.digimesh.DMTxRequest;
+
+/**
+ * Building outgoing packets: XBeePacket construction (checksum, length and escaping) from the
+ * frame data of a SET_LEDS request, the same request through FrameEncoder, and Checksum alone.
+ * The payload contains special bytes so escaping is exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeePacketBenchmark {
+
+	private DMTxRequest request;
+	private int[] frameData;
+
+	private FrameEncoder encoder;
+	private byte[] packet;
+
+	@Setup
+	public void setup() {
+		Logger.getRootLogger().setLevel(Level.OFF);
+
+		XBeeAddress64 address = new XBeeAddress64(0x00, 0x13, 0xa2, 0x00, 0x40, 0x8c, 0x04, 0xa4);
+		// SET_LEDS with 0x7e and 0x11 (start byte and XON) in the color
+		request = new DMTxRequest(address, new int[] { 10, 0x7e, 0x11, 0x40 });
+		frameData = request.getFrameData();
+
+		encoder = new FrameEncoder();
+		packet = new byte[FrameEncoder.getMaxPacketLength(frameData.length)];
+	}
+
+	@Benchmark
+	public int[] xbeePacket() {
+		return new XBeePacket(frameData).getByteArray();
+	}
+
+	@Benchmark
+	public int[] requestToPacket() {
+		// the original send path: frame data list, then XBeePacket
+		return request.getXBeePacket().getByteArray();
+	}
+
+	@Benchmark
+	public int frameEncoder() {
+		return encoder.encode(request, packet, 0);
+	}
+
+	@Benchmark
+	public int checksum() {
+		Checksum checksum = new Checksum();
+
+		for (int b : frameData) {
+			checksum.addByte(b);
+		}
+
+		checksum.compute();
+		return checksum.getChecksum();
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rapplogic.xbee.util.ByteUtils;
+
+/**
+ * Small utilities on the per-packet path: the coordinator keys its TAMs by XBeeAddress64.toString(),
+ * the dispatcher hashes addresses, and debug logging formats every packet with ByteUtils.toBase16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeUtilBenchmark {
+
+	private XBeeAddress64 address;
+	private int[] packet;
+
+	@Setup
+	public void setup() {
+		address = new XBeeAddress64(0x00, 0x13, 0xa2, 0x00, 0x40, 0x8c, 0x04, 0xa4);
+		packet = BenchmarkFrames.dmRx(address, BenchmarkFrames.tamStatus(0, 0x7f, 0x11, true, 42));
+	}
+
+	@Benchmark
+	public String address64ToString() {
+		return address.toString();
+	}
+
+	@Benchmark
+	public int address64HashCode() {
+		return address.hashCode();
+	}
+
+	@Benchmark
+	public String toBase16() {
+		return ByteUtils.toBase16(packet);
+	}
+}
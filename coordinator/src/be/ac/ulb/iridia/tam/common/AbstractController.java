@@ -20,7 +20,7 @@ public abstract class AbstractController implements ControllerInterface
     // pseudo-random number generator
     private Random prng;
 
-    // timer for scheduling
+    // timer for scheduling, created on first use
     private Timer timer;
 
 
@@ -42,7 +42,7 @@ public abstract class AbstractController implements ControllerInterface
     public void reset()
     {
         this.prng = new Random(randomSeed);
-        this.timer = new Timer();
+        this.timer = null;
     }
 
     /**
@@ -56,10 +56,14 @@ public abstract class AbstractController implements ControllerInterface
 
     /**
      * Returns the timer for this experiment.
+     * The timer has its own thread, so it is only created when a controller uses it; reactive
+     * controllers should use their deadline instead (@see ReactiveController).
      * @return timer
      */
     protected Timer getTimer()
     {
+        if (timer == null)
+            timer = new Timer();
         return timer;
     }
 }
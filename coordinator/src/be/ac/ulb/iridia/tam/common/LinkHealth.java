@@ -0,0 +1,127 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Immutable snapshot of the health of the radio link between the coordinator and a TAM, as
+ * measured from the commands sent to the TAM: the smoothed round-trip time of the commands,
+ * the timeout currently used before a command is retried, and the number of commands that
+ * timed out in a row.
+ *
+ * A controller can use it to avoid relying on a TAM that is out of range, e.g. by not giving
+ * tasks to a TAM whose link is UNREACHABLE. Commands to an UNREACHABLE TAM are not sent until
+ * the back-off of its link expired.
+ */
+public final class LinkHealth
+{
+    /**
+     * State of the link.
+     */
+    public enum State
+    {
+        // no command has been acknowledged or timed out yet
+        UNKNOWN,
+        // the last command was acknowledged
+        GOOD,
+        // the last command timed out at least once, retries are still sent
+        DEGRADED,
+        // a command was given up after all retries; commands are held back until the back-off expired
+        UNREACHABLE
+    }
+
+    // health of a link no command has been sent over yet
+    public static final LinkHealth UNKNOWN = new LinkHealth(State.UNKNOWN, -1, 0, 0, 0);
+
+    // state of the link
+    private final State state;
+
+    // smoothed round-trip time of the commands in milliseconds, -1 if not measured yet
+    private final long roundTripTime;
+
+    // timeout before the next command is retried in milliseconds
+    private final long retryTimeout;
+
+    // number of commands that timed out since the last acknowledged command
+    private final int consecutiveTimeouts;
+
+    // timestamp of the last acknowledged command, 0 if there was none
+    private final long lastAckTimestamp;
+
+
+    /**
+     * Creates a snapshot of the health of a link.
+     * @param state                state of the link
+     * @param roundTripTime        smoothed round-trip time in milliseconds, -1 if not measured yet
+     * @param retryTimeout         timeout before the next command is retried in milliseconds
+     * @param consecutiveTimeouts  number of commands that timed out since the last acknowledged command
+     * @param lastAckTimestamp     timestamp of the last acknowledged command, 0 if there was none
+     */
+    public LinkHealth(State state, long roundTripTime, long retryTimeout, int consecutiveTimeouts, long lastAckTimestamp)
+    {
+        this.state = state;
+        this.roundTripTime = roundTripTime;
+        this.retryTimeout = retryTimeout;
+        this.consecutiveTimeouts = consecutiveTimeouts;
+        this.lastAckTimestamp = lastAckTimestamp;
+    }
+
+    /**
+     * Returns the state of the link.
+     * @return state of the link
+     */
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Returns true if commands are currently sent to the TAM, i.e. the link is not UNREACHABLE.
+     * @return true if the TAM is considered reachable
+     */
+    public boolean isReachable()
+    {
+        return state != State.UNREACHABLE;
+    }
+
+    /**
+     * Returns the smoothed round-trip time of the commands sent to the TAM, from sending the
+     * command to its acknowledgement. Retried commands are not measured.
+     * @return round-trip time in milliseconds, -1 if not measured yet
+     */
+    public long getRoundTripTime()
+    {
+        return roundTripTime;
+    }
+
+    /**
+     * Returns the time after which an unacknowledged command is retried.
+     * @return retry timeout in milliseconds, including the current back-off
+     */
+    public long getRetryTimeout()
+    {
+        return retryTimeout;
+    }
+
+    /**
+     * Returns the number of commands that timed out since the last acknowledged command.
+     * @return number of consecutive timeouts
+     */
+    public int getConsecutiveTimeouts()
+    {
+        return consecutiveTimeouts;
+    }
+
+    /**
+     * Returns the timestamp of the last acknowledged command.
+     * @return timestamp in milliseconds, 0 if no command was acknowledged yet
+     */
+    public long getLastAckTimestamp()
+    {
+        return lastAckTimestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return state + " (rtt " + roundTripTime + " ms, timeout " + retryTimeout + " ms, " + consecutiveTimeouts + " timeouts)";
+    }
+}
@@ -0,0 +1,32 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Interface for a controller that is stepped only when something happened, instead of every
+ * Coordinator.STEP_INTERVAL milliseconds.
+ *
+ * The coordinator steps a reactive controller at the next tick after:
+ *  - the state of one of its TAMs changed, i.e. an event was delivered to the listeners of the TAM
+ *    (@see TAMListener), or the link to an unreachable TAM came back; or
+ *  - its deadline expired.
+ *
+ * The deadline replaces the timers of a controller: instead of scheduling a TimerTask that changes
+ * the state from another thread, the controller records when it has to act and checks it in step().
+ * A controller that has just been created should return 0, so that it is stepped at the first tick
+ * to set up its TAMs.
+ *
+ * A controller attached to idle TAMs is thus never stepped.
+ * @see be.ac.ulb.iridia.tam.common.ControllerInterface
+ */
+public interface ReactiveController extends ControllerInterface
+{
+    // deadline of a controller that has no deadline
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Returns the time at which the controller must be stepped even if none of its TAMs changed.
+     * Called on every tick, so it should only return a field.
+     * @return timestamp in milliseconds as returned by System.currentTimeMillis(), or NO_DEADLINE
+     */
+    public long getNextDeadline();
+}
@@ -0,0 +1,24 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Interface for a controller that shares state with other controllers.
+ *
+ * When the coordinator steps controllers in parallel, controllers are stepped concurrently
+ * with each other. Controllers that access common data without synchronization must implement
+ * this interface and return the same group object; all controllers of a group are stepped
+ * one after the other, on the same thread, in the order they were attached.
+ *
+ * A controller that is attached to several TAMs is always stepped only once per tick and does
+ * not need to implement this interface.
+ * @see be.ac.ulb.iridia.tam.common.ControllerInterface
+ */
+public interface SharedStateController extends ControllerInterface
+{
+    /**
+     * Returns the object that identifies the group of controllers this controller shares state with.
+     * Groups are compared by identity.
+     * @return group object, or null if the controller does not share state
+     */
+    public Object getSharedStateGroup();
+}
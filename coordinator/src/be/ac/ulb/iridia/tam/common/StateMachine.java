@@ -0,0 +1,474 @@
+package be.ac.ulb.iridia.tam.common;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Finite state machine over the constants of an enum, e.g. the states of a task, that can be
+ * used to express a controller.
+ *
+ * The machine is described with a Builder: each transition leads from one state to another and
+ * has conditions, an optional delay and actions. The description is compiled into arrays indexed
+ * by the ordinal of the states, so a step only scans the transitions of the current state, in the
+ * order they were added, and allocates nothing.
+ *
+ * A transition fires when its delay (time spent in its from-state) has elapsed and its conditions
+ * hold: all of them by default, at least one of them if the transition was built with any(). A
+ * transition without conditions and delay fires at once. When a transition fires, its actions are
+ * executed in order and the machine switches to the to-state; the transitions of the new state are
+ * checked in the same step, until no transition fires.
+ *
+ * A condition is evaluated at most once while checking the transitions of a state, even if it is
+ * used by several transitions, e.g. the presence of a robot that leads to one state when true and
+ * to another when false. The results are discarded when a transition fires, as its actions may
+ * change what the conditions depend on.
+ *
+ * Note: not thread-safe, a machine must be stepped by a single thread, e.g. the step() function
+ * of a controller.
+ * @see be.ac.ulb.iridia.tam.common.ReactiveController
+ */
+public final class StateMachine<S extends Enum<S>>
+{
+    private final static Logger log = Logger.getLogger(StateMachine.class);
+
+    /**
+     * Condition of a transition.
+     */
+    public interface Condition
+    {
+        /**
+         * Returns true if the condition is met.
+         * @return true if the condition is met
+         */
+        public boolean evaluate();
+    }
+
+    /**
+     * Action executed when a transition fires.
+     */
+    public interface Action
+    {
+        /**
+         * Called when the transition fires, before the machine switches to the new state.
+         */
+        public void execute();
+    }
+
+    /**
+     * Compiled transition.
+     */
+    private static final class Transition
+    {
+        // ordinal of the state this transition is leading from
+        private final int from;
+        // ordinal of the state this transition is leading to
+        private final int to;
+        // indexes of the conditions, into StateMachine.conditions
+        private final int[] conditions;
+        // value each condition must have
+        private final boolean[] expected;
+        // true if one condition is sufficient, false if all conditions must be met
+        private final boolean any;
+        // time in milliseconds the machine has to be in the from-state, 0 for none
+        private final long delay;
+        // actions executed in order when the transition fires
+        private final Action[] actions;
+
+        private Transition(int from, int to, int[] conditions, boolean[] expected, boolean any, long delay, Action[] actions)
+        {
+            this.from = from;
+            this.to = to;
+            this.conditions = conditions;
+            this.expected = expected;
+            this.any = any;
+            this.delay = delay;
+            this.actions = actions;
+        }
+    }
+
+    // all states, by ordinal
+    private final S[] states;
+    // outgoing transitions of each state, by ordinal of the state, in the order they were added
+    private final Transition[][] outgoing;
+
+    // all distinct conditions of the machine
+    private final Condition[] conditions;
+    // result of each condition, valid if evaluated in the current epoch
+    private final boolean[] results;
+    // epoch in which each condition was last evaluated
+    private final long[] evaluated;
+    // epoch of the condition results, incremented whenever the results become invalid
+    private long epoch;
+
+    // current state
+    private S state;
+    // time the current state was entered, in milliseconds
+    private long enteredAt;
+    // time at which the next delay of the current state elapses, ReactiveController.NO_DEADLINE if none
+    private long nextDeadline;
+
+
+    /**
+     * Creates the compiled machine, @see Builder.build().
+     */
+    private StateMachine(S[] states, Transition[][] outgoing, Condition[] conditions, S initialState, long now)
+    {
+        this.states = states;
+        this.outgoing = outgoing;
+        this.conditions = conditions;
+        this.results = new boolean[conditions.length];
+        this.evaluated = new long[conditions.length];
+        this.epoch = 1;
+        enter(initialState, now);
+    }
+
+    /**
+     * Returns the current state.
+     * @return current state
+     */
+    public S getState()
+    {
+        return state;
+    }
+
+    /**
+     * Returns the time the current state was entered.
+     * @return timestamp in milliseconds
+     */
+    public long getStateEnteredAt()
+    {
+        return enteredAt;
+    }
+
+    /**
+     * Returns the time at which a delayed transition of the current state can fire, so that a
+     * reactive controller is stepped then.
+     * @return timestamp in milliseconds, or ReactiveController.NO_DEADLINE if the current state has no delay pending
+     */
+    public long getNextDeadline()
+    {
+        return nextDeadline;
+    }
+
+    /**
+     * Switches to a state without executing any transition, e.g. to reset the machine.
+     * @param state  new state
+     * @param now    current time in milliseconds
+     */
+    public void setState(S state, long now)
+    {
+        enter(state, now);
+    }
+
+    /**
+     * Fires the transitions of the current state, and of the states switched to, until no
+     * transition fires.
+     * @param now  current time in milliseconds, e.g. System.currentTimeMillis()
+     * @return true if the state changed
+     */
+    public boolean step(long now)
+    {
+        boolean changed = false;
+
+        // each pass fires at most one transition; a machine with a cycle of transitions that are
+        // always met switches once through all states per step
+        for (int pass = 0; pass < states.length; pass++)
+        {
+            epoch++;
+            Transition transition = findTransition(now);
+            if (transition == null)
+                break;
+
+            if (log.isDebugEnabled())
+                log.debug("Transition " + states[transition.from] + " -> " + states[transition.to] + " fires");
+
+            for (int i = 0; i < transition.actions.length; i++)
+            {
+                transition.actions[i].execute();
+            }
+            enter(states[transition.to], now);
+            changed = true;
+        }
+
+        updateNextDeadline(now);
+        return changed;
+    }
+
+    /**
+     * Returns the first transition of the current state that can fire.
+     * @param now  current time in milliseconds
+     * @return transition, or null if none can fire
+     */
+    private Transition findTransition(long now)
+    {
+        Transition[] transitions = outgoing[state.ordinal()];
+        for (int i = 0; i < transitions.length; i++)
+        {
+            if (canFire(transitions[i], now))
+                return transitions[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the delay of a transition elapsed and its conditions are met.
+     * Conditions are evaluated lazily, and only once per epoch.
+     * @param transition  transition to check
+     * @param now         current time in milliseconds
+     * @return true if the transition can fire
+     */
+    private boolean canFire(Transition transition, long now)
+    {
+        if (now - enteredAt < transition.delay)
+            return false;
+
+        int[] indexes = transition.conditions;
+        if (indexes.length == 0)
+            return true;
+
+        for (int i = 0; i < indexes.length; i++)
+        {
+            int index = indexes[i];
+            if (evaluated[index] != epoch)
+            {
+                results[index] = conditions[index].evaluate();
+                evaluated[index] = epoch;
+            }
+
+            boolean met = results[index] == transition.expected[i];
+            if (met && transition.any)
+                return true;
+            if (!met && !transition.any)
+                return false;
+        }
+
+        // all conditions met (AND), or none (OR)
+        return !transition.any;
+    }
+
+    /**
+     * Switches to a state.
+     * @param state  new state
+     * @param now    current time in milliseconds
+     */
+    private void enter(S state, long now)
+    {
+        this.state = state;
+        this.enteredAt = now;
+        epoch++;
+        updateNextDeadline(now);
+    }
+
+    /**
+     * Computes the time at which the next delay of the current state elapses.
+     * @param now  current time in milliseconds
+     */
+    private void updateNextDeadline(long now)
+    {
+        long deadline = ReactiveController.NO_DEADLINE;
+        Transition[] transitions = outgoing[state.ordinal()];
+        for (int i = 0; i < transitions.length; i++)
+        {
+            long elapses = enteredAt + transitions[i].delay;
+            if (transitions[i].delay > 0 && elapses > now && elapses < deadline)
+                deadline = elapses;
+        }
+        nextDeadline = deadline;
+    }
+
+    /**
+     * Returns a string representation of the machine.
+     * @return string representation of the machine
+     */
+    @Override
+    public String toString()
+    {
+        return "StateMachine{state=" + state + '}';
+    }
+
+
+    /**
+     * Description of a state machine, compiled by build().
+     *
+     * Example:
+     *   StateMachine.Builder<State> builder = new StateMachine.Builder<State>(State.class);
+     *   builder.transition(State.WAIT, State.WORKING).when(robotPresent).then(showWorking);
+     *   builder.transition(State.WORKING, State.DONE).after(WORKING_DURATION).when(robotPresent);
+     *   builder.transition(State.WORKING, State.FAIL).unless(robotPresent).then(showFailed);
+     *   StateMachine<State> fsm = builder.build(State.WAIT, System.currentTimeMillis());
+     */
+    public static final class Builder<S extends Enum<S>>
+    {
+        // all states, by ordinal
+        private final S[] states;
+        // transitions, in the order they were added
+        private final List<TransitionBuilder<S>> transitions;
+
+
+        /**
+         * Creates a builder for a machine over the constants of an enum.
+         * @param stateClass  enum of the states
+         */
+        public Builder(Class<S> stateClass)
+        {
+            this.states = stateClass.getEnumConstants();
+            this.transitions = new ArrayList<TransitionBuilder<S>>();
+        }
+
+        /**
+         * Adds a transition from a state to another. The transitions of a state are checked in
+         * the order they were added, so the first one added wins if several can fire.
+         * @param from  transition leading from this state
+         * @param to    transition leading to this state
+         * @return transition, to add conditions, a delay and actions to
+         */
+        public TransitionBuilder<S> transition(S from, S to)
+        {
+            TransitionBuilder<S> transition = new TransitionBuilder<S>(from, to);
+            transitions.add(transition);
+            return transition;
+        }
+
+        /**
+         * Compiles the machine.
+         * @param initialState  state the machine starts in
+         * @param now           current time in milliseconds, the time the initial state is entered
+         * @return compiled machine
+         */
+        public StateMachine<S> build(S initialState, long now)
+        {
+            // number the distinct conditions, so shared conditions are evaluated once
+            Map<Condition, Integer> indexes = new IdentityHashMap<Condition, Integer>();
+            List<Condition> conditions = new ArrayList<Condition>();
+
+            List<List<Transition>> byState = new ArrayList<List<Transition>>();
+            for (int i = 0; i < states.length; i++)
+                byState.add(new ArrayList<Transition>());
+
+            for (TransitionBuilder<S> builder : transitions)
+            {
+                int[] conditionIndexes = new int[builder.conditions.size()];
+                boolean[] expected = new boolean[builder.conditions.size()];
+                for (int i = 0; i < conditionIndexes.length; i++)
+                {
+                    Condition condition = builder.conditions.get(i);
+                    Integer index = indexes.get(condition);
+                    if (index == null)
+                    {
+                        index = conditions.size();
+                        indexes.put(condition, index);
+                        conditions.add(condition);
+                    }
+                    conditionIndexes[i] = index;
+                    expected[i] = builder.expected.get(i);
+                }
+
+                byState.get(builder.from.ordinal()).add(new Transition(builder.from.ordinal(), builder.to.ordinal(),
+                        conditionIndexes, expected, builder.any, builder.delay,
+                        builder.actions.toArray(new Action[builder.actions.size()])));
+            }
+
+            Transition[][] outgoing = new Transition[states.length][];
+            for (int i = 0; i < states.length; i++)
+                outgoing[i] = byState.get(i).toArray(new Transition[byState.get(i).size()]);
+
+            return new StateMachine<S>(states, outgoing, conditions.toArray(new Condition[conditions.size()]), initialState, now);
+        }
+    }
+
+    /**
+     * Description of a transition, part of a Builder.
+     */
+    public static final class TransitionBuilder<S extends Enum<S>>
+    {
+        // state this transition is leading from
+        private final S from;
+        // state this transition is leading to
+        private final S to;
+        // conditions, and the value each must have
+        private final List<Condition> conditions;
+        private final List<Boolean> expected;
+        // true if one condition is sufficient
+        private boolean any;
+        // time in milliseconds the machine has to be in the from-state
+        private long delay;
+        // actions executed when the transition fires
+        private final List<Action> actions;
+
+
+        /**
+         * Creates a transition without conditions, delay and actions.
+         * @param from  transition leading from this state
+         * @param to    transition leading to this state
+         */
+        private TransitionBuilder(S from, S to)
+        {
+            this.from = from;
+            this.to = to;
+            this.conditions = new ArrayList<Condition>();
+            this.expected = new ArrayList<Boolean>();
+            this.actions = new ArrayList<Action>();
+        }
+
+        /**
+         * Adds a condition that must be true.
+         * @param condition  condition
+         * @return this transition
+         */
+        public TransitionBuilder<S> when(Condition condition)
+        {
+            conditions.add(condition);
+            expected.add(Boolean.TRUE);
+            return this;
+        }
+
+        /**
+         * Adds a condition that must be false.
+         * @param condition  condition
+         * @return this transition
+         */
+        public TransitionBuilder<S> unless(Condition condition)
+        {
+            conditions.add(condition);
+            expected.add(Boolean.FALSE);
+            return this;
+        }
+
+        /**
+         * Lets the transition fire if one of its conditions is met, instead of all of them.
+         * @return this transition
+         */
+        public TransitionBuilder<S> any()
+        {
+            this.any = true;
+            return this;
+        }
+
+        /**
+         * Lets the transition fire only after the machine has been in the from-state for some time.
+         * @param delay  time in milliseconds
+         * @return this transition
+         */
+        public TransitionBuilder<S> after(long delay)
+        {
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * Adds an action executed when the transition fires.
+         * @param action  action
+         * @return this transition
+         */
+        public TransitionBuilder<S> then(Action action)
+        {
+            actions.add(action);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Empty implementation of a listener of the changes of the state of a TAM.
+ * Override the methods of the events to handle.
+ * @see be.ac.ulb.iridia.tam.common.TAMListener
+ */
+public abstract class TAMAdapter implements TAMListener
+{
+    /**
+     * Called when a robot entered the TAM. Does nothing, override if necessary.
+     * @param tam        TAM the robot entered
+     * @param robotData  data received from the robot, as reported with its arrival
+     */
+    @Override
+    public void onRobotArrived(TAMInterface tam, int robotData)
+    {
+    }
+
+    /**
+     * Called when the robot left the TAM. Does nothing, override if necessary.
+     * @param tam  TAM the robot left
+     */
+    @Override
+    public void onRobotLeft(TAMInterface tam)
+    {
+    }
+
+    /**
+     * Called when the TAM reported a new color of its LEDs. Does nothing, override if necessary.
+     * @param tam       TAM that reported
+     * @param ledColor  color of the LEDs as reported; must not be changed
+     */
+    @Override
+    public void onLedColorConfirmed(TAMInterface tam, LedColor ledColor)
+    {
+    }
+
+    /**
+     * Called when the robot in the TAM sent new data. Does nothing, override if necessary.
+     * @param tam        TAM that reported
+     * @param robotData  data received from the robot
+     */
+    @Override
+    public void onRobotData(TAMInterface tam, int robotData)
+    {
+    }
+
+    /**
+     * Called when the voltage of the TAM dropped under the threshold. Does nothing, override if necessary.
+     * @param tam      TAM that reported
+     * @param voltage  voltage of the TAM, in volts
+     */
+    @Override
+    public void onVoltageLow(TAMInterface tam, double voltage)
+    {
+    }
+}
@@ -28,7 +28,7 @@ public interface TAMInterface
 
     /**
      * Returns the id of the TAM.
-     *  - it's TAMXX with XX being a 2-digit unique integer; or
+     *  - it's TAMXX with XX being a unique integer of at least 2 digits; or
      *  - it's the last 5 characters of the 64bit address if the id hasn't been resolved yet
      * @return id of TAM as String 5 characters long.
      */
@@ -47,6 +47,20 @@ public interface TAMInterface
      */
     int getRobotDataReceived();
 
+    /**
+     * Returns the state of the TAM as last reported: LED color, robot presence, robot data and voltage.
+     * All values of the snapshot come from the same status report; use it when reading more than one value.
+     * @return snapshot of the state of the TAM
+     */
+    TAMSnapshot getSnapshot();
+
+    /**
+     * Returns the health of the radio link to the TAM: round-trip time of the commands, retry
+     * timeout and whether the TAM is currently considered reachable.
+     * @return snapshot of the health of the link
+     */
+    LinkHealth getLinkHealth();
+
     /**
      * Returns the user-defined controller of the TAM.
      * @return controller of the TAM
@@ -59,5 +73,17 @@ public interface TAMInterface
      * @param controller  user-defined controller of the TAM
      */
     void setController(ControllerInterface controller);
-}
 
+    /**
+     * Subscribes a listener to the changes of the state of the TAM, e.g. the arrival of a robot.
+     * @see be.ac.ulb.iridia.tam.common.TAMListener
+     * @param listener  listener to call on changes
+     */
+    void addListener(TAMListener listener);
+
+    /**
+     * Unsubscribes a listener from the changes of the state of the TAM.
+     * @param listener  listener to remove
+     */
+    void removeListener(TAMListener listener);
+}
@@ -0,0 +1,51 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Interface for a listener of the changes of the state of a TAM, as reported by the TAM.
+ *
+ * Listeners are subscribed with TAMInterface.addListener(). They are called by the coordinator on
+ * the thread that steps the controllers, never concurrently with the step() function of a controller,
+ * so a controller can handle the events without synchronization.
+ *
+ * Extend TAMAdapter to handle only some of the events.
+ * @see be.ac.ulb.iridia.tam.common.TAMInterface
+ * @see be.ac.ulb.iridia.tam.common.TAMAdapter
+ */
+public interface TAMListener
+{
+    /**
+     * Called when a robot entered the TAM.
+     * @param tam        TAM the robot entered
+     * @param robotData  data received from the robot, as reported with its arrival
+     */
+    public void onRobotArrived(TAMInterface tam, int robotData);
+
+    /**
+     * Called when the robot left the TAM.
+     * @param tam  TAM the robot left
+     */
+    public void onRobotLeft(TAMInterface tam);
+
+    /**
+     * Called when the TAM reported a new color of its LEDs, e.g. after a SET_LEDS command.
+     * @param tam       TAM that reported
+     * @param ledColor  color of the LEDs as reported; must not be changed
+     */
+    public void onLedColorConfirmed(TAMInterface tam, LedColor ledColor);
+
+    /**
+     * Called when the robot in the TAM sent new data. The data sent with the arrival of the robot
+     * is passed to onRobotArrived() instead.
+     * @param tam        TAM that reported
+     * @param robotData  data received from the robot
+     */
+    public void onRobotData(TAMInterface tam, int robotData);
+
+    /**
+     * Called when the voltage of the TAM dropped under Coordinator.BATT_VOLTAGE_THRESHOLD.
+     * @param tam      TAM that reported
+     * @param voltage  voltage of the TAM, in volts
+     */
+    public void onVoltageLow(TAMInterface tam, double voltage);
+}
@@ -0,0 +1,224 @@
+package be.ac.ulb.iridia.tam.common;
+
+
+/**
+ * Immutable snapshot of the state of a TAM as last reported by the TAM: the color of the RGB LEDs,
+ * the presence of a robot, the data received from the robot and the voltage.
+ *
+ * The TAM publishes a new snapshot every time its state changes, so all values of one snapshot
+ * belong together. A controller that needs more than one value during a step should get the
+ * snapshot once and read all values from it, instead of calling the getters of the TAM one by one.
+ *
+ * Each value has a version number that is incremented every time the value changes, which lets
+ * a controller detect changes without comparing values. The voltage only counts as changed when
+ * it moved by at least VOLTAGE_RESOLUTION, so the noise of the readings does not create a new
+ * snapshot for every heartbeat.
+ */
+public final class TAMSnapshot
+{
+    // smallest change of the voltage in volts that is published, smaller changes are noise of the readings
+    public static final double VOLTAGE_RESOLUTION = 0.02;
+
+    // snapshot of a TAM that didn't report its status yet
+    public static final TAMSnapshot EMPTY = new TAMSnapshot(null, 0, 0, false, 0, 0, 0, 0, 0, 0.0, 0);
+
+    // color of the RGB LEDs, or null if the TAM didn't report status yet; never handed to the TAM or changed
+    private final LedColor ledColor;
+    // timestamp of last update of led color
+    private final long ledColorLastUpdated;
+    // version of led color
+    private final long ledColorVersion;
+
+    // flag that indicates if a robot is present as reported by the TAM
+    private final boolean robotPresent;
+    // timestamp of last update of robot presence
+    private final long robotPresentLastUpdated;
+    // version of robot presence
+    private final long robotPresentVersion;
+
+    // the data the robot sent to the TAM
+    private final int robotData;
+    // timestamp of last update of robot data
+    private final long robotDataLastUpdated;
+    // version of robot data
+    private final long robotDataVersion;
+
+    // voltage as reported by the TAM, in volts
+    private final double voltage;
+    // version of voltage
+    private final long voltageVersion;
+
+
+    /**
+     * Creates a snapshot.
+     */
+    private TAMSnapshot(LedColor ledColor, long ledColorLastUpdated, long ledColorVersion,
+                        boolean robotPresent, long robotPresentLastUpdated, long robotPresentVersion,
+                        int robotData, long robotDataLastUpdated, long robotDataVersion,
+                        double voltage, long voltageVersion)
+    {
+        this.ledColor = ledColor;
+        this.ledColorLastUpdated = ledColorLastUpdated;
+        this.ledColorVersion = ledColorVersion;
+        this.robotPresent = robotPresent;
+        this.robotPresentLastUpdated = robotPresentLastUpdated;
+        this.robotPresentVersion = robotPresentVersion;
+        this.robotData = robotData;
+        this.robotDataLastUpdated = robotDataLastUpdated;
+        this.robotDataVersion = robotDataVersion;
+        this.voltage = voltage;
+        this.voltageVersion = voltageVersion;
+    }
+
+    /**
+     * Returns a snapshot with the values of a status report of the TAM.
+     * Versions and timestamps are only updated for values that changed. Led color and robot data
+     * are also updated by the first report, as their initial values are not valid. The voltage is
+     * kept if it changed by less than VOLTAGE_RESOLUTION since it was last published.
+     * @param ledColor      color of the RGB LEDs as reported by the TAM
+     * @param robotPresent  true if a robot is in the TAM
+     * @param robotData     data sent by the robot
+     * @param voltage       voltage of the TAM, in volts
+     * @param timestamp     time of the report
+     * @return new snapshot, or this snapshot if nothing changed
+     */
+    public TAMSnapshot update(LedColor ledColor, boolean robotPresent, int robotData, double voltage, long timestamp)
+    {
+        boolean ledColorChanged = this.ledColor == null || !this.ledColor.equals(ledColor);
+        boolean robotPresentChanged = this.robotPresent != robotPresent;
+        boolean robotDataChanged = this.robotData != robotData || this.robotDataLastUpdated == 0;
+        boolean voltageChanged = this.voltageVersion == 0 || Math.abs(this.voltage - voltage) >= VOLTAGE_RESOLUTION;
+
+        if (!ledColorChanged && !robotPresentChanged && !robotDataChanged && !voltageChanged)
+            return this;
+
+        return new TAMSnapshot(
+                ledColorChanged ? new LedColor(ledColor.getValue()) : this.ledColor,
+                ledColorChanged ? timestamp : this.ledColorLastUpdated,
+                ledColorChanged ? this.ledColorVersion + 1 : this.ledColorVersion,
+                robotPresent,
+                robotPresentChanged ? timestamp : this.robotPresentLastUpdated,
+                robotPresentChanged ? this.robotPresentVersion + 1 : this.robotPresentVersion,
+                robotData,
+                robotDataChanged ? timestamp : this.robotDataLastUpdated,
+                robotDataChanged ? this.robotDataVersion + 1 : this.robotDataVersion,
+                voltageChanged ? voltage : this.voltage,
+                voltageChanged ? this.voltageVersion + 1 : this.voltageVersion);
+    }
+
+    /**
+     * Returns the color of the RGB LEDs of the TAM.
+     * The returned object is shared by all readers of this snapshot and must not be changed.
+     * @return LedColor object reflecting the 24bit color, or null if TAM didn't report status yet
+     */
+    public LedColor getLedColor()
+    {
+        return ledColor;
+    }
+
+    /**
+     * Returns the timestamp of the last update of the LED color.
+     * @return timestamp of last update, 0 if TAM didn't report status yet
+     */
+    public long getLedColorLastUpdated()
+    {
+        return ledColorLastUpdated;
+    }
+
+    /**
+     * Returns the version of the LED color, incremented every time it changes.
+     * @return version of the LED color
+     */
+    public long getLedColorVersion()
+    {
+        return ledColorVersion;
+    }
+
+    /**
+     * Returns true if there is a robot in the TAM.
+     * @return true if there is a robot in the TAM
+     */
+    public boolean isRobotPresent()
+    {
+        return robotPresent;
+    }
+
+    /**
+     * Returns the timestamp of the last update of the robotPresent flag.
+     * @return timestamp of last update, 0 if it never changed
+     */
+    public long getRobotPresentLastUpdated()
+    {
+        return robotPresentLastUpdated;
+    }
+
+    /**
+     * Returns the version of the robotPresent flag, incremented every time it changes.
+     * @return version of the robotPresent flag
+     */
+    public long getRobotPresentVersion()
+    {
+        return robotPresentVersion;
+    }
+
+    /**
+     * Returns the data received from the robot in the TAM.
+     * @return the data received from the robot
+     */
+    public int getRobotData()
+    {
+        return robotData;
+    }
+
+    /**
+     * Returns the timestamp of the last update of the robot data.
+     * @return timestamp of last update, 0 if TAM didn't report status yet
+     */
+    public long getRobotDataLastUpdated()
+    {
+        return robotDataLastUpdated;
+    }
+
+    /**
+     * Returns the version of the robot data, incremented every time it changes.
+     * @return version of the robot data
+     */
+    public long getRobotDataVersion()
+    {
+        return robotDataVersion;
+    }
+
+    /**
+     * Returns the voltage of the TAM.
+     * @return voltage of TAM, in volts
+     */
+    public double getVoltage()
+    {
+        return voltage;
+    }
+
+    /**
+     * Returns the version of the voltage, incremented every time it changes.
+     * @return version of the voltage
+     */
+    public long getVoltageVersion()
+    {
+        return voltageVersion;
+    }
+
+    /**
+     * Returns a string representation of the snapshot.
+     * @return string representation of the snapshot
+     */
+    @Override
+    public String toString()
+    {
+        return "voltage=" + voltage +
+                "V, ledColor=(" + ledColor +
+                "), ledColorLastUpdated=" + ledColorLastUpdated +
+                ", robotPresent=" + robotPresent +
+                ", robotPresentLastUpdated=" + robotPresentLastUpdated +
+                ", robotData=" + robotData +
+                ", robotDataLastUpdate=" + robotDataLastUpdated;
+    }
+}
@@ -58,7 +58,7 @@ class ATCommandPacketListener implements PacketListener
                 coordinator.updateDiscoveredTAM(ndResponse.getNodeIdentifier(),
                         ndResponse.getNodeAddress64());
 
-                log.debug("TAM discovered: " + coordinator.listOfTAMs.get(ndResponse.getNodeAddress64().toString()));
+                log.debug("TAM discovered: " + coordinator.listOfTAMs.get(ndResponse.getNodeAddress64()));
             }
             // request signal strength command response
             else if (atResponse.getCommand().equals("DB"))
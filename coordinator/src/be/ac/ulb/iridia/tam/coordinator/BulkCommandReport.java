@@ -0,0 +1,240 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.digimesh.DMTxStatusResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class is the result of a command sent to many TAMs at once by the BulkCommandSender.
+ * It records for every TAM if the command was delivered, how often it was sent and the last
+ * delivery status reported by the Xbee module.
+ *
+ * @see BulkCommandSender
+ */
+public class BulkCommandReport
+{
+    /**
+     * Final outcome of the command for a single TAM.
+     */
+    public enum Outcome
+    {
+        // the Xbee module reported successful delivery
+        DELIVERED,
+        // the Xbee module reported a delivery failure on the last attempt
+        FAILED,
+        // no delivery status was received before the deadline on the last attempt
+        TIMED_OUT,
+        // the deadline expired before the command could be sent
+        NOT_SENT
+    }
+
+    /**
+     * Result of the command for a single TAM.
+     */
+    public static class Result
+    {
+        // TAM the command was sent to
+        private final TAM tam;
+        // outcome of the last attempt
+        private Outcome outcome = Outcome.NOT_SENT;
+        // delivery status of the last status response received, null if none
+        private DMTxStatusResponse.DeliveryStatus deliveryStatus;
+        // number of unicasts sent to the TAM
+        private int attempts;
+
+        /**
+         * Creates the result for a TAM the command has not been sent to yet.
+         * @param tam  TAM the command is sent to
+         */
+        Result(TAM tam)
+        {
+            this.tam = tam;
+        }
+
+        /**
+         * Returns the TAM the command was sent to.
+         * @return TAM
+         */
+        public TAM getTAM()
+        {
+            return tam;
+        }
+
+        /**
+         * Returns the outcome of the last attempt.
+         * @return outcome
+         */
+        public Outcome getOutcome()
+        {
+            return outcome;
+        }
+
+        /**
+         * Returns the delivery status of the last status response received for this TAM.
+         * @return delivery status, null if no status was received
+         */
+        public DMTxStatusResponse.DeliveryStatus getDeliveryStatus()
+        {
+            return deliveryStatus;
+        }
+
+        /**
+         * Returns the number of unicasts sent to the TAM.
+         * @return number of attempts
+         */
+        public int getAttempts()
+        {
+            return attempts;
+        }
+
+        /**
+         * Records an attempt and its outcome.
+         * @param outcome         outcome of the attempt
+         * @param deliveryStatus  delivery status reported by the Xbee, null if none
+         */
+        void recordAttempt(Outcome outcome, DMTxStatusResponse.DeliveryStatus deliveryStatus)
+        {
+            this.attempts++;
+            this.outcome = outcome;
+            if (deliveryStatus != null)
+                this.deliveryStatus = deliveryStatus;
+        }
+
+        /**
+         * Returns a string representation of the result.
+         * @return string representation
+         */
+        public String toString()
+        {
+            return tam.getId() + ": " + outcome + " after " + attempts + " attempt(s)" +
+                    (deliveryStatus != null ? " (" + deliveryStatus + ")" : "");
+        }
+    }
+
+    // results of all TAMs in the order they were sent to
+    private final Map<TAM, Result> results;
+
+    // flag that designates if the command was broadcasted in addition to the unicasts
+    private boolean broadcastSent;
+
+    // time it took to send the command to all TAMs
+    private long elapsedMillis;
+
+
+    /**
+     * Creates a report for a command sent to the given TAMs.
+     * @param tams  TAMs the command is sent to
+     */
+    BulkCommandReport(Collection<TAM> tams)
+    {
+        this.results = new LinkedHashMap<TAM, Result>();
+        for (TAM tam : tams)
+        {
+            results.put(tam, new Result(tam));
+        }
+    }
+
+    /**
+     * Returns the result for a single TAM.
+     * @param tam  TAM to return the result for
+     * @return result, null if the command was not sent to the TAM
+     */
+    public Result getResult(TAM tam)
+    {
+        return results.get(tam);
+    }
+
+    /**
+     * Returns the results of all TAMs.
+     * @return unmodifiable collection of results
+     */
+    public Collection<Result> getResults()
+    {
+        return Collections.unmodifiableCollection(results.values());
+    }
+
+    /**
+     * Returns all TAMs the command could not be delivered to.
+     * @return list of TAMs
+     */
+    public List<TAM> getUndeliveredTAMs()
+    {
+        List<TAM> undelivered = new ArrayList<TAM>();
+        for (Result result : results.values())
+        {
+            if (result.getOutcome() != Outcome.DELIVERED)
+                undelivered.add(result.getTAM());
+        }
+        return undelivered;
+    }
+
+    /**
+     * Returns true if the command was delivered to all TAMs.
+     * @return true if all TAMs acknowledged the command
+     */
+    public boolean isComplete()
+    {
+        return getUndeliveredTAMs().isEmpty();
+    }
+
+    /**
+     * Returns true if the command was also broadcasted.
+     * TAMs that are not DELIVERED might still have received the broadcast.
+     * @return true if a broadcast was sent
+     */
+    public boolean isBroadcastSent()
+    {
+        return broadcastSent;
+    }
+
+    /**
+     * Sets the flag that designates if the command was broadcasted.
+     * @param broadcastSent  true if a broadcast was sent
+     */
+    void setBroadcastSent(boolean broadcastSent)
+    {
+        this.broadcastSent = broadcastSent;
+    }
+
+    /**
+     * Returns the time it took to send the command to all TAMs.
+     * @return time in milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /**
+     * Sets the time it took to send the command to all TAMs.
+     * @param elapsedMillis  time in milliseconds
+     */
+    void setElapsedMillis(long elapsedMillis)
+    {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Returns a string representation of the report.
+     * @return string representation
+     */
+    public String toString()
+    {
+        int delivered = results.size() - getUndeliveredTAMs().size();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Delivered to ").append(delivered).append(" of ").append(results.size()).append(" TAMs in ")
+                .append(elapsedMillis).append(" ms").append(broadcastSent ? " (broadcast sent)" : "");
+        for (Result result : results.values())
+        {
+            if (result.getOutcome() != Outcome.DELIVERED)
+                sb.append("; ").append(result);
+        }
+        return sb.toString();
+    }
+}
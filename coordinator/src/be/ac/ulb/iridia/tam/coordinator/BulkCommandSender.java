@@ -0,0 +1,210 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeAddress16;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeRequest;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
+import com.rapplogic.xbee.api.digimesh.DMTxRequest;
+import com.rapplogic.xbee.api.digimesh.DMTxStatusResponse;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * This class sends the same command to many TAMs at once, within a single deadline.
+ *
+ * In the first round, the command is unicasted to all TAMs without waiting in between; each request gets
+ * its own frame id, so all delivery status responses are collected concurrently. At most MAX_IN_FLIGHT
+ * requests are outstanding at a time, as there are only 254 frame ids. If some TAMs did not
+ * acknowledge the command, it is broadcasted once (a DigiMesh broadcast floods the network and may reach
+ * TAMs that lost their route) and then unicasted again to the TAMs that are still missing, until all
+ * have acknowledged, the retries are used up or the deadline expires.
+ *
+ * Each TAM is sent the command over the radio it is assigned to; the broadcast is sent over the primary radio.
+ *
+ * @see BulkCommandReport
+ */
+class BulkCommandSender
+{
+    private final static Logger log = Logger.getLogger(BulkCommandSender.class);
+
+    // number of unicast rounds after the first one
+    public static final int MAX_RETRIES = 2;
+
+    // number of requests that may wait for their delivery status at the same time
+    public static final int MAX_IN_FLIGHT = 64;
+
+    // assigns the TAMs to the radios used to send the commands
+    private final RadioBalancer radios;
+
+
+    /**
+     * Creates the sender.
+     * @param radios  assigns the TAMs to the radios used to send the commands
+     */
+    BulkCommandSender(RadioBalancer radios)
+    {
+        this.radios = radios;
+    }
+
+    /**
+     * Sends the payload to all given TAMs and waits for the delivery status of each.
+     * This method blocks until all TAMs acknowledged the command or the timeout expired, but never longer.
+     * @param tams     TAMs to send the command to
+     * @param payload  payload of the command
+     * @param timeout  overall timeout in milliseconds
+     * @return report of the outcome for each TAM
+     */
+    BulkCommandReport send(Collection<TAM> tams, int[] payload, long timeout)
+    {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+
+        BulkCommandReport report = new BulkCommandReport(tams);
+        List<TAM> pending = new ArrayList<TAM>(tams);
+
+        for (int round = 0; round <= MAX_RETRIES && !pending.isEmpty(); round++)
+        {
+            if (System.currentTimeMillis() >= deadline)
+                break;
+
+            // before the first retry, try to reach the missing TAMs by flooding the network
+            if (round == 1)
+            {
+                log.debug("Broadcasting command, " + pending.size() + " TAMs did not acknowledge");
+                report.setBroadcastSent(sendBroadcast(payload, deadline));
+            }
+
+            pending = sendRound(pending, payload, report, deadline);
+        }
+
+        report.setElapsedMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    /**
+     * Unicasts the payload to all TAMs at once and collects their delivery status.
+     * @param tams      TAMs to send the command to
+     * @param payload   payload of the command
+     * @param report    report to record the outcomes in
+     * @param deadline  time in milliseconds at which to stop waiting
+     * @return TAMs that did not acknowledge the command
+     */
+    private List<TAM> sendRound(List<TAM> tams, int[] payload, BulkCommandReport report, long deadline)
+    {
+        // keep sending while earlier requests are waiting for their status, up to MAX_IN_FLIGHT
+        Map<TAM, CompletableFuture<XBeeResponse>> inFlight = new LinkedHashMap<TAM, CompletableFuture<XBeeResponse>>();
+        List<TAM> failed = new ArrayList<TAM>();
+
+        for (TAM tam : tams)
+        {
+            if (inFlight.size() == MAX_IN_FLIGHT)
+                awaitOldest(inFlight, report, failed, deadline);
+
+            DMTxRequest request = new DMTxRequest(tam.getAddress64(), payload);
+            XBee xbee = radios.select(tam.getAddress64().toLong()).getXBee();
+            inFlight.put(tam, xbee.sendAsync(request, remaining(deadline)));
+        }
+
+        while (!inFlight.isEmpty())
+            awaitOldest(inFlight, report, failed, deadline);
+
+        return failed;
+    }
+
+    /**
+     * Waits for the delivery status of the oldest request in flight and records it.
+     * @param inFlight  requests in flight, in the order they were sent
+     * @param report    report to record the outcome in
+     * @param failed    list to add the TAM to if it did not acknowledge the command
+     * @param deadline  time in milliseconds at which to stop waiting
+     */
+    private void awaitOldest(Map<TAM, CompletableFuture<XBeeResponse>> inFlight, BulkCommandReport report, List<TAM> failed, long deadline)
+    {
+        Iterator<Map.Entry<TAM, CompletableFuture<XBeeResponse>>> oldest = inFlight.entrySet().iterator();
+        Map.Entry<TAM, CompletableFuture<XBeeResponse>> entry = oldest.next();
+        oldest.remove();
+
+        TAM tam = entry.getKey();
+        BulkCommandReport.Result result = report.getResult(tam);
+
+        DMTxStatusResponse.DeliveryStatus status = awaitDeliveryStatus(entry.getValue(), deadline);
+        if (status == DMTxStatusResponse.DeliveryStatus.SUCCESS)
+        {
+            result.recordAttempt(BulkCommandReport.Outcome.DELIVERED, status);
+        }
+        else
+        {
+            result.recordAttempt(status == null ? BulkCommandReport.Outcome.TIMED_OUT : BulkCommandReport.Outcome.FAILED, status);
+            failed.add(tam);
+        }
+    }
+
+    /**
+     * Broadcasts the payload to all nodes in the network.
+     * @param payload   payload of the command
+     * @param deadline  time in milliseconds at which to stop waiting
+     * @return true if the local Xbee module accepted the broadcast
+     */
+    private boolean sendBroadcast(int[] payload, long deadline)
+    {
+        DMTxRequest request = new DMTxRequest(XBeeRequest.DEFAULT_FRAME_ID, XBeeAddress64.BROADCAST,
+                XBeeAddress16.ZNET_BROADCAST, DMTxRequest.DEFAULT_BROADCAST_RADIUS, DMTxRequest.Option.BROADCAST, payload);
+        XBee xbee = radios.getPrimary().getXBee();
+        return awaitDeliveryStatus(xbee.sendAsync(request, remaining(deadline)), deadline) == DMTxStatusResponse.DeliveryStatus.SUCCESS;
+    }
+
+    /**
+     * Waits for a delivery status response.
+     * @param future    future returned by sendAsync
+     * @param deadline  time in milliseconds at which to stop waiting
+     * @return delivery status, null if the request timed out or failed
+     */
+    private DMTxStatusResponse.DeliveryStatus awaitDeliveryStatus(CompletableFuture<XBeeResponse> future, long deadline)
+    {
+        try
+        {
+            XBeeResponse response = future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            if (response instanceof DMTxStatusResponse)
+                return ((DMTxStatusResponse) response).getDeliveryStatus();
+
+            log.warn("Send response is of unexpected class " + response.getClass());
+        }
+        catch (TimeoutException e)
+        {
+            // deadline expired, the future times out on its own
+        }
+        catch (ExecutionException e)
+        {
+            if (!(e.getCause() instanceof XBeeTimeoutException))
+                log.error("Failed to send command: " + e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the time left until the deadline, as timeout for sendAsync.
+     * @param deadline  time in milliseconds
+     * @return remaining time in milliseconds, at least 1
+     */
+    private static int remaining(long deadline)
+    {
+        return (int) Math.max(deadline - System.currentTimeMillis(), 1);
+    }
+}
@@ -0,0 +1,227 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import be.ac.ulb.iridia.tam.common.ControllerInterface;
+import be.ac.ulb.iridia.tam.common.ReactiveController;
+import be.ac.ulb.iridia.tam.common.SharedStateController;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * This class steps the controllers of all TAMs once per tick.
+ *
+ * Controllers are collected from the TAMs by identity, so a controller attached to several TAMs
+ * is stepped only once. Controllers that share state (@see SharedStateController) are put into
+ * one group that is always stepped sequentially.
+ *
+ * Reactive controllers (@see ReactiveController) are only stepped when a step was requested, as
+ * an event of one of their TAMs was delivered, or when their deadline expired. Controllers of idle
+ * TAMs are thus skipped.
+ *
+ * In serial mode, all controllers are stepped on the calling thread. In parallel mode, the groups are
+ * split across a ForkJoinPool; step() returns only once every controller has been stepped, which is
+ * the barrier that marks the end of the tick.
+ */
+class ControllerStepper
+{
+    private final static Logger log = Logger.getLogger(ControllerStepper.class);
+
+    // maximum number of groups stepped by one fork-join task without splitting further
+    public static final int GROUPS_PER_TASK = 4;
+
+    // pool used in parallel mode, null in serial mode
+    private final ForkJoinPool pool;
+
+    // reactive controllers to step at the next tick, by identity
+    // Note: only accessed on the step executor, as the events are delivered there
+    private final Set<ControllerInterface> requested;
+
+
+    /**
+     * Creates a stepper.
+     * @param parallelism  number of threads used to step controllers; 1 or less steps serially on the caller's thread
+     */
+    ControllerStepper(int parallelism)
+    {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.requested = Collections.newSetFromMap(new IdentityHashMap<ControllerInterface, Boolean>());
+    }
+
+    /**
+     * Returns true if controllers are stepped in parallel.
+     * @return true in parallel mode
+     */
+    boolean isParallel()
+    {
+        return pool != null;
+    }
+
+    /**
+     * Requests that a reactive controller is stepped at the next tick.
+     * Must be called on the step executor.
+     * @param controller  controller to step
+     */
+    void requestStep(ControllerInterface controller)
+    {
+        requested.add(controller);
+    }
+
+    /**
+     * Steps the controllers of all given TAMs that are due and returns when all have been stepped.
+     * Exceptions thrown by a controller are logged and do not prevent other controllers from being stepped.
+     * @param tams  TAMs whose controllers to step
+     */
+    void step(Collection<TAM> tams)
+    {
+        List<List<ControllerInterface>> groups = collectGroups(tams, requested, System.currentTimeMillis());
+        requested.clear();
+        if (groups.isEmpty())
+            return;
+
+        if (pool == null)
+        {
+            for (List<ControllerInterface> group : groups)
+            {
+                stepGroup(group);
+            }
+        }
+        else
+        {
+            pool.invoke(new StepTask(groups, 0, groups.size()));
+        }
+    }
+
+    /**
+     * Stops the pool used in parallel mode.
+     */
+    void shutdown()
+    {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    /**
+     * Collects the distinct controllers of the TAMs that are due, grouped by shared state.
+     * @param tams       TAMs whose controllers to collect
+     * @param requested  reactive controllers a step was requested for
+     * @param now        current time in milliseconds, compared to the deadlines of reactive controllers
+     * @return list of groups; each group is stepped sequentially
+     */
+    private static List<List<ControllerInterface>> collectGroups(Collection<TAM> tams, Set<ControllerInterface> requested, long now)
+    {
+        List<List<ControllerInterface>> groups = new ArrayList<List<ControllerInterface>>();
+        Map<ControllerInterface, Boolean> seen = new IdentityHashMap<ControllerInterface, Boolean>();
+        Map<Object, List<ControllerInterface>> sharedGroups = new IdentityHashMap<Object, List<ControllerInterface>>();
+
+        for (TAM tam : tams)
+        {
+            ControllerInterface controller = tam.getController();
+            if (controller == null || seen.put(controller, Boolean.TRUE) != null)
+                continue;
+
+            // idle reactive controllers are not stepped
+            if (controller instanceof ReactiveController && !requested.contains(controller)
+                    && ((ReactiveController) controller).getNextDeadline() > now)
+                continue;
+
+            Object sharedStateGroup = null;
+            if (controller instanceof SharedStateController)
+                sharedStateGroup = ((SharedStateController) controller).getSharedStateGroup();
+
+            if (sharedStateGroup == null)
+            {
+                List<ControllerInterface> group = new ArrayList<ControllerInterface>(1);
+                group.add(controller);
+                groups.add(group);
+            }
+            else
+            {
+                List<ControllerInterface> group = sharedGroups.get(sharedStateGroup);
+                if (group == null)
+                {
+                    group = new ArrayList<ControllerInterface>();
+                    sharedGroups.put(sharedStateGroup, group);
+                    groups.add(group);
+                }
+                group.add(controller);
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Steps all controllers of a group, one after the other.
+     * @param group  controllers to step
+     */
+    private static void stepGroup(List<ControllerInterface> group)
+    {
+        for (ControllerInterface controller : group)
+        {
+            try
+            {
+                controller.step();
+            }
+            catch (Throwable t)
+            {
+                log.error("Exception in step function of controller " + controller, t);
+            }
+        }
+    }
+
+    /**
+     * Fork-join task that steps a range of groups, splitting it in halves until it is small enough.
+     */
+    private static class StepTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        // all groups of the tick
+        private final List<List<ControllerInterface>> groups;
+        // range of groups stepped by this task
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates a task for a range of groups.
+         * @param groups  all groups of the tick
+         * @param from    index of the first group, inclusive
+         * @param to      index of the last group, exclusive
+         */
+        StepTask(List<List<ControllerInterface>> groups, int from, int to)
+        {
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Steps the groups or splits the range.
+         */
+        @Override
+        protected void compute()
+        {
+            if (to - from <= GROUPS_PER_TASK)
+            {
+                for (int i = from; i < to; i++)
+                {
+                    stepGroup(groups.get(i));
+                }
+            }
+            else
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StepTask(groups, from, middle), new StepTask(groups, middle, to));
+            }
+        }
+    }
+}
@@ -1,21 +1,42 @@
 package be.ac.ulb.iridia.tam.coordinator;
 
+import be.ac.ulb.iridia.tam.common.ControllerInterface;
 import be.ac.ulb.iridia.tam.common.ExperimentInterface;
 import be.ac.ulb.iridia.tam.common.LedColor;
+import be.ac.ulb.iridia.tam.common.ReactiveController;
+import be.ac.ulb.iridia.tam.common.TAMInterface;
+import be.ac.ulb.iridia.tam.eventlog.EventLog;
+import be.ac.ulb.iridia.tam.eventlog.EventType;
+import com.rapplogic.xbee.XBeeConnection;
 import com.rapplogic.xbee.api.*;
 import com.rapplogic.xbee.api.digimesh.DMTxRequest;
 import com.rapplogic.xbee.api.digimesh.DMTxStatusResponse;
+import com.rapplogic.xbee.capture.PacketRecorder;
 import com.rapplogic.xbee.util.ByteUtils;
 import org.apache.log4j.Logger;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -23,10 +44,12 @@ import java.util.concurrent.ConcurrentSkipListSet;
  * and schedules all the different tasks that the coordinator has to do. These tasks include:
  *
  *  - discover new nodes by Xbee command (regularly)
- *  - resolve unknown nodes by node discovery (only when unknown node was encountered)
+ *  - resolve unknown nodes by querying their node identifier (only when unknown node was encountered)
  *  - request the current signal strength from the local Xbee module (regularly)
- *  - send packets from the send queue (regularly)
- *  - call the step() function of the controllers of all known TAMs (regularly)
+ *  - send packets from the send queues of all radios (regularly)
+ *  - call the step() function of the controllers of all known TAMs (regularly; reactive
+ *    controllers only when one of their TAMs changed or their deadline expired)
+ *  - write a snapshot of the metrics of the coordinator and all TAMs (regularly, if requested)
  *
  * Additionally, this class starts two packet listeners:
  *
@@ -41,6 +64,11 @@ import java.util.concurrent.ConcurrentSkipListSet;
  *  - every time something changed in status (robot left or arrived)
  *  - as response to a command of the coordinator (eg, SET_LEDS command)
  *
+ * The coordinator can drive several Xbee modules (radios) of the same network at once, to multiply the
+ * number of commands it can send per second. Each TAM is assigned to one radio by the quality of its link,
+ * see RadioBalancer; status reports received by any radio update the same list of TAMs. The first radio
+ * is the primary radio, which also runs node discovery and the queries of unknown TAMs.
+ *
  * After initializing the coordinator with the parameters of the Xbee's serial port,
  * the user's main class MUST call the start() method in order to schedule all the
  * tasks described above and start the packet listeners. After completing these tasks,
@@ -56,6 +84,23 @@ public class Coordinator
     public static final long CHECK_DB_INTERVAL   =  60 * 1000; // check signal strength every minute
     public static final long TRIGGER_ND_INTERVAL = 600 * 1000; // trigger node discovery every 10 minutes
     public static final long STEP_INTERVAL =               10; // step experiment and all TAMs every 10ms
+    public static final long RESOLVE_INTERVAL =           100; // send queued NI queries of unknown TAMs every 100ms
+    public static final long REGISTRY_INTERVAL =    60 * 1000; // write the state of all TAMs to the registry every minute
+    public static final long METRICS_INTERVAL =     10 * 1000; // write the metrics snapshot file every 10 seconds
+
+    // time after start after which TAMs known from an earlier run that did not report yet are queried
+    public static final long REVALIDATION_DELAY = 30 * 1000;
+
+    // time in milliseconds to wait for the delivery status of a packet sent from the send queue
+    public static final int TX_STATUS_TIMEOUT = 10000;
+
+    // default file the registry of all known TAMs is stored in
+    public static final String DEFAULT_REGISTRY_FILE = "tam-registry.journal";
+
+    // number of threads that process incoming packets; packets of one TAM are always processed in order
+    public static final int DISPATCH_THREADS = 4;
+    // number of maximum-size packets the send queue may pass to the Xbee module back to back
+    public static final int SEND_QUEUE_BURST_FRAMES = 4;
 
     // packet types of TAM->Coordinator (TC)
     protected static final int PACKET_TYPE_TC_CURRENT_STATE = 0;
@@ -72,33 +117,78 @@ public class Coordinator
     public static final long SET_LEDS_CMD_TIMEOUT = 3;
     // timeout for the WRITE_ROBOT_CMD_TIMEOUT command in seconds
     public static final long WRITE_ROBOT_CMD_TIMEOUT = 5; //TODO set to a realistic value
+    // number of times a SET_LEDS or WRITE_ROBOT command is retried before the TAM is considered unreachable
+    public static final int MAX_COMMAND_RETRIES = 3;
+    // overall timeout in milliseconds for commands sent to all TAMs (shutdown, LEDs off)
+    public static final long BULK_COMMAND_TIMEOUT = 10000;
+    // voltage in volts under which a TAM reports its status and the listeners of the TAM are notified
+    public static final double BATT_VOLTAGE_THRESHOLD = 3.2;
 
     // list of known coordinator nodes, will be added to blacklist directly
-    protected static final String COORDINATOR_ADDRESSES[] = {
-            "0x00,0x13,0xa2,0x00,0x40,0x8c,0x04,0xa4",  // coordinator 0
-            "0x00,0x13,0xa2,0x00,0x40,0x8c,0x04,0xc5",  // coordinator 1
-            "0x00,0x13,0xa2,0x00,0x40,0x8d,0x6e,0xb4",  // coordinator 2
-            "0x00,0x13,0xa2,0x00,0x40,0x8d,0x6e,0xa2"   // coordinator 3
+    protected static final long COORDINATOR_ADDRESSES[] = {
+            0x0013a200408c04a4L,  // coordinator 0
+            0x0013a200408c04c5L,  // coordinator 1
+            0x0013a200408d6eb4L,  // coordinator 2
+            0x0013a200408d6ea2L   // coordinator 3
     };
 
-    // main Xbee object used to communicate with the attached Xbee module
+    // radios attached to the coordinator, the primary radio first
+    private final List<Radio> radios;
+    // assigns the TAMs to the radios, replaced when a radio is added
+    private RadioBalancer radioBalancer;
+    // Xbee object of the primary radio, used for AT commands and node discovery
     private XBee xbee;
-    // serial device used to access the Xbee module
-    private String device;
-    // speed of serial port used to access the Xbee module
+    // sends commands to all TAMs at once, replaced when a radio is added
+    private BulkCommandSender bulkCommandSender;
+    // speed of serial port used to access the Xbee modules
     private int baudRate;
+    // file all packets sent and received are recorded to, for replay; null to not record
+    private String captureFile;
+    // file the events of the experiment are recorded to; null to not record
+    private String eventLogFile;
+    // port of the local HTTP endpoint serving the metrics; -1 to not serve them
+    private int metricsPort = -1;
+    // file a snapshot of the metrics is written to every METRICS_INTERVAL; null to not write snapshots
+    private String metricsSnapshotFile;
+    // true to receive the status reports of the TAMs without creating objects
+    private boolean flyweightReceive;
+
+    // metrics of the coordinator and all TAMs
+    private MetricsRegistry metrics;
+
+    // serves the metrics over HTTP, created on start() if requested
+    private MetricsServer metricsServer;
+    // file the registry of all known TAMs is stored in; null to not store TAMs across runs
+    private String registryFile = DEFAULT_REGISTRY_FILE;
 
-    // hash map that stores all currently known TAMs by using the 64bit address of the TAM as key
-    protected ConcurrentHashMap<String, TAM> listOfTAMs;
+    // registry of all known TAMs, loaded on start(); null if there is none
+    private TAMRegistry registry;
 
-    // a list of nodes on the network that are not TAMs
-    protected ConcurrentSkipListSet<String> addressBlacklist;
+    // resolves the ids of unknown TAMs, created on start()
+    private NodeResolver nodeResolver;
 
-    // queue of requests that should be sent to different TAMs
-    private ConcurrentLinkedQueue<DMTxRequest> sendRequestQueue;
+    // decoder of the status reports, registered for all DM RX packets on start(); null until then
+    private TAMStatusDecoder statusDecoder;
+    // decoder of DM RX packets it replaced, restored on shutdown
+    private ResponseDecoder replacedDecoder;
 
-    // timer used to schedule reoccurring tasks of the coordinator and the controllers of all TAMs
-    private Timer timer;
+    // directory of all currently known TAMs, by 64bit address and by id
+    protected TAMDirectory listOfTAMs;
+
+    // lock that serializes adding TAMs, as packet listeners for different TAMs run concurrently
+    private final Object discoveryLock = new Object();
+
+    // 64bit addresses, packed into longs, of nodes on the network that are not TAMs
+    protected Set<Long> addressBlacklist;
+
+    // scheduler that runs reoccurring tasks of the coordinator and the controllers of all TAMs, and command timeouts
+    private CoordinatorScheduler scheduler;
+
+    // number of threads used to step the controllers; 1 steps them serially on the step thread
+    private int stepParallelism = 1;
+
+    // steps the controllers of all TAMs, created on start()
+    private volatile ControllerStepper controllerStepper;
 
     // experiment attached to this coordinator
     private ExperimentInterface experiment;
@@ -124,11 +214,36 @@ public class Coordinator
      */
     public Coordinator(String device, int baudRate)
     {
-        this.device = device;
+        this(device, null, baudRate);
+    }
+
+    /**
+     * Creates the coordinator on an already established connection instead of a serial device,
+     * e.g. a simulated network of TAMs.
+     * @param connection  connection to the Xbee module
+     * @param baudRate    speed at which the Xbee module can transmit, used to pace the send queue
+     */
+    public Coordinator(XBeeConnection connection, int baudRate)
+    {
+        this(null, connection, baudRate);
+    }
+
+    /**
+     * Creates the coordinator with its primary radio and initializes all variables.
+     * @param device      serial device used to access the Xbee module, null if a connection is given
+     * @param connection  connection to the Xbee module, null to open the serial device
+     * @param baudRate    speed of serial port used to access the Xbee module
+     */
+    private Coordinator(String device, XBeeConnection connection, int baudRate)
+    {
         this.baudRate = baudRate;
 
-        // create global Xbee object
-        this.xbee = new XBee();
+        // create the primary radio, with its send queue paced to the speed of the serial port
+        this.radios = new ArrayList<Radio>();
+        this.radios.add(new Radio(0, device, connection, baudRate, SEND_QUEUE_BURST_FRAMES));
+        this.xbee = radios.get(0).getXBee();
+        this.radioBalancer = new RadioBalancer(radios);
+        this.bulkCommandSender = new BulkCommandSender(radioBalancer);
 
         // initialize flags
         setSignalStrength(0);
@@ -136,21 +251,140 @@ public class Coordinator
         setNodeDiscoveryRunning(false);
 
         // create list of TAMs
-        this.listOfTAMs = new ConcurrentHashMap<String, TAM>();
-
-        // create queue used for send requests
-        this.sendRequestQueue = new ConcurrentLinkedQueue<DMTxRequest>();
+        this.listOfTAMs = new TAMDirectory();
+        this.metrics = new MetricsRegistry(listOfTAMs);
 
-        // create queue used for send requests
-        this.addressBlacklist = new ConcurrentSkipListSet<String>();
-        Collections.addAll(this.addressBlacklist, COORDINATOR_ADDRESSES);
+        // create blacklist of nodes that are not TAMs
+        this.addressBlacklist = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        for (long address : COORDINATOR_ADDRESSES)
+            this.addressBlacklist.add(address);
 
-        // create timer used to schedule all tasks done by the coordinator
-        this.timer = new Timer();
+        // create scheduler used to schedule all tasks done by the coordinator
+        this.scheduler = new CoordinatorScheduler();
 
         setupShutdownHandlers();
     }
 
+    /**
+     * Adds another radio, an Xbee module of the same network on another serial device, at the same
+     * speed as the primary radio. Commands to the TAMs are spread over all radios.
+     * Must be called before start().
+     * @see RadioBalancer
+     * @param device  serial device used to access the Xbee module
+     */
+    public void addRadio(String device)
+    {
+        addRadio(new Radio(radios.size(), device, null, baudRate, SEND_QUEUE_BURST_FRAMES));
+    }
+
+    /**
+     * Adds another radio on an already established connection, e.g. a simulated network of TAMs.
+     * Must be called before start().
+     * @param connection  connection to the Xbee module
+     */
+    public void addRadio(XBeeConnection connection)
+    {
+        addRadio(new Radio(radios.size(), null, connection, baudRate, SEND_QUEUE_BURST_FRAMES));
+    }
+
+    /**
+     * Adds a radio and balances the TAMs over all radios.
+     * @param radio  radio to add
+     */
+    private void addRadio(Radio radio)
+    {
+        radios.add(radio);
+        radioBalancer = new RadioBalancer(radios);
+        bulkCommandSender = new BulkCommandSender(radioBalancer);
+    }
+
+    /**
+     * Returns the number of radios attached to the coordinator.
+     * @return number of radios, at least 1
+     */
+    public int getRadioCount()
+    {
+        return radios.size();
+    }
+
+    /**
+     * Sets the file all packets sent and received are recorded to, so the session can be replayed
+     * with a ReplayConnection. Only the primary radio is recorded. Must be called before start().
+     * @see com.rapplogic.xbee.capture.ReplayConnection
+     * @param captureFile  path of the capture file, an existing file is replaced; null to not record
+     */
+    public void setCaptureFile(String captureFile)
+    {
+        this.captureFile = captureFile;
+    }
+
+    /**
+     * Sets the file the events of the experiment are recorded to, e.g. robots arriving and tasks
+     * being started. Must be called before start().
+     * @see be.ac.ulb.iridia.tam.eventlog.EventLog
+     * @param eventLogFile  path of the event log, an existing file is replaced; null to not record
+     */
+    public void setEventLogFile(String eventLogFile)
+    {
+        this.eventLogFile = eventLogFile;
+    }
+
+    /**
+     * Sets the port of a local HTTP endpoint that serves the metrics of the coordinator and all TAMs
+     * at http://localhost:port/metrics. Must be called before start().
+     * @see MetricsRegistry
+     * @param metricsPort  port to listen on, 0 for any free port; -1 to not serve the metrics
+     */
+    public void setMetricsPort(int metricsPort)
+    {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Sets the file a snapshot of the metrics of the coordinator and all TAMs is written to,
+     * every METRICS_INTERVAL and on shutdown. Must be called before start().
+     * @see MetricsRegistry
+     * @param metricsSnapshotFile  path of the snapshot file, replaced on every write; null to not write snapshots
+     */
+    public void setMetricsSnapshotFile(String metricsSnapshotFile)
+    {
+        this.metricsSnapshotFile = metricsSnapshotFile;
+    }
+
+    /**
+     * Sets whether the status reports of the TAMs are received in flyweight mode: instead of being
+     * parsed into responses and dispatched, the heartbeats of known TAMs are handled on the input
+     * thread of each radio straight from the frame buffer, so they create next to no garbage. Reports
+     * that acknowledge a command or discover a TAM are still copied and handled by the dispatch
+     * threads. Must be called before start().
+     * @see com.rapplogic.xbee.api.XBeeConfiguration#withFlyweightRx(boolean)
+     * @param flyweightReceive  true to enable flyweight mode, false (default) to parse all packets
+     */
+    public void setFlyweightReceive(boolean flyweightReceive)
+    {
+        this.flyweightReceive = flyweightReceive;
+    }
+
+    /**
+     * Returns the metrics of the coordinator and all TAMs.
+     * @return metrics registry
+     */
+    public MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the file the registry of all known TAMs is stored in. On start(), the TAMs of the registry
+     * are added before they report, so controllers can be attached without waiting for a node discovery.
+     * Must be called before start().
+     * @param registryFile  path of the registry file; null to not store TAMs across runs
+     */
+    public void setRegistryFile(String registryFile)
+    {
+        this.registryFile = registryFile;
+    }
+
     /**
      * Returns the current experiment attached to the coordinator.
      * @return object that implements ExperimentInterface
@@ -171,13 +405,34 @@ public class Coordinator
     }
 
     /**
-     * Returns the current timer instance.
-     * The coordinator has a single timer that is used to schedule all tasks.
-     * @return timer instance
+     * Sets the number of threads used to step the controllers of the TAMs.
+     * With more than one thread, controllers are stepped in parallel; controllers that share
+     * state must implement SharedStateController. Must be called before start().
+     * @see be.ac.ulb.iridia.tam.common.SharedStateController
+     * @param stepParallelism  number of threads, 1 (default) to step serially
      */
-    private synchronized Timer getTimer()
+    public void setStepParallelism(int stepParallelism)
     {
-        return timer;
+        this.stepParallelism = stepParallelism;
+    }
+
+    /**
+     * Returns the balancer that assigns the TAMs to the radios.
+     * @return balancer
+     */
+    protected RadioBalancer getRadioBalancer()
+    {
+        return radioBalancer;
+    }
+
+    /**
+     * Returns the scheduler instance.
+     * The coordinator has a single scheduler that is used to schedule all tasks.
+     * @return scheduler instance
+     */
+    public CoordinatorScheduler getScheduler()
+    {
+        return scheduler;
     }
 
     /**
@@ -273,67 +528,435 @@ public class Coordinator
      * In first case, the new TAM is added to the list of TAMs.
      * In the second case, the TAM might be partially known already due to a status update.
      * Only the second case can provide the id of the TAM.
+     * The id of a TAM of the first case is resolved with resolveTAM(), which calls this method again.
      * @param id            id of the TAM (null if yet unknown)
      * @param address64     64bit address of the TAM
      */
     protected void updateDiscoveredTAM(String id, XBeeAddress64 address64)
     {
-        TAM tam;
-        // convert address to string, which is the key to the map of all known TAMs
-        String address = address64.toString();
+        synchronized (discoveryLock)
+        {
+            // the packed address is the key to the directory of all known TAMs
+            long address = address64.toLong();
 
-        // ignore blacklisted TAMs
-        if (addressBlacklist.contains(address))
-            return;
+            // ignore blacklisted TAMs
+            if (addressBlacklist.contains(address))
+                return;
+
+            // check if this is a newly discovered node that is not a TAM
+            if ((id != null) && !TAMDirectory.isTAMId(id))
+            {
+                // if it's not a TAM, remove and blacklist
+                listOfTAMs.remove(address);
+                addressBlacklist.add(address);
+                if (registry != null)
+                    registry.recordBlacklisted(address64);
+                log.info("Node " + address64 + " with id " + id + " is not a TAM, blacklisted.");
+                return;
+            }
 
-        // check if this is a newly discovered node that is not a TAM
-        if ((id != null) && !("TAM[0-9][1-9]".matches(id)))
+            // check if we know this TAM already
+            TAM tam = listOfTAMs.get(address);
+            if (tam != null)
+            {
+                // if we have that TAM already, update it (can't change addresses!)
+                tam.setId(id);
+                tam.updateLastSeenTimestamp();
+                // index the TAM by its new id
+                listOfTAMs.put(tam);
+                log.info("TAM " + tam.getId() + " is already recorded in the database, record updated.");
+            }
+            else
+            {
+                // tam is completely unknown, so create a new object and stick it into the database
+                tam = new TAM(id, this, address64);
+                listOfTAMs.put(tam);
+                log.info("Added TAM with address " + address64 + " to database.");
+            }
+
+            // keep the TAM for the next run
+            if (registry != null)
+                registry.record(tam);
+
+            // if we haven't attached a controller to this TAM yet, do it now
+            // (if we have the id already)
+            if (id != null && tam.getController() == null)
+            {
+                getExperiment().attachTAMController(tam);
+            }
+        }
+    }
+
+    /**
+     * Adds the TAMs of the registry, as known from earlier runs, and attaches their controllers.
+     * These TAMs are verified lazily: those that do not report within REVALIDATION_DELAY are queried,
+     * and marked unreachable if they do not answer.
+     */
+    private void preloadTAMs()
+    {
+        synchronized (discoveryLock)
+        {
+            for (XBeeAddress64 address64 : registry.getBlacklist())
+                addressBlacklist.add(address64.toLong());
+
+            int preloaded = 0;
+            for (TAMRegistry.Entry entry : registry.getEntries())
+            {
+                long address = entry.getAddress64().toLong();
+                if (entry.getId() == null || addressBlacklist.contains(address) || listOfTAMs.contains(address))
+                    continue;
+
+                TAM tam = new TAM(entry.getId(), this, entry.getAddress64(), entry.getFirstSeen(), entry.getLastSeen());
+                listOfTAMs.put(tam);
+                getExperiment().attachTAMController(tam);
+                preloaded++;
+
+                log.debug("Preloaded " + tam.getId() + ", last seen " + new Date(entry.getLastSeen())
+                        + " with LEDs " + entry.getLedColor() + " at " + entry.getVoltage() + "V");
+            }
+            log.info("Preloaded " + preloaded + " TAMs from the registry.");
+        }
+    }
+
+    /**
+     * Queries all TAMs that have not reported since the given time, e.g. TAMs that were preloaded
+     * from the registry. TAMs that do not answer are marked unreachable until they report again.
+     * @param since  timestamp
+     */
+    private void revalidateTAMs(long since)
+    {
+        for (TAM tam : listOfTAMs.values())
+        {
+            if (tam.getLastSeenTimestamp() < since)
+            {
+                log.debug("TAM " + tam.getId() + " did not report yet, verifying it.");
+                nodeResolver.verify(tam.getAddress64(), since);
+            }
+        }
+    }
+
+    /**
+     * Handles a TAM that did not answer its verification, e.g. a TAM known from an earlier run that
+     * is switched off. Nothing is done if the TAM reported while it was being verified.
+     * A TAM with an id stays in the database, as it has been attached to the experiment, which holds
+     * on to it: its link is marked unreachable, so commands are held back until it reports again.
+     * TAMs without an id are removed, and added again like an unknown TAM if they report.
+     * @param address64  64bit address of the TAM
+     * @param since      timestamp since which the TAM had not reported when it was verified
+     */
+    protected void handleUnverifiedTAM(XBeeAddress64 address64, long since)
+    {
+        synchronized (discoveryLock)
         {
-            // if it's not a TAM, remove and blacklist
-            listOfTAMs.remove(address);
-            addressBlacklist.add(address);
+            TAM tam = listOfTAMs.get(address64.toLong());
+            if (tam == null || tam.getLastSeenTimestamp() >= since)
+                return;
+
+            // the experiment keeps the TAM, so it is reused when the node reports again
+            if (tam.getId() != null)
+            {
+                tam.getLink().recordGiveUp();
+                log.warn("TAM " + tam.getId() + " did not answer, marked unreachable (" + tam.getLinkHealth() + ")");
+                return;
+            }
+
+            listOfTAMs.remove(address64.toLong());
+            radioBalancer.remove(address64.toLong());
+            log.warn("TAM " + tam.getId() + " did not answer, removed from database.");
         }
+    }
 
+    /**
+     * Sends a request from the send queue of a radio and records its delivery status in the metrics
+     * and in the quality of the link of the TAM over that radio.
+     * If no frame id is free to correlate the delivery status, the request is sent without.
+     * A request that could not be written to the Xbee module is recorded as not delivered; the command
+     * is retried by its PendingCommand, if it has one.
+     * @param radio    radio to send the request over
+     * @param request  request to send
+     */
+    private void sendTracked(final Radio radio, final DMTxRequest request)
+    {
+        final long sent = System.nanoTime();
+        final int packetType = request.getPayload()[0];
+        final long address = request.getDestAddr64().toLong();
 
-        // check if we know this TAM already
-        if (listOfTAMs.containsKey(address))
+        CompletableFuture<XBeeResponse> future = radio.getXBee().sendAsync(request, TX_STATUS_TIMEOUT);
+        if (isFrameIdsExhausted(future))
         {
-            // if we have that TAM already, update it (can't change addresses!)
-            tam = listOfTAMs.get(address);
-            tam.setId(id);
-            tam.updateLastSeenTimestamp();
-            log.info("TAM " + tam.getId() + " is already recorded in the database, record updated.");
+            try
+            {
+                radio.getXBee().sendAsynchronous(request);
+            }
+            catch (XBeeException e)
+            {
+                log.error("Could not send a packet to " + request.getDestAddr64() + " over " + radio, e);
+                metrics.recordSendFailure(listOfTAMs.get(address));
+                radioBalancer.recordDelivery(address, radio.getIndex(), false);
+            }
+            return;
         }
-        else
+
+        // runs on the input stream thread, recording is cheap; a failed write completes the future before sendAsync returns
+        future.whenComplete(new BiConsumer<XBeeResponse, Throwable>()
+        {
+            @Override
+            public void accept(XBeeResponse response, Throwable failure)
+            {
+                if (response instanceof DMTxStatusResponse)
+                {
+                    TAM tam = listOfTAMs.get(address);
+                    DMTxStatusResponse status = (DMTxStatusResponse) response;
+                    metrics.recordDelivery(tam, packetType, sent, status);
+                    radioBalancer.recordDelivery(address, radio.getIndex(),
+                            status.getDeliveryStatus() == DMTxStatusResponse.DeliveryStatus.SUCCESS);
+
+                    // a WRITE_ROBOT command is acknowledged by its delivery
+                    if (tam != null && packetType == PACKET_TYPE_CT_WRITE_ROBOT
+                            && status.getDeliveryStatus() == DMTxStatusResponse.DeliveryStatus.SUCCESS)
+                        acknowledgeWriteRobot(tam);
+                }
+                else if (failure instanceof XBeeTimeoutException)
+                {
+                    metrics.recordDelivery(listOfTAMs.get(address), packetType, sent, null);
+                    radioBalancer.recordDelivery(address, radio.getIndex(), false);
+                }
+                else if (failure != null)
+                {
+                    log.error("Could not send a packet to " + request.getDestAddr64() + " over " + radio, failure);
+                    metrics.recordSendFailure(listOfTAMs.get(address));
+                    radioBalancer.recordDelivery(address, radio.getIndex(), false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if a future returned by XBee.sendAsync failed because no frame id was free,
+     * in which case the request was not sent.
+     * @param future  future returned by sendAsync
+     * @return true if the request was not sent for lack of a frame id
+     */
+    private static boolean isFrameIdsExhausted(CompletableFuture<XBeeResponse> future)
+    {
+        if (!future.isCompletedExceptionally())
+            return false;
+
+        try
+        {
+            future.getNow(null);
+            return false;
+        }
+        catch (CompletionException e)
         {
-            // tam is completely unknown, so create a new object and stick it into the database
-            tam = new TAM(id, this, address64);
-            listOfTAMs.put(address, tam);
-            log.info("Added TAM with address " + address + " to database.");
+            return e.getCause() instanceof XBeeFrameIdsExhaustedException;
         }
+        catch (CancellationException e)
+        {
+            return false;
+        }
+    }
 
-        // if we haven't attached a controller to this TAM yet, do it now
-        // (if we have the id already)
-        if (id != null && tam.getController() == null)
+    /**
+     * Registers the gauges of the coordinator with the metrics: the depths of the queues over all
+     * radios, the number of TAMs assigned to each radio, the number of TAMs and the signal strength.
+     */
+    private void registerGauges()
+    {
+        metrics.registerGauge("send_queue_depth", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                long depth = 0;
+                for (Radio radio : radios)
+                    depth += radio.getSendQueue().size();
+                return depth;
+            }
+        });
+        metrics.registerGauge("dispatch_queue_depth", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                long depth = 0;
+                for (Radio radio : radios)
+                {
+                    if (radio.getXBee().isConnected())
+                        depth += radio.getXBee().getPacketDispatcher().getQueueDepth();
+                }
+                return depth;
+            }
+        });
+        metrics.registerGauge("dispatch_queue_high_water", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                long highWaterMark = 0;
+                for (Radio radio : radios)
+                {
+                    if (radio.getXBee().isConnected())
+                        highWaterMark = Math.max(highWaterMark, radio.getXBee().getPacketDispatcher().getHighWaterMark());
+                }
+                return highWaterMark;
+            }
+        });
+        metrics.registerGauge("dispatch_blocked_total", new MetricsRegistry.Gauge()
         {
-            getExperiment().attachTAMController(tam);
+            @Override
+            public long getValue()
+            {
+                long blocked = 0;
+                for (Radio radio : radios)
+                {
+                    if (radio.getXBee().isConnected())
+                        blocked += radio.getXBee().getPacketDispatcher().getBlockedCount();
+                }
+                return blocked;
+            }
+        });
+        metrics.registerGauge("pending_requests", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                long pending = 0;
+                for (Radio radio : radios)
+                    pending += radio.getXBee().getPendingRequestCount();
+                return pending;
+            }
+        });
+        if (radios.size() > 1)
+        {
+            for (final Radio radio : radios)
+            {
+                metrics.registerGauge("radio_" + radio.getIndex() + "_tams", new MetricsRegistry.Gauge()
+                {
+                    @Override
+                    public long getValue()
+                    {
+                        return radioBalancer.getLoad(radio.getIndex());
+                    }
+                });
+            }
         }
+        metrics.registerGauge("tams", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return listOfTAMs.size();
+            }
+        });
+        metrics.registerGauge("signal_strength", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return getSignalStrength();
+            }
+        });
+        metrics.registerGauge("event_log_dropped_total", new MetricsRegistry.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return EventLog.getDroppedCount();
+            }
+        });
+    }
+
+    /**
+     * Writes a snapshot of the metrics to the snapshot file. The file is replaced at once,
+     * so readers never see a partial snapshot.
+     */
+    private void writeMetricsSnapshot()
+    {
+        File file = new File(metricsSnapshotFile);
+        File temporary = new File(file.getPath() + ".tmp");
+        try
+        {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8"));
+            try
+            {
+                out.write("# snapshot at " + new Date() + "\n");
+                metrics.writeTo(out);
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.warn("Writing metrics snapshot " + file + " failed: " + e);
+        }
+    }
+
+    /**
+     * Returns the TAM with the given id, e.g. to address a specific TAM from an experiment.
+     * @param id  id of the TAM
+     * @return TAM, or null if no TAM with that id is known
+     */
+    public TAMInterface getTAM(String id)
+    {
+        return listOfTAMs.getById(id);
+    }
+
+    /**
+     * Returns the TAM with the given 64bit address.
+     * @param address64  64bit address of the TAM
+     * @return TAM, or null if the TAM is unknown
+     */
+    public TAMInterface getTAM(XBeeAddress64 address64)
+    {
+        return listOfTAMs.get(address64);
+    }
+
+    /**
+     * Resolves the id of a TAM that is only known by its address, by querying just this TAM
+     * instead of running a node discovery over the whole network. Concurrent requests for the
+     * same TAM are merged. Ids known from earlier runs are resolved at once.
+     * @param tam  TAM with unknown id
+     */
+    protected void resolveTAM(TAM tam)
+    {
+        if (nodeResolver != null)
+            nodeResolver.resolve(tam.getAddress64());
     }
 
     /**
      * Sends a SET_LEDS command to the specified TAM.
      * The request is ignored if we sent the command already (and we haven't had
      * a response from the TAM yet) and if the command does not change actually the LEDs.
+     * If the previous command has not been acknowledged yet, it is replaced by a new command with the
+     * new color, with its own timeout and retries: status reports that still show the old color do not
+     * count against the link to the TAM.
+     * Switching the LEDs off is sent before other queued commands.
+     * The request is also ignored while the TAM is unreachable, until the back-off of its link expired.
      * @param tam        TAM to send command to
      * @param ledColor   new color of leds to send
      */
     public synchronized void sendSetLedsCommand(final TAM tam, final LedColor ledColor)
     {
         // check if we've sent already a SET_LEDS command
-        if (tam.getSetLedsCmdTimeoutTask() != null)
+        PendingCommand pending = tam.getPendingSetLedsCommand();
+        if (pending != null)
         {
-//            log.debug("Not sending SET_LEDS command again as we sent one already.");
-            return;
+            if (isSetLedsRequest(pending.getRequest(), ledColor))
+            {
+//                log.debug("Not sending SET_LEDS command again as we sent one already.");
+                return;
+            }
+
+            // the TAM gets the latest color instead; the old color is not sent if it is still queued,
+            // and the new one is sent like a fresh command below
+            pending.getTimeout().cancel();
+            pending.getRadio().getSendQueue().remove(tam.getAddress64(), PACKET_TYPE_CT_SET_LEDS);
+            tam.setPendingSetLedsCommand(null);
+            log.debug("Replacing SET_LEDS command to " + tam.getId() + " with value (" + ledColor + ")");
         }
 
         // check if we're trying to send a command with a color that is already set
@@ -344,9 +967,43 @@ public class Coordinator
             return;
         }
 
+        // don't waste airtime on a TAM that is out of range
+        if (tam.getLink().isHeldBack())
+            return;
+
         // after above checks, we are sure that we want to change the leds to different values and
         // that we haven't tried to do this before
 
+        // prepare the request, send it and schedule its timeout
+        pending = new PendingCommand(tam, PACKET_TYPE_CT_SET_LEDS, SET_LEDS_CMD_TIMEOUT * 1000, createSetLedsRequest(tam, ledColor));
+        tam.setPendingSetLedsCommand(pending);
+        metrics.recordSetLedsIssued(tam);
+        log.debug("Sending SET_LEDS command to " + tam.getId() + " value (" + ledColor + ")");
+        sendPendingCommand(pending, getSetLedsPriority(ledColor));
+    }
+
+    /**
+     * Returns true if the request of a SET_LEDS command sets the given color.
+     * @param request   request of a SET_LEDS command
+     * @param ledColor  color of the leds
+     * @return true if the request sets this color
+     */
+    private static boolean isSetLedsRequest(DMTxRequest request, LedColor ledColor)
+    {
+        int[] payload = request.getPayload();
+        return payload[1] == ledColor.getRedChannelValue()
+                && payload[2] == ledColor.getGreenChannelValue()
+                && payload[3] == ledColor.getBlueChannelValue();
+    }
+
+    /**
+     * Creates the request of a SET_LEDS command.
+     * @param tam        TAM to send command to
+     * @param ledColor   new color of leds to send
+     * @return request to send
+     */
+    private DMTxRequest createSetLedsRequest(TAM tam, LedColor ledColor)
+    {
         // create an array of arbitrary data to send
         int[] payload = new int[] {
                 PACKET_TYPE_CT_SET_LEDS,
@@ -355,136 +1012,267 @@ public class Coordinator
                 ledColor.getBlueChannelValue()
         };
 
-        // prepare the request and append it to the queue of
-        DMTxRequest request = new DMTxRequest(tam.getAddress64(), payload);
+        return new DMTxRequest(tam.getAddress64(), payload);
+    }
 
-        // create a timer task that handles the timeout of the SET_LEDS command
-        TimerTask setLedsCmdTimeoutTask = new TimerTask()
-        {
-            public void run()
-            {
-                log.warn("SET_LED command sent to " + tam.getId() + " timed out!");
-                tam.setSetLedsCmdTimeoutTask(null);
-            }
-        };
-        tam.setSetLedsCmdTimeoutTask(setLedsCmdTimeoutTask);
+    /**
+     * Returns the send queue priority of a SET_LEDS command: switching the LEDs off goes first.
+     * @param ledColor   new color of leds to send
+     * @return priority of the command
+     */
+    private OutboundCommandQueue.Priority getSetLedsPriority(LedColor ledColor)
+    {
+        if (ledColor.getRedChannelValue() == 0 && ledColor.getGreenChannelValue() == 0 && ledColor.getBlueChannelValue() == 0)
+            return OutboundCommandQueue.Priority.HIGH;
+        return OutboundCommandQueue.Priority.NORMAL;
+    }
 
-        // append request to the queue and schedule timer
-        log.debug("Sending SET_LEDS command to " + tam.getId() + " value (" + ledColor + ")");
-        sendRequestQueue.add(request);
-        getTimer().schedule(setLedsCmdTimeoutTask, SET_LEDS_CMD_TIMEOUT * 1000);
+    /**
+     * Returns the send queue priority of the request of a SET_LEDS command.
+     * @param request  request of a SET_LEDS command
+     * @return priority of the command
+     */
+    private OutboundCommandQueue.Priority getSetLedsPriority(DMTxRequest request)
+    {
+        int[] payload = request.getPayload();
+        if (payload[1] == 0 && payload[2] == 0 && payload[3] == 0)
+            return OutboundCommandQueue.Priority.HIGH;
+        return OutboundCommandQueue.Priority.NORMAL;
     }
     
     /**
      * Sends a WRITE_ROBOT command to the specified TAM.
      * The request is ignored if we sent the command already (and we haven't had
-     * a response from the TAM yet).
+     * a response from the TAM yet), and while the TAM is unreachable.
      * @param tam        TAM to send command to
      * @param value      value to send to the robot
      */
     public synchronized void sendWriteRobotCommand(final TAM tam, final int value)
     {
         // check if we've sent already a WRITE_ROBOT command
-        if (tam.getWriteRobotCmdTimeoutTask() != null)
+        if (tam.getPendingWriteRobotCommand() != null)
         {
             log.debug("Not sending WRITE_ROBOT command again as we sent one already.");
             return;
         }
 
+        // don't waste airtime on a TAM that is out of range
+        if (tam.getLink().isHeldBack())
+            return;
+
         // create an array of arbitrary data to send
         int[] payload = new int[] {
                 PACKET_TYPE_CT_WRITE_ROBOT,
                 value
         };
 
-        // prepare the request and append it to the queue of
+        // prepare the request, send it and schedule its timeout
         DMTxRequest request = new DMTxRequest(tam.getAddress64(), payload);
-        sendRequestQueue.add(request);
+        PendingCommand pending = new PendingCommand(tam, PACKET_TYPE_CT_WRITE_ROBOT, WRITE_ROBOT_CMD_TIMEOUT * 1000, request);
+        tam.setPendingWriteRobotCommand(pending);
         log.debug("Sending WRITE_ROBOT command to " + tam.getId() + " value (" + value + ")");
+        sendPendingCommand(pending, OutboundCommandQueue.Priority.NORMAL);
+    }
 
-        // create a timer task that handles the timeout of the SET_LEDS command
-        TimerTask setWriteRobotTimeoutTask = new TimerTask()
+    /**
+     * Appends the request of a command to the send queue of the radio the TAM is assigned to, and
+     * schedules its timeout, with the retry timeout of the link to the TAM. A retry may be sent over
+     * another radio than the previous transmission.
+     * @param pending   command to send
+     * @param priority  priority of the command in the send queue
+     */
+    private void sendPendingCommand(final PendingCommand pending, OutboundCommandQueue.Priority priority)
+    {
+        TAM tam = pending.getTAM();
+        long timeout = tam.getLink().getRetryTimeout(pending.getCommandTimeout());
+        pending.setTimeout(scheduler.newTimeout(new Runnable()
         {
+            @Override
             public void run()
             {
-                log.warn("WRITE_ROBOT command sent to " + tam.getId() + " timed out!");
-                tam.setWriteRobotCmdTimeoutTask(null);
+                commandTimedOut(pending);
             }
-        };
-
-        // set the task in the TAM and schedule it
-        tam.setWriteRobotCmdTimeoutTask(setWriteRobotTimeoutTask);
-        getTimer().schedule(setWriteRobotTimeoutTask, WRITE_ROBOT_CMD_TIMEOUT * 1000);
+        }, timeout));
+        Radio radio = radioBalancer.select(tam.getAddress64().toLong());
+        pending.setRadio(radio);
+        radio.getSendQueue().offer(tam.getAddress64(), pending.getPacketType(), pending.getRequest(), priority);
     }
 
     /**
-     * Sends the shutdown command to all TAMs.
-     * TAMs need to be switched off and on after receiving this command.
-     * Commands are send iteratively and synchronously (that is, method blocks until completion).
-     * Note: after sending this command, you have to remove power from the TAM completely before starting up again
-     * @throws XBeeException on communication error
+     * Handles the timeout of a command: the command is retried with a longer timeout, or given up
+     * after MAX_COMMAND_RETRIES, which holds back further commands to the TAM.
+     * @param pending  command that timed out
      */
-    @SuppressWarnings("unused")
-    public synchronized void sendShutdownCommandToAllTAMs() throws XBeeException
+    private synchronized void commandTimedOut(PendingCommand pending)
     {
-        int[] payload = new int[] { PACKET_TYPE_CT_SHUTDOWN };
-        DMTxRequest sendRequest = new DMTxRequest(null, payload);
-        for (TAM tam : listOfTAMs.values())
+        TAM tam = pending.getTAM();
+
+        // ignore the timeout of a command that has been acknowledged in the meantime
+        PendingCommand current = pending.getPacketType() == PACKET_TYPE_CT_SET_LEDS
+                ? tam.getPendingSetLedsCommand() : tam.getPendingWriteRobotCommand();
+        if (current != pending)
+            return;
+
+        EventLog.record(EventType.COMMAND_TIMED_OUT, tam, pending.getPacketType());
+        if (pending.getRetries() < MAX_COMMAND_RETRIES)
         {
-            log.debug("Shutting down " + tam.getId() + "...");
-            sendRequest.setDestAddr64(tam.getAddress64());
+            tam.getLink().recordTimeout();
+            pending.incrementRetries();
+            metrics.recordCommandRetried();
+            log.debug("Command " + pending.getPacketType() + " sent to " + tam.getId() + " timed out, retry " + pending.getRetries()
+                    + " (" + tam.getLinkHealth() + ")");
+
+            OutboundCommandQueue.Priority priority = OutboundCommandQueue.Priority.NORMAL;
+            if (pending.getPacketType() == PACKET_TYPE_CT_SET_LEDS)
+                priority = getSetLedsPriority(pending.getRequest());
+            sendPendingCommand(pending, priority);
+            return;
+        }
+
+        // give up, the controller may send the command again once the back-off expired
+        if (pending.getPacketType() == PACKET_TYPE_CT_SET_LEDS)
+            tam.setPendingSetLedsCommand(null);
+        else
+            tam.setPendingWriteRobotCommand(null);
+        tam.getLink().recordGiveUp();
+        metrics.recordCommandGivenUp();
+        log.warn("Command " + pending.getPacketType() + " sent to " + tam.getId() + " timed out after "
+                + MAX_COMMAND_RETRIES + " retries, TAM is unreachable (" + tam.getLinkHealth() + ")");
+    }
+
+    /**
+     * Records a status report of a TAM on its link, which ends the back-off of an unreachable TAM.
+     * Does not lock the coordinator, so it can be called on the input thread of a radio.
+     * @param tam  TAM that reported
+     */
+    protected void recordHeartbeat(TAM tam)
+    {
+        // a reactive controller has to send the commands that were held back
+        if (tam.getLink().recordHeartbeat())
+            deliverEvent(tam, null);
+    }
+
+    /**
+     * Acknowledges the pending SET_LEDS command of a TAM if the TAM reports the color that was sent.
+     * @param tam       TAM that reported
+     * @param ledColor  color of the LEDs as reported
+     */
+    protected synchronized void acknowledgeStatus(TAM tam, LedColor ledColor)
+    {
+        PendingCommand pending = tam.getPendingSetLedsCommand();
+        if (pending == null || !isSetLedsRequest(pending.getRequest(), ledColor))
+            return;
+
+        // cancel the timeout and clear the command in the TAM
+        pending.getTimeout().cancel();
+        tam.setPendingSetLedsCommand(null);
+        tam.getLink().recordAck(pending.getRoundTripTime());
+        EventLog.record(EventType.COMMAND_ACKED, tam, PACKET_TYPE_CT_SET_LEDS);
+        metrics.recordSetLedsAcked(tam);
+    }
 
-            XBeeResponse response = xbee.sendSynchronous(sendRequest, 10000);
-            if (response instanceof DMTxStatusResponse)
+    /**
+     * Delivers an event of a TAM on the step executor, so it never runs concurrently with the
+     * controllers, and has the controller of the TAM stepped at the next tick if it is reactive.
+     * Events are dropped once the coordinator is shut down.
+     * @param tam    TAM the event is about
+     * @param event  event to deliver, e.g. calling the listeners of the TAM; null to only step the controller
+     */
+    protected void deliverEvent(final TAM tam, final Runnable event)
+    {
+        try
+        {
+            scheduler.getExecutor(CoordinatorScheduler.Executor.STEP).execute(new Runnable()
             {
-                DMTxStatusResponse statusResponse = (DMTxStatusResponse) response;
-                if (statusResponse.getDeliveryStatus() == DMTxStatusResponse.DeliveryStatus.SUCCESS)
-                {
-                    log.debug("Successfully shut down " + tam.getId());
-                }
-                else
+                @Override
+                public void run()
                 {
-                    log.error("Failure to shut down " + tam.getId() + " due to error " + statusResponse.getDeliveryStatus());
+                    try
+                    {
+                        if (event != null)
+                            event.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        log.error("Exception in listener of " + tam.getId(), t);
+                    }
+
+                    ControllerInterface controller = tam.getController();
+                    ControllerStepper stepper = controllerStepper;
+                    if (controller instanceof ReactiveController && stepper != null)
+                        stepper.requestStep(controller);
                 }
-            }
-            else
-            {
-                log.warn("Send response is of unexpected class " + response.getClass());
-            }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            log.debug("Dropping event of " + tam.getId() + ", coordinator is shut down");
         }
     }
 
+    /**
+     * Acknowledges the pending WRITE_ROBOT command of a TAM, which is acknowledged by its delivery.
+     * @param tam  TAM the command was delivered to
+     */
+    private synchronized void acknowledgeWriteRobot(TAM tam)
+    {
+        PendingCommand pending = tam.getPendingWriteRobotCommand();
+        if (pending == null)
+            return;
+
+        pending.getTimeout().cancel();
+        tam.setPendingWriteRobotCommand(null);
+        tam.getLink().recordAck(pending.getRoundTripTime());
+        EventLog.record(EventType.COMMAND_ACKED, tam, PACKET_TYPE_CT_WRITE_ROBOT);
+    }
+
+    /**
+     * Sends the shutdown command to all TAMs.
+     * TAMs need to be switched off and on after receiving this command.
+     * Commands are sent to all TAMs at once; the method blocks until all TAMs acknowledged
+     * or BULK_COMMAND_TIMEOUT expired.
+     * Note: after sending this command, you have to remove power from the TAM completely before starting up again
+     * @return report of the outcome for each TAM
+     */
+    @SuppressWarnings("unused")
+    public BulkCommandReport sendShutdownCommandToAllTAMs()
+    {
+        log.debug("Shutting down " + listOfTAMs.size() + " TAMs...");
+        int[] payload = new int[] { PACKET_TYPE_CT_SHUTDOWN };
+        BulkCommandReport report = bulkCommandSender.send(listOfTAMs.values(), payload, BULK_COMMAND_TIMEOUT);
+        logBulkCommandReport("Shut down", report);
+        return report;
+    }
+
     /**
      * Sends a command to all TAMs that switches of the LEDs.
-     * Commands are send iteratively and synchronously (that is, method blocks until completion).
-     * @throws XBeeException on communication error
+     * Commands are sent to all TAMs at once; the method blocks until all TAMs acknowledged
+     * or BULK_COMMAND_TIMEOUT expired.
+     * @return report of the outcome for each TAM
      */
-    public synchronized void sendSwitchOffLedsCommandToAllTAMs() throws XBeeException
+    public BulkCommandReport sendSwitchOffLedsCommandToAllTAMs()
     {
+        log.debug("Switching off LEDs of " + listOfTAMs.size() + " TAMs...");
         int[] payload = new int[] { PACKET_TYPE_CT_SET_LEDS, 0, 0, 0 };
-        DMTxRequest sendRequest = new DMTxRequest(null, payload);
-        for (TAM tam : listOfTAMs.values())
-        {
-            log.debug("Switching off LEDs of " + tam.getId() + "...");
-            sendRequest.setDestAddr64(tam.getAddress64());
+        BulkCommandReport report = bulkCommandSender.send(listOfTAMs.values(), payload, BULK_COMMAND_TIMEOUT);
+        logBulkCommandReport("Switched off LEDs", report);
+        return report;
+    }
 
-            XBeeResponse response = xbee.sendSynchronous(sendRequest, 10000);
-            if (response instanceof DMTxStatusResponse)
-            {
-                DMTxStatusResponse statusResponse = (DMTxStatusResponse) response;
-                if (statusResponse.getDeliveryStatus() == DMTxStatusResponse.DeliveryStatus.SUCCESS)
-                {
-                    log.debug("Successfully switched off LEDs of " + tam.getId());
-                }
-                else
-                {
-                    log.error("Failure to switch off LEDs of " + tam.getId() + " due to error " + statusResponse.getDeliveryStatus());
-                }
-            }
-            else
-            {
-                log.warn("Send response is of unexpected class " + response.getClass());
-            }
+    /**
+     * Logs the outcome of a bulk command.
+     * @param action  description of the command
+     * @param report  report returned by the BulkCommandSender
+     */
+    private void logBulkCommandReport(String action, BulkCommandReport report)
+    {
+        if (report.isComplete())
+        {
+            log.debug(action + ": " + report);
+        }
+        else
+        {
+            log.error(action + ": " + report);
         }
     }
 
@@ -524,42 +1312,91 @@ public class Coordinator
      */
     public void start() throws Exception
     {
+        PacketRecorder packetRecorder = null;
         try
         {
-            // start communication with Xbee module
-            xbee.open(device, baudRate);
+            // record the session if requested
+            if (captureFile != null)
+            {
+                packetRecorder = new PacketRecorder(captureFile);
+                radios.get(0).getConfiguration().withPacketRecorder(packetRecorder);
+                log.info("Recording packets to " + captureFile);
+            }
+            if (eventLogFile != null)
+                EventLog.open(eventLogFile);
+
+            // decode the status reports of the TAMs while parsing the packets; the registry is shared by
+            // all Xbee connections of the process, so the previous decoder is restored on shutdown
+            statusDecoder = new TAMStatusDecoder();
+            replacedDecoder = ResponseDecoderRegistry.register(ApiId.DM_RX_RESPONSE, statusDecoder);
+
+            // start communication with all Xbee modules
+            for (Radio radio : radios)
+            {
+                radio.getConfiguration().withFlyweightRx(flyweightReceive);
+                radio.open();
+                log.info("Opened " + radio);
+            }
 
             // retrieve the node discovery timeout from the Xbee
             AtCommandResponse nodeTimeout = (AtCommandResponse)xbee.sendSynchronous(new AtCommand("NT"));
             final long nodeDiscoveryTimeout = ByteUtils.convertMultiByteToInt(nodeTimeout.getValue()) * 100;
             log.debug("Node discovery timeout is " + nodeDiscoveryTimeout + " milliseconds");
 
+            // load the TAMs known from earlier runs, before TAMs can be discovered
+            if (registryFile != null)
+            {
+                registry = new TAMRegistry(registryFile);
+                try
+                {
+                    registry.load();
+                    preloadTAMs();
+                }
+                catch (IOException e)
+                {
+                    log.error("Failed to load TAM registry " + registryFile + ", starting without: " + e);
+                    registry = null;
+                }
+            }
+
+            // expose the metrics, including the depths of the queues between the threads
+            registerGauges();
+            if (metricsPort >= 0)
+                metricsServer = new MetricsServer(metrics, metricsPort);
+
+            // create the resolver for the ids of unknown TAMs, before TAMs can be discovered
+            nodeResolver = new NodeResolver(xbee, this, scheduler.getExecutor(CoordinatorScheduler.Executor.IO), registry);
+
             // add packet listener that parses replies to AT commands
-            xbee.addPacketListener(new ATCommandPacketListener(this));
+            xbee.addPacketListener(new ATCommandPacketListener(this), ApiId.AT_RESPONSE);
 
-            // add packet listener for all normal packets
-            xbee.addPacketListener(new TAMResponsePacketListener(this));
+            // add packet listener for all normal packets, received by any radio
+            for (Radio radio : radios)
+            {
+                TAMResponsePacketListener listener = new TAMResponsePacketListener(this, radio.getIndex());
+                radio.getXBee().addPacketListener(listener, ApiId.DM_RX_RESPONSE, ApiId.DM_TX_STATUS_RESPONSE);
+                if (flyweightReceive)
+                    radio.getXBee().addFrameListener(listener);
+            }
 
             // schedule a task that steps all tam controllers at a regular interval
             // it also steps the experiment
-            final ConcurrentHashMap<String, TAM> myListOfTAMs = listOfTAMs;
-            getTimer().scheduleAtFixedRate(new TimerTask()
+            final TAMDirectory myListOfTAMs = listOfTAMs;
+            controllerStepper = new ControllerStepper(stepParallelism);
+            log.debug("Stepping controllers " + (controllerStepper.isParallel() ? "in parallel on " + stepParallelism + " threads" : "serially"));
+            scheduler.scheduleAtFixedRate("step", CoordinatorScheduler.Executor.STEP, new Runnable()
             {
                 @Override
                 public void run()
                 {
                     if (experiment.isReady())
                     {
+                        long tickStart = System.nanoTime();
                         experiment.step();
 
-                        for (TAM tam : myListOfTAMs.values())
-                        {
-                            if (tam.getController() != null)
-                                tam.getController().step();
-                        }
-
-
-
+                        // returns when all controllers have been stepped, marking the end of the tick
+                        controllerStepper.step(myListOfTAMs.values());
+                        metrics.recordStepDuration(System.nanoTime() - tickStart);
                     }
 
                     if (experiment.isFinished())
@@ -567,25 +1404,26 @@ public class Coordinator
                         setShutdownRequested(true);
                     }
                 }
-            }, 0, STEP_INTERVAL);
+            }, STEP_INTERVAL);
 
-            // schedule a task that sends all requests that are currently in the queue
-            getTimer().scheduleAtFixedRate(new TimerTask()
+            // schedule a task that sends all requests that are currently in the queues
+            scheduler.scheduleAtFixedRate("send queue", CoordinatorScheduler.Executor.IO, new Runnable()
             {
                 @Override
                 public void run()
                 {
                     try
                     {
-                        // send all packets in the send queue asynchronously
-                        while (sendRequestQueue.size() > 0)
+                        // send the packets in the send queue of each radio asynchronously, as many as its serial port can take
+                        for (Radio radio : radios)
                         {
-                            // retrieves and removes the head of the queue
-                            DMTxRequest sendRequest = sendRequestQueue.poll();
-
-                            // send the packet
-                            log.debug("Sending a packet to " + sendRequest.getDestAddr64().toString());
-                            xbee.sendAsynchronous(sendRequest);
+                            DMTxRequest sendRequest;
+                            while ((sendRequest = radio.getSendQueue().poll()) != null)
+                            {
+                                // send the packet
+                                log.debug("Sending a packet to " + sendRequest.getDestAddr64().toString() + " over " + radio);
+                                sendTracked(radio, sendRequest);
+                            }
                         }
 
                         // if a node discovery has been requested (and there isn't one already running)
@@ -597,7 +1435,7 @@ public class Coordinator
                             log.debug("Requesting node discovery (AT command ND)");
                             xbee.sendAsynchronous(new AtCommand("ND"));
 
-                            getTimer().schedule(new TimerTask()
+                            scheduler.newTimeout(new Runnable()
                             {
                                 @Override
                                 public void run()
@@ -615,11 +1453,58 @@ public class Coordinator
                     }
 
                 }
-            }, 0, SEND_QUEUE_INTERVAL);
+            }, SEND_QUEUE_INTERVAL);
+
+
+            // schedule a task that sends the queued queries for the ids of unknown TAMs
+            scheduler.scheduleAtFixedRate("node resolution", CoordinatorScheduler.Executor.IO, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    nodeResolver.sendPending();
+                }
+            }, RESOLVE_INTERVAL);
 
+            // schedule a task that writes the state of all TAMs to the registry, and verify the
+            // TAMs known from earlier runs that do not report by themselves
+            if (registry != null)
+            {
+                scheduler.scheduleAtFixedRate("registry", CoordinatorScheduler.Executor.IO, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        registry.checkpoint(listOfTAMs.values());
+                    }
+                }, REGISTRY_INTERVAL);
+
+                final long startTime = new Date().getTime();
+                scheduler.getExecutor(CoordinatorScheduler.Executor.IO).schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        revalidateTAMs(startTime);
+                    }
+                }, REVALIDATION_DELAY, TimeUnit.MILLISECONDS);
+            }
+
+            // schedule a task that writes a snapshot of the metrics
+            if (metricsSnapshotFile != null)
+            {
+                scheduler.scheduleAtFixedRate("metrics", CoordinatorScheduler.Executor.IO, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        writeMetricsSnapshot();
+                    }
+                }, METRICS_INTERVAL);
+            }
 
             // schedule task updates the signal strength from time to time
-            getTimer().scheduleAtFixedRate(new TimerTask()
+            scheduler.scheduleAtFixedRate("signal strength", CoordinatorScheduler.Executor.IO, new Runnable()
             {
                 @Override
                 public void run()
@@ -634,18 +1519,18 @@ public class Coordinator
                         log.error(xe);
                     }
                 }
-            }, 0, CHECK_DB_INTERVAL);
+            }, CHECK_DB_INTERVAL);
 
 
             // schedule task that requests a node discovery from time to time
-            getTimer().scheduleAtFixedRate(new TimerTask()
+            scheduler.scheduleAtFixedRate("node discovery", CoordinatorScheduler.Executor.IO, new Runnable()
             {
                 @Override
                 public void run()
                 {
                     setNodeDiscoveryRequested(true);
                 }
-            }, 0, TRIGGER_ND_INTERVAL);
+            }, TRIGGER_ND_INTERVAL);
 
 
             // loop until the controller calls shutdown
@@ -666,14 +1551,49 @@ public class Coordinator
         }
         finally
         {
-            // cancel all  timers still running
-            getTimer().cancel();
+            // cancel all tasks still running
+            scheduler.shutdown();
+            if (controllerStepper != null)
+                controllerStepper.shutdown();
+            for (PeriodicTaskStatistics statistics : scheduler.getStatistics())
+            {
+                log.info("Task statistics: " + statistics);
+            }
+            for (Radio radio : radios)
+            {
+                OutboundCommandQueue sendQueue = radio.getSendQueue();
+                log.info("Send queue of " + radio + ": " + sendQueue.getSentCount() + " commands sent, "
+                        + sendQueue.getCoalescedCount() + " coalesced, " + sendQueue.size() + " left");
+            }
+
+            // disconnect all xbees
+            for (Radio radio : radios)
+            {
+                log.info("Closing " + radio);
+                radio.close();
+            }
+
+            if (packetRecorder != null)
+                packetRecorder.close();
+
+            // leave the parsing of DM RX packets to other connections as it was, unless it was changed meanwhile
+            if (statusDecoder != null && ResponseDecoderRegistry.get(ApiId.DM_RX_RESPONSE.getValue()) == statusDecoder)
+                ResponseDecoderRegistry.register(ApiId.DM_RX_RESPONSE, replacedDecoder);
+
+            // write the remaining events
+            EventLog.close();
+
+            // keep the final metrics
+            if (metricsServer != null)
+                metricsServer.stop();
+            if (metricsSnapshotFile != null)
+                writeMetricsSnapshot();
 
-            // disconnect xbee
-            if (xbee.isConnected())
+            // store the latest state of all TAMs for the next run
+            if (registry != null)
             {
-                log.info("Closing xbee");
-                xbee.close();
+                registry.checkpoint(listOfTAMs.values());
+                registry.close();
             }
         }
     }
@@ -0,0 +1,179 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class runs all tasks of the coordinator.
+ *
+ * Periodic tasks run on one of two single-threaded executors: the step executor runs the
+ * experiment and the controllers of the TAMs, the I/O executor runs everything that talks to the
+ * Xbee module (sending queued requests, requesting signal strength or node discovery). A slow
+ * controller therefore does not delay sending packets, and vice versa.
+ *
+ * One-shot timeouts, such as the timeouts of commands sent to the TAMs, run on a hashed timing wheel
+ * where cancelling is cheap.
+ *
+ * Every periodic task records jitter and overrun statistics.
+ *
+ * @see HashedWheelTimer
+ * @see PeriodicTaskStatistics
+ */
+public class CoordinatorScheduler
+{
+    private final static Logger log = Logger.getLogger(CoordinatorScheduler.class);
+
+    // resolution of the timing wheel in milliseconds
+    public static final long TIMEOUT_TICK = 10;
+    // number of buckets of the timing wheel; one turn of the wheel takes TIMEOUT_TICK * TIMEOUT_TICKS_PER_WHEEL ms
+    public static final int TIMEOUT_TICKS_PER_WHEEL = 512;
+
+    /**
+     * Executors the periodic tasks can run on.
+     */
+    public enum Executor
+    {
+        // experiment and controller step functions
+        STEP,
+        // communication with the Xbee module
+        IO
+    }
+
+    // executor that runs the step functions
+    private final ScheduledThreadPoolExecutor stepExecutor;
+    // executor that runs tasks that communicate with the Xbee
+    private final ScheduledThreadPoolExecutor ioExecutor;
+    // wheel that runs timeouts
+    private final HashedWheelTimer timeoutTimer;
+
+    // statistics of all periodic tasks
+    private final List<PeriodicTaskStatistics> statistics;
+
+
+    /**
+     * Creates the scheduler and starts its threads.
+     */
+    public CoordinatorScheduler()
+    {
+        this.stepExecutor = createExecutor("CoordinatorScheduler-step");
+        this.ioExecutor = createExecutor("CoordinatorScheduler-io");
+        this.timeoutTimer = new HashedWheelTimer("CoordinatorScheduler-timeouts", TIMEOUT_TICK, TimeUnit.MILLISECONDS, TIMEOUT_TICKS_PER_WHEEL);
+        this.statistics = new CopyOnWriteArrayList<PeriodicTaskStatistics>();
+    }
+
+    /**
+     * Creates a single-threaded executor with a named thread.
+     * @param name  name of the thread
+     * @return executor
+     */
+    private static ScheduledThreadPoolExecutor createExecutor(final String name)
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r);
+                thread.setName(name);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Schedules a task to run at a fixed rate, starting immediately.
+     * If a run takes longer than the period, the next run starts late but runs are not skipped.
+     * Exceptions thrown by the task are logged and do not stop later runs.
+     * @param name      name of the task, used in the statistics
+     * @param executor  executor the task runs on
+     * @param task      task to run
+     * @param period    period in milliseconds
+     * @return statistics of the task
+     */
+    public PeriodicTaskStatistics scheduleAtFixedRate(String name, Executor executor, final Runnable task, long period)
+    {
+        final PeriodicTaskStatistics taskStatistics = new PeriodicTaskStatistics(name, period, TimeUnit.MILLISECONDS);
+        final long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        statistics.add(taskStatistics);
+
+        getExecutor(executor).scheduleAtFixedRate(new Runnable()
+        {
+            // time the first run started; later runs should start at multiples of the period after it
+            private long firstStart = -1;
+            private long runs = 0;
+
+            public void run()
+            {
+                long start = System.nanoTime();
+                if (firstStart < 0)
+                    firstStart = start;
+                long jitter = Math.max(start - (firstStart + runs * periodNanos), 0);
+                runs++;
+
+                try
+                {
+                    task.run();
+                }
+                catch (Throwable t)
+                {
+                    // an exception would cancel all further runs
+                    log.error("Exception in periodic task " + taskStatistics.getName(), t);
+                }
+
+                taskStatistics.record(jitter, System.nanoTime() - start);
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+
+        return taskStatistics;
+    }
+
+    /**
+     * Schedules a task to run once after the given delay on the timing wheel.
+     * The task runs on the thread of the wheel and must be short.
+     * @param task   task to run
+     * @param delay  delay in milliseconds
+     * @return handle that can be used to cancel the task
+     */
+    public HashedWheelTimer.Timeout newTimeout(Runnable task, long delay)
+    {
+        return timeoutTimer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the executor of the given kind, e.g. to run a one-off task on it.
+     * @param executor  kind of executor
+     * @return executor
+     */
+    public ScheduledExecutorService getExecutor(Executor executor)
+    {
+        return executor == Executor.STEP ? stepExecutor : ioExecutor;
+    }
+
+    /**
+     * Returns the statistics of all periodic tasks.
+     * @return list of statistics
+     */
+    public List<PeriodicTaskStatistics> getStatistics()
+    {
+        return new ArrayList<PeriodicTaskStatistics>(statistics);
+    }
+
+    /**
+     * Stops all executors and the timing wheel. Tasks that are still scheduled are not run.
+     */
+    public void shutdown()
+    {
+        stepExecutor.shutdownNow();
+        ioExecutor.shutdownNow();
+        timeoutTimer.stop();
+    }
+}
@@ -0,0 +1,273 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This class is a timer for large numbers of short timeouts that are usually cancelled,
+ * such as the timeouts of commands sent to the TAMs.
+ *
+ * Timeouts are kept in a wheel of buckets; a worker thread advances one bucket per tick and
+ * runs the timeouts that expired in it. Scheduling and cancelling a timeout is O(1) and never
+ * blocks: cancelled timeouts are only marked and dropped the next time the worker passes their bucket,
+ * so they do not pile up like cancelled TimerTasks in java.util.Timer.
+ *
+ * Timeouts expire at most one tick late. Tasks run on the worker thread and must be short.
+ */
+public class HashedWheelTimer
+{
+    private final static Logger log = Logger.getLogger(HashedWheelTimer.class);
+
+    // states of a timeout
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public static class Timeout
+    {
+        // task run when the timeout expires
+        private final Runnable task;
+        // absolute expiry time in nanoseconds, relative to the start of the timer
+        private final long deadline;
+        // number of full turns of the wheel left before the timeout expires
+        private long remainingRounds;
+        // state of the timeout
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        /**
+         * Creates a timeout.
+         * @param task      task to run on expiry
+         * @param deadline  expiry time in nanoseconds since the start of the timer
+         */
+        private Timeout(Runnable task, long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout. Has no effect if the timeout expired already.
+         * @return true if the timeout was cancelled by this call
+         */
+        public boolean cancel()
+        {
+            return state.compareAndSet(STATE_PENDING, STATE_CANCELLED);
+        }
+
+        /**
+         * Returns true if the timeout was cancelled.
+         * @return true if cancelled
+         */
+        public boolean isCancelled()
+        {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        /**
+         * Returns true if the timeout expired and its task was run.
+         * @return true if expired
+         */
+        public boolean isExpired()
+        {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        /**
+         * Marks the timeout as expired and runs its task, unless it was cancelled.
+         */
+        private void expire()
+        {
+            if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED))
+                return;
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                log.error("Exception in timeout task", t);
+            }
+        }
+    }
+
+    /**
+     * Bucket of the wheel: the timeouts that expire in the ticks mapped to it.
+     */
+    private static final class Bucket
+    {
+        // timeouts, in the order they were put into the bucket
+        private final LinkedList<Timeout> timeouts = new LinkedList<Timeout>();
+    }
+
+    // duration of a tick in nanoseconds
+    private final long tickDuration;
+    // buckets of the wheel
+    private final Bucket[] wheel;
+    // mask used to map ticks to buckets (the number of buckets is a power of two)
+    private final int mask;
+
+    // timeouts that were scheduled but not yet put into a bucket by the worker
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    // start time of the timer in nanoseconds
+    private final long startTime;
+    // thread that advances the wheel
+    private final Thread worker;
+    // flag that designates if the timer should stop
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates and starts the timer.
+     * @param name          name of the worker thread
+     * @param tickDuration  duration of a tick, i.e. the resolution of the timer
+     * @param unit          unit of tickDuration
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel)
+    {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("Tick duration must be > 0");
+        if (ticksPerWheel <= 0)
+            throw new IllegalArgumentException("Ticks per wheel must be > 0");
+
+        int buckets = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (ticksPerWheel == 1)
+            buckets = 1;
+
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        this.mask = buckets - 1;
+
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                runWorker();
+            }
+        });
+        worker.setName(name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     * @param task   task to run
+     * @param delay  delay
+     * @param unit   unit of delay
+     * @return handle that can be used to cancel the task
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit)
+    {
+        if (stopped)
+            throw new IllegalStateException("Timer has been stopped");
+
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer. Pending timeouts are not run.
+     */
+    public void stop()
+    {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /**
+     * Main loop of the worker thread: waits for the next tick, moves new timeouts into
+     * their buckets and expires the timeouts of the current bucket.
+     */
+    private void runWorker()
+    {
+        long tick = 0;
+        while (!stopped)
+        {
+            long tickDeadline = tickDuration * (tick + 1);
+
+            // sleep until the end of the current tick
+            long sleepNanos = tickDeadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException e)
+                {
+                    if (stopped)
+                        return;
+                }
+            }
+
+            transferNewTimeouts(tick);
+            expireTimeouts(wheel[(int) (tick & mask)], tickDeadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Puts all newly scheduled timeouts into the bucket of the tick they expire in.
+     * @param currentTick  tick that is being processed
+     */
+    private void transferNewTimeouts(long currentTick)
+    {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null)
+        {
+            if (timeout.isCancelled())
+                continue;
+
+            // never schedule into the past, expire those in the current tick
+            long expiryTick = Math.max(timeout.deadline / tickDuration, currentTick);
+            timeout.remainingRounds = (expiryTick - currentTick) / wheel.length;
+            wheel[(int) (expiryTick & mask)].timeouts.add(timeout);
+        }
+    }
+
+    /**
+     * Expires all timeouts in the bucket that are due, and drops cancelled ones.
+     * @param bucket        bucket of the current tick
+     * @param tickDeadline  end of the current tick in nanoseconds since the start of the timer
+     */
+    private void expireTimeouts(Bucket bucket, long tickDeadline)
+    {
+        Iterator<Timeout> it = bucket.timeouts.iterator();
+        while (it.hasNext())
+        {
+            Timeout timeout = it.next();
+            if (timeout.isCancelled())
+            {
+                it.remove();
+            }
+            else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline)
+            {
+                it.remove();
+                timeout.expire();
+            }
+            else
+            {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+}
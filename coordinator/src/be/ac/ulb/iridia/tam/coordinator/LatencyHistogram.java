@@ -0,0 +1,169 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * This class is a histogram of latencies with a bounded relative error, in the style of an
+ * HdrHistogram: values below 128 are counted exactly; above, every power of two is split into
+ * 64 buckets of equal width, so a value is reported with an error of less than 1.6%.
+ *
+ * The buckets are allocated once; recording a value is lock-free and does not allocate, so it
+ * can be done on the threads that handle packets. Reading percentiles while values are
+ * recorded gives a consistent enough picture for monitoring, but not an atomic snapshot.
+ */
+public class LatencyHistogram
+{
+    // number of values counted exactly, also the first value that is bucketed
+    private static final int LINEAR_VALUES = 128;
+
+    // number of bits below the most significant bit that select the bucket within a power of two
+    private static final int SUB_BUCKET_BITS = 6;
+
+    // number of buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // most significant bit of the values that are counted exactly
+    private static final int LINEAR_BITS = 7;
+
+    // number of buckets, covering all positive long values
+    private static final int BUCKETS = LINEAR_VALUES + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    // number of values in each bucket
+    private final AtomicLongArray counts;
+
+    // number of values recorded
+    private final AtomicLong count;
+
+    // sum of all values recorded
+    private final AtomicLong sum;
+
+    // largest value recorded
+    private final AtomicLong max;
+
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value  value to record, e.g. a latency in microseconds
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value))
+        {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     * @return number of values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest value recorded.
+     * @return largest value, 0 if no value was recorded
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     * @return sum of all values
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     * @return mean, 0 if no value was recorded
+     */
+    public double getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the values lie.
+     * @param percentile  percentage between 0 and 100
+     * @return largest value of the bucket that holds the percentile, 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     * @param value  non-negative value
+     * @return index of the bucket
+     */
+    static int bucketOf(long value)
+    {
+        if (value < LINEAR_VALUES)
+            return (int) value;
+
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_VALUES + (msb - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     * @param bucket  index of the bucket
+     * @return largest value of the bucket
+     */
+    static long highestValueOf(int bucket)
+    {
+        if (bucket < LINEAR_VALUES)
+            return bucket;
+
+        int msb = (bucket - LINEAR_VALUES) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_VALUES) % SUB_BUCKETS;
+        int shift = msb - SUB_BUCKET_BITS;
+        long lowest = ((long) (SUB_BUCKETS + subBucket)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
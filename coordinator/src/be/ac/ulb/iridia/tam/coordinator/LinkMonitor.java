@@ -0,0 +1,180 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import be.ac.ulb.iridia.tam.common.LinkHealth;
+
+import java.util.Date;
+
+
+/**
+ * This class estimates the health of the radio link to a single TAM from the commands sent
+ * to it, and derives the timeout after which an unacknowledged command is retried.
+ *
+ * The round-trip time is smoothed as in TCP (Jacobson): the retry timeout is the smoothed
+ * round-trip time plus four times its mean deviation. Only commands acknowledged on their first
+ * transmission are measured (Karn), as the acknowledgement of a retried command can not be
+ * matched to one transmission. Every consecutive timeout doubles the retry timeout.
+ *
+ * When a command is given up after all retries, the link is UNREACHABLE and further commands are
+ * held back for a back-off period that doubles with every command given up in a row. A status
+ * report of the TAM ends the back-off early, as it shows that the TAM is in range again.
+ *
+ * The health is published as immutable LinkHealth, replaced on every change.
+ *
+ * @see LinkHealth
+ */
+class LinkMonitor
+{
+    // bounds of the retry timeout in milliseconds
+    static final long MIN_RETRY_TIMEOUT = 200;
+    static final long MAX_RETRY_TIMEOUT = 30 * 1000;
+    // maximum time in milliseconds commands are held back from an UNREACHABLE TAM
+    static final long MAX_BACKOFF = 60 * 1000;
+    // maximum number of doublings of the timeouts
+    private static final int MAX_BACKOFF_SHIFT = 8;
+
+    // retry timeout in milliseconds used until the round-trip time was measured
+    private final long initialTimeout;
+
+    // smoothed round-trip time in milliseconds, -1 if not measured yet
+    private long smoothedRoundTripTime = -1;
+    // smoothed mean deviation of the round-trip time in milliseconds
+    private long roundTripTimeDeviation;
+
+    // state of the link
+    private LinkHealth.State state = LinkHealth.State.UNKNOWN;
+    // number of commands that timed out since the last acknowledged command
+    private int consecutiveTimeouts;
+    // number of commands given up in a row
+    private int consecutiveGiveUps;
+    // timestamp until which commands are held back, 0 if they are not
+    private long backoffUntil;
+    // timestamp of the last acknowledged command, 0 if there was none
+    private long lastAckTimestamp;
+
+    // health as last published
+    private volatile LinkHealth health = LinkHealth.UNKNOWN;
+
+
+    /**
+     * Creates the monitor of a link nothing has been sent over yet.
+     * @param initialTimeout  retry timeout in milliseconds until the round-trip time was measured
+     */
+    LinkMonitor(long initialTimeout)
+    {
+        this.initialTimeout = initialTimeout;
+    }
+
+    /**
+     * Returns the health of the link.
+     * @return snapshot of the health of the link
+     */
+    LinkHealth getHealth()
+    {
+        return health;
+    }
+
+    /**
+     * Returns the time after which a command is retried, including the back-off of the
+     * commands that timed out since the last acknowledgement.
+     * @param commandTimeout  timeout of the command in milliseconds, used until the round-trip time was measured
+     * @return retry timeout in milliseconds
+     */
+    synchronized long getRetryTimeout(long commandTimeout)
+    {
+        long timeout = commandTimeout;
+        if (smoothedRoundTripTime >= 0)
+            timeout = Math.max(MIN_RETRY_TIMEOUT, smoothedRoundTripTime + 4 * roundTripTimeDeviation);
+
+        return Math.min(MAX_RETRY_TIMEOUT, timeout << Math.min(consecutiveTimeouts, MAX_BACKOFF_SHIFT));
+    }
+
+    /**
+     * Returns true if commands to the TAM are held back, as the last command was given up and
+     * the back-off did not expire yet.
+     * @return true if no command should be sent
+     */
+    synchronized boolean isHeldBack()
+    {
+        return state == LinkHealth.State.UNREACHABLE && new Date().getTime() < backoffUntil;
+    }
+
+    /**
+     * Records that a command was acknowledged by the TAM.
+     * @param roundTripTime  round-trip time of the command in milliseconds, -1 if the command was retried
+     */
+    synchronized void recordAck(long roundTripTime)
+    {
+        if (roundTripTime >= 0)
+        {
+            if (smoothedRoundTripTime < 0)
+            {
+                smoothedRoundTripTime = roundTripTime;
+                roundTripTimeDeviation = roundTripTime / 2;
+            }
+            else
+            {
+                roundTripTimeDeviation = (3 * roundTripTimeDeviation + Math.abs(smoothedRoundTripTime - roundTripTime)) / 4;
+                smoothedRoundTripTime = (7 * smoothedRoundTripTime + roundTripTime) / 8;
+            }
+        }
+
+        state = LinkHealth.State.GOOD;
+        consecutiveTimeouts = 0;
+        consecutiveGiveUps = 0;
+        backoffUntil = 0;
+        lastAckTimestamp = new Date().getTime();
+        publish();
+    }
+
+    /**
+     * Records that a command timed out and is retried.
+     */
+    synchronized void recordTimeout()
+    {
+        consecutiveTimeouts++;
+        if (state != LinkHealth.State.UNREACHABLE)
+            state = LinkHealth.State.DEGRADED;
+        publish();
+    }
+
+    /**
+     * Records that a command timed out after all retries. Commands are held back until the
+     * back-off expired or the TAM reports.
+     */
+    synchronized void recordGiveUp()
+    {
+        consecutiveTimeouts++;
+        consecutiveGiveUps++;
+        state = LinkHealth.State.UNREACHABLE;
+
+        long backoff = getRetryTimeout(initialTimeout) << Math.min(consecutiveGiveUps, MAX_BACKOFF_SHIFT);
+        backoffUntil = new Date().getTime() + Math.min(MAX_BACKOFF, backoff);
+        publish();
+    }
+
+    /**
+     * Records a status report of the TAM. An UNREACHABLE TAM is in range again, so the back-off
+     * ends and the next command is sent at once.
+     * @return true if the TAM was UNREACHABLE
+     */
+    synchronized boolean recordHeartbeat()
+    {
+        if (state != LinkHealth.State.UNREACHABLE)
+            return false;
+
+        state = LinkHealth.State.DEGRADED;
+        consecutiveGiveUps = 0;
+        backoffUntil = 0;
+        publish();
+        return true;
+    }
+
+    /**
+     * Publishes the current health.
+     */
+    private void publish()
+    {
+        health = new LinkHealth(state, smoothedRoundTripTime, getRetryTimeout(initialTimeout),
+                consecutiveTimeouts, lastAckTimestamp);
+    }
+}
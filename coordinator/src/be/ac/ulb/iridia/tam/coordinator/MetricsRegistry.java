@@ -0,0 +1,370 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.digimesh.DMTxStatusResponse;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * This class collects the metrics of the coordinator and the links to all TAMs, to find out
+ * which TAMs and links limit the throughput of an experiment:
+ *  - per TAM: heartbeat inter-arrival times, SET_LEDS and WRITE_ROBOT command-to-ack latencies,
+ *    delivered and failed transmissions and their retries (see TAMMetrics)
+ *  - the same latencies over all TAMs, the delivery status of all transmissions and the
+ *    duration of the step task
+ *  - gauges registered by the coordinator, e.g. the depth of the send and response queues
+ *
+ * All latencies are in microseconds. Recording is lock-free and does not allocate.
+ *
+ * The metrics are written in the Prometheus text format by writeTo(), which is used by the
+ * MetricsServer and for the periodic snapshot file of the coordinator.
+ */
+public class MetricsRegistry
+{
+    /**
+     * A value that is read when the metrics are written, e.g. the depth of a queue.
+     */
+    public interface Gauge
+    {
+        /**
+         * Returns the current value.
+         * @return value of the gauge
+         */
+        long getValue();
+    }
+
+    // percentiles written for every histogram
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    // TAMs whose metrics are written
+    private final TAMDirectory tams;
+
+    // gauges, by name
+    private final Map<String, Gauge> gauges;
+
+    // latencies over all TAMs, see TAMMetrics
+    private final LatencyHistogram heartbeatInterval;
+    private final LatencyHistogram setLedsLatency;
+    private final LatencyHistogram writeRobotLatency;
+
+    // duration of the runs of the step task
+    private final LatencyHistogram stepDuration;
+
+    // number of transmissions by delivery status, indexed by DeliveryStatus.ordinal()
+    private final AtomicLongArray deliveryStatus;
+
+    // number of transmissions whose delivery status never arrived
+    private final AtomicLong deliveryTimeouts;
+    // number of transmissions that could not be written to the Xbee module
+    private final AtomicLong sendFailures;
+
+    // number of retries of all transmissions
+    private final AtomicLong retries;
+
+    // number of SET_LEDS and WRITE_ROBOT commands retried by the coordinator after their timeout
+    private final AtomicLong commandRetries;
+
+    // number of SET_LEDS and WRITE_ROBOT commands given up after all retries
+    private final AtomicLong commandsGivenUp;
+
+
+    /**
+     * Creates the registry.
+     * @param tams  TAMs whose metrics are written
+     */
+    MetricsRegistry(TAMDirectory tams)
+    {
+        this.tams = tams;
+        this.gauges = new ConcurrentSkipListMap<String, Gauge>();
+        this.heartbeatInterval = new LatencyHistogram();
+        this.setLedsLatency = new LatencyHistogram();
+        this.writeRobotLatency = new LatencyHistogram();
+        this.stepDuration = new LatencyHistogram();
+        this.deliveryStatus = new AtomicLongArray(DMTxStatusResponse.DeliveryStatus.values().length);
+        this.deliveryTimeouts = new AtomicLong();
+        this.sendFailures = new AtomicLong();
+        this.retries = new AtomicLong();
+        this.commandRetries = new AtomicLong();
+        this.commandsGivenUp = new AtomicLong();
+    }
+
+    /**
+     * Registers a gauge, replacing a gauge of the same name.
+     * @param name   name of the metric, e.g. "send_queue_depth"
+     * @param gauge  gauge to read when the metrics are written
+     */
+    public void registerGauge(String name, Gauge gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Records a status report of a TAM.
+     * @param tam  TAM that reported
+     */
+    void recordHeartbeat(TAM tam)
+    {
+        long interval = tam.getMetrics().recordHeartbeat(System.nanoTime());
+        if (interval >= 0)
+            heartbeatInterval.record(interval);
+    }
+
+    /**
+     * Records that a SET_LEDS command was issued to a TAM.
+     * @param tam  TAM the command is sent to
+     */
+    void recordSetLedsIssued(TAM tam)
+    {
+        tam.getMetrics().recordSetLedsIssued(System.nanoTime());
+    }
+
+    /**
+     * Records that the pending SET_LEDS command of a TAM was confirmed.
+     * @param tam  TAM that confirmed the command
+     */
+    void recordSetLedsAcked(TAM tam)
+    {
+        long latency = tam.getMetrics().recordSetLedsAcked(System.nanoTime());
+        if (latency >= 0)
+            setLedsLatency.record(latency);
+    }
+
+    /**
+     * Records the delivery status of a transmission.
+     * @param tam         TAM the transmission was sent to, null if it is no longer known
+     * @param packetType  type of the packet sent, e.g. Coordinator.PACKET_TYPE_CT_WRITE_ROBOT
+     * @param sent        System.nanoTime() at which the transmission was sent
+     * @param response    delivery status, null if it did not arrive in time
+     */
+    void recordDelivery(TAM tam, int packetType, long sent, DMTxStatusResponse response)
+    {
+        if (response == null)
+        {
+            deliveryTimeouts.incrementAndGet();
+            if (tam != null)
+                tam.getMetrics().recordDelivery(false, 0);
+            return;
+        }
+
+        DMTxStatusResponse.DeliveryStatus status = response.getDeliveryStatus();
+        if (status != null)
+            deliveryStatus.incrementAndGet(status.ordinal());
+        retries.addAndGet(response.getRetryCount());
+
+        if (tam == null)
+            return;
+
+        boolean success = status == DMTxStatusResponse.DeliveryStatus.SUCCESS;
+        tam.getMetrics().recordDelivery(success, response.getRetryCount());
+
+        // a WRITE_ROBOT command is acknowledged by its delivery
+        if (success && packetType == Coordinator.PACKET_TYPE_CT_WRITE_ROBOT)
+        {
+            long latency = (System.nanoTime() - sent) / 1000;
+            tam.getMetrics().getWriteRobotLatency().record(latency);
+            writeRobotLatency.record(latency);
+        }
+    }
+
+    /**
+     * Records a transmission that could not be written to the Xbee module, and thus has no delivery status.
+     * @param tam  TAM the transmission was sent to, null if it is no longer known
+     */
+    void recordSendFailure(TAM tam)
+    {
+        sendFailures.incrementAndGet();
+        if (tam != null)
+            tam.getMetrics().recordDelivery(false, 0);
+    }
+
+    /**
+     * Records that a command timed out and is retried.
+     */
+    void recordCommandRetried()
+    {
+        commandRetries.incrementAndGet();
+    }
+
+    /**
+     * Records that a command timed out after all retries.
+     */
+    void recordCommandGivenUp()
+    {
+        commandsGivenUp.incrementAndGet();
+    }
+
+    /**
+     * Records a run of the step task.
+     * @param durationNanos  duration of the run in nanoseconds
+     */
+    void recordStepDuration(long durationNanos)
+    {
+        stepDuration.record(durationNanos / 1000);
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     * @param out  writer to write the metrics to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(Writer out) throws IOException
+    {
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet())
+        {
+            writeType(out, gauge.getKey(), "gauge");
+            writeValue(out, gauge.getKey(), null, gauge.getValue().getValue());
+        }
+
+        writeHistogram(out, "step_duration_us", null, stepDuration);
+        writeHistogram(out, "heartbeat_interval_us", null, heartbeatInterval);
+        writeHistogram(out, "set_leds_latency_us", null, setLedsLatency);
+        writeHistogram(out, "write_robot_latency_us", null, writeRobotLatency);
+
+        writeType(out, "tx_status_total", "counter");
+        for (DMTxStatusResponse.DeliveryStatus status : DMTxStatusResponse.DeliveryStatus.values())
+        {
+            writeValue(out, "tx_status_total", "status=\"" + status.name().toLowerCase(Locale.ROOT) + "\"",
+                    deliveryStatus.get(status.ordinal()));
+        }
+        writeValue(out, "tx_status_total", "status=\"timeout\"", deliveryTimeouts.get());
+        writeValue(out, "tx_status_total", "status=\"send_failed\"", sendFailures.get());
+        writeType(out, "tx_retries_total", "counter");
+        writeValue(out, "tx_retries_total", null, retries.get());
+        writeType(out, "command_retries_total", "counter");
+        writeValue(out, "command_retries_total", null, commandRetries.get());
+        writeType(out, "command_given_up_total", "counter");
+        writeValue(out, "command_given_up_total", null, commandsGivenUp.get());
+
+        writeTAMs(out);
+        out.flush();
+    }
+
+    /**
+     * Writes the metrics of every TAM, labelled with its id.
+     * @param out  writer to write the metrics to
+     * @throws IOException if writing fails
+     */
+    private void writeTAMs(Writer out) throws IOException
+    {
+        StringBuilder heartbeats = new StringBuilder();
+        StringBuilder delivered = new StringBuilder();
+        StringBuilder failed = new StringBuilder();
+        StringBuilder tamRetries = new StringBuilder();
+        StringBuilder intervals = new StringBuilder();
+        StringBuilder setLeds = new StringBuilder();
+        StringBuilder writeRobot = new StringBuilder();
+
+        for (TAM tam : tams.values())
+        {
+            TAMMetrics metrics = tam.getMetrics();
+            String label = "tam=\"" + (tam.getId() != null ? tam.getId() : tam.getAddress64().toString()) + "\"";
+
+            appendValue(heartbeats, "tam_heartbeats_total", label, metrics.getHeartbeats());
+            appendValue(delivered, "tam_tx_delivered_total", label, metrics.getDelivered());
+            appendValue(failed, "tam_tx_failed_total", label, metrics.getFailed());
+            appendValue(tamRetries, "tam_tx_retries_total", label, metrics.getRetries());
+            appendHistogram(intervals, "tam_heartbeat_interval_us", label, metrics.getHeartbeatInterval());
+            appendHistogram(setLeds, "tam_set_leds_latency_us", label, metrics.getSetLedsLatency());
+            appendHistogram(writeRobot, "tam_write_robot_latency_us", label, metrics.getWriteRobotLatency());
+        }
+
+        writeType(out, "tam_heartbeats_total", "counter");
+        out.write(heartbeats.toString());
+        writeType(out, "tam_tx_delivered_total", "counter");
+        out.write(delivered.toString());
+        writeType(out, "tam_tx_failed_total", "counter");
+        out.write(failed.toString());
+        writeType(out, "tam_tx_retries_total", "counter");
+        out.write(tamRetries.toString());
+        writeType(out, "tam_heartbeat_interval_us", "summary");
+        out.write(intervals.toString());
+        writeType(out, "tam_set_leds_latency_us", "summary");
+        out.write(setLeds.toString());
+        writeType(out, "tam_write_robot_latency_us", "summary");
+        out.write(writeRobot.toString());
+    }
+
+    /**
+     * Writes the TYPE line of a metric.
+     * @param out   writer to write to
+     * @param name  name of the metric
+     * @param type  type of the metric
+     * @throws IOException if writing fails
+     */
+    private static void writeType(Writer out, String name, String type) throws IOException
+    {
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    /**
+     * Writes a single sample.
+     * @param out     writer to write to
+     * @param name    name of the metric
+     * @param labels  labels of the sample, null for none
+     * @param value   value of the sample
+     * @throws IOException if writing fails
+     */
+    private static void writeValue(Writer out, String name, String labels, long value) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        appendValue(line, name, labels, value);
+        out.write(line.toString());
+    }
+
+    /**
+     * Writes a histogram as summary: percentiles, maximum, count and sum.
+     * @param out        writer to write to
+     * @param name       name of the metric
+     * @param labels     labels of the histogram, null for none
+     * @param histogram  histogram to write
+     * @throws IOException if writing fails
+     */
+    private static void writeHistogram(Writer out, String name, String labels, LatencyHistogram histogram) throws IOException
+    {
+        writeType(out, name, "summary");
+        StringBuilder lines = new StringBuilder();
+        appendHistogram(lines, name, labels, histogram);
+        out.write(lines.toString());
+    }
+
+    /**
+     * Appends a single sample.
+     * @param line    builder to append to
+     * @param name    name of the metric
+     * @param labels  labels of the sample, null for none
+     * @param value   value of the sample
+     */
+    private static void appendValue(StringBuilder line, String name, String labels, long value)
+    {
+        line.append(name);
+        if (labels != null)
+            line.append('{').append(labels).append('}');
+        line.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Appends a histogram as summary: percentiles, maximum, count and sum.
+     * @param lines      builder to append to
+     * @param name       name of the metric
+     * @param labels     labels of the histogram, null for none
+     * @param histogram  histogram to append
+     */
+    private static void appendHistogram(StringBuilder lines, String name, String labels, LatencyHistogram histogram)
+    {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double percentile : PERCENTILES)
+        {
+            appendValue(lines, name, prefix + "quantile=\"" + (percentile / 100) + "\"",
+                    histogram.getValueAtPercentile(percentile));
+        }
+        appendValue(lines, name, prefix + "quantile=\"1.0\"", histogram.getMax());
+        appendValue(lines, name + "_count", labels, histogram.getCount());
+        appendValue(lines, name + "_sum", labels, histogram.getSum());
+    }
+}
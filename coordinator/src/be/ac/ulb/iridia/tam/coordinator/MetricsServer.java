@@ -0,0 +1,120 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * This class serves the metrics of the coordinator over HTTP, at http://localhost:port/metrics,
+ * in the Prometheus text format. It only listens on the loopback interface.
+ *
+ * Requests are handled by a single thread of their own, so reading the metrics does not
+ * delay the coordinator.
+ *
+ * @see MetricsRegistry
+ */
+class MetricsServer
+{
+    private final static Logger log = Logger.getLogger(MetricsServer.class);
+
+    // path the metrics are served at
+    public static final String PATH = "/metrics";
+
+    // HTTP server
+    private final HttpServer server;
+
+    // thread that handles the requests
+    private final ExecutorService executor;
+
+
+    /**
+     * Creates the server and starts listening.
+     * @param metrics  metrics to serve
+     * @param port     port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    MetricsServer(final MetricsRegistry metrics, int port) throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "metrics server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        server.createContext(PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    if (!"GET".equals(exchange.getRequestMethod()))
+                    {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+
+                    ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+                    Writer writer = new OutputStreamWriter(body, "UTF-8");
+                    metrics.writeTo(writer);
+
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.size());
+                    OutputStream out = exchange.getResponseBody();
+                    body.writeTo(out);
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    log.warn("Serving metrics failed: " + e);
+                    throw e;
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        log.info("Serving metrics at http://localhost:" + getPort() + PATH);
+    }
+
+    /**
+     * Returns the port the server listens on, e.g. if it was created with port 0.
+     * @return port of the server
+     */
+    int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,240 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.RemoteAtResponse;
+import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
+import com.rapplogic.xbee.api.digimesh.DMRemoteAtRequest;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+
+/**
+ * This class resolves the node identifier (the id of the TAM) of single nodes, instead of running
+ * a node discovery over the whole network.
+ *
+ * A node is resolved by asking it for its NI setting with a remote AT command. Lookups of the same
+ * node are deduplicated: a node is only queried if it is not being queried already and if its last
+ * query did not fail less than RETRY_INTERVAL ago. Lookups are collected and sent in batches by
+ * sendPending(), at most MAX_IN_FLIGHT at a time.
+ *
+ * Identifiers stored in the TAM registry are used without querying the node. The registry is
+ * updated by the coordinator with every identifier it learns.
+ *
+ * The resolver also verifies that TAMs known from an earlier run are still there: a TAM that does not
+ * answer its query is removed by the coordinator until it reports again.
+ */
+class NodeResolver
+{
+    private final static Logger log = Logger.getLogger(NodeResolver.class);
+
+    // number of NI queries that may wait for their response at the same time
+    public static final int MAX_IN_FLIGHT = 16;
+
+    // time in milliseconds to wait for the response to an NI query
+    public static final int QUERY_TIMEOUT = 5000;
+
+    // time in milliseconds before a node whose query failed is queried again
+    public static final long RETRY_INTERVAL = 10000;
+
+    // marks a node in lastAttempt whose query is queued or in flight
+    private static final long QUERY_PENDING = -1;
+
+    // Xbee used to send the queries
+    private final XBee xbee;
+
+    // coordinator the resolved TAMs are reported to
+    private final Coordinator coordinator;
+
+    // executor that handles the responses, so the input stream thread is not held up
+    private final Executor executor;
+
+    // registry the identifiers of known nodes are taken from, null if there is none
+    private final TAMRegistry registry;
+
+    // nodes waiting to be queried
+    private final ConcurrentLinkedQueue<XBeeAddress64> queue;
+
+    // time of the last failed query of a node or QUERY_PENDING, by 64bit address packed into a long
+    private final ConcurrentHashMap<Long, Long> lastAttempt;
+
+    // nodes reported to the coordinator if their query fails, by 64bit address packed into a long,
+    // with the time since which they have not reported
+    private final ConcurrentHashMap<Long, Long> verifying;
+
+    // number of queries waiting for their response
+    private final AtomicInteger inFlight;
+
+
+    /**
+     * Creates the resolver.
+     * @param xbee         Xbee used to send the queries
+     * @param coordinator  coordinator the resolved TAMs are reported to
+     * @param executor     executor that handles the responses
+     * @param registry     registry the identifiers of known nodes are taken from, null if there is none
+     */
+    NodeResolver(XBee xbee, Coordinator coordinator, Executor executor, TAMRegistry registry)
+    {
+        this.xbee = xbee;
+        this.coordinator = coordinator;
+        this.executor = executor;
+        this.registry = registry;
+
+        this.queue = new ConcurrentLinkedQueue<XBeeAddress64>();
+        this.lastAttempt = new ConcurrentHashMap<Long, Long>();
+        this.verifying = new ConcurrentHashMap<Long, Long>();
+        this.inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Resolves the identifier of a node. If the identifier is in the registry, the node is reported to the
+     * coordinator at once, else a query is queued unless one is queued or in flight already.
+     * @param address64  64bit address of the node
+     */
+    void resolve(XBeeAddress64 address64)
+    {
+        String id = registry == null ? null : registry.getId(address64);
+        if (id != null)
+        {
+            log.debug("Resolved " + address64 + " from registry as " + id);
+            coordinator.updateDiscoveredTAM(id, address64);
+            return;
+        }
+
+        enqueue(address64);
+    }
+
+    /**
+     * Verifies that a node known from an earlier run is still there by querying its identifier.
+     * If the query fails, the coordinator is told that the node did not answer.
+     * @param address64  64bit address of the node
+     * @param since      timestamp since which the node has not reported
+     */
+    void verify(XBeeAddress64 address64, long since)
+    {
+        verifying.put(address64.toLong(), since);
+        enqueue(address64);
+    }
+
+    /**
+     * Queues a query for the identifier of a node, unless one is queued or in flight already or
+     * the last one failed recently.
+     * @param address64  64bit address of the node
+     */
+    private void enqueue(XBeeAddress64 address64)
+    {
+        long address = address64.toLong();
+
+        // skip nodes that are being queried or that failed recently
+        Long last = lastAttempt.get(address);
+        if (last != null && (last == QUERY_PENDING || System.currentTimeMillis() - last < RETRY_INTERVAL))
+            return;
+
+        boolean queued = last == null
+                ? lastAttempt.putIfAbsent(address, QUERY_PENDING) == null
+                : lastAttempt.replace(address, last, QUERY_PENDING);
+        if (queued)
+            queue.add(address64);
+    }
+
+    /**
+     * Sends the queued queries, as many as may be in flight. Called at a regular interval.
+     */
+    void sendPending()
+    {
+        XBeeAddress64 address64;
+        while (inFlight.get() < MAX_IN_FLIGHT && (address64 = queue.poll()) != null)
+        {
+            query(address64);
+        }
+    }
+
+    /**
+     * Returns the number of nodes that are queued or being queried.
+     * @return number of nodes that are queued or being queried
+     */
+    int getPendingCount()
+    {
+        return queue.size() + inFlight.get();
+    }
+
+    /**
+     * Sends the NI query to a node and handles the response asynchronously.
+     * @param address64  64bit address of the node
+     */
+    private void query(final XBeeAddress64 address64)
+    {
+        log.debug("Requesting NI of " + address64);
+        inFlight.incrementAndGet();
+
+        CompletableFuture<XBeeResponse> future = xbee.sendAsync(new DMRemoteAtRequest(address64, "NI"), QUERY_TIMEOUT);
+        future.whenCompleteAsync(new BiConsumer<XBeeResponse, Throwable>()
+        {
+            @Override
+            public void accept(XBeeResponse response, Throwable failure)
+            {
+                inFlight.decrementAndGet();
+                handleResponse(address64, response, failure);
+            }
+        }, executor);
+    }
+
+    /**
+     * Reports a resolved node to the coordinator, or records the failure so the node is queried again later.
+     * @param address64  64bit address of the node
+     * @param response   response to the query, null if it failed
+     * @param failure    cause of the failure, null if there is a response
+     */
+    private void handleResponse(XBeeAddress64 address64, XBeeResponse response, Throwable failure)
+    {
+        long address = address64.toLong();
+
+        if (response instanceof RemoteAtResponse && ((RemoteAtResponse) response).isOk())
+        {
+            String id = toString(((RemoteAtResponse) response).getValue());
+            log.debug("Resolved " + address64 + " as " + id);
+            lastAttempt.remove(address);
+            verifying.remove(address);
+            coordinator.updateDiscoveredTAM(id, address64);
+            return;
+        }
+
+        if (failure instanceof XBeeTimeoutException)
+            log.warn("NI query to " + address64 + " timed out");
+        else if (failure != null)
+            log.warn("NI query to " + address64 + " failed: " + failure);
+        else
+            log.warn("NI query to " + address64 + " failed: " + response);
+
+        lastAttempt.put(address, System.currentTimeMillis());
+
+        Long since = verifying.remove(address);
+        if (since != null)
+            coordinator.handleUnverifiedTAM(address64, since);
+    }
+
+    /**
+     * Converts the value of an NI response to a string.
+     * @param value  characters of the node identifier
+     * @return node identifier
+     */
+    private static String toString(int[] value)
+    {
+        StringBuilder id = new StringBuilder(value.length);
+        for (int c : value)
+        {
+            // the identifier may be padded
+            if (c == 0)
+                break;
+            id.append((char) c);
+        }
+        return id.toString().trim();
+    }
+}
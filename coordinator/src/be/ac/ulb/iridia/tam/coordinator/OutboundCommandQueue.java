@@ -0,0 +1,220 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.digimesh.DMTxRequest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class is the queue of commands waiting to be sent to the TAMs.
+ *
+ * Commands are keyed by TAM and packet type. A command that is offered while another command with
+ * the same key is still queued replaces it, keeping its place in the queue: only the latest SET_LEDS
+ * color of a TAM is sent, never a stale one. High-priority commands (shutdown, LEDs off) are always
+ * sent before normal ones. Within a priority, commands are sent in the order their keys were first
+ * queued; a key that was sent and is offered again goes to the back of the queue.
+ *
+ * Sending is paced with a token bucket that refills at the byte rate of the serial port, so the
+ * Xbee module is never handed more than it can transmit; commands wait in the queue, where they can
+ * still be coalesced, instead of in the buffers of the Xbee.
+ *
+ * This class is thread-safe.
+ */
+public class OutboundCommandQueue
+{
+    /**
+     * Priority of a command.
+     */
+    public enum Priority
+    {
+        HIGH,
+        NORMAL
+    }
+
+    // bytes added to the payload by the API frame of a DMTxRequest (start, length, frame data header, checksum)
+    public static final int FRAME_OVERHEAD = 18;
+
+    /**
+     * Key of a command: destination and packet type.
+     */
+    private static class CommandKey
+    {
+        private final XBeeAddress64 address64;
+        private final int packetType;
+
+        /**
+         * Creates a key.
+         * @param address64   destination of the command
+         * @param packetType  packet type of the command
+         */
+        CommandKey(XBeeAddress64 address64, int packetType)
+        {
+            this.address64 = address64;
+            this.packetType = packetType;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof CommandKey))
+                return false;
+            CommandKey other = (CommandKey) o;
+            return packetType == other.packetType && address64.equals(other.address64);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * address64.hashCode() + packetType;
+        }
+    }
+
+    // latest request queued for each key, per priority, in the order the keys were queued;
+    // a key is in at most one of the queues
+    private final LinkedHashMap<CommandKey, DMTxRequest> highQueue;
+    private final LinkedHashMap<CommandKey, DMTxRequest> normalQueue;
+
+    // rate at which tokens (bytes) are added, per nanosecond
+    private final double bytesPerNano;
+    // maximum number of tokens
+    private final double burstBytes;
+    // tokens available and time they were last refilled
+    private double tokens;
+    private long lastRefill;
+
+    // number of commands that replaced a queued command
+    private long coalescedCount;
+    // number of commands sent
+    private long sentCount;
+
+
+    /**
+     * Creates a queue paced for the given serial port speed.
+     * @param baudRate     speed of serial port used to access the Xbee module
+     * @param burstFrames  number of maximum-size frames that may be sent back to back
+     */
+    public OutboundCommandQueue(int baudRate, int burstFrames)
+    {
+        this.highQueue = new LinkedHashMap<CommandKey, DMTxRequest>();
+        this.normalQueue = new LinkedHashMap<CommandKey, DMTxRequest>();
+
+        // 8N1: 10 bits on the wire per byte
+        this.bytesPerNano = baudRate / 10.0 / TimeUnit.SECONDS.toNanos(1);
+        this.burstBytes = burstFrames * (DMTxRequest.ZNET_MAX_PAYLOAD_SIZE + FRAME_OVERHEAD);
+        this.tokens = burstBytes;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Queues a command. If a command of the same type to the same TAM is still queued, it is replaced.
+     * @param address64   destination of the command
+     * @param packetType  packet type of the command, the first byte of the payload
+     * @param request     request to send
+     * @param priority    priority of the command; a queued command keeps the highest priority it was offered with
+     */
+    public synchronized void offer(XBeeAddress64 address64, int packetType, DMTxRequest request, Priority priority)
+    {
+        CommandKey key = new CommandKey(address64, packetType);
+
+        // replacing the value of a key keeps its place in the queue
+        if (highQueue.containsKey(key))
+        {
+            highQueue.put(key, request);
+            coalescedCount++;
+        }
+        else if (normalQueue.containsKey(key))
+        {
+            coalescedCount++;
+            if (priority == Priority.HIGH)
+            {
+                // promoted to the back of the high queue
+                normalQueue.remove(key);
+                highQueue.put(key, request);
+            }
+            else
+            {
+                normalQueue.put(key, request);
+            }
+        }
+        else
+        {
+            (priority == Priority.HIGH ? highQueue : normalQueue).put(key, request);
+        }
+    }
+
+    /**
+     * Removes a queued command, e.g. one that was superseded. Does nothing if no command of this type
+     * to this TAM is queued.
+     * @param address64   destination of the command
+     * @param packetType  packet type of the command
+     * @return true if a queued command was removed
+     */
+    public synchronized boolean remove(XBeeAddress64 address64, int packetType)
+    {
+        CommandKey key = new CommandKey(address64, packetType);
+        return highQueue.remove(key) != null || normalQueue.remove(key) != null;
+    }
+
+    /**
+     * Removes and returns the next command to send, if the serial port has capacity for it.
+     * @return next request, or null if the queue is empty or sending must wait
+     */
+    public synchronized DMTxRequest poll()
+    {
+        refill();
+
+        Iterator<DMTxRequest> queue = (highQueue.isEmpty() ? normalQueue : highQueue).values().iterator();
+        if (!queue.hasNext())
+            return null;
+
+        DMTxRequest request = queue.next();
+        int frameBytes = request.getPayload().length + FRAME_OVERHEAD;
+        if (tokens < frameBytes)
+            return null;
+
+        tokens -= frameBytes;
+        queue.remove();
+        sentCount++;
+        return request;
+    }
+
+    /**
+     * Returns the number of queued commands.
+     * @return number of commands
+     */
+    public synchronized int size()
+    {
+        return highQueue.size() + normalQueue.size();
+    }
+
+    /**
+     * Returns the number of commands that replaced a queued command.
+     * @return number of coalesced commands
+     */
+    public synchronized long getCoalescedCount()
+    {
+        return coalescedCount;
+    }
+
+    /**
+     * Returns the number of commands returned by poll().
+     * @return number of sent commands
+     */
+    public synchronized long getSentCount()
+    {
+        return sentCount;
+    }
+
+    /**
+     * Adds the tokens accumulated since the last refill.
+     */
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(burstBytes, tokens + (now - lastRefill) * bytesPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,159 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.digimesh.DMTxRequest;
+
+
+/**
+ * This class represents a command sent to a TAM that has not been acknowledged yet.
+ * It holds the request, so the command can be retried when its timeout expires, and the time
+ * it was first sent, to measure the round-trip time of the link.
+ *
+ * The coordinator keeps at most one pending command per TAM and command type.
+ *
+ * @see Coordinator
+ * @see LinkMonitor
+ */
+class PendingCommand
+{
+    // TAM the command is sent to
+    private final TAM tam;
+
+    // packet type of the command, e.g. Coordinator.PACKET_TYPE_CT_SET_LEDS
+    private final int packetType;
+
+    // timeout of the command in milliseconds, used until the round-trip time of the link was measured
+    private final long commandTimeout;
+
+    // request sent; a command that changes before it was acknowledged is replaced by a new PendingCommand
+    private final DMTxRequest request;
+
+    // System.nanoTime() at which the command was issued
+    private final long issued;
+
+    // number of times the command has been retried
+    private volatile int retries;
+
+    // timeout of the current transmission on the coordinator's timing wheel
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    // radio the current transmission is sent over
+    private volatile Radio radio;
+
+
+    /**
+     * Creates a pending command.
+     * @param tam             TAM the command is sent to
+     * @param packetType      packet type of the command
+     * @param commandTimeout  timeout of the command in milliseconds
+     * @param request         request sent
+     */
+    PendingCommand(TAM tam, int packetType, long commandTimeout, DMTxRequest request)
+    {
+        this.tam = tam;
+        this.packetType = packetType;
+        this.commandTimeout = commandTimeout;
+        this.request = request;
+        this.issued = System.nanoTime();
+    }
+
+    /**
+     * Returns the TAM the command is sent to.
+     * @return TAM
+     */
+    TAM getTAM()
+    {
+        return tam;
+    }
+
+    /**
+     * Returns the packet type of the command.
+     * @return packet type, e.g. Coordinator.PACKET_TYPE_CT_SET_LEDS
+     */
+    int getPacketType()
+    {
+        return packetType;
+    }
+
+    /**
+     * Returns the timeout of the command, used until the round-trip time of the link was measured.
+     * @return timeout in milliseconds
+     */
+    long getCommandTimeout()
+    {
+        return commandTimeout;
+    }
+
+    /**
+     * Returns the request to send.
+     * @return request
+     */
+    DMTxRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Returns the number of times the command has been retried.
+     * @return number of retries
+     */
+    int getRetries()
+    {
+        return retries;
+    }
+
+    /**
+     * Counts a retry of the command.
+     */
+    void incrementRetries()
+    {
+        retries++;
+    }
+
+    /**
+     * Returns the round-trip time of the command, if it was acknowledged now. Retried commands are
+     * not measured, as the acknowledgement can not be matched to one transmission.
+     * @return round-trip time in milliseconds, -1 if the command was retried
+     */
+    long getRoundTripTime()
+    {
+        if (retries > 0)
+            return -1;
+        return (System.nanoTime() - issued) / 1000000;
+    }
+
+    /**
+     * Returns the timeout of the current transmission.
+     * @return timeout on the coordinator's timing wheel
+     */
+    HashedWheelTimer.Timeout getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Sets the timeout of the current transmission.
+     * @param timeout  timeout on the coordinator's timing wheel
+     */
+    void setTimeout(HashedWheelTimer.Timeout timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the radio the current transmission is sent over.
+     * @return radio
+     */
+    Radio getRadio()
+    {
+        return radio;
+    }
+
+    /**
+     * Sets the radio the current transmission is sent over.
+     * @param radio  radio
+     */
+    void setRadio(Radio radio)
+    {
+        this.radio = radio;
+    }
+}
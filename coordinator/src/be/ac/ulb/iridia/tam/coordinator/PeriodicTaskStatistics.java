@@ -0,0 +1,138 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class collects timing statistics of a periodic task run by the CoordinatorScheduler.
+ *
+ * Jitter is the delay between the time a run should have started (start of the first run plus
+ * a multiple of the period) and the time it actually started. A run overruns if it takes longer
+ * than the period, which delays the following runs.
+ *
+ * @see CoordinatorScheduler
+ */
+public class PeriodicTaskStatistics
+{
+    // name of the task
+    private final String name;
+    // period of the task in nanoseconds
+    private final long periodNanos;
+
+    // number of completed runs
+    private long runs;
+    // number of runs that took longer than the period
+    private long overruns;
+    // sum and maximum of the jitter of all runs in nanoseconds
+    private long totalJitterNanos;
+    private long maxJitterNanos;
+    // sum and maximum of the duration of all runs in nanoseconds
+    private long totalDurationNanos;
+    private long maxDurationNanos;
+
+
+    /**
+     * Creates empty statistics for a task.
+     * @param name    name of the task
+     * @param period  period of the task
+     * @param unit    unit of period
+     */
+    PeriodicTaskStatistics(String name, long period, TimeUnit unit)
+    {
+        this.name = name;
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * Records a run of the task.
+     * @param jitterNanos    delay of the start of the run in nanoseconds
+     * @param durationNanos  duration of the run in nanoseconds
+     */
+    synchronized void record(long jitterNanos, long durationNanos)
+    {
+        runs++;
+        if (durationNanos > periodNanos)
+            overruns++;
+
+        totalJitterNanos += jitterNanos;
+        maxJitterNanos = Math.max(maxJitterNanos, jitterNanos);
+        totalDurationNanos += durationNanos;
+        maxDurationNanos = Math.max(maxDurationNanos, durationNanos);
+    }
+
+    /**
+     * Returns the name of the task.
+     * @return name of the task
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the number of completed runs.
+     * @return number of runs
+     */
+    public synchronized long getRuns()
+    {
+        return runs;
+    }
+
+    /**
+     * Returns the number of runs that took longer than the period.
+     * @return number of overruns
+     */
+    public synchronized long getOverruns()
+    {
+        return overruns;
+    }
+
+    /**
+     * Returns the average delay of the start of a run.
+     * @return average jitter in microseconds
+     */
+    public synchronized long getAverageJitterMicros()
+    {
+        return runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalJitterNanos / runs);
+    }
+
+    /**
+     * Returns the largest delay of the start of a run.
+     * @return maximum jitter in microseconds
+     */
+    public synchronized long getMaxJitterMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(maxJitterNanos);
+    }
+
+    /**
+     * Returns the average duration of a run.
+     * @return average duration in microseconds
+     */
+    public synchronized long getAverageDurationMicros()
+    {
+        return runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalDurationNanos / runs);
+    }
+
+    /**
+     * Returns the longest duration of a run.
+     * @return maximum duration in microseconds
+     */
+    public synchronized long getMaxDurationMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(maxDurationNanos);
+    }
+
+    /**
+     * Returns a string representation of the statistics.
+     * @return string representation
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return name + "{runs=" + runs +
+                ", overruns=" + overruns +
+                ", jitter avg/max=" + getAverageJitterMicros() + "/" + getMaxJitterMicros() + "us" +
+                ", duration avg/max=" + getAverageDurationMicros() + "/" + getMaxDurationMicros() + "us}";
+    }
+}
@@ -0,0 +1,131 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeConfiguration;
+import com.rapplogic.xbee.api.XBeeException;
+
+
+/**
+ * This class represents one of the Xbee modules (radios) attached to the coordinator: the Xbee
+ * object that communicates with the module, and the send queue of the commands to the TAMs that
+ * are assigned to this radio, paced to the speed of its serial port.
+ *
+ * The first radio is the primary radio. It is used for everything that concerns the network as
+ * a whole, e.g. node discovery and the queries of unknown TAMs.
+ *
+ * @see RadioBalancer
+ */
+class Radio
+{
+    // index of the radio, 0 for the primary radio
+    private final int index;
+
+    // serial device used to access the Xbee module, null if a connection is given
+    private final String device;
+    // connection used instead of the serial device, e.g. a simulated network; null to open the serial device
+    private final XBeeConnection connection;
+    // speed of serial port used to access the Xbee module
+    private final int baudRate;
+
+    // configuration of the Xbee object, completed before open()
+    private final XBeeConfiguration configuration;
+    // Xbee object used to communicate with the module
+    private final XBee xbee;
+
+    // queue of requests that should be sent over this radio, coalesced per TAM and command
+    private final OutboundCommandQueue sendQueue;
+
+
+    /**
+     * Creates the radio. The Xbee module is accessed on open().
+     * @param index        index of the radio, 0 for the primary radio
+     * @param device       serial device used to access the Xbee module, null if a connection is given
+     * @param connection   connection to the Xbee module, null to open the serial device
+     * @param baudRate     speed of serial port used to access the Xbee module
+     * @param burstFrames  number of maximum-size packets the send queue may pass to the Xbee module back to back
+     */
+    Radio(int index, String device, XBeeConnection connection, int baudRate, int burstFrames)
+    {
+        this.index = index;
+        this.device = device;
+        this.connection = connection;
+        this.baudRate = baudRate;
+
+        // packets of different TAMs are processed in parallel
+        // all packets are handled by listeners, nothing reads the queue behind getResponse()
+        this.configuration = new XBeeConfiguration()
+                .withResponseQueuePolicy(XBeeConfiguration.ResponseQueuePolicy.DISABLED)
+                .withStartupChecks(true)
+                .withDispatchThreads(Coordinator.DISPATCH_THREADS);
+        this.xbee = new XBee(configuration);
+        this.sendQueue = new OutboundCommandQueue(baudRate, burstFrames);
+    }
+
+    /**
+     * Starts the communication with the Xbee module.
+     * @throws XBeeException if the module can't be accessed
+     */
+    void open() throws XBeeException
+    {
+        if (connection != null)
+            xbee.initProviderConnection(connection);
+        else
+            xbee.open(device, baudRate);
+    }
+
+    /**
+     * Stops the communication with the Xbee module, if it was started.
+     */
+    void close()
+    {
+        if (xbee.isConnected())
+            xbee.close();
+    }
+
+    /**
+     * Returns the index of the radio.
+     * @return index, 0 for the primary radio
+     */
+    int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the configuration of the Xbee object, which can be completed before open().
+     * @return configuration
+     */
+    XBeeConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    /**
+     * Returns the Xbee object used to communicate with the module.
+     * @return Xbee object
+     */
+    XBee getXBee()
+    {
+        return xbee;
+    }
+
+    /**
+     * Returns the queue of the requests that should be sent over this radio.
+     * @return send queue
+     */
+    OutboundCommandQueue getSendQueue()
+    {
+        return sendQueue;
+    }
+
+    /**
+     * Returns a string representation of the radio.
+     * @return string representation of the radio
+     */
+    @Override
+    public String toString()
+    {
+        return "radio " + index + " (" + (connection != null ? connection.getClass().getSimpleName() : device) + ")";
+    }
+}
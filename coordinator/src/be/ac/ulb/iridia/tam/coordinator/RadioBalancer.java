@@ -0,0 +1,258 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * This class assigns the TAMs to the radios of the coordinator. All commands to a TAM are sent
+ * over the radio it is assigned to.
+ *
+ * For every TAM, the quality of its link over each radio is estimated as a moving average of the
+ * outcome of the transmissions: a delivered command or a status report heard by the radio counts
+ * as success, a failed or missing delivery status as failure. Radios that have not been used for
+ * a TAM yet have an average quality.
+ *
+ * A TAM is assigned to the radio with the best link, and moved to another radio only if that
+ * link is clearly better, so that assignments don't flap. Among radios with comparable links,
+ * TAMs are moved to the radio with the fewest TAMs, to spread the outbound load; this applies to
+ * TAMs in range of several radios, or known from an earlier run and not heard yet.
+ *
+ * With a single radio, all TAMs are assigned to it and nothing is recorded.
+ *
+ * @see Radio
+ */
+class RadioBalancer
+{
+    private final static Logger log = Logger.getLogger(RadioBalancer.class);
+
+    // quality of a link nothing has been sent over yet
+    public static final double INITIAL_QUALITY = 0.5;
+    // weight of a new outcome in the moving average of the quality
+    public static final double QUALITY_WEIGHT = 0.25;
+    // difference of quality above which a TAM is moved to a better link
+    public static final double SWITCH_MARGIN = 0.2;
+    // difference of quality below which links are comparable, and TAMs are moved to spread the load
+    public static final double BALANCE_MARGIN = 0.05;
+
+    /**
+     * Links of a single TAM over all radios.
+     * Note: only accessed while holding its lock
+     */
+    private static class Assignment
+    {
+        // index of the radio the TAM is assigned to, -1 if none yet
+        private int radio = -1;
+        // quality of the link over each radio, between 0 and 1
+        private final double[] quality;
+
+        private Assignment(int radios)
+        {
+            this.quality = new double[radios];
+            for (int i = 0; i < radios; i++)
+                quality[i] = INITIAL_QUALITY;
+        }
+    }
+
+    // radios of the coordinator, the primary radio first
+    private final List<Radio> radios;
+
+    // links of the TAMs, by 64bit address packed into a long
+    private final ConcurrentHashMap<Long, Assignment> assignments;
+
+    // number of TAMs assigned to each radio
+    private final AtomicIntegerArray load;
+
+
+    /**
+     * Creates the balancer.
+     * @param radios  radios of the coordinator, the primary radio first
+     */
+    RadioBalancer(List<Radio> radios)
+    {
+        this.radios = Collections.unmodifiableList(new ArrayList<Radio>(radios));
+        this.assignments = new ConcurrentHashMap<Long, Assignment>();
+        this.load = new AtomicIntegerArray(radios.size());
+    }
+
+    /**
+     * Returns all radios.
+     * @return radios, the primary radio first
+     */
+    List<Radio> getRadios()
+    {
+        return radios;
+    }
+
+    /**
+     * Returns the primary radio.
+     * @return primary radio
+     */
+    Radio getPrimary()
+    {
+        return radios.get(0);
+    }
+
+    /**
+     * Returns the radio commands to a TAM are sent over. Assigns the TAM to a radio, or moves it
+     * to another radio, if needed.
+     * @param address  64bit address of the TAM packed into a long
+     * @return radio to use
+     */
+    Radio select(long address)
+    {
+        if (radios.size() == 1)
+            return radios.get(0);
+
+        Assignment assignment = getAssignment(address);
+        synchronized (assignment)
+        {
+            int current = assignment.radio;
+            int best = 0;
+            for (int i = 1; i < radios.size(); i++)
+            {
+                if (assignment.quality[i] > assignment.quality[best]
+                        || (assignment.quality[i] == assignment.quality[best] && load.get(i) < load.get(best)))
+                    best = i;
+            }
+
+            if (current < 0)
+            {
+                assign(assignment, address, best);
+            }
+            else if (assignment.quality[best] > assignment.quality[current] + SWITCH_MARGIN)
+            {
+                assign(assignment, address, best);
+            }
+            else
+            {
+                // spread the load over radios with links as good as the current one
+                int leastLoaded = current;
+                for (int i = 0; i < radios.size(); i++)
+                {
+                    if (assignment.quality[i] >= assignment.quality[current] - BALANCE_MARGIN && load.get(i) < load.get(leastLoaded))
+                        leastLoaded = i;
+                }
+                if (load.get(leastLoaded) + 1 < load.get(current))
+                    assign(assignment, address, leastLoaded);
+            }
+
+            return radios.get(assignment.radio);
+        }
+    }
+
+    /**
+     * Records that a radio heard a status report of a TAM.
+     * @param address  64bit address of the TAM packed into a long
+     * @param radio    index of the radio
+     */
+    void recordHeard(long address, int radio)
+    {
+        if (radios.size() == 1)
+            return;
+
+        recordOutcome(getAssignment(address), radio, true);
+    }
+
+    /**
+     * Records the delivery status of a transmission to a TAM. Ignored if the TAM has no links, e.g.
+     * because it was removed while the transmission was waiting for its delivery status.
+     * @param address  64bit address of the TAM packed into a long
+     * @param radio    index of the radio the transmission was sent over
+     * @param success  true if the transmission was delivered
+     */
+    void recordDelivery(long address, int radio, boolean success)
+    {
+        if (radios.size() == 1)
+            return;
+
+        Assignment assignment = assignments.get(address);
+        if (assignment != null)
+            recordOutcome(assignment, radio, success);
+    }
+
+    /**
+     * Forgets a TAM, e.g. a TAM that has been removed.
+     * @param address  64bit address of the TAM packed into a long
+     */
+    void remove(long address)
+    {
+        Assignment assignment = assignments.remove(address);
+        if (assignment == null)
+            return;
+
+        synchronized (assignment)
+        {
+            if (assignment.radio >= 0)
+                load.decrementAndGet(assignment.radio);
+            assignment.radio = -1;
+        }
+    }
+
+    /**
+     * Returns the number of TAMs assigned to a radio.
+     * @param radio  index of the radio
+     * @return number of TAMs
+     */
+    int getLoad(int radio)
+    {
+        return load.get(radio);
+    }
+
+    /**
+     * Updates the quality of the link of a TAM over a radio with the outcome of a transmission.
+     * @param assignment  links of the TAM
+     * @param radio       index of the radio
+     * @param success     true if the transmission succeeded
+     */
+    private void recordOutcome(Assignment assignment, int radio, boolean success)
+    {
+        synchronized (assignment)
+        {
+            assignment.quality[radio] += QUALITY_WEIGHT * ((success ? 1.0 : 0.0) - assignment.quality[radio]);
+        }
+    }
+
+    /**
+     * Returns the links of a TAM, creating them for an unknown TAM.
+     * @param address  64bit address of the TAM packed into a long
+     * @return links of the TAM
+     */
+    private Assignment getAssignment(long address)
+    {
+        Assignment assignment = assignments.get(address);
+        if (assignment == null)
+        {
+            Assignment created = new Assignment(radios.size());
+            assignment = assignments.putIfAbsent(address, created);
+            if (assignment == null)
+                assignment = created;
+        }
+        return assignment;
+    }
+
+    /**
+     * Assigns a TAM to a radio.
+     * @param assignment  links of the TAM, locked by the caller
+     * @param address     64bit address of the TAM packed into a long
+     * @param radio       index of the radio
+     */
+    private void assign(Assignment assignment, long address, int radio)
+    {
+        if (assignment.radio == radio)
+            return;
+
+        if (assignment.radio >= 0)
+        {
+            load.decrementAndGet(assignment.radio);
+            log.debug("Moving TAM " + Long.toHexString(address) + " from " + radios.get(assignment.radio) + " to " + radios.get(radio));
+        }
+        load.incrementAndGet(radio);
+        assignment.radio = radio;
+    }
+}
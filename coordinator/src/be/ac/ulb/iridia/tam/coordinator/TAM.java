@@ -1,12 +1,19 @@
 package be.ac.ulb.iridia.tam.coordinator;
 
 import be.ac.ulb.iridia.tam.common.LedColor;
+import be.ac.ulb.iridia.tam.common.LinkHealth;
+import be.ac.ulb.iridia.tam.common.ReactiveController;
 import be.ac.ulb.iridia.tam.common.TAMInterface;
 import be.ac.ulb.iridia.tam.common.ControllerInterface;
+import be.ac.ulb.iridia.tam.common.TAMListener;
+import be.ac.ulb.iridia.tam.common.TAMSnapshot;
+import be.ac.ulb.iridia.tam.eventlog.EventLog;
+import be.ac.ulb.iridia.tam.eventlog.EventType;
 import com.rapplogic.xbee.api.XBeeAddress64;
 
 import java.util.Date;
-import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -20,76 +27,87 @@ import java.util.TimerTask;
  * The class also additionally stores the voltage of the TAM, which is not considered to be
  * part of the state of the TAM in the sense of the controller.
  *
- * Note: everything in this class MUST be synchronized to render it thread-safe
+ * The reported state is kept in an immutable TAMSnapshot that is replaced as a whole on every
+ * status report, so readers never block and never see a mix of two reports.
+ *
+ * Changes of the state are delivered as events to the listeners subscribed by the controllers,
+ * on the thread that steps the controllers (@see TAMListener).
+ *
+ * Note: everything in this class MUST be thread-safe; fields that are not part of the snapshot are volatile
  */
 public class TAM implements TAMInterface
 {
-    // Xbee network id. Up to 20 characters. In case of the TAM, this must be "TAMXX" with XX being a 2-digit number
-    private String id;
+    // Xbee network id. Up to 20 characters. In case of the TAM, this must be "TAMXX" with XX being a number of at least 2 digits
+    private volatile String id;
 
     // coordinator that handles this TAM
     private Coordinator coordinator;
 
     // 64bit address of the TAM in the mesh network.
-    private XBeeAddress64 address64;
+    private final XBeeAddress64 address64;
 
     // Timestamp that describes when the coordinator has seen the TAM for the first time.
-    private long firstSeenTimestamp;
+    private final long firstSeenTimestamp;
     // Timestamp that describes when the coordinator has seen the TAM for the last time.
-    private long lastSeenTimestamp;
+    private volatile long lastSeenTimestamp;
 
-    // Class that describes the color of the RGB LEDs of the TAM.
-    private LedColor ledColor;
-    // Timestamp of last update of led color.
-    private long ledColorLastUpdated;
+    // State as last reported by the TAM: color of the RGB LEDs, robot presence, robot data and voltage (should be >= 3.2V).
+    private final AtomicReference<TAMSnapshot> snapshot;
 
-    // Flag that indicates if a robot is present as reported by the TAM.
-    private boolean robotPresent;
-    // Timestamp of last update of robot presence.
-    private long robotPresentLastUpdated;
+    // SET_LEDS command that has not been acknowledged yet, retried when it times out.
+    private volatile PendingCommand pendingSetLedsCommand;
     
-    // the data the robot sent to the TAM.
-    private int robotData;
-    // Timestamp of last update of robot data.
-    private long robotDataLastUpdated;
-
-    // Voltage as double value as reported by the TAM. Should be >= 3.2V.
-    private double voltage;
+    // WRITE_ROBOT command that has not been acknowledged yet, retried when it times out.
+    private volatile PendingCommand pendingWriteRobotCommand;
 
-    // Timer task that handles the timeout of the SET_LEDS command. Used to detect timed-out packets.
-    private TimerTask setLedsCmdTimeoutTask;
-    
-    // Timer task that handles the timeout of the WRITE_ROBOT command. Used to detect timed-out packets.
-    private TimerTask writeRobotCmdTimeoutTask;
+    // Health of the radio link to the TAM, which sets the timeouts of the commands.
+    private final LinkMonitor link;
 
     // The controller of the TAM, as set by the user.
-    private ControllerInterface controller;
+    private volatile ControllerInterface controller;
+
+    // Metrics of the link to the TAM, e.g. heartbeat intervals and command latencies.
+    private final TAMMetrics metrics;
+
+    // Listeners of the changes of the state, as subscribed by the controllers.
+    private final CopyOnWriteArrayList<TAMListener> listeners;
 
 
     /**
      * Constructor of the TAM. A TAM is created in two cases:
      *  1) the coordinator receives a heartbeat of an unknown TAM
      *  2) a unknown TAM replies to the node discover command
+     * In both cases the TAM has just been heard, so it counts as last seen now.
      * @param id            id of the TAM
      * @param coordinator   coordinator
      * @param address64     64bit Xbee address of the TAM
      */
     public TAM(String id, Coordinator coordinator, XBeeAddress64 address64)
+    {
+        this(id, coordinator, address64, new Date().getTime(), new Date().getTime());
+    }
+
+    /**
+     * Constructor of the TAM for a TAM known from an earlier run, as stored in the registry.
+     * The state of the TAM is unknown until it reports.
+     * @param id                  id of the TAM
+     * @param coordinator         coordinator
+     * @param address64           64bit Xbee address of the TAM
+     * @param firstSeenTimestamp  timestamp of the first time the TAM has been seen
+     * @param lastSeenTimestamp   timestamp of the last time the TAM has been seen
+     */
+    protected TAM(String id, Coordinator coordinator, XBeeAddress64 address64, long firstSeenTimestamp, long lastSeenTimestamp)
     {
         this.address64 = address64;
         this.coordinator = coordinator;
 
-        this.firstSeenTimestamp = new Date().getTime();
+        this.firstSeenTimestamp = firstSeenTimestamp;
+        this.lastSeenTimestamp = lastSeenTimestamp;
 
-        this.ledColor = null;
-        this.ledColorLastUpdated = 0;
-
-        this.robotPresent = false;
-        this.robotPresentLastUpdated = 0;
-        this.robotData = 0;
-        this.robotDataLastUpdated = 0;
-
-        this.voltage = 0.0;
+        this.snapshot = new AtomicReference<TAMSnapshot>(TAMSnapshot.EMPTY);
+        this.metrics = new TAMMetrics();
+        this.link = new LinkMonitor(Coordinator.SET_LEDS_CMD_TIMEOUT * 1000);
+        this.listeners = new CopyOnWriteArrayList<TAMListener>();
 
         setId(id);
     }
@@ -106,9 +124,9 @@ public class TAM implements TAMInterface
      * @return LedColor object reflecting the 24bit color, or null if TAM didn't report status yet
      */
     @Override
-    public synchronized LedColor getLedColor()
+    public LedColor getLedColor()
     {
-        return ledColor;
+        return snapshot.get().getLedColor();
     }
 
     /**
@@ -127,19 +145,19 @@ public class TAM implements TAMInterface
      * @return true if there is currently a robot in the TAM
      */
     @Override
-    public synchronized boolean isRobotPresent()
+    public boolean isRobotPresent()
     {
-        return robotPresent;
+        return snapshot.get().isRobotPresent();
     }
 
     /**
      * Returns the id of the TAM.
-     *  - it's TAMXX with XX being a 2-digit unique integer; or
+     *  - it's TAMXX with XX being a unique integer of at least 2 digits; or
      *  - it's the last 5 characters of the 64bit address if the id hasn't been resolved yet
      * @return id of TAM as String 5 characters long.
      */
     @Override
-    public synchronized String getId()
+    public String getId()
     {
         return id;
     }
@@ -149,9 +167,29 @@ public class TAM implements TAMInterface
      * @return the data received from the robot currently in the TAM.
      */
     @Override
-    public synchronized int getRobotDataReceived()
+    public int getRobotDataReceived()
+    {
+        return snapshot.get().getRobotData();
+    }
+
+    /**
+     * Returns the state of the TAM as last reported, as one consistent snapshot.
+     * @return snapshot of the state of the TAM
+     */
+    @Override
+    public TAMSnapshot getSnapshot()
     {
-        return robotData;
+        return snapshot.get();
+    }
+
+    /**
+     * Returns the health of the radio link to the TAM, as measured from the commands sent to it.
+     * @return snapshot of the health of the link
+     */
+    @Override
+    public LinkHealth getLinkHealth()
+    {
+        return link.getHealth();
     }
 
     /**
@@ -170,7 +208,7 @@ public class TAM implements TAMInterface
      * @return controller of the TAM
      */
     @Override
-    public synchronized ControllerInterface getController()
+    public ControllerInterface getController()
     {
         return controller;
     }
@@ -182,11 +220,33 @@ public class TAM implements TAMInterface
      * @param controller  user-defined controller of the TAM
      */
     @Override
-    public synchronized void setController(ControllerInterface controller)
+    public void setController(ControllerInterface controller)
     {
         this.controller = controller;
     }
 
+    /**
+     * Subscribes a listener to the changes of the state of the TAM.
+     * The listener is called on the thread that steps the controllers.
+     * @see TAMListener
+     * @param listener  listener to call on changes
+     */
+    @Override
+    public void addListener(TAMListener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unsubscribes a listener from the changes of the state of the TAM.
+     * @param listener  listener to remove
+     */
+    @Override
+    public void removeListener(TAMListener listener)
+    {
+        listeners.remove(listener);
+    }
+
 
     /***************************************************************************
      *
@@ -198,60 +258,122 @@ public class TAM implements TAMInterface
      * Returns the timestamp of the last update of the LED color.
      * @return timestamp of last update
      */
-    protected synchronized long getLedColorLastUpdated()
+    protected long getLedColorLastUpdated()
     {
-        return ledColorLastUpdated;
+        return snapshot.get().getLedColorLastUpdated();
     }
 
     /**
-     * Sets a new LED color and updates the timestamp accordingly.
-     * Update is ignored if LED color does not change
-     * @param ledColor  LedColor object reflecting the 24bit color
+     * Gets the the timestamp of the last update of the robotPresent flag.
+     * @return timestamp of last update
      */
-    protected synchronized void updateLedColor(LedColor ledColor)
+    @SuppressWarnings("unused")
+    public long getRobotPresentLastUpdated()
     {
-        // check if we're actually trying to set a new color
-        // ignore this check if we never received an update
-        if (!this.ledColor.equals(ledColor) || this.ledColorLastUpdated == 0)
+        return snapshot.get().getRobotPresentLastUpdated();
+    }
+
+    /**
+     * Updates the state of the TAM with the values of a status report and publishes it as new snapshot.
+     * Timestamps are only updated for values that changed.
+     * @param ledColor      LedColor object reflecting the 24bit color
+     * @param robotPresent  new robotPresent flag, true if robot is in TAM
+     * @param robotData     new robotData value
+     * @param voltage       voltage of the TAM, in volts
+     */
+    protected void updateStatus(LedColor ledColor, boolean robotPresent, int robotData, double voltage)
+    {
+        long timestamp = new Date().getTime();
+
+        TAMSnapshot current;
+        TAMSnapshot updated;
+        do
+        {
+            current = snapshot.get();
+            updated = current.update(ledColor, robotPresent, robotData, voltage, timestamp);
+        }
+        while (updated != current && !snapshot.compareAndSet(current, updated));
+
+        // record the changes of the state
+        if (updated != current)
         {
-            this.ledColor = ledColor;
-            this.ledColorLastUpdated = new Date().getTime();
+            if (updated.getLedColor() != null && !updated.getLedColor().equals(current.getLedColor()))
+                EventLog.record(EventType.LEDS_CHANGED, this, (int) (updated.getLedColor().getValue() >>> 8) & 0xffffff);
+            if (updated.isRobotPresent() && !current.isRobotPresent())
+                EventLog.record(EventType.ROBOT_ARRIVED, this, updated.getRobotData());
+            else if (!updated.isRobotPresent() && current.isRobotPresent())
+                EventLog.record(EventType.ROBOT_DEPARTED, this, current.getRobotData());
+
+            fireStatusChanged(current, updated);
         }
     }
 
     /**
-     * Gets the the timestamp of the last update of the robotPresent flag.
-     * @return timestamp of last update
+     * Delivers the changes between two snapshots to the listeners, and has a reactive controller
+     * stepped. Changes that no listener is interested in, e.g. the voltage of a charged TAM, are
+     * not delivered.
+     * @param previous  snapshot before the status report
+     * @param updated   snapshot after the status report
      */
-    @SuppressWarnings("unused")
-    public synchronized long getRobotPresentLastUpdated()
+    private void fireStatusChanged(final TAMSnapshot previous, final TAMSnapshot updated)
     {
-        return robotPresentLastUpdated;
+        final boolean ledColorChanged = updated.getLedColorVersion() != previous.getLedColorVersion();
+        final boolean robotArrived = updated.isRobotPresent() && !previous.isRobotPresent();
+        final boolean robotLeft = !updated.isRobotPresent() && previous.isRobotPresent();
+        final boolean robotDataChanged = updated.isRobotPresent() && !robotArrived
+                && updated.getRobotDataVersion() != previous.getRobotDataVersion();
+        final boolean voltageLow = updated.getVoltage() < Coordinator.BATT_VOLTAGE_THRESHOLD
+                && (previous.getVoltageVersion() == 0 || previous.getVoltage() >= Coordinator.BATT_VOLTAGE_THRESHOLD);
+
+        if (!ledColorChanged && !robotArrived && !robotLeft && !robotDataChanged && !voltageLow)
+            return;
+        if (listeners.isEmpty() && !(controller instanceof ReactiveController))
+            return;
+
+        coordinator.deliverEvent(this, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (TAMListener listener : listeners)
+                {
+                    if (robotArrived)
+                        listener.onRobotArrived(TAM.this, updated.getRobotData());
+                    if (robotDataChanged)
+                        listener.onRobotData(TAM.this, updated.getRobotData());
+                    if (ledColorChanged)
+                        listener.onLedColorConfirmed(TAM.this, updated.getLedColor());
+                    if (robotLeft)
+                        listener.onRobotLeft(TAM.this);
+                    if (voltageLow)
+                        listener.onVoltageLow(TAM.this, updated.getVoltage());
+                }
+            }
+        });
     }
 
     /**
-     * Sets a value for the robotPresent flag and updates the timestamp accordingly.
-     * Update is ignored if flag did not change
-     * @param robotPresent  new robotPresent flag, true if robot is in TAM
+     * Converts the voltage from two bytes, as reported by the TAM in the status update packet.
+     * The TAM reports the voltage as 16bit unsigned int, multiplied by 1000.
+     * That is, a voltage of 3.2V gets reported as 3200, split up into two bytes.
+     * @param data1  LSB of the voltage
+     * @param data2  MSB of the voltage
+     * @return voltage in volts
      */
-    protected synchronized void updateRobotPresent(boolean robotPresent)
+    protected static double decodeVoltage(int data1, int data2)
     {
-        if (this.robotPresent != robotPresent)
-        {
-            this.robotPresent = robotPresent;
-            this.robotPresentLastUpdated = new Date().getTime();
-        }
+        return ((data1 & 0xff) + ((data2 & 0xff) << 8)) / 1000.0;
     }
 
     /**
      * Sets the id of te TAM. TAM ids are always 5 characters:
-     *  - it's TAMXX with XX being a 2-digit unique integer; or
+     *  - it's TAMXX with XX being a unique integer of at least 2 digits; or
      *  - it's the last 5 characters of the 64bit address if the id hasn't been resolved yet
      * Updated using data from a node discovery request.
      * @see be.ac.ulb.iridia.tam.coordinator.ATCommandPacketListener
      * @param id  id of tam if resolved already, else null
      */
-    protected synchronized void setId(String id)
+    protected void setId(String id)
     {
         if (id == null)
         {
@@ -266,7 +388,7 @@ public class TAM implements TAMInterface
      * Returns the 64bit Xbee network address of the TAM.
      * @return 64bit Xbee network address of the TAM
      */
-    public synchronized XBeeAddress64 getAddress64()
+    public XBeeAddress64 getAddress64()
     {
         return address64;
     }
@@ -275,8 +397,7 @@ public class TAM implements TAMInterface
      * Returns the timestamp of the first time the coordinator has seen this TAM on the network.
      * @return timestamp of the first time the coordinator has seen this TAM on the network
      */
-    @SuppressWarnings("unused")
-    protected synchronized long getFirstSeenTimestamp()
+    protected long getFirstSeenTimestamp()
     {
         return firstSeenTimestamp;
     }
@@ -285,8 +406,7 @@ public class TAM implements TAMInterface
      * Returns the timestamp of the last time the coordinator has seen this TAM on the network.
      * @return timestamp of the last time the coordinator has seen this TAM on the network
      */
-    @SuppressWarnings("unused")
-    protected synchronized long getLastSeenTimestamp()
+    protected long getLastSeenTimestamp()
     {
         return lastSeenTimestamp;
     }
@@ -295,7 +415,7 @@ public class TAM implements TAMInterface
      * Updates the timestamp of the last time the coordinator has seen this TAM on the network.
      * Sets timestamp to current time.
      */
-    protected synchronized void updateLastSeenTimestamp()
+    protected void updateLastSeenTimestamp()
     {
         this.lastSeenTimestamp = new Date().getTime();
     }
@@ -305,74 +425,67 @@ public class TAM implements TAMInterface
      * @return voltage of TAM as double value, in volts
      */
     @SuppressWarnings("unused")
-    public synchronized double getVoltage()
+    public double getVoltage()
     {
-        return voltage;
+        return snapshot.get().getVoltage();
     }
 
     /**
-     * Sets the voltage from two bytes, as reported by the TAM in the status update packet.
-     * The TAM reports the voltage as 16bit unsigned int, multiplied by 1000.
-     * That is, a voltage of 3.2V gets reported as 3200, split up into two bytes.
-     * @param data1  LSB of the voltage
-     * @param data2  MSB of the voltage
+     * Returns the SET_LEDS command that has not been acknowledged yet.
+     * Return null if no unacknowledged command has been sent.
+     * @return pending command or null
      */
-    protected synchronized void updateVoltage(int data1, int data2)
+    protected PendingCommand getPendingSetLedsCommand()
     {
-        this.voltage = ((data1 & 0xff) + ((data2 & 0xff) << 8)) / 1000.0;
+        return pendingSetLedsCommand;
     }
 
     /**
-     * Returns the current timer task that handles the timeout of the SET_LEDS command.
-     * Return null if no unacknowledged command has been sent.
-     * @return current timer task or null
+     * Sets the SET_LEDS command that has not been acknowledged yet.
+     * Set null if the last command sent has been acknowledged or given up.
+     * @param pendingSetLedsCommand  pending command or null
      */
-    protected synchronized TimerTask getSetLedsCmdTimeoutTask()
+    protected void setPendingSetLedsCommand(PendingCommand pendingSetLedsCommand)
     {
-        return setLedsCmdTimeoutTask;
+        this.pendingSetLedsCommand = pendingSetLedsCommand;
     }
-
+    
     /**
-     * Sets the current timer task that handles the timeout of the SET_LEDS command.
-     * Set null last command sent has been acknowledged.
-     * @param setLedsCmdTimeoutTask  timer task for timeout or null
+     * Returns the WRITE_ROBOT command that has not been acknowledged yet.
+     * Return null if no unacknowledged command has been sent.
+     * @return pending command or null
      */
-    protected synchronized void setSetLedsCmdTimeoutTask(TimerTask setLedsCmdTimeoutTask)
+    protected PendingCommand getPendingWriteRobotCommand()
     {
-        this.setLedsCmdTimeoutTask = setLedsCmdTimeoutTask;
+        return pendingWriteRobotCommand;
     }
-    
+
     /**
-     * Returns the current timer task that handles the timeout of the WRITE_ROBOT command.
-     * Return null if no unacknowledged command has been sent.
-     * @return current timer task or null
+     * Sets the WRITE_ROBOT command that has not been acknowledged yet.
+     * Set null if the last command sent has been acknowledged or given up.
+     * @param pendingWriteRobotCommand  pending command or null
      */
-    protected synchronized TimerTask getWriteRobotCmdTimeoutTask()
+    protected void setPendingWriteRobotCommand(PendingCommand pendingWriteRobotCommand)
     {
-        return writeRobotCmdTimeoutTask;
+        this.pendingWriteRobotCommand = pendingWriteRobotCommand;
     }
 
     /**
-     * Sets the current timer task that handles the timeout of the WRITE_ROBOT command.
-     * Set null last command sent has been acknowledged.
-     * @param writeRobotCmdTimeoutTask  timer task for timeout or null
+     * Returns the monitor of the radio link to the TAM.
+     * @return monitor of the link
      */
-    protected synchronized void setWriteRobotCmdTimeoutTask(TimerTask writeRobotCmdTimeoutTask)
+    protected LinkMonitor getLink()
     {
-        this.writeRobotCmdTimeoutTask = writeRobotCmdTimeoutTask;
+        return link;
     }
 
     /**
-     * Sets a value for the robotData and updates the timestamp accordingly.
-     * Update is ignored if data did not change
-     * @param robotData new robotData value
+     * Returns the metrics of the link to the TAM.
+     * @return metrics of the TAM
      */
-    protected void updateRobotData(int robotData) {
-        if (this.robotData != robotData || this.robotDataLastUpdated == 0)
-        {
-            this.robotData = robotData;
-            this.robotDataLastUpdated = new Date().getTime();
-        }
+    protected TAMMetrics getMetrics()
+    {
+        return metrics;
     }
 
     /**
@@ -380,9 +493,9 @@ public class TAM implements TAMInterface
      * @return timestamp of last update
      */
     @SuppressWarnings("unused")
-    protected synchronized long getRobotDataLastUpdated()
+    protected long getRobotDataLastUpdated()
     {
-        return robotDataLastUpdated;
+        return snapshot.get().getRobotDataLastUpdated();
     }
 
     /**
@@ -395,12 +508,6 @@ public class TAM implements TAMInterface
         return "TAM{" +
                 "id='" + id + '\'' +
                 ", address64=" + address64 +
-                ", voltage=" + voltage +
-                "V, ledColor=(" + ledColor +
-                "), ledColorLastUpdated=" + ledColorLastUpdated +
-                ", robotPresent=" + robotPresent +
-                ", robotPresentLastUpdated=" + robotPresentLastUpdated +
-                ", robotData=" + robotData +
-                ", robotDataLastUpdate=" + robotDataLastUpdated;
+                ", " + snapshot.get();
     }
 }
@@ -0,0 +1,242 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class holds all currently known TAMs, indexed by their 64bit address and by their id.
+ *
+ * Addresses are packed into a primitive long (see XBeeAddress64.toLong()), so looking up the
+ * sender of a packet does not need to format the address into a string. The TAMs are stored
+ * in an open-addressing hash table with linear probing.
+ *
+ * The directory is read by every packet listener and the step task, but changes only when a
+ * TAM is discovered, resolved or removed. Therefore every change copies the table and publishes
+ * the copy, so lookups and iteration never lock and always see a consistent state.
+ */
+public class TAMDirectory
+{
+    // matches the id of a TAM: "TAM" followed by a number of at least 2 digits
+    private static final Pattern TAM_ID_PATTERN = Pattern.compile("TAM[0-9]{2,}");
+
+    // minimum number of slots of the hash table
+    private static final int MIN_CAPACITY = 16;
+
+    // current table, replaced on every change
+    private volatile Table table;
+
+
+    /**
+     * Immutable state of the directory.
+     */
+    private static final class Table
+    {
+        // packed addresses of the TAMs, valid where values is not null
+        final long[] keys;
+
+        // TAMs by slot, null for empty slots
+        final TAM[] values;
+
+        // TAMs in order of insertion
+        final List<TAM> tams;
+
+        // TAMs with a known id, by id
+        final Map<String, TAM> byId;
+
+
+        /**
+         * Builds the table holding the given TAMs.
+         * @param tams  TAMs to hold, with distinct addresses
+         */
+        Table(TAM[] tams)
+        {
+            int capacity = MIN_CAPACITY;
+            // keep the load factor at or below 0.5 so probe sequences stay short
+            while (capacity < tams.length * 2)
+                capacity <<= 1;
+
+            this.keys = new long[capacity];
+            this.values = new TAM[capacity];
+            this.tams = Collections.unmodifiableList(Arrays.asList(tams));
+            this.byId = new HashMap<String, TAM>();
+
+            for (TAM tam : tams)
+            {
+                long key = tam.getAddress64().toLong();
+                int slot = slot(key);
+                while (values[slot] != null)
+                    slot = (slot + 1) & (capacity - 1);
+                keys[slot] = key;
+                values[slot] = tam;
+
+                if (tam.getId() != null)
+                    byId.put(tam.getId(), tam);
+            }
+        }
+
+        /**
+         * Returns the slot a key is probed from.
+         * @param key  packed address
+         * @return first slot to probe
+         */
+        int slot(long key)
+        {
+            // spread the bits, addresses of one network differ in the lower bytes only
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & (keys.length - 1);
+        }
+
+        /**
+         * Returns the TAM with the given address.
+         * @param key  packed address
+         * @return TAM, or null if there is none
+         */
+        TAM get(long key)
+        {
+            int slot = slot(key);
+            TAM tam;
+            while ((tam = values[slot]) != null)
+            {
+                if (keys[slot] == key)
+                    return tam;
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Creates an empty directory.
+     */
+    public TAMDirectory()
+    {
+        this.table = new Table(new TAM[0]);
+    }
+
+    /**
+     * Checks whether an id (the NI setting of a node) is the id of a TAM.
+     * @param id  id of the node
+     * @return true if it is the id of a TAM
+     */
+    public static boolean isTAMId(String id)
+    {
+        return id != null && TAM_ID_PATTERN.matcher(id).matches();
+    }
+
+    /**
+     * Returns the TAM with the given address.
+     * @param address  64bit address packed into a long
+     * @return TAM, or null if the TAM is unknown
+     */
+    public TAM get(long address)
+    {
+        return table.get(address);
+    }
+
+    /**
+     * Returns the TAM with the given address.
+     * @param address64  64bit address of the TAM
+     * @return TAM, or null if the TAM is unknown
+     */
+    public TAM get(XBeeAddress64 address64)
+    {
+        return table.get(address64.toLong());
+    }
+
+    /**
+     * Returns the TAM with the given id.
+     * @param id  id of the TAM
+     * @return TAM, or null if no TAM with that id is known
+     */
+    public TAM getById(String id)
+    {
+        return table.byId.get(id);
+    }
+
+    /**
+     * Checks whether a TAM with the given address is known.
+     * @param address  64bit address packed into a long
+     * @return true if the TAM is known
+     */
+    public boolean contains(long address)
+    {
+        return table.get(address) != null;
+    }
+
+    /**
+     * Returns the number of known TAMs.
+     * @return number of known TAMs
+     */
+    public int size()
+    {
+        return table.tams.size();
+    }
+
+    /**
+     * Returns all known TAMs. The list is a snapshot that is not affected by later changes.
+     * @return unmodifiable list of all TAMs, in the order they were added
+     */
+    public List<TAM> values()
+    {
+        return table.tams;
+    }
+
+    /**
+     * Adds a TAM, replacing any TAM with the same address. Must be called again after the id
+     * of a TAM has changed, to update the index by id.
+     * @param tam  TAM to add
+     */
+    public synchronized void put(TAM tam)
+    {
+        List<TAM> current = table.tams;
+        long key = tam.getAddress64().toLong();
+
+        TAM[] tams = current.toArray(new TAM[current.size() + 1]);
+        int index = current.size();
+        for (int i = 0; i < current.size(); i++)
+        {
+            if (tams[i].getAddress64().toLong() == key)
+            {
+                index = i;
+                break;
+            }
+        }
+        tams[index] = tam;
+        if (index < current.size())
+            tams = Arrays.copyOf(tams, current.size());
+
+        table = new Table(tams);
+    }
+
+    /**
+     * Removes the TAM with the given address.
+     * @param address  64bit address packed into a long
+     * @return removed TAM, or null if the TAM was unknown
+     */
+    public synchronized TAM remove(long address)
+    {
+        List<TAM> current = table.tams;
+        TAM removed = table.get(address);
+        if (removed == null)
+            return null;
+
+        TAM[] tams = new TAM[current.size() - 1];
+        int i = 0;
+        for (TAM tam : current)
+        {
+            if (tam != removed)
+                tams[i++] = tam;
+        }
+
+        table = new Table(tams);
+        return removed;
+    }
+}
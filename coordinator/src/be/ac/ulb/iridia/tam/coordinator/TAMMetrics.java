@@ -0,0 +1,180 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class holds the metrics of the link to a single TAM: how regularly its heartbeats
+ * arrive, how long its commands take to be acknowledged, and how often transmissions to it
+ * need retries or fail.
+ *
+ * All latencies are in microseconds. Every TAM has its own instance, which is updated by the
+ * packet listeners and the send queue; all methods are thread-safe and lock-free.
+ *
+ * @see MetricsRegistry
+ */
+public class TAMMetrics
+{
+    // time between two status reports of the TAM
+    private final LatencyHistogram heartbeatInterval;
+
+    // time from issuing a SET_LEDS command to the status report that confirms it
+    private final LatencyHistogram setLedsLatency;
+
+    // time from sending a WRITE_ROBOT command to its delivery status
+    private final LatencyHistogram writeRobotLatency;
+
+    // System.nanoTime() of the last status report, 0 if there was none
+    private final AtomicLong lastHeartbeat;
+
+    // number of status reports
+    private final AtomicLong heartbeats;
+
+    // number of transmissions that were delivered
+    private final AtomicLong delivered;
+
+    // number of transmissions that failed, or whose delivery status never arrived
+    private final AtomicLong failed;
+
+    // number of retries of all transmissions, as reported in the delivery status
+    private final AtomicLong retries;
+
+    // System.nanoTime() at which the pending SET_LEDS command was issued, 0 if there is none
+    private volatile long setLedsIssued;
+
+
+    /**
+     * Creates empty metrics.
+     */
+    TAMMetrics()
+    {
+        this.heartbeatInterval = new LatencyHistogram();
+        this.setLedsLatency = new LatencyHistogram();
+        this.writeRobotLatency = new LatencyHistogram();
+        this.lastHeartbeat = new AtomicLong();
+        this.heartbeats = new AtomicLong();
+        this.delivered = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.retries = new AtomicLong();
+    }
+
+    /**
+     * Records a status report of the TAM.
+     * @param now  System.nanoTime() at which the report was handled
+     * @return time since the previous report in microseconds, -1 for the first report
+     */
+    long recordHeartbeat(long now)
+    {
+        heartbeats.incrementAndGet();
+        long previous = lastHeartbeat.getAndSet(now);
+        if (previous == 0)
+            return -1;
+
+        long interval = (now - previous) / 1000;
+        heartbeatInterval.record(interval);
+        return interval;
+    }
+
+    /**
+     * Records that a SET_LEDS command was issued to the TAM.
+     * @param now  System.nanoTime() at which the command was issued
+     */
+    void recordSetLedsIssued(long now)
+    {
+        setLedsIssued = now;
+    }
+
+    /**
+     * Records that the pending SET_LEDS command was confirmed by a status report.
+     * @param now  System.nanoTime() at which the report was handled
+     * @return latency in microseconds, -1 if no command was pending
+     */
+    long recordSetLedsAcked(long now)
+    {
+        long issued = setLedsIssued;
+        if (issued == 0)
+            return -1;
+        setLedsIssued = 0;
+
+        long latency = (now - issued) / 1000;
+        setLedsLatency.record(latency);
+        return latency;
+    }
+
+    /**
+     * Records the delivery status of a transmission to the TAM.
+     * @param success     true if the transmission was delivered
+     * @param retryCount  number of retries reported in the delivery status
+     */
+    void recordDelivery(boolean success, int retryCount)
+    {
+        if (success)
+            delivered.incrementAndGet();
+        else
+            failed.incrementAndGet();
+        retries.addAndGet(retryCount);
+    }
+
+    /**
+     * Returns the histogram of the time between two status reports.
+     * @return heartbeat intervals in microseconds
+     */
+    public LatencyHistogram getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Returns the histogram of the time from issuing a SET_LEDS command to its confirmation.
+     * @return SET_LEDS latencies in microseconds
+     */
+    public LatencyHistogram getSetLedsLatency()
+    {
+        return setLedsLatency;
+    }
+
+    /**
+     * Returns the histogram of the time from sending a WRITE_ROBOT command to its delivery status.
+     * @return WRITE_ROBOT latencies in microseconds
+     */
+    public LatencyHistogram getWriteRobotLatency()
+    {
+        return writeRobotLatency;
+    }
+
+    /**
+     * Returns the number of status reports.
+     * @return number of heartbeats
+     */
+    public long getHeartbeats()
+    {
+        return heartbeats.get();
+    }
+
+    /**
+     * Returns the number of transmissions that were delivered.
+     * @return number of delivered transmissions
+     */
+    public long getDelivered()
+    {
+        return delivered.get();
+    }
+
+    /**
+     * Returns the number of transmissions that failed or whose delivery status never arrived.
+     * @return number of failed transmissions
+     */
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of retries of all transmissions.
+     * @return number of retries
+     */
+    public long getRetries()
+    {
+        return retries.get();
+    }
+}
@@ -0,0 +1,465 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import be.ac.ulb.iridia.tam.common.LedColor;
+import be.ac.ulb.iridia.tam.common.TAMSnapshot;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class keeps a record of all TAMs the coordinator has seen, across runs, so that the coordinator
+ * can start with the TAMs of the last run instead of waiting for them to be discovered.
+ *
+ * For each TAM, the registry stores the id, the 64bit address, when it was first and last seen, and
+ * the last reported LED color and voltage. It also stores the addresses of nodes that are not TAMs.
+ *
+ * The registry is an append-only journal: every change is a record appended to the file, and
+ * loading replays all records. Changes to the TAMs are appended by checkpoint() at a regular interval
+ * rather than on every status report. When the journal has grown to COMPACT_FACTOR times the number of
+ * entries, it is rewritten with one record per entry. A record cut short by a crash is dropped on load.
+ *
+ * Note: this class is thread-safe, all methods are synchronized
+ */
+class TAMRegistry
+{
+    private final static Logger log = Logger.getLogger(TAMRegistry.class);
+
+    // journal is compacted when it has more than COMPACT_FACTOR records per entry
+    public static final int COMPACT_FACTOR = 4;
+
+    // first bytes of the journal file, followed by the version
+    private static final int MAGIC = 0x54414d52; // "TAMR"
+    private static final int VERSION = 1;
+
+    // types of the records in the journal
+    private static final int RECORD_TAM = 1;
+    private static final int RECORD_BLACKLIST = 2;
+
+    // file the journal is stored in
+    private final File file;
+
+    // all TAMs, by 64bit address packed into a long
+    private final Map<Long, Entry> entries;
+
+    // addresses of nodes that are not TAMs, by address packed into a long
+    private final Map<Long, XBeeAddress64> blacklist;
+
+    // stream records are appended to, null if the journal is not open
+    private DataOutputStream journal;
+
+    // number of records in the journal
+    private int journalRecords;
+
+
+    /**
+     * The state of a TAM as stored in the registry.
+     */
+    static final class Entry
+    {
+        private final XBeeAddress64 address64;
+        private final String id;
+        private final long firstSeen;
+        private final long lastSeen;
+        // last reported LED color, null if the TAM never reported
+        private final LedColor ledColor;
+        // last reported voltage, in millivolts
+        private final int voltage;
+
+        private Entry(XBeeAddress64 address64, String id, long firstSeen, long lastSeen, LedColor ledColor, int voltage)
+        {
+            this.address64 = address64;
+            this.id = id;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+            this.ledColor = ledColor;
+            this.voltage = voltage;
+        }
+
+        XBeeAddress64 getAddress64()
+        {
+            return address64;
+        }
+
+        String getId()
+        {
+            return id;
+        }
+
+        long getFirstSeen()
+        {
+            return firstSeen;
+        }
+
+        long getLastSeen()
+        {
+            return lastSeen;
+        }
+
+        LedColor getLedColor()
+        {
+            return ledColor;
+        }
+
+        double getVoltage()
+        {
+            return voltage / 1000.0;
+        }
+    }
+
+
+    /**
+     * Creates the registry. The journal is read by load().
+     * @param path  path of the journal file
+     */
+    TAMRegistry(String path)
+    {
+        this.file = new File(path);
+        this.entries = new HashMap<Long, Entry>();
+        this.blacklist = new HashMap<Long, XBeeAddress64>();
+    }
+
+    /**
+     * Reads the journal, if it exists, and opens it for appending.
+     * @throws IOException if the journal cannot be opened
+     */
+    synchronized void load() throws IOException
+    {
+        long validLength = 0;
+
+        if (file.exists())
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("Not a TAM registry: " + file);
+                validLength = 8;
+
+                while (true)
+                {
+                    int size = readRecord(in);
+                    if (size < 0)
+                        break;
+                    validLength += size;
+                    journalRecords++;
+                }
+            }
+            catch (EOFException e)
+            {
+                log.warn("TAM registry " + file + " ends with an incomplete record, dropping it");
+            }
+            finally
+            {
+                in.close();
+            }
+
+            // drop a record that was cut short
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                raf.setLength(validLength);
+            }
+            finally
+            {
+                raf.close();
+            }
+
+            log.info("Loaded " + entries.size() + " TAMs and " + blacklist.size() + " other nodes from " + file);
+        }
+
+        if (validLength == 0)
+            rewrite();
+        else
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Returns all TAMs in the registry.
+     * @return copy of the entries
+     */
+    synchronized List<Entry> getEntries()
+    {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * Returns the addresses of all nodes that are known not to be TAMs.
+     * @return copy of the addresses
+     */
+    synchronized List<XBeeAddress64> getBlacklist()
+    {
+        return new ArrayList<XBeeAddress64>(blacklist.values());
+    }
+
+    /**
+     * Returns the id of a TAM as stored in the registry.
+     * @param address64  64bit address of the TAM
+     * @return id of the TAM, null if unknown
+     */
+    synchronized String getId(XBeeAddress64 address64)
+    {
+        Entry entry = entries.get(address64.toLong());
+        return entry == null ? null : entry.getId();
+    }
+
+    /**
+     * Records a TAM, e.g. after it has been discovered, if it differs from its entry.
+     * @param tam  TAM to record
+     */
+    synchronized void record(TAM tam)
+    {
+        if (journal == null)
+            return;
+
+        Entry current = entries.get(tam.getAddress64().toLong());
+        Entry entry = toEntry(tam, current);
+
+        if (current != null && sameAs(current, entry))
+            return;
+
+        try
+        {
+            append(entry);
+            journal.flush();
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to record TAM " + tam.getId() + " in registry: " + e);
+        }
+    }
+
+    /**
+     * Records a node that is not a TAM.
+     * @param address64  64bit address of the node
+     */
+    synchronized void recordBlacklisted(XBeeAddress64 address64)
+    {
+        if (journal == null || blacklist.containsKey(address64.toLong()))
+            return;
+
+        try
+        {
+            appendBlacklisted(address64);
+            journal.flush();
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to record node " + address64 + " in registry: " + e);
+        }
+    }
+
+    /**
+     * Records the state of all TAMs that changed since the last checkpoint and writes the journal to disk.
+     * Compacts the journal if it has grown too large.
+     * @param tams  all TAMs known to the coordinator
+     */
+    synchronized void checkpoint(Collection<TAM> tams)
+    {
+        if (journal == null)
+            return;
+
+        try
+        {
+            for (TAM tam : tams)
+            {
+                Entry current = entries.get(tam.getAddress64().toLong());
+                Entry entry = toEntry(tam, current);
+                if (current == null || !sameAs(current, entry))
+                    append(entry);
+            }
+
+            if (journalRecords > COMPACT_FACTOR * (entries.size() + blacklist.size()))
+                rewrite();
+            else
+                journal.flush();
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to write TAM registry: " + e);
+        }
+    }
+
+    /**
+     * Closes the journal. Call checkpoint() before to record the latest state.
+     */
+    synchronized void close()
+    {
+        if (journal == null)
+            return;
+
+        try
+        {
+            journal.close();
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to close TAM registry: " + e);
+        }
+        journal = null;
+    }
+
+    /**
+     * Creates an entry from the current state of a TAM. LED color and voltage are kept from the
+     * current entry until the TAM reports them.
+     * @param tam      TAM
+     * @param current  current entry of the TAM, null if none
+     * @return entry
+     */
+    private static Entry toEntry(TAM tam, Entry current)
+    {
+        TAMSnapshot snapshot = tam.getSnapshot();
+
+        LedColor ledColor = snapshot.getLedColor();
+        int voltage = (int) Math.round(snapshot.getVoltage() * 1000);
+        if (snapshot.getVoltageVersion() == 0 && current != null)
+        {
+            ledColor = current.ledColor;
+            voltage = current.voltage;
+        }
+
+        return new Entry(tam.getAddress64(), tam.getId(), tam.getFirstSeenTimestamp(), tam.getLastSeenTimestamp(),
+                ledColor, voltage);
+    }
+
+    /**
+     * Returns true if the two entries need not be recorded again.
+     */
+    private static boolean sameAs(Entry a, Entry b)
+    {
+        return (a.id == null ? b.id == null : a.id.equals(b.id))
+                && a.firstSeen == b.firstSeen
+                && a.lastSeen == b.lastSeen
+                && (a.ledColor == null ? b.ledColor == null : a.ledColor.equals(b.ledColor))
+                && a.voltage == b.voltage;
+    }
+
+    /**
+     * Reads one record and applies it.
+     * @param in  journal
+     * @return size of the record in bytes, -1 at the end of the journal
+     * @throws IOException if the record is incomplete or invalid
+     */
+    private int readRecord(DataInputStream in) throws IOException
+    {
+        int type = in.read();
+        if (type < 0)
+            return -1;
+
+        XBeeAddress64 address64 = readAddress(in);
+
+        if (type == RECORD_BLACKLIST)
+        {
+            blacklist.put(address64.toLong(), address64);
+            return 1 + 8;
+        }
+
+        if (type != RECORD_TAM)
+            throw new IOException("Unknown record type " + type + " in TAM registry " + file);
+
+        int idLength = in.readUnsignedByte();
+        byte[] id = new byte[idLength];
+        in.readFully(id);
+        long firstSeen = in.readLong();
+        long lastSeen = in.readLong();
+        boolean ledColorValid = in.readBoolean();
+        int ledColor = in.readInt();
+        int voltage = in.readUnsignedShort();
+
+        entries.put(address64.toLong(), new Entry(address64, idLength == 0 ? null : new String(id, "US-ASCII"),
+                firstSeen, lastSeen, ledColorValid ? new LedColor(ledColor & 0xffffffffL) : null, voltage));
+        return 1 + 8 + 1 + idLength + 8 + 8 + 1 + 4 + 2;
+    }
+
+    /**
+     * Appends a TAM record and updates the entry.
+     */
+    private void append(Entry entry) throws IOException
+    {
+        byte[] id = entry.id == null ? new byte[0] : entry.id.getBytes("US-ASCII");
+
+        journal.write(RECORD_TAM);
+        writeAddress(journal, entry.address64);
+        journal.write(Math.min(id.length, 0xff));
+        journal.write(id, 0, Math.min(id.length, 0xff));
+        journal.writeLong(entry.firstSeen);
+        journal.writeLong(entry.lastSeen);
+        journal.writeBoolean(entry.ledColor != null);
+        journal.writeInt(entry.ledColor == null ? 0 : (int) entry.ledColor.getValue());
+        journal.writeShort(Math.min(Math.max(entry.voltage, 0), 0xffff));
+
+        entries.put(entry.address64.toLong(), entry);
+        journalRecords++;
+    }
+
+    /**
+     * Appends a blacklist record.
+     */
+    private void appendBlacklisted(XBeeAddress64 address64) throws IOException
+    {
+        journal.write(RECORD_BLACKLIST);
+        writeAddress(journal, address64);
+
+        blacklist.put(address64.toLong(), address64);
+        journalRecords++;
+    }
+
+    /**
+     * Writes a new journal with one record per entry and replaces the old one atomically.
+     */
+    private void rewrite() throws IOException
+    {
+        if (journal != null)
+            journal.close();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        journal.writeInt(MAGIC);
+        journal.writeInt(VERSION);
+
+        List<Entry> current = new ArrayList<Entry>(entries.values());
+        List<XBeeAddress64> currentBlacklist = new ArrayList<XBeeAddress64>(blacklist.values());
+        journalRecords = 0;
+
+        for (Entry entry : current)
+            append(entry);
+        for (XBeeAddress64 address64 : currentBlacklist)
+            appendBlacklisted(address64);
+        journal.close();
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        log.debug("Compacted TAM registry to " + journalRecords + " records");
+    }
+
+    private static XBeeAddress64 readAddress(DataInputStream in) throws IOException
+    {
+        int[] address = new int[8];
+        for (int i = 0; i < address.length; i++)
+            address[i] = in.readUnsignedByte();
+        return new XBeeAddress64(address);
+    }
+
+    private static void writeAddress(DataOutputStream out, XBeeAddress64 address64) throws IOException
+    {
+        for (int b : address64.getAddress())
+            out.write(b);
+    }
+}
@@ -2,13 +2,18 @@ package be.ac.ulb.iridia.tam.coordinator;
 
 import be.ac.ulb.iridia.tam.common.LedColor;
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.DMRxFrame;
+import com.rapplogic.xbee.api.DMRxFrameListener;
 import com.rapplogic.xbee.api.PacketListener;
+import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeResponse;
 import com.rapplogic.xbee.api.digimesh.DMRxResponse;
 import com.rapplogic.xbee.api.digimesh.DMTxStatusResponse;
 import com.rapplogic.xbee.util.ByteUtils;
 import org.apache.log4j.Logger;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
  * This class is a packet listener used by the coordinator to parse
@@ -18,24 +23,50 @@ import org.apache.log4j.Logger;
  * Each packet is treated according to its custom type signified by the first
  * byte in the packet.
  *
+ * In flyweight mode, status reports arrive as DM RX frames instead, on the input thread of the
+ * radio. Only the reports of known TAMs without a pending SET_LEDS command are handled there,
+ * without creating objects; the others need the coordinator's lock, or discover a new TAM, so
+ * they are copied and handed to the dispatch threads of the radio like parsed packets.
+ *
  * @see Coordinator PACKET_TYPE_TC_CURRENT_STATE
  * @see PacketListener
+ * @see DMRxFrameListener
  */
-class TAMResponsePacketListener implements PacketListener
+class TAMResponsePacketListener implements PacketListener, DMRxFrameListener
 {
     private final static Logger log = Logger.getLogger(TAMResponsePacketListener.class);
 
     // coordinator the packet listener is attached to
     Coordinator coordinator;
 
+    // index of the radio the packet listener is attached to
+    private final int radio;
+
+    // color of the LEDs of the last frame, reused for every frame
+    private final LedColor ledColor = new LedColor();
+
+    // number of frames handed to the dispatch threads and not handled yet
+    private final AtomicInteger handedOff = new AtomicInteger();
+
 
     /**
-     * Creates packet listener.
+     * Creates packet listener for the primary radio.
      * @param coordinator  coordinator the packet listener is attached to
      */
     TAMResponsePacketListener(Coordinator coordinator)
+    {
+        this(coordinator, 0);
+    }
+
+    /**
+     * Creates packet listener.
+     * @param coordinator  coordinator the packet listener is attached to
+     * @param radio        index of the radio the packet listener is attached to
+     */
+    TAMResponsePacketListener(Coordinator coordinator, int radio)
     {
         this.coordinator = coordinator;
+        this.radio = radio;
     }
 
     /**
@@ -57,43 +88,37 @@ class TAMResponsePacketListener implements PacketListener
             // 1) heartbeat (status sent in intervals)
             // 2) state change (robot came or went)
             // 3) reply to command received from coordinator
-            if (data[0] == Coordinator.PACKET_TYPE_TC_CURRENT_STATE)
+            if (TAMStatusResponse.isStatusReport(data))
             {
-                String address = rxResponse.getRemoteAddress64().toString();
+                // decoded by the TAMStatusDecoder, unless it has been replaced
+                TAMStatusResponse status = rxResponse instanceof TAMStatusResponse
+                        ? (TAMStatusResponse) rxResponse : new TAMStatusResponse(rxResponse);
+                long address = rxResponse.getRemoteAddress64().toLong();
 
-                // check if the TAM is already in the database
-                if (!coordinator.listOfTAMs.containsKey(address))
-                {
-                    // if not, add the TAM that we just discovered
-                    log.debug("Adding unknown TAM...");
-                    coordinator.updateDiscoveredTAM(null,
-                            rxResponse.getRemoteAddress64());
-                }
-
-                // update the TAM's data with the data from the packet that we just received
+                // check if the TAM is already in the database, if not, add the TAM that we just discovered
                 TAM tam = coordinator.listOfTAMs.get(address);
-                tam.updateLedColor(new LedColor((byte) data[1], (byte) data[2], (byte) data[3]));
-                tam.updateRobotPresent(data[4] == 1);
-                tam.updateRobotData(data[7]);
-                tam.updateVoltage(data[5], data[6]);
-                tam.updateLastSeenTimestamp();
-                log.debug("TAM status updated: " + tam);
-
-                // cancel the timeout task and clear it in the TAM
-                if (tam.getSetLedsCmdTimeoutTask() != null)
-                {
-                    tam.getSetLedsCmdTimeoutTask().cancel();
-                    tam.setSetLedsCmdTimeoutTask(null);
-                }
+                if (tam == null)
+                    tam = addUnknownTAM(rxResponse.getRemoteAddress64());
 
-                if (tam.getId() == null)
+                // blacklisted nodes are not added
+                if (tam != null)
                 {
-                    // TODO: just try to resolve this specific TAM instead of running an open node discovery
-                    log.debug("Requesting ND for unknown TAM...");
-                    coordinator.setNodeDiscoveryRequested(true);
+                    updateTAM(tam, address, status.getLedColor(), status.isRobotPresent(), status.getRobotData(), status.getVoltage());
+                    // a report of the color that was sent acknowledges the SET_LEDS command
+                    coordinator.acknowledgeStatus(tam, status.getLedColor());
+                    if (tam.getId() == null)
+                    {
+                        // resolve just this TAM instead of running an open node discovery
+                        log.debug("Resolving id of unknown TAM...");
+                        coordinator.resolveTAM(tam);
+                    }
                 }
             }
 
+            // in flyweight mode, all DM RX packets are frames handed off by processFrame
+            if (handedOff.get() > 0)
+                handedOff.decrementAndGet();
+
         }
         else if (response.getApiId() == ApiId.DM_TX_STATUS_RESPONSE)
         {
@@ -108,4 +133,92 @@ class TAMResponsePacketListener implements PacketListener
             }
         }
     }
+
+    /**
+     * Processes a DM RX frame received in flyweight mode, on the input thread of the radio.
+     * A report of a known TAM that has no pending SET_LEDS command and a known id is handled
+     * without creating objects: the color of the LEDs is decoded into an object of this listener,
+     * and the TAM keeps a copy if it changed. Any other report is copied and handed to the
+     * dispatch threads, as are all reports while earlier ones wait there, so that the reports
+     * of a TAM are handled in order.
+     * @see DMRxFrameListener
+     * @param frame  reusable view of the frame, only valid during the call
+     */
+    public void processFrame(DMRxFrame frame)
+    {
+        if (!TAMStatusResponse.isStatusReport(frame))
+            return;
+
+        long address = frame.getRemoteAddress64AsLong();
+
+        TAM tam = coordinator.listOfTAMs.get(address);
+        if (tam == null || tam.getPendingSetLedsCommand() != null || tam.getId() == null || handedOff.get() > 0)
+        {
+            handOff(frame);
+            return;
+        }
+
+        ledColor.setRedChannelValue((byte) frame.getData(1));
+        ledColor.setGreenChannelValue((byte) frame.getData(2));
+        ledColor.setBlueChannelValue((byte) frame.getData(3));
+        updateTAM(tam, address, ledColor, frame.getData(4) == 1, frame.getData(7),
+                TAM.decodeVoltage(frame.getData(5), frame.getData(6)));
+    }
+
+    /**
+     * Hands a copy of a frame to the dispatch threads of the radio, which pass it to processResponse.
+     * Blocks while the dispatch thread of the TAM is behind.
+     * @param frame  reusable view of the frame
+     */
+    private void handOff(DMRxFrame frame)
+    {
+        XBeeResponse response = frame.toResponse();
+        handedOff.incrementAndGet();
+        try
+        {
+            coordinator.getRadioBalancer().getRadios().get(radio).getXBee().getPacketDispatcher().dispatch(response);
+        }
+        catch (InterruptedException e)
+        {
+            // the radio is being closed
+            handedOff.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a TAM that sent a status report but is not known yet.
+     * @param address64  64bit address of the TAM
+     * @return the TAM, or null if the node is blacklisted
+     */
+    private TAM addUnknownTAM(XBeeAddress64 address64)
+    {
+        log.debug("Adding unknown TAM...");
+        coordinator.updateDiscoveredTAM(null, address64);
+        return coordinator.listOfTAMs.get(address64.toLong());
+    }
+
+    /**
+     * Updates a TAM with the state from its status report. Does not lock the coordinator.
+     * @param tam           TAM that sent the report
+     * @param address       64bit address of the TAM packed into a long
+     * @param ledColor      color of the LEDs reported
+     * @param robotPresent  true if a robot is in the TAM
+     * @param robotData     data received from the robot
+     * @param voltage       voltage of the TAM, in volts
+     */
+    private void updateTAM(TAM tam, long address, LedColor ledColor, boolean robotPresent, int robotData, double voltage)
+    {
+        // update the TAM's data with the data from the packet that we just received
+        tam.updateStatus(ledColor, robotPresent, robotData, voltage);
+        tam.updateLastSeenTimestamp();
+        coordinator.getMetrics().recordHeartbeat(tam);
+
+        // the TAM can be reached over the radio that heard it
+        coordinator.getRadioBalancer().recordHeard(address, radio);
+        if (log.isDebugEnabled())
+            log.debug("TAM status updated: " + tam);
+
+        coordinator.recordHeartbeat(tam);
+    }
 }
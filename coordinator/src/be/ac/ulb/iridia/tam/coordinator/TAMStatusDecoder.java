@@ -0,0 +1,47 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import com.rapplogic.xbee.api.PacketParser;
+import com.rapplogic.xbee.api.ResponseDecoder;
+import com.rapplogic.xbee.api.XBeeAddress16;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.digimesh.DMRxBaseResponse;
+import com.rapplogic.xbee.api.digimesh.DMRxResponse;
+
+import java.io.IOException;
+
+
+/**
+ * This class decodes DM RX packets for the coordinator: status reports of the TAMs become
+ * TAMStatusResponses, all other packets plain DMRxResponses.
+ *
+ * Registered for ApiId.DM_RX_RESPONSE by the coordinator on start(), and replaced by the previous
+ * decoder again on shutdown.
+ *
+ * @see com.rapplogic.xbee.api.ResponseDecoderRegistry
+ */
+class TAMStatusDecoder implements ResponseDecoder
+{
+    /**
+     * Reads the frame data of a DM RX packet and builds the response.
+     * @param parser  parser positioned after the API id
+     * @param apiId   API id of the frame
+     * @return TAMStatusResponse for a status report, DMRxResponse otherwise
+     * @throws IOException if the frame is malformed
+     */
+    public XBeeResponse decode(PacketParser parser, int apiId) throws IOException
+    {
+        // the type of the response depends on the data, which comes last
+        XBeeAddress64 remoteAddress64 = parser.parseAddress64();
+        XBeeAddress16 remoteAddress16 = parser.parseAddress16();
+        int option = parser.read("DM RX Response Option");
+        int[] data = parser.readRemainingBytes();
+
+        DMRxResponse response = TAMStatusResponse.isStatusReport(data) ? new TAMStatusResponse() : new DMRxResponse();
+        response.setRemoteAddress64(remoteAddress64);
+        response.setRemoteAddress16(remoteAddress16);
+        response.setOption(DMRxBaseResponse.Option.get(option));
+        response.setData(data);
+        return response;
+    }
+}
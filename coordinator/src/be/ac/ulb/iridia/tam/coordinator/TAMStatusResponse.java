@@ -0,0 +1,128 @@
+package be.ac.ulb.iridia.tam.coordinator;
+
+import be.ac.ulb.iridia.tam.common.LedColor;
+import com.rapplogic.xbee.api.DMRxFrame;
+import com.rapplogic.xbee.api.digimesh.DMRxResponse;
+
+
+/**
+ * This class is a status report of a TAM, as received in a DM RX packet whose first byte is
+ * Coordinator.PACKET_TYPE_TC_CURRENT_STATE. The state of the TAM is decoded once, when the packet
+ * is parsed, instead of by every listener.
+ *
+ * The packet keeps its raw data, so listeners that only know DMRxResponse see no difference.
+ *
+ * @see TAMStatusDecoder
+ */
+public class TAMStatusResponse extends DMRxResponse
+{
+    private static final long serialVersionUID = 4187350926516870411L;
+
+    // number of data bytes of a status report
+    public static final int LENGTH = 8;
+
+    // color of the RGB LEDs
+    private LedColor ledColor;
+
+    // true if a robot is in the TAM
+    private boolean robotPresent;
+
+    // data received from the robot in the TAM
+    private int robotData;
+
+    // voltage of the TAM, in volts
+    private double voltage;
+
+
+    /**
+     * Creates an empty status report, filled by the TAMStatusDecoder.
+     */
+    TAMStatusResponse()
+    {
+        super();
+    }
+
+    /**
+     * Creates the status report of a DM RX packet that has not been decoded by the TAMStatusDecoder.
+     * @param rxResponse  DM RX packet holding a status report
+     */
+    TAMStatusResponse(DMRxResponse rxResponse)
+    {
+        super();
+        setRemoteAddress64(rxResponse.getRemoteAddress64());
+        setRemoteAddress16(rxResponse.getRemoteAddress16());
+        setOption(rxResponse.getOption());
+        setData(rxResponse.getData());
+    }
+
+    /**
+     * Returns true if the data of a DM RX packet is a status report of a TAM.
+     * @param data  data of the packet
+     * @return true if the data is a status report
+     */
+    static boolean isStatusReport(int[] data)
+    {
+        return data.length >= LENGTH && data[0] == Coordinator.PACKET_TYPE_TC_CURRENT_STATE;
+    }
+
+    /**
+     * Returns true if a DM RX frame received in flyweight mode is a status report of a TAM.
+     * @param frame  view of the frame
+     * @return true if the data is a status report
+     */
+    static boolean isStatusReport(DMRxFrame frame)
+    {
+        return frame.getDataLength() >= LENGTH && frame.getData(0) == Coordinator.PACKET_TYPE_TC_CURRENT_STATE;
+    }
+
+    /**
+     * Sets the data of the packet and decodes the state of the TAM from it.
+     * @param data  data of the packet, a status report
+     */
+    @Override
+    public void setData(int[] data)
+    {
+        super.setData(data);
+
+        this.ledColor = new LedColor((byte) data[1], (byte) data[2], (byte) data[3]);
+        this.robotPresent = data[4] == 1;
+        this.voltage = TAM.decodeVoltage(data[5], data[6]);
+        this.robotData = data[7];
+    }
+
+    /**
+     * Returns the color of the RGB LEDs.
+     * @return color of the LEDs
+     */
+    public LedColor getLedColor()
+    {
+        return ledColor;
+    }
+
+    /**
+     * Returns true if a robot is in the TAM.
+     * @return true if a robot is present
+     */
+    public boolean isRobotPresent()
+    {
+        return robotPresent;
+    }
+
+    /**
+     * Returns the data received from the robot in the TAM.
+     * @return robot data
+     */
+    public int getRobotData()
+    {
+        return robotData;
+    }
+
+    /**
+     * Returns the voltage of the TAM.
+     * @return voltage in volts
+     */
+    public double getVoltage()
+    {
+        return voltage;
+    }
+}
@@ -0,0 +1,116 @@
+package be.ac.ulb.iridia.tam.eventlog;
+
+import be.ac.ulb.iridia.tam.common.TAMInterface;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+
+
+/**
+ * Structured log of the events of an experiment, e.g. robots arriving at TAMs and tasks being
+ * started and finished. Use it instead of formatted log messages for everything that is
+ * analysed after the experiment.
+ *
+ * Recording an event never blocks and does not allocate: events are put into a ring buffer and
+ * written to the file by a separate thread (see EventLogWriter). While no log is open, events
+ * are ignored, so controllers can record events unconditionally.
+ *
+ * The coordinator opens the log on start if a file was set with Coordinator.setEventLogFile(),
+ * and closes it on shutdown. Controllers record events with:
+ *
+ *   EventLog.record(EventType.TASK_STARTED, tam, TASK_GREEN);
+ *
+ * The file starts with a header: magic (int), version (int) and the wall clock time at which the
+ * log was opened (long, milliseconds since the epoch). It is followed by blocks of events, each
+ * consisting of:
+ *  - number of events in the block (int)
+ *  - number of TAM ids used for the first time in this block (unsigned short), followed by each
+ *    id as length (unsigned byte) and ASCII characters; ids are numbered in order of appearance
+ *  - the timestamps of all events (long, nanoseconds since the log was opened)
+ *  - the numbers of the TAM ids of all events (short, -1 for events about no TAM)
+ *  - the codes of the types of all events (byte, see EventType)
+ *  - the values of all events (int)
+ * All values are big-endian. Use EventLogReader to read the file, or EventLogToCsv to convert it.
+ */
+public final class EventLog
+{
+    private final static Logger log = Logger.getLogger(EventLog.class);
+
+    public final static int MAGIC = 0x5445564c; // "TEVL"
+    public final static int VERSION = 1;
+
+    // number of events the ring buffer holds
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    // maximum number of events written per block
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // writer of the open log, null if there is none
+    private static volatile EventLogWriter writer;
+
+
+    /**
+     * Not instantiable.
+     */
+    private EventLog()
+    {
+    }
+
+    /**
+     * Opens the event log, closing the log that is open already.
+     * @param file  file to write the events to, replaced if it exists
+     * @throws IOException if the file cannot be created
+     */
+    public static synchronized void open(String file) throws IOException
+    {
+        close();
+        writer = new EventLogWriter(file, DEFAULT_CAPACITY, DEFAULT_BLOCK_SIZE);
+        log.info("Writing events to " + file);
+    }
+
+    /**
+     * Writes all events recorded so far and closes the event log. Does nothing if no log is open.
+     */
+    public static synchronized void close()
+    {
+        EventLogWriter current = writer;
+        if (current != null)
+        {
+            writer = null;
+            current.close();
+        }
+    }
+
+    /**
+     * Checks whether an event log is open.
+     * @return true if events are recorded
+     */
+    public static boolean isOpen()
+    {
+        return writer != null;
+    }
+
+    /**
+     * Records an event about a TAM.
+     * @param type   type of the event
+     * @param tam    TAM the event is about, null if it is about no TAM
+     * @param value  value of the event, its meaning depends on the type
+     */
+    public static void record(EventType type, TAMInterface tam, int value)
+    {
+        EventLogWriter current = writer;
+        if (current != null)
+            current.offer(type, tam == null ? null : tam.getId(), value);
+    }
+
+    /**
+     * Returns the number of events dropped since the log was opened because the writer
+     * could not keep up.
+     * @return number of dropped events, 0 if no log is open
+     */
+    public static long getDroppedCount()
+    {
+        EventLogWriter current = writer;
+        return current == null ? 0 : current.getDroppedCount();
+    }
+}
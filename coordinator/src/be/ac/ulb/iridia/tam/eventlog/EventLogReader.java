@@ -0,0 +1,204 @@
+package be.ac.ulb.iridia.tam.eventlog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class reads an event log file written by EventLog, one event at a time.
+ *
+ * The reader is a cursor: next() moves to the next event, the getters return the fields of the
+ * current event. Events are read a block at a time into columns. A block that was cut short,
+ * e.g. because the coordinator was killed while writing it, ends the log.
+ *
+ * Not thread-safe.
+ */
+public class EventLogReader
+{
+    // stream the file is read from
+    private final DataInputStream in;
+
+    // wall clock time at which the log was opened, in milliseconds since the epoch
+    private final long startTime;
+
+    // TAM ids by their number
+    private final List<String> tams;
+
+    // columns of the current block
+    private long[] timestamps;
+    private short[] tamNumbers;
+    private byte[] types;
+    private int[] values;
+
+    // number of events in the current block
+    private int count;
+
+    // index of the current event in the current block, -1 before the first event
+    private int index;
+
+
+    /**
+     * Opens an event log file and reads its header.
+     * @param file  event log file
+     * @throws IOException if the file cannot be read or is not an event log
+     */
+    public EventLogReader(String file) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        this.tams = new ArrayList<String>();
+        this.timestamps = new long[0];
+        this.tamNumbers = new short[0];
+        this.types = new byte[0];
+        this.values = new int[0];
+        this.index = -1;
+
+        try
+        {
+            if (in.readInt() != EventLog.MAGIC)
+                throw new IOException("Not an event log: " + file);
+
+            int version = in.readInt();
+            if (version != EventLog.VERSION)
+                throw new IOException("Unsupported event log version " + version + ": " + file);
+
+            this.startTime = in.readLong();
+        }
+        catch (IOException e)
+        {
+            in.close();
+            if (e instanceof EOFException)
+                throw new IOException("Not an event log: " + file);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the wall clock time at which the log was opened.
+     * @return time in milliseconds since the epoch
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * Moves to the next event.
+     * @return false at the end of the log
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException
+    {
+        if (index + 1 < count)
+        {
+            index++;
+            return true;
+        }
+
+        try
+        {
+            readBlock();
+        }
+        catch (EOFException e)
+        {
+            count = 0;
+        }
+
+        index = count > 0 ? 0 : -1;
+        return count > 0;
+    }
+
+    /**
+     * Reads the next block into the columns.
+     * @throws IOException if the file cannot be read
+     * @throws EOFException at the end of the log
+     */
+    private void readBlock() throws IOException
+    {
+        int size = in.readInt();
+        int newTams = in.readUnsignedShort();
+        for (int i = 0; i < newTams; i++)
+        {
+            byte[] id = new byte[in.readUnsignedByte()];
+            in.readFully(id);
+            tams.add(new String(id, "US-ASCII"));
+        }
+
+        if (timestamps.length < size)
+        {
+            timestamps = new long[size];
+            tamNumbers = new short[size];
+            types = new byte[size];
+            values = new int[size];
+        }
+
+        for (int i = 0; i < size; i++)
+            timestamps[i] = in.readLong();
+        for (int i = 0; i < size; i++)
+            tamNumbers[i] = in.readShort();
+        in.readFully(types, 0, size);
+        for (int i = 0; i < size; i++)
+            values[i] = in.readInt();
+
+        count = size;
+    }
+
+    /**
+     * Returns the time of the current event.
+     * @return nanoseconds since the log was opened
+     */
+    public long getTimestamp()
+    {
+        return timestamps[index];
+    }
+
+    /**
+     * Returns the id of the TAM the current event is about.
+     * @return id of the TAM, null if the event is about no TAM
+     */
+    public String getTam()
+    {
+        int number = tamNumbers[index];
+        return number < 0 ? null : tams.get(number);
+    }
+
+    /**
+     * Returns the type of the current event.
+     * @return type, or null if the code is unknown to this version
+     */
+    public EventType getType()
+    {
+        return EventType.get(types[index]);
+    }
+
+    /**
+     * Returns the code of the type of the current event, as stored in the file.
+     * @return code of the type
+     */
+    public int getTypeCode()
+    {
+        return types[index] & 0xff;
+    }
+
+    /**
+     * Returns the value of the current event.
+     * @return value, its meaning depends on the type
+     */
+    public int getValue()
+    {
+        return values[index];
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
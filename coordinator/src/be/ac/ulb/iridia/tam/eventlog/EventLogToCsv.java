@@ -0,0 +1,80 @@
+package be.ac.ulb.iridia.tam.eventlog;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+
+/**
+ * Converts an event log file to CSV, with one line per event:
+ *
+ *   time,tam,event,value
+ *
+ * time is in milliseconds since the epoch, with microsecond precision; tam is empty for events
+ * about no TAM; event is the name of the type (or its code if it is unknown to this version).
+ *
+ * Usage: EventLogToCsv <event log> [<csv file>]
+ * Writes to standard output if no CSV file is given.
+ */
+public class EventLogToCsv
+{
+    /**
+     * Main function.
+     * @param args  event log file and optional CSV file
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: EventLogToCsv <event log> [<csv file>]");
+            System.exit(1);
+        }
+
+        EventLogReader reader = new EventLogReader(args[0]);
+        Writer out = new BufferedWriter(args.length == 2 ? new FileWriter(args[1]) : new OutputStreamWriter(System.out));
+        try
+        {
+            convert(reader, out);
+        }
+        finally
+        {
+            reader.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes all events of a log as CSV, including the header line.
+     * @param reader  reader positioned before the first event
+     * @param out     writer the CSV is written to
+     * @throws IOException if reading or writing fails
+     */
+    public static void convert(EventLogReader reader, Writer out) throws IOException
+    {
+        long startMicros = reader.getStartTime() * 1000;
+
+        out.write("time,tam,event,value\n");
+        while (reader.next())
+        {
+            long micros = startMicros + reader.getTimestamp() / 1000;
+            out.write(Long.toString(micros / 1000));
+            out.write('.');
+            out.write(String.format("%03d", micros % 1000));
+            out.write(',');
+
+            String tam = reader.getTam();
+            if (tam != null)
+                out.write(tam);
+            out.write(',');
+
+            EventType type = reader.getType();
+            out.write(type != null ? type.name() : Integer.toString(reader.getTypeCode()));
+            out.write(',');
+            out.write(Integer.toString(reader.getValue()));
+            out.write('\n');
+        }
+    }
+}
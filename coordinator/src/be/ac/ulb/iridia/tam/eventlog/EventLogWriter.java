@@ -0,0 +1,334 @@
+package be.ac.ulb.iridia.tam.eventlog;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * This class writes events to an event log file without ever blocking the threads that record them.
+ *
+ * Events are put into a ring buffer of fixed size, which any number of threads can write to
+ * without locking: a thread claims a slot by advancing a counter, fills the columns of the slot
+ * and publishes it by storing the sequence number of the slot. A single writer thread takes
+ * the published events in order and writes them to the file in blocks.
+ *
+ * If the writer thread falls behind so far that the ring buffer is full, new events are dropped
+ * and counted instead of waiting for free slots.
+ *
+ * @see EventLog for the layout of the file
+ */
+class EventLogWriter
+{
+    private final static Logger log = Logger.getLogger(EventLogWriter.class);
+
+    // time in nanoseconds the writer thread waits for new events when the ring buffer is empty
+    private static final long IDLE_WAIT = 10 * 1000 * 1000;
+
+    // file the events are written to
+    private final String file;
+
+    // stream to the file, only used by the writer thread
+    private final DataOutputStream out;
+
+    // wall clock time at which the log was opened, in milliseconds since the epoch
+    private final long startTime;
+
+    // System.nanoTime() at which the log was opened
+    private final long startNanos;
+
+    // number of slots in the ring buffer minus one, the size is a power of two
+    private final int mask;
+
+    // columns of the ring buffer
+    private final long[] timestamps;
+    private final byte[] types;
+    private final String[] tams;
+    private final int[] values;
+
+    // sequence number of the event in each slot, set when the event is published
+    private final AtomicLongArray published;
+
+    // sequence number of the next slot to claim
+    private final AtomicLong claimed;
+
+    // sequence number of the next event to write, slots before it may be reused
+    private final AtomicLong consumed;
+
+    // number of events dropped because the ring buffer was full
+    private final AtomicLong dropped;
+
+    // columns of the block being written, only used by the writer thread
+    private final long[] blockTimestamps;
+    private final byte[] blockTypes;
+    private final short[] blockTams;
+    private final int[] blockValues;
+
+    // index of each TAM id written to the file so far, only used by the writer thread
+    private final Map<String, Short> tamIndex;
+
+    // TAM ids indexed since the last block was written, in order of their index
+    private final List<String> newTams;
+
+    // thread that writes the events to the file
+    private final Thread thread;
+
+    // flag that designates if the writer should stop once all events are written
+    private volatile boolean closing;
+
+    // number of events written to the file
+    private long written;
+
+
+    /**
+     * Opens the file, writes its header and starts the writer thread.
+     * @param file       file to write the events to, replaced if it exists
+     * @param capacity   number of events the ring buffer holds, rounded up to a power of two
+     * @param blockSize  maximum number of events written per block
+     * @throws IOException if the file cannot be created
+     */
+    EventLogWriter(String file, int capacity, int blockSize) throws IOException
+    {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.types = new byte[size];
+        this.tams = new String[size];
+        this.values = new int[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            published.set(i, -1);
+        }
+        this.claimed = new AtomicLong();
+        this.consumed = new AtomicLong();
+        this.dropped = new AtomicLong();
+
+        this.blockTimestamps = new long[blockSize];
+        this.blockTypes = new byte[blockSize];
+        this.blockTams = new short[blockSize];
+        this.blockValues = new int[blockSize];
+        this.tamIndex = new HashMap<String, Short>();
+        this.newTams = new ArrayList<String>();
+
+        try
+        {
+            out.writeInt(EventLog.MAGIC);
+            out.writeInt(EventLog.VERSION);
+            out.writeLong(startTime);
+        }
+        catch (IOException e)
+        {
+            out.close();
+            throw e;
+        }
+
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeEvents();
+            }
+        }, "event log writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Records an event. Never blocks; the event is dropped if the ring buffer is full.
+     * @param type   type of the event
+     * @param tam    id of the TAM the event is about, null if it is about no TAM
+     * @param value  value of the event, its meaning depends on the type
+     * @return false if the event was dropped
+     */
+    boolean offer(EventType type, String tam, int value)
+    {
+        long timestamp = System.nanoTime() - startNanos;
+
+        // claim a slot, unless the writer has not freed it yet
+        long sequence;
+        do
+        {
+            sequence = claimed.get();
+            if (sequence - consumed.get() > mask)
+            {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        timestamps[slot] = timestamp;
+        types[slot] = (byte) type.getCode();
+        tams[slot] = tam;
+        values[slot] = value;
+
+        // publish the slot, this makes the columns visible to the writer thread
+        published.lazySet(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Returns the number of events dropped because the ring buffer was full.
+     * @return number of dropped events
+     */
+    long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Writes all events recorded so far, stops the writer thread and closes the file.
+     * Events recorded after this call are dropped and counted.
+     */
+    void close()
+    {
+        closing = true;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Wrote " + written + " events to " + file + ", dropped " + dropped.get());
+    }
+
+    /**
+     * Body of the writer thread: moves published events into blocks and writes them to the file.
+     */
+    private void writeEvents()
+    {
+        long next = 0;
+        try
+        {
+            while (true)
+            {
+                // collect the events published in order, up to one block
+                int count = 0;
+                int slot = (int) next & mask;
+                while (count < blockTimestamps.length && published.get(slot) == next)
+                {
+                    blockTimestamps[count] = timestamps[slot];
+                    blockTypes[count] = types[slot];
+                    blockTams[count] = indexOf(tams[slot]);
+                    blockValues[count] = values[slot];
+                    tams[slot] = null;
+
+                    count++;
+                    next++;
+                    slot = (int) next & mask;
+                }
+
+                if (count > 0)
+                {
+                    // the slots are copied, let the producers reuse them
+                    consumed.lazySet(next);
+                    writeBlock(count);
+                }
+                else if (closing && claimed.get() == next)
+                {
+                    break;
+                }
+                else
+                {
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Writing event log " + file + " failed, no more events are written: " + e);
+        }
+        finally
+        {
+            // make every producer see a full ring buffer, so later events are dropped
+            consumed.set(Long.MIN_VALUE / 2);
+
+            // a producer that checked the ring buffer before fails to claim its slot, as the claim
+            // counter moved on, and sees it full when it retries; the events claimed up to here
+            // that were not written are lost and counted as dropped
+            long end = claimed.getAndIncrement();
+            dropped.addAndGet(end - written);
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                log.error("Closing event log " + file + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of a TAM id in the file, assigning a new one if the id was not written yet.
+     * @param tam  id of the TAM, null if the event is about no TAM
+     * @return index of the id, -1 for null
+     */
+    private short indexOf(String tam)
+    {
+        if (tam == null)
+            return -1;
+
+        Short index = tamIndex.get(tam);
+        if (index == null)
+        {
+            if (tamIndex.size() == Short.MAX_VALUE)
+                return -1;
+            index = (short) tamIndex.size();
+            tamIndex.put(tam, index);
+            newTams.add(tam);
+        }
+        return index;
+    }
+
+    /**
+     * Writes a block: the TAM ids used for the first time, then the columns of the events.
+     * @param count  number of events in the block
+     * @throws IOException if writing fails
+     */
+    private void writeBlock(int count) throws IOException
+    {
+        out.writeInt(count);
+        out.writeShort(newTams.size());
+        for (String tam : newTams)
+        {
+            byte[] id = tam.getBytes("US-ASCII");
+            out.writeByte(id.length);
+            out.write(id, 0, id.length);
+        }
+        newTams.clear();
+
+        for (int i = 0; i < count; i++)
+            out.writeLong(blockTimestamps[i]);
+        for (int i = 0; i < count; i++)
+            out.writeShort(blockTams[i]);
+        for (int i = 0; i < count; i++)
+            out.writeByte(blockTypes[i]);
+        for (int i = 0; i < count; i++)
+            out.writeInt(blockValues[i]);
+
+        written += count;
+    }
+}
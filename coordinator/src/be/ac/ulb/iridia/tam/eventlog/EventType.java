@@ -0,0 +1,71 @@
+package be.ac.ulb.iridia.tam.eventlog;
+
+
+/**
+ * Types of the events recorded in the event log.
+ *
+ * Each event carries an int value; its meaning depends on the type and is given below.
+ * The code of a type is what is stored in the event log file and must never change.
+ */
+public enum EventType
+{
+    // the TAM reported a new color of its LEDs; value is the color as 0xRRGGBB
+    LEDS_CHANGED(1),
+    // the TAM reported that a robot entered it; value is the data received from the robot
+    ROBOT_ARRIVED(2),
+    // the TAM reported that the robot left it; value is the data last received from the robot
+    ROBOT_DEPARTED(3),
+    // a robot started to work on a task; value is the task, as defined by the controller
+    TASK_STARTED(4),
+    // a robot finished a task; value is the task, as defined by the controller
+    TASK_FINISHED(5),
+    // a robot aborted a task or the task failed otherwise; value is the task, as defined by the controller
+    TASK_FAILED(6),
+    // the TAM confirmed a command; value is the packet type of the command
+    COMMAND_ACKED(7),
+    // the TAM did not confirm a command in time; value is the packet type of the command
+    COMMAND_TIMED_OUT(8);
+
+    // types by code
+    private static final EventType[] BY_CODE = new EventType[256];
+
+    static
+    {
+        for (EventType type : values())
+        {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    // code stored in the event log file
+    private final int code;
+
+
+    /**
+     * Creates a type.
+     * @param code  code stored in the event log file
+     */
+    EventType(int code)
+    {
+        this.code = code;
+    }
+
+    /**
+     * Returns the code stored in the event log file.
+     * @return code of the type
+     */
+    public int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * Returns the type with the given code.
+     * @param code  code stored in the event log file
+     * @return type, or null if the code is unknown
+     */
+    public static EventType get(int code)
+    {
+        return BY_CODE[code & 0xff];
+    }
+}
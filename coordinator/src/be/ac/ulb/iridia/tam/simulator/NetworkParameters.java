@@ -0,0 +1,244 @@
+package be.ac.ulb.iridia.tam.simulator;
+
+
+/**
+ * This class holds the parameters of a simulated network: radio latency and loss, the
+ * heartbeat of the virtual TAMs and the processes of robots arriving at and leaving the TAMs.
+ *
+ * Times are in milliseconds. All random processes are drawn from one pseudo-random number
+ * generator, so a simulation with the same seed and the same traffic is reproducible.
+ */
+public class NetworkParameters
+{
+    // latency of a single transmission over the air, drawn uniformly between min and max
+    private long minLatency = 5;
+    private long maxLatency = 30;
+
+    // probability that a single transmission over the air is lost
+    private double lossProbability = 0.0;
+
+    // number of retries of the radio before a unicast transmission fails (DigiMesh MR)
+    private int maxRetries = 3;
+
+    // interval of the status reports the TAMs send on their own
+    private long heartbeatInterval = 1000;
+
+    // mean time between a robot leaving a TAM and the next robot arriving; 0 means no robots
+    private long meanRobotArrivalInterval = 30000;
+
+    // mean time a robot stays in a TAM
+    private long meanRobotStayTime = 20000;
+
+    // voltage the TAMs report, in millivolts
+    private int voltage = 3700;
+
+    // node discovery timeout the radio reports (NT)
+    private long nodeDiscoveryTimeout = 13000;
+
+    // signal strength of the last packet the radio reports (DB), in -dBm
+    private int signalStrength = 40;
+
+    // seed of the pseudo-random number generator
+    private long randomSeed = 0;
+
+
+    /**
+     * Returns the minimum latency of a transmission.
+     * @return minimum latency in milliseconds
+     */
+    public long getMinLatency()
+    {
+        return minLatency;
+    }
+
+    /**
+     * Returns the maximum latency of a transmission.
+     * @return maximum latency in milliseconds
+     */
+    public long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+    /**
+     * Sets the range of the latency of a single transmission.
+     * @param minLatency  minimum latency in milliseconds
+     * @param maxLatency  maximum latency in milliseconds, at least minLatency
+     */
+    public void setLatency(long minLatency, long maxLatency)
+    {
+        if (minLatency < 0 || maxLatency < minLatency)
+            throw new IllegalArgumentException("Invalid latency range " + minLatency + ".." + maxLatency);
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Returns the probability that a single transmission is lost.
+     * @return loss probability between 0 and 1
+     */
+    public double getLossProbability()
+    {
+        return lossProbability;
+    }
+
+    /**
+     * Sets the probability that a single transmission is lost.
+     * @param lossProbability  loss probability between 0 and 1
+     */
+    public void setLossProbability(double lossProbability)
+    {
+        if (lossProbability < 0.0 || lossProbability > 1.0)
+            throw new IllegalArgumentException("Loss probability must be between 0 and 1: " + lossProbability);
+        this.lossProbability = lossProbability;
+    }
+
+    /**
+     * Returns the number of retries of a unicast transmission.
+     * @return number of retries
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the number of retries of a unicast transmission.
+     * @param maxRetries  number of retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Returns the interval of the status reports the TAMs send on their own.
+     * @return heartbeat interval in milliseconds
+     */
+    public long getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Sets the interval of the status reports the TAMs send on their own.
+     * @param heartbeatInterval  heartbeat interval in milliseconds
+     */
+    public void setHeartbeatInterval(long heartbeatInterval)
+    {
+        if (heartbeatInterval <= 0)
+            throw new IllegalArgumentException("Heartbeat interval must be positive: " + heartbeatInterval);
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * Returns the mean time between a robot leaving a TAM and the next robot arriving.
+     * @return mean arrival interval in milliseconds, 0 if there are no robots
+     */
+    public long getMeanRobotArrivalInterval()
+    {
+        return meanRobotArrivalInterval;
+    }
+
+    /**
+     * Sets the mean time between a robot leaving a TAM and the next robot arriving.
+     * Arrivals are a Poisson process per TAM.
+     * @param meanRobotArrivalInterval  mean arrival interval in milliseconds, 0 for no robots
+     */
+    public void setMeanRobotArrivalInterval(long meanRobotArrivalInterval)
+    {
+        this.meanRobotArrivalInterval = meanRobotArrivalInterval;
+    }
+
+    /**
+     * Returns the mean time a robot stays in a TAM.
+     * @return mean stay time in milliseconds
+     */
+    public long getMeanRobotStayTime()
+    {
+        return meanRobotStayTime;
+    }
+
+    /**
+     * Sets the mean time a robot stays in a TAM. Stay times are exponentially distributed.
+     * @param meanRobotStayTime  mean stay time in milliseconds
+     */
+    public void setMeanRobotStayTime(long meanRobotStayTime)
+    {
+        this.meanRobotStayTime = meanRobotStayTime;
+    }
+
+    /**
+     * Returns the voltage the TAMs report.
+     * @return voltage in millivolts
+     */
+    public int getVoltage()
+    {
+        return voltage;
+    }
+
+    /**
+     * Sets the voltage the TAMs report.
+     * @param voltage  voltage in millivolts
+     */
+    public void setVoltage(int voltage)
+    {
+        this.voltage = voltage;
+    }
+
+    /**
+     * Returns the node discovery timeout the radio reports. ND responses are spread over this time.
+     * @return node discovery timeout in milliseconds
+     */
+    public long getNodeDiscoveryTimeout()
+    {
+        return nodeDiscoveryTimeout;
+    }
+
+    /**
+     * Sets the node discovery timeout the radio reports. The radio reports it in units of 100ms.
+     * @param nodeDiscoveryTimeout  node discovery timeout in milliseconds
+     */
+    public void setNodeDiscoveryTimeout(long nodeDiscoveryTimeout)
+    {
+        if (nodeDiscoveryTimeout < 100 || nodeDiscoveryTimeout > 0xffff * 100)
+            throw new IllegalArgumentException("Invalid node discovery timeout: " + nodeDiscoveryTimeout);
+        this.nodeDiscoveryTimeout = nodeDiscoveryTimeout;
+    }
+
+    /**
+     * Returns the signal strength the radio reports.
+     * @return signal strength in -dBm
+     */
+    public int getSignalStrength()
+    {
+        return signalStrength;
+    }
+
+    /**
+     * Sets the signal strength the radio reports.
+     * @param signalStrength  signal strength in -dBm
+     */
+    public void setSignalStrength(int signalStrength)
+    {
+        this.signalStrength = signalStrength;
+    }
+
+    /**
+     * Returns the seed of the pseudo-random number generator.
+     * @return random seed
+     */
+    public long getRandomSeed()
+    {
+        return randomSeed;
+    }
+
+    /**
+     * Sets the seed of the pseudo-random number generator.
+     * @param randomSeed  random seed
+     */
+    public void setRandomSeed(long randomSeed)
+    {
+        this.randomSeed = randomSeed;
+    }
+}
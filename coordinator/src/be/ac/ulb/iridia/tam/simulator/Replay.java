@@ -0,0 +1,92 @@
+package be.ac.ulb.iridia.tam.simulator;
+
+import be.ac.ulb.iridia.tam.common.ExperimentInterface;
+import be.ac.ulb.iridia.tam.coordinator.Coordinator;
+import be.ac.ulb.iridia.tam.user.experiments.RandomTaskExperiment;
+import com.rapplogic.xbee.capture.CaptureReader;
+import com.rapplogic.xbee.capture.ReplayConnection;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import java.util.Date;
+
+
+/**
+ * Runs the coordinator with the random task experiment on the packets of a recorded session, to
+ * reproduce problems offline or to measure the coordinator on real traffic.
+ * The coordinator is shut down once all recorded packets have been delivered.
+ *
+ * Usage: Replay capture-file [fast]
+ *
+ * By default, packets are delivered with the timing they were recorded with; with "fast", they are
+ * delivered as fast as the coordinator takes them.
+ * @see Coordinator#setCaptureFile(String)
+ */
+public class Replay
+{
+    private final static Logger log = Logger.getLogger(Replay.class);
+
+    // speed of the serial port of the replayed Xbee module
+    private static final int BAUD_RATE = 115200;
+
+
+    /**
+     * Main function used to start the replay.
+     * @param args  array of command line arguments
+     * @throws Exception on failure of the coordinator
+     */
+    public static void main(String[] args) throws Exception
+    {
+        // init log4j
+        PropertyConfigurator.configure("log4j.properties");
+
+        if (args.length < 1)
+        {
+            System.err.println("Usage: Replay capture-file [fast]");
+            System.exit(1);
+        }
+
+        boolean realTime = !(args.length > 1 && args[1].equals("fast"));
+
+        CaptureReader reader = new CaptureReader(args[0]);
+        log.info("Replaying session recorded at " + new Date(reader.getStartTime()) + (realTime ? " in real time" : " as fast as possible"));
+
+        final ReplayConnection connection = new ReplayConnection(reader, realTime);
+        final Coordinator coordinator = new Coordinator(connection, BAUD_RATE);
+
+        ExperimentInterface experiment = new RandomTaskExperiment();
+        experiment.init(System.currentTimeMillis());
+        coordinator.setExperiment(experiment);
+
+        // stop the coordinator at the end of the capture
+        final long start = System.currentTimeMillis();
+        Thread watcher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if (connection.awaitFinished(0))
+                    {
+                        log.info("Replayed " + connection.getInboundPacketCount() + " packets in "
+                                + (System.currentTimeMillis() - start) + " ms, coordinator sent "
+                                + connection.getOutboundPacketCount() + " packets");
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                coordinator.setShutdownRequested(true);
+            }
+        }, "Replay");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        coordinator.start();
+
+        // the timers of the experiment and the controllers would keep the JVM alive
+        System.exit(0);
+    }
+}
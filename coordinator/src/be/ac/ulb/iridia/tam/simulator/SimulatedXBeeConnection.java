@@ -0,0 +1,868 @@
+package be.ac.ulb.iridia.tam.simulator;
+
+import com.rapplogic.xbee.XBeeChannelConnection;
+import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeePacket;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class emulates an Xbee module in API mode (AP=2) together with a DigiMesh network of virtual TAMs.
+ * It can be used instead of the serial connection to run the coordinator without hardware, e.g. to
+ * measure its throughput and latency with hundreds of TAMs.
+ *
+ * The simulated radio answers the local AT commands used by the library and the coordinator
+ * (AP, HV, VR, NT, ND, DB), remote NI queries, and sends a DM TX status for every DM TX request
+ * with a frame id. Unicast transmissions are retried like on the real radio; each attempt can be lost
+ * and takes a random latency, as configured in the NetworkParameters.
+ *
+ * Frames written by the coordinator are decoded on the writing thread; everything else, including the
+ * virtual TAMs, runs on a single radio thread, which is also the only thread that writes frames to
+ * the coordinator.
+ */
+public class SimulatedXBeeConnection implements XBeeChannelConnection
+{
+    private final static Logger log = Logger.getLogger(SimulatedXBeeConnection.class);
+
+    // values reported by the simulated radio
+    private static final int[] HARDWARE_VERSION = { 0x17, 0x44 };
+    private static final int[] FIRMWARE_VERSION = { 0x80, 0x67 };
+    private static final int API_MODE = 2;
+
+    // status of AT command responses
+    private static final int AT_STATUS_OK = 0;
+    private static final int AT_STATUS_ERROR = 1;
+    private static final int AT_STATUS_TRANSMISSION_FAILED = 4;
+
+    // delivery status of DM TX status responses
+    private static final int DELIVERY_SUCCESS = 0x00;
+    private static final int DELIVERY_NETWORK_ACK_FAILURE = 0x21;
+    private static final int DELIVERY_ROUTE_NOT_FOUND = 0x25;
+
+    // 16bit address used by DigiMesh for all nodes
+    private static final int[] ADDRESS16_UNKNOWN = { 0xff, 0xfe };
+
+    // option of a received unicast packet
+    private static final int RX_OPTION_ACKNOWLEDGED = 0x01;
+
+    // first 64bit address of the virtual TAMs; the index of the TAM is added
+    private static final long FIRST_TAM_ADDRESS = 0x0013a20050000000L;
+
+    // parameters of the simulated network
+    private final NetworkParameters parameters;
+
+    // virtual TAMs by address, only used on the radio thread after start
+    private final Map<XBeeAddress64, VirtualTAM> tams;
+
+    // single thread that runs the radio and the virtual TAMs
+    private final ScheduledThreadPoolExecutor radio;
+
+    // pseudo-random number generator of all random processes, only used on the radio thread
+    private final Random prng;
+
+    // pipe that carries frames from the radio to the coordinator
+    private final Pipe pipe;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+
+    // encodes frames sent to the coordinator, only used on the radio thread
+    private final FrameEncoder encoder;
+    private final ByteBuffer sendBuffer;
+
+    // counters of the simulation
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong statusReportsSent = new AtomicLong();
+    private final AtomicLong transmissionsLost = new AtomicLong();
+
+    // flag that designates if the connection has been closed
+    private volatile boolean closed;
+
+
+    /**
+     * Creates the simulated radio and network, and switches on all TAMs.
+     * The TAMs are named TAM01 to TAM99; beyond 99 they get 3-digit (or longer) ids.
+     * @param numberOfTAMs  number of virtual TAMs in the network
+     * @param parameters    parameters of the network
+     * @throws IOException if the pipe to the coordinator can't be opened
+     */
+    public SimulatedXBeeConnection(int numberOfTAMs, NetworkParameters parameters) throws IOException
+    {
+        this.parameters = parameters;
+        this.prng = new Random(parameters.getRandomSeed());
+
+        this.pipe = Pipe.open();
+        this.inputStream = Channels.newInputStream(pipe.source());
+        this.outputStream = new RequestDecoder();
+
+        this.encoder = new FrameEncoder();
+        this.sendBuffer = ByteBuffer.allocate(FrameEncoder.getMaxPacketLength(256));
+
+        this.radio = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "SimulatedRadio");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.radio.setRemoveOnCancelPolicy(true);
+
+        this.tams = new LinkedHashMap<XBeeAddress64, VirtualTAM>();
+        for (int i = 0; i < numberOfTAMs; i++)
+        {
+            XBeeAddress64 address64 = toAddress64(FIRST_TAM_ADDRESS + i);
+            tams.put(address64, new VirtualTAM(this, address64, String.format("TAM%02d", i + 1)));
+        }
+
+        radio.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (VirtualTAM tam : tams.values())
+                {
+                    tam.switchOn();
+                }
+            }
+        });
+    }
+
+
+    /***************************************************************************
+     *
+     * Methods below implement XBeeChannelConnection
+     *
+     ***************************************************************************/
+
+    /**
+     * Returns the channel the coordinator reads frames from.
+     * @return read channel
+     */
+    @Override
+    public ReadableByteChannel getReadChannel()
+    {
+        return pipe.source();
+    }
+
+    /**
+     * Returns the stream the coordinator reads frames from.
+     * @return input stream
+     */
+    @Override
+    public InputStream getInputStream()
+    {
+        return inputStream;
+    }
+
+    /**
+     * Returns the stream the coordinator writes frames to.
+     * @return output stream
+     */
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    /**
+     * Stops the radio and the TAMs and closes the pipe.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        radio.shutdownNow();
+
+        try
+        {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Exception while closing pipe", e);
+        }
+    }
+
+
+    /***************************************************************************
+     *
+     * Statistics of the simulation
+     *
+     ***************************************************************************/
+
+    /**
+     * Returns the number of frames the coordinator sent to the radio.
+     * @return number of frames
+     */
+    public long getFramesReceived()
+    {
+        return framesReceived.get();
+    }
+
+    /**
+     * Returns the number of frames the radio sent to the coordinator.
+     * @return number of frames
+     */
+    public long getFramesSent()
+    {
+        return framesSent.get();
+    }
+
+    /**
+     * Returns the number of status reports of TAMs that reached the coordinator.
+     * @return number of status reports
+     */
+    public long getStatusReportsSent()
+    {
+        return statusReportsSent.get();
+    }
+
+    /**
+     * Returns the number of transmissions over the air that were lost, including retried ones.
+     * @return number of lost transmissions
+     */
+    public long getTransmissionsLost()
+    {
+        return transmissionsLost.get();
+    }
+
+    /**
+     * Returns a string representation of the statistics of the simulation.
+     * @return string representation of the statistics
+     */
+    @Override
+    public String toString()
+    {
+        return "SimulatedXBeeConnection{" +
+                "tams=" + tams.size() +
+                ", framesReceived=" + framesReceived +
+                ", framesSent=" + framesSent +
+                ", statusReportsSent=" + statusReportsSent +
+                ", transmissionsLost=" + transmissionsLost + "}";
+    }
+
+
+    /***************************************************************************
+     *
+     * Methods below are used by the virtual TAMs, on the radio thread
+     *
+     ***************************************************************************/
+
+    /**
+     * Returns the parameters of the network.
+     * @return parameters
+     */
+    NetworkParameters getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * Returns the executor of the radio thread.
+     * @return radio executor
+     */
+    ScheduledExecutorService getRadio()
+    {
+        return radio;
+    }
+
+    /**
+     * Returns a uniformly distributed random number.
+     * @param bound  upper bound (exclusive)
+     * @return random number between 0 and bound
+     */
+    long nextUniform(long bound)
+    {
+        return bound <= 0 ? 0 : (long) (prng.nextDouble() * bound);
+    }
+
+    /**
+     * Returns a uniformly distributed random integer.
+     * @param bound  upper bound (exclusive)
+     * @return random number between 0 and bound
+     */
+    int nextInt(int bound)
+    {
+        return prng.nextInt(bound);
+    }
+
+    /**
+     * Returns an exponentially distributed random number.
+     * @param mean  mean of the distribution
+     * @return random number
+     */
+    long nextExponential(long mean)
+    {
+        return (long) (-mean * Math.log(1.0 - prng.nextDouble()));
+    }
+
+    /**
+     * Sends a packet from a TAM to the coordinator, with retries, loss and latency.
+     * @param tam      sending TAM
+     * @param payload  payload of the packet
+     */
+    void sendFromTAM(VirtualTAM tam, int[] payload)
+    {
+        int attempts = transmit();
+        if (attempts < 0)
+            return;
+
+        if (payload.length > 0 && payload[0] == VirtualTAM.PACKET_TYPE_TC_CURRENT_STATE)
+            statusReportsSent.incrementAndGet();
+
+        int[] frame = new int[12 + payload.length];
+        frame[0] = ApiId.DM_RX_RESPONSE.getValue();
+        System.arraycopy(tam.getAddress64().getAddress(), 0, frame, 1, 8);
+        System.arraycopy(ADDRESS16_UNKNOWN, 0, frame, 9, 2);
+        frame[11] = RX_OPTION_ACKNOWLEDGED;
+        System.arraycopy(payload, 0, frame, 12, payload.length);
+
+        sendFrame(frame, attempts * nextLatency());
+    }
+
+
+    /***************************************************************************
+     *
+     * Methods below emulate the radio, on the radio thread
+     *
+     ***************************************************************************/
+
+    /**
+     * Handles an API frame sent by the coordinator.
+     * @param frame  un-escaped frame data, starting with the API id
+     */
+    private void handleRequest(int[] frame)
+    {
+        ApiId apiId = ApiId.get(frame[0]);
+        if (apiId == null || frame.length < 2)
+        {
+            log.warn("Unsupported API frame " + Arrays.toString(frame));
+            return;
+        }
+
+        int frameId = frame[1];
+
+        switch (apiId)
+        {
+            case AT_COMMAND:
+            case AT_COMMAND_QUEUE:
+                handleAtCommand(frameId, command(frame, 2), Arrays.copyOfRange(frame, 4, frame.length));
+                break;
+
+            case DM_TX_REQUEST:
+                // api id, frame id, 64bit and 16bit address, broadcast radius, options, payload
+                handleTransmitRequest(frameId, address64(frame, 2), Arrays.copyOfRange(frame, 14, frame.length));
+                break;
+
+            case REMOTE_AT_REQUEST:
+            case DM_REMOTE_AT_REQUEST:
+                // api id, frame id, 64bit and 16bit address, options, command, value
+                handleRemoteAtCommand(frameId, address64(frame, 2), command(frame, 13));
+                break;
+
+            default:
+                log.warn("Unsupported API frame " + apiId);
+        }
+    }
+
+    /**
+     * Answers a local AT command.
+     * @param frameId  frame id of the request, 0 if no response is wanted
+     * @param command  two character AT command
+     * @param value    value to set, empty for a query
+     */
+    private void handleAtCommand(int frameId, String command, int[] value)
+    {
+        if (command.equals("ND"))
+        {
+            // every reachable node answers once, at a random time within the node discovery timeout
+            for (VirtualTAM tam : tams.values())
+            {
+                if (tam.isSwitchedOn() && transmit() >= 0)
+                {
+                    sendFrame(atResponse(frameId, command, AT_STATUS_OK, nodeDiscoverRecord(tam)),
+                            nextUniform(parameters.getNodeDiscoveryTimeout()));
+                }
+            }
+            return;
+        }
+
+        int status = AT_STATUS_OK;
+        int[] result = new int[0];
+
+        if (command.equals("AP"))
+        {
+            if (value.length == 0)
+                result = new int[] { API_MODE };
+            else if (value[0] != API_MODE)
+                status = AT_STATUS_ERROR;
+        }
+        else if (command.equals("HV"))
+        {
+            result = HARDWARE_VERSION;
+        }
+        else if (command.equals("VR"))
+        {
+            result = FIRMWARE_VERSION;
+        }
+        else if (command.equals("NT"))
+        {
+            long timeout = parameters.getNodeDiscoveryTimeout() / 100;
+            result = new int[] { (int) (timeout >> 8) & 0xff, (int) timeout & 0xff };
+        }
+        else if (command.equals("DB"))
+        {
+            result = new int[] { parameters.getSignalStrength() };
+        }
+        else
+        {
+            log.warn("Unsupported AT command " + command);
+            status = AT_STATUS_ERROR;
+        }
+
+        if (frameId != 0)
+            sendFrame(atResponse(frameId, command, status, result), 0);
+    }
+
+    /**
+     * Transmits a packet to one TAM or all TAMs and reports the delivery status.
+     * @param frameId    frame id of the request, 0 if no status is wanted
+     * @param address64  destination, or the broadcast address
+     * @param payload    payload to deliver
+     */
+    private void handleTransmitRequest(int frameId, XBeeAddress64 address64, final int[] payload)
+    {
+        int retries = 0;
+        int deliveryStatus = DELIVERY_SUCCESS;
+        long delay;
+
+        if (address64.equals(XBeeAddress64.BROADCAST))
+        {
+            // broadcasts are not acknowledged, every TAM gets it or not
+            for (VirtualTAM tam : tams.values())
+            {
+                if (transmit() >= 0)
+                    deliver(tam, payload, nextLatency());
+            }
+            delay = nextLatency();
+        }
+        else
+        {
+            VirtualTAM tam = tams.get(address64);
+            if (tam == null)
+            {
+                deliveryStatus = DELIVERY_ROUTE_NOT_FOUND;
+                delay = nextLatency();
+            }
+            else
+            {
+                int attempts = tam.isSwitchedOn() ? transmit() : -1;
+                if (attempts < 0)
+                {
+                    retries = parameters.getMaxRetries();
+                    deliveryStatus = DELIVERY_NETWORK_ACK_FAILURE;
+                    delay = (retries + 1) * nextLatency();
+                }
+                else
+                {
+                    retries = attempts - 1;
+                    delay = attempts * nextLatency();
+                    deliver(tam, payload, delay);
+                    // the acknowledgement has to travel back
+                    delay += nextLatency();
+                }
+            }
+        }
+
+        if (frameId != 0)
+        {
+            sendFrame(new int[] {
+                    ApiId.DM_TX_STATUS_RESPONSE.getValue(),
+                    frameId,
+                    ADDRESS16_UNKNOWN[0],
+                    ADDRESS16_UNKNOWN[1],
+                    retries,
+                    deliveryStatus,
+                    0
+            }, delay);
+        }
+    }
+
+    /**
+     * Answers a remote AT command. Only NI is supported, as the TAMs are only ever queried for their id.
+     * @param frameId    frame id of the request
+     * @param address64  TAM to query
+     * @param command    two character AT command
+     */
+    private void handleRemoteAtCommand(int frameId, XBeeAddress64 address64, String command)
+    {
+        VirtualTAM tam = tams.get(address64);
+        int attempts = (tam != null && tam.isSwitchedOn()) ? transmit() : -1;
+
+        int status;
+        int[] value = new int[0];
+        long delay;
+
+        if (attempts < 0)
+        {
+            status = AT_STATUS_TRANSMISSION_FAILED;
+            delay = (parameters.getMaxRetries() + 1) * nextLatency();
+        }
+        else
+        {
+            delay = (attempts + 1) * nextLatency();
+            if (command.equals("NI"))
+            {
+                status = AT_STATUS_OK;
+                value = toInts(tam.getNodeIdentifier());
+            }
+            else
+            {
+                log.warn("Unsupported remote AT command " + command);
+                status = AT_STATUS_ERROR;
+            }
+        }
+
+        if (frameId == 0)
+            return;
+
+        // api id, frame id, 64bit and 16bit address, command, status, value
+        int[] frame = new int[15 + value.length];
+        frame[0] = ApiId.REMOTE_AT_RESPONSE.getValue();
+        frame[1] = frameId;
+        System.arraycopy(address64.getAddress(), 0, frame, 2, 8);
+        System.arraycopy(ADDRESS16_UNKNOWN, 0, frame, 10, 2);
+        frame[12] = command.charAt(0);
+        frame[13] = command.charAt(1);
+        frame[14] = status;
+        System.arraycopy(value, 0, frame, 15, value.length);
+
+        sendFrame(frame, delay);
+    }
+
+    /**
+     * Delivers a packet to a TAM after a delay.
+     * @param tam      receiving TAM
+     * @param payload  payload of the packet
+     * @param delay    delay in milliseconds
+     */
+    private void deliver(final VirtualTAM tam, final int[] payload, long delay)
+    {
+        radio.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                tam.receive(payload);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Simulates a unicast transmission over the air, with the retries of the radio.
+     * @return number of attempts until the transmission succeeded, or -1 if all attempts were lost
+     */
+    private int transmit()
+    {
+        for (int attempt = 1; attempt <= parameters.getMaxRetries() + 1; attempt++)
+        {
+            if (prng.nextDouble() >= parameters.getLossProbability())
+                return attempt;
+            transmissionsLost.incrementAndGet();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a random latency of a single transmission.
+     * @return latency in milliseconds
+     */
+    private long nextLatency()
+    {
+        return parameters.getMinLatency() + nextUniform(parameters.getMaxLatency() - parameters.getMinLatency() + 1);
+    }
+
+    /**
+     * Sends a frame to the coordinator after a delay.
+     * @param frame  un-escaped frame data, starting with the API id
+     * @param delay  delay in milliseconds
+     */
+    private void sendFrame(final int[] frame, long delay)
+    {
+        radio.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeFrame(frame);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a frame to the coordinator.
+     * @param frame  un-escaped frame data, starting with the API id
+     */
+    private void writeFrame(int[] frame)
+    {
+        if (closed)
+            return;
+
+        encoder.reset();
+        encoder.write(frame);
+        sendBuffer.clear();
+        encoder.encodeFrame(sendBuffer);
+        sendBuffer.flip();
+
+        try
+        {
+            while (sendBuffer.hasRemaining())
+            {
+                pipe.sink().write(sendBuffer);
+            }
+            framesSent.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            // the reading end is closed when the coordinator interrupts its reader thread on close
+            if (!closed && pipe.source().isOpen())
+                log.error("Failed to write frame to coordinator", e);
+        }
+    }
+
+
+    /***************************************************************************
+     *
+     * Helpers to build and parse frames
+     *
+     ***************************************************************************/
+
+    /**
+     * Builds the frame data of an AT command response.
+     * @param frameId  frame id of the request
+     * @param command  two character AT command
+     * @param status   status of the command
+     * @param value    value of the response
+     * @return frame data
+     */
+    private static int[] atResponse(int frameId, String command, int status, int[] value)
+    {
+        int[] frame = new int[5 + value.length];
+        frame[0] = ApiId.AT_RESPONSE.getValue();
+        frame[1] = frameId;
+        frame[2] = command.charAt(0);
+        frame[3] = command.charAt(1);
+        frame[4] = status;
+        System.arraycopy(value, 0, frame, 5, value.length);
+        return frame;
+    }
+
+    /**
+     * Builds the value of an ND response for a TAM, as parsed by DMNodeDiscover.
+     * @param tam  discovered TAM
+     * @return value of the response
+     */
+    private static int[] nodeDiscoverRecord(VirtualTAM tam)
+    {
+        int[] identifier = toInts(tam.getNodeIdentifier());
+
+        // 16bit address, 64bit address, node identifier terminated by 0, parent 16bit address, status
+        int[] record = new int[14 + identifier.length];
+        System.arraycopy(ADDRESS16_UNKNOWN, 0, record, 0, 2);
+        System.arraycopy(tam.getAddress64().getAddress(), 0, record, 2, 8);
+        System.arraycopy(identifier, 0, record, 10, identifier.length);
+        record[10 + identifier.length] = 0;
+        System.arraycopy(ADDRESS16_UNKNOWN, 0, record, 11 + identifier.length, 2);
+        record[13 + identifier.length] = 0;
+        return record;
+    }
+
+    /**
+     * Reads a two character AT command from a frame.
+     * @param frame   frame data
+     * @param offset  offset of the command
+     * @return AT command
+     */
+    private static String command(int[] frame, int offset)
+    {
+        return new String(new char[] { (char) frame[offset], (char) frame[offset + 1] });
+    }
+
+    /**
+     * Reads a 64bit address from a frame.
+     * @param frame   frame data
+     * @param offset  offset of the address
+     * @return 64bit address
+     */
+    private static XBeeAddress64 address64(int[] frame, int offset)
+    {
+        return new XBeeAddress64(Arrays.copyOfRange(frame, offset, offset + 8));
+    }
+
+    /**
+     * Converts a long to a 64bit address.
+     * @param address  address as long
+     * @return 64bit address
+     */
+    private static XBeeAddress64 toAddress64(long address)
+    {
+        int[] bytes = new int[8];
+        for (int i = 0; i < 8; i++)
+        {
+            bytes[i] = (int) (address >>> (56 - 8 * i)) & 0xff;
+        }
+        return new XBeeAddress64(bytes);
+    }
+
+    /**
+     * Converts an ASCII string to bytes.
+     * @param string  string to convert
+     * @return bytes of the string
+     */
+    private static int[] toInts(String string)
+    {
+        int[] bytes = new int[string.length()];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = string.charAt(i);
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Output stream the coordinator writes API frames to. Finds, un-escapes and checksums the frames
+     * and hands them to the radio thread.
+     */
+    private class RequestDecoder extends OutputStream
+    {
+        // un-escaped frame data of the current frame
+        private int[] frame;
+        // number of bytes of the current frame seen so far, including the length bytes
+        private int position = -1;
+        // length of the frame data as stated in the frame
+        private int length;
+        private int checksum;
+        private boolean escaped;
+
+        /**
+         * Decodes a single byte.
+         * @param b  byte written by the coordinator
+         * @throws IOException if the connection is closed
+         */
+        @Override
+        public synchronized void write(int b) throws IOException
+        {
+            if (closed)
+                throw new IOException("Connection closed");
+
+            b &= 0xff;
+
+            if (b == XBeePacket.SpecialByte.START_BYTE.getValue())
+            {
+                if (position >= 0)
+                    log.warn("Frame interrupted by start byte after " + position + " bytes");
+                position = 0;
+                escaped = false;
+                return;
+            }
+
+            if (position < 0)
+                return;
+
+            if (b == XBeePacket.SpecialByte.ESCAPE.getValue())
+            {
+                escaped = true;
+                return;
+            }
+
+            if (escaped)
+            {
+                b ^= 0x20;
+                escaped = false;
+            }
+
+            if (position == 0)
+            {
+                length = b << 8;
+            }
+            else if (position == 1)
+            {
+                length |= b;
+                frame = new int[length];
+                checksum = 0;
+            }
+            else
+            {
+                checksum += b;
+                if (position - 2 < length)
+                {
+                    frame[position - 2] = b;
+                }
+                else
+                {
+                    // that was the checksum byte
+                    position = -1;
+                    if ((checksum & 0xff) != 0xff || length == 0)
+                    {
+                        log.warn("Dropping frame with bad checksum or no data");
+                        return;
+                    }
+
+                    framesReceived.incrementAndGet();
+                    final int[] request = frame;
+                    radio.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            handleRequest(request);
+                        }
+                    });
+                    return;
+                }
+            }
+
+            position++;
+        }
+
+        /**
+         * Decodes a number of bytes.
+         * @param bytes   bytes written by the coordinator
+         * @param offset  offset of the first byte
+         * @param count   number of bytes
+         * @throws IOException if the connection is closed
+         */
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int count) throws IOException
+        {
+            for (int i = offset; i < offset + count; i++)
+            {
+                write(bytes[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package be.ac.ulb.iridia.tam.simulator;
+
+import be.ac.ulb.iridia.tam.common.ExperimentInterface;
+import be.ac.ulb.iridia.tam.coordinator.Coordinator;
+import be.ac.ulb.iridia.tam.user.experiments.RandomTaskExperiment;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+/**
+ * Runs the coordinator with the random task experiment on a simulated network, to load-test
+ * the coordinator with more TAMs than the lab has.
+ *
+ * Usage: Simulation [number of TAMs] [duration in seconds] [loss probability] [capture file] [event log]
+ *
+ * If a capture file is given, all packets are recorded to it for replay; use "-" for none.
+ * If an event log is given, the events of the experiment are recorded to it.
+ * @see Replay
+ */
+public class Simulation
+{
+    private final static Logger log = Logger.getLogger(Simulation.class);
+
+    // defaults of the command line arguments
+    private static final int DEFAULT_NUMBER_OF_TAMS = 200;
+    private static final long DEFAULT_DURATION_IN_SECONDS = 120;
+    private static final double DEFAULT_LOSS_PROBABILITY = 0.05;
+
+    // speed of the serial port of the simulated Xbee module
+    private static final int BAUD_RATE = 115200;
+
+
+    /**
+     * Main function used to start the simulation.
+     * @param args  array of command line arguments
+     * @throws Exception on failure of the coordinator
+     */
+    public static void main(String[] args) throws Exception
+    {
+        // init log4j
+        PropertyConfigurator.configure("log4j.properties");
+
+        int numberOfTAMs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUMBER_OF_TAMS;
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_DURATION_IN_SECONDS;
+
+        NetworkParameters parameters = new NetworkParameters();
+        parameters.setLossProbability(args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_LOSS_PROBABILITY);
+        parameters.setRandomSeed(System.currentTimeMillis());
+
+        // create the simulated network and the coordinator on top of it
+        final SimulatedXBeeConnection network = new SimulatedXBeeConnection(numberOfTAMs, parameters);
+        final Coordinator coordinator = new Coordinator(network, BAUD_RATE);
+        if (args.length > 3 && !args[3].equals("-"))
+            coordinator.setCaptureFile(args[3]);
+        if (args.length > 4)
+            coordinator.setEventLogFile(args[4]);
+
+        ExperimentInterface experiment = new RandomTaskExperiment();
+        experiment.init(System.currentTimeMillis());
+        coordinator.setExperiment(experiment);
+
+        // stop the coordinator after the duration of the simulation
+        Timer timer = new Timer("Simulation", true);
+        timer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                log.info("Simulation is over, terminating.");
+                coordinator.setShutdownRequested(true);
+            }
+        }, duration * 1000);
+
+        log.info("Simulating " + numberOfTAMs + " TAMs for " + duration + " seconds");
+        coordinator.start();
+        log.info("Simulation statistics: " + network);
+
+        // the timers of the experiment and the controllers would keep the JVM alive
+        System.exit(0);
+    }
+}
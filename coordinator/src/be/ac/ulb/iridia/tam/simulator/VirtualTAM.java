@@ -0,0 +1,257 @@
+package be.ac.ulb.iridia.tam.simulator;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class emulates the firmware of a single TAM in a simulated network.
+ *
+ * Like the real TAM, it reports its status (LED color, robot presence, voltage and robot data)
+ * every heartbeat interval, whenever a robot arrives or leaves and as reply to a SET_LEDS or
+ * WRITE_ROBOT command. A SHUTDOWN command switches it off for the rest of the simulation.
+ *
+ * All methods run on the radio thread of the simulated connection, so the state needs no locking.
+ */
+class VirtualTAM
+{
+    private final static Logger log = Logger.getLogger(VirtualTAM.class);
+
+    // packet types of TAM->Coordinator (TC), as sent by the firmware
+    static final int PACKET_TYPE_TC_CURRENT_STATE = 0;
+
+    // packet types of Coordinator->TAM (CT), as understood by the firmware
+    static final int PACKET_TYPE_CT_SET_LEDS = 10;
+    static final int PACKET_TYPE_CT_WRITE_ROBOT = 12;
+    static final int PACKET_TYPE_CT_SHUTDOWN = 13;
+
+    // connection that simulates the network this TAM is part of
+    private final SimulatedXBeeConnection network;
+
+    // 64bit address of the TAM
+    private final XBeeAddress64 address64;
+
+    // node identifier of the TAM (NI)
+    private final String nodeIdentifier;
+
+    // current color of the RGB LEDs
+    private int red;
+    private int green;
+    private int blue;
+
+    // flag that indicates if a robot is in the TAM
+    private boolean robotPresent;
+
+    // data the robot in the TAM sends
+    private int robotData;
+
+    // data the coordinator wants to be sent to the robot
+    private int robotDataToSend;
+
+    // flag that indicates if the TAM is switched on
+    private boolean switchedOn;
+
+    // task that sends the heartbeat
+    private ScheduledFuture<?> heartbeatTask;
+
+    // task that lets the next robot arrive or the current one leave
+    private ScheduledFuture<?> robotTask;
+
+
+    /**
+     * Creates a TAM.
+     * @param network         connection that simulates the network
+     * @param address64       64bit address of the TAM
+     * @param nodeIdentifier  node identifier of the TAM
+     */
+    VirtualTAM(SimulatedXBeeConnection network, XBeeAddress64 address64, String nodeIdentifier)
+    {
+        this.network = network;
+        this.address64 = address64;
+        this.nodeIdentifier = nodeIdentifier;
+    }
+
+    /**
+     * Switches the TAM on: starts the heartbeat and the robot process.
+     * The first heartbeat is at a random time within the first interval, so TAMs don't report in lockstep.
+     */
+    void switchOn()
+    {
+        switchedOn = true;
+
+        long interval = network.getParameters().getHeartbeatInterval();
+        heartbeatTask = network.getRadio().scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sendStatusReport();
+            }
+        }, network.nextUniform(interval), interval, TimeUnit.MILLISECONDS);
+
+        scheduleRobotArrival();
+    }
+
+    /**
+     * Returns the 64bit address of the TAM.
+     * @return 64bit address
+     */
+    XBeeAddress64 getAddress64()
+    {
+        return address64;
+    }
+
+    /**
+     * Returns the node identifier of the TAM.
+     * @return node identifier
+     */
+    String getNodeIdentifier()
+    {
+        return nodeIdentifier;
+    }
+
+    /**
+     * Returns true if the TAM is switched on and reachable.
+     * @return true if switched on
+     */
+    boolean isSwitchedOn()
+    {
+        return switchedOn;
+    }
+
+    /**
+     * Processes a packet received from the coordinator.
+     * @param payload  payload of the packet
+     */
+    void receive(int[] payload)
+    {
+        if (!switchedOn || payload.length == 0)
+            return;
+
+        switch (payload[0])
+        {
+            case PACKET_TYPE_CT_SET_LEDS:
+                if (payload.length < 4)
+                {
+                    log.warn(nodeIdentifier + ": SET_LEDS command too short");
+                    return;
+                }
+                red = payload[1];
+                green = payload[2];
+                blue = payload[3];
+                sendStatusReport();
+                break;
+
+            case PACKET_TYPE_CT_WRITE_ROBOT:
+                if (payload.length < 2)
+                {
+                    log.warn(nodeIdentifier + ": WRITE_ROBOT command too short");
+                    return;
+                }
+                robotDataToSend = payload[1];
+                sendStatusReport();
+                break;
+
+            case PACKET_TYPE_CT_SHUTDOWN:
+                switchOff();
+                break;
+
+            default:
+                log.warn(nodeIdentifier + ": unknown packet type " + payload[0]);
+        }
+    }
+
+    /**
+     * Switches the TAM off: LEDs off, no more reports or robots.
+     */
+    private void switchOff()
+    {
+        switchedOn = false;
+        red = green = blue = 0;
+
+        if (heartbeatTask != null)
+            heartbeatTask.cancel(false);
+        if (robotTask != null)
+            robotTask.cancel(false);
+    }
+
+    /**
+     * Sends the current status to the coordinator.
+     */
+    private void sendStatusReport()
+    {
+        if (!switchedOn)
+            return;
+
+        int voltage = network.getParameters().getVoltage();
+        network.sendFromTAM(this, new int[] {
+                PACKET_TYPE_TC_CURRENT_STATE,
+                red,
+                green,
+                blue,
+                robotPresent ? 1 : 0,
+                voltage & 0xff,
+                (voltage >> 8) & 0xff,
+                robotData & 0xff
+        });
+    }
+
+    /**
+     * Schedules the arrival of the next robot, unless robots are disabled.
+     */
+    private void scheduleRobotArrival()
+    {
+        long mean = network.getParameters().getMeanRobotArrivalInterval();
+        if (mean <= 0)
+            return;
+
+        robotTask = network.getRadio().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                robotPresent = true;
+                // a robot announces itself with some data, e.g. its id
+                robotData = network.nextInt(256);
+                sendStatusReport();
+                scheduleRobotDeparture();
+            }
+        }, network.nextExponential(mean), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the departure of the robot in the TAM.
+     */
+    private void scheduleRobotDeparture()
+    {
+        robotTask = network.getRadio().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                robotPresent = false;
+                robotData = 0;
+                sendStatusReport();
+                scheduleRobotArrival();
+            }
+        }, network.nextExponential(network.getParameters().getMeanRobotStayTime()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a string representation of the TAM.
+     * @return string representation of the TAM
+     */
+    @Override
+    public String toString()
+    {
+        return nodeIdentifier + "{" + address64 +
+                ", on=" + switchedOn +
+                ", leds=" + red + "," + green + "," + blue +
+                ", robotPresent=" + robotPresent +
+                ", robotData=" + robotData +
+                ", robotDataToSend=" + robotDataToSend + "}";
+    }
+}
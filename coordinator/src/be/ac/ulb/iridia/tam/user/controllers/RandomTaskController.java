@@ -2,17 +2,22 @@ package be.ac.ulb.iridia.tam.user.controllers;
 
 import be.ac.ulb.iridia.tam.common.AbstractController;
 import be.ac.ulb.iridia.tam.common.LedColor;
+import be.ac.ulb.iridia.tam.common.ReactiveController;
 import be.ac.ulb.iridia.tam.common.TAMInterface;
+import be.ac.ulb.iridia.tam.eventlog.EventLog;
+import be.ac.ulb.iridia.tam.eventlog.EventType;
 import org.apache.log4j.Logger;
-import java.util.TimerTask;
 
 
 /**
  * This example controller implements a TAM that is independent of other TAMs.
  * The TAM can represent one of two tasks, BLUE or GREEN, each running with a different
  * duration. The controller sets a random task when the TAM is free.
+ *
+ * The controller is stepped when the TAM reports a change, or when the current task or
+ * dead time is over.
  */
-public class RandomTaskController extends AbstractController
+public class RandomTaskController extends AbstractController implements ReactiveController
 {
     private final static Logger log = Logger.getLogger(RandomTaskController.class);
 
@@ -29,6 +34,10 @@ public class RandomTaskController extends AbstractController
     public final static LedColor LED_BLUE  = new LedColor(0x00001900);
     public final static LedColor LED_OFF   = new LedColor(0x00000000);
 
+    // tasks as recorded in the event log
+    public static final int TASK_GREEN = 0;
+    public static final int TASK_BLUE  = 1;
+
     // possible states of the FSM that controls the TAM
     enum TAMState
     {
@@ -46,8 +55,10 @@ public class RandomTaskController extends AbstractController
     private TAMInterface tam;
     // current state of the FSM that controls the TAM
     private TAMState currentState;
-    // current task duration timer (we need the reference to cancel the timer when the robot aborts the task)
-    private TimerTask currentTaskDurationTimer;
+    // time at which the current task or dead time is over, NO_DEADLINE in the other states
+    private long stateEnd;
+    // true if the state changed since the last step, so that the new state is entered at once
+    private boolean stateChanged;
 
 
     /**
@@ -62,15 +73,57 @@ public class RandomTaskController extends AbstractController
 
         log.info("New TAM controller, starting in task NEW_DISCOVERED");
         this.currentState = TAMState.NEW_DISCOVERED;
-        this.currentTaskDurationTimer = null;
+        this.stateEnd = NO_DEADLINE;
+        this.stateChanged = true;
     }
 
     /**
-     * Step function of the controller. Called every Coordinator.STEP_INTERVAL milliseconds.
+     * Returns the time at which the controller must be stepped: the end of the current task or
+     * dead time, or at once after the state changed.
+     * @return timestamp in milliseconds, or NO_DEADLINE to wait for the TAM
+     */
+    @Override
+    public long getNextDeadline()
+    {
+        return stateChanged ? 0 : stateEnd;
+    }
+
+    /**
+     * Step function of the controller. Called when the TAM reported a change or the deadline expired.
      */
     public void step()
     {
         log.debug("============== Stepping "+tam.getId()+" currentState "+currentState+ " ================");
+
+        stateChanged = false;
+
+        // leave the states that end by time (deadline set up in setState())
+        if (System.currentTimeMillis() >= stateEnd)
+        {
+            switch (getState())
+            {
+                case DEAD_TIME:
+                    log.debug(tam.getId() + ": Dead time is over");
+                    setState(TAMState.AVAILABLE);
+                    break;
+
+                case WORKING_GREEN:
+                    log.debug(tam.getId() + ": Robot finishes green task");
+                    EventLog.record(EventType.TASK_FINISHED, tam, TASK_GREEN);
+                    setState(TAMState.TASK_FINISHED);
+                    break;
+
+                case WORKING_BLUE:
+                    log.debug(tam.getId() + ": Robot finishes blue task");
+                    EventLog.record(EventType.TASK_FINISHED, tam, TASK_BLUE);
+                    setState(TAMState.TASK_FINISHED);
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
         switch (getState())
         {
             /*
@@ -96,12 +149,12 @@ public class RandomTaskController extends AbstractController
             case AVAILABLE:
                 if (getPrng().nextInt(2) == 0)
                 {
-                    log.info(tam.getId() + ": Announcing green task");
+                    log.debug(tam.getId() + ": Announcing green task");
                     setState(TAMState.ANNOUNCE_GREEN);
                 }
                 else
                 {
-                    log.info(tam.getId() + ": Announcing blue task");
+                    log.debug(tam.getId() + ": Announcing blue task");
                     setState(TAMState.ANNOUNCE_BLUE);
                 }
                 break;
@@ -119,7 +172,8 @@ public class RandomTaskController extends AbstractController
                 // robot starts to work
                 else if (tam.isRobotPresent())
                 {
-                    log.info(tam.getId() + ": Robot starts to work on green task");
+                    log.debug(tam.getId() + ": Robot starts to work on green task");
+                    EventLog.record(EventType.TASK_STARTED, tam, TASK_GREEN);
                     setState(TAMState.WORKING_GREEN);
                 }
                 break;
@@ -137,7 +191,8 @@ public class RandomTaskController extends AbstractController
                 // robot starts to work
                 else if (tam.isRobotPresent())
                 {
-                    log.info(tam.getId() + ": Robot starts to work on blue task");
+                    log.debug(tam.getId() + ": Robot starts to work on blue task");
+                    EventLog.record(EventType.TASK_STARTED, tam, TASK_BLUE);
                     setState(TAMState.WORKING_BLUE);
                 }
                 break;
@@ -145,7 +200,7 @@ public class RandomTaskController extends AbstractController
             /*
              * Robots works on green task.
              * We leave this state either when the robots aborts the task (= leaves the TAM)
-             * or the task is finished (timer set up in setState())
+             * or the task is finished (deadline set up in setState())
              */
             case WORKING_GREEN:
                 // set leds according to state (ignored if done already)
@@ -159,9 +214,8 @@ public class RandomTaskController extends AbstractController
                     // robot left, task failed, dead time
                     if (!tam.isRobotPresent())
                     {
-                        log.info(tam.getId() + ": Robot aborted green task, starting dead time");
-                        currentTaskDurationTimer.cancel();
-                        currentTaskDurationTimer = null;
+                        log.debug(tam.getId() + ": Robot aborted green task, starting dead time");
+                        EventLog.record(EventType.TASK_FAILED, tam, TASK_GREEN);
                         setState(TAMState.DEAD_TIME);
                     }
                 }
@@ -170,7 +224,7 @@ public class RandomTaskController extends AbstractController
             /*
              * Robots works on blue task.
              * We leave this state either when the robots aborts the task (= leaves the TAM)
-             * or the task is finished (timer set up in setState())
+             * or the task is finished (deadline set up in setState())
              */
             case WORKING_BLUE:
                 // set leds according to state (ignored if done already)
@@ -184,9 +238,8 @@ public class RandomTaskController extends AbstractController
                     // robot left, task failed, dead time
                     if (!tam.isRobotPresent())
                     {
-                        log.info(tam.getId() + ": Robot aborted blue task, starting dead time");
-                        currentTaskDurationTimer.cancel();
-                        currentTaskDurationTimer = null;
+                        log.debug(tam.getId() + ": Robot aborted blue task, starting dead time");
+                        EventLog.record(EventType.TASK_FAILED, tam, TASK_BLUE);
                         setState(TAMState.DEAD_TIME);
                     }
                 }
@@ -208,7 +261,7 @@ public class RandomTaskController extends AbstractController
                     // robot left, task failed, dead time
                     if (!tam.isRobotPresent())
                     {
-                        log.info(tam.getId() + ": Robot left, starting dead time");
+                        log.debug(tam.getId() + ": Robot left, starting dead time");
                         setState(TAMState.DEAD_TIME);
                     }
                 }
@@ -217,7 +270,7 @@ public class RandomTaskController extends AbstractController
             /*
              * This state is the dead time in which the TAM remains switched
              * off for some time after the robot left.
-             * We leave this state by timer, set up by the setState() method
+             * We leave this state by deadline, set up by the setState() method
              */
             case DEAD_TIME:
                 // set leds according to state (ignored if done already)
@@ -233,59 +286,34 @@ public class RandomTaskController extends AbstractController
 
     /**
      * This method sets the current state of the TAM.
-     * If we switch to certain states, this method also sets up a timer that switches out of
-     * that state automatically after a certain time.
+     * If we switch to certain states, this method also sets up a deadline at which we switch out of
+     * that state automatically. The controller is stepped again at once to enter the state.
      * @param state  new state
      */
     public void setState(TAMState state)
     {
-        log.info(tam.getId() + ": Setting new state "+state);
+        log.debug(tam.getId() + ": Setting new state "+state);
         currentState = state;
+        stateChanged = true;
 
-        // dead time timer setup
+        // dead time deadline setup
         if (state == TAMState.DEAD_TIME)
         {
-            getTimer().schedule(new TimerTask()
-            {
-                @Override
-                public void run()
-                {
-                    log.info(tam.getId() + ": Dead time is over");
-                    setState(TAMState.AVAILABLE);
-                }
-            }, DEAD_TIME_DURATION);
+            stateEnd = System.currentTimeMillis() + DEAD_TIME_DURATION;
         }
-        // green task duration timer setup
+        // green task duration deadline setup, replaced when the robot aborts the task
         else if (state == TAMState.WORKING_GREEN)
         {
-            // we set the currentTaskDurationTimer so that we can cancel the timer when the task was aborted
-            currentTaskDurationTimer = new TimerTask()
-            {
-                @Override
-                public void run()
-                {
-                    currentTaskDurationTimer = null;
-                    log.info(tam.getId() + ": Robot finishes green task");
-                    setState(TAMState.TASK_FINISHED);
-                }
-            };
-            getTimer().schedule(currentTaskDurationTimer, GREEN_TASK_DURATION);
+            stateEnd = System.currentTimeMillis() + GREEN_TASK_DURATION;
         }
-        // blue task duration timer setup
+        // blue task duration deadline setup, replaced when the robot aborts the task
         else if (state == TAMState.WORKING_BLUE)
         {
-            // we set the currentTaskDurationTimer so that we can cancel the timer when the task was aborted
-            currentTaskDurationTimer = new TimerTask()
-            {
-                @Override
-                public void run()
-                {
-                    currentTaskDurationTimer = null;
-                    log.info(tam.getId() + ": Robot finishes blue task");
-                    setState(TAMState.TASK_FINISHED);
-                }
-            };
-            getTimer().schedule(currentTaskDurationTimer, BLUE_TASK_DURATION);
+            stateEnd = System.currentTimeMillis() + BLUE_TASK_DURATION;
+        }
+        else
+        {
+            stateEnd = NO_DEADLINE;
         }
     }
 
@@ -3,6 +3,8 @@ package be.ac.ulb.iridia.tam.user.controllers;
 import be.ac.ulb.iridia.tam.common.AbstractController;
 import be.ac.ulb.iridia.tam.common.LedColor;
 
+import be.ac.ulb.iridia.tam.common.ReactiveController;
+import be.ac.ulb.iridia.tam.common.TAMAdapter;
 import be.ac.ulb.iridia.tam.common.TAMInterface;
 import org.apache.log4j.Logger;
 
@@ -11,8 +13,11 @@ import org.apache.log4j.Logger;
  * This example controller implements a TAM that is independent of other TAMs.
  * The TAM can represent one of two tasks, BLUE or GREEN, each running with a different
  * duration. The controller sets a random task when the TAM is free.
+ *
+ * The controller follows the robot in the TAM by the events of the TAM: the data of the robot
+ * is handled when it arrives, and the controller is stepped only to update the TAM.
  */
-public class TaskSequencingController extends AbstractController
+public class TaskSequencingController extends AbstractController implements ReactiveController
 {
     private final static Logger log = Logger.getLogger(TaskSequencingController.class);
     
@@ -42,6 +47,9 @@ public class TaskSequencingController extends AbstractController
     
     private final static int positiveFeedback = 0x0F;
     private final static int negativeFeedback = 0x00;
+
+    // interval in milliseconds at which the data for the robot is sent again while it is in the TAM
+    public static final long ROBOT_DATA_INTERVAL = 1000;
     
 
     // TAM this controller is attached two
@@ -59,6 +67,9 @@ public class TaskSequencingController extends AbstractController
 
     private GiveFeedbackState giveFeedbackState;
 
+    // time at which the controller is stepped again to send the data for the robot, 0 to step at once
+    private long nextDeadline;
+
 
     /**
      * Sets up the controller.
@@ -73,88 +84,137 @@ public class TaskSequencingController extends AbstractController
         this.giveFeedbackState = GiveFeedbackState.RECEIVE_ROBOT_ID;
         this.RobotID = 0;
         this.feedback = negativeFeedback;
+        this.nextDeadline = 0;
         log.info("New TAM controller");
+
+        tam.addListener(new TAMAdapter()
+        {
+            @Override
+            public void onRobotArrived(TAMInterface tam, int robotData)
+            {
+                receiveRobotData(robotData);
+            }
+
+            @Override
+            public void onRobotData(TAMInterface tam, int robotData)
+            {
+                receiveRobotData(robotData);
+            }
+
+            @Override
+            public void onRobotLeft(TAMInterface tam)
+            {
+                feedback = negativeFeedback;
+                RobotID = 0;
+                if (giveFeedbackState != GiveFeedbackState.RECEIVE_ROBOT_ID)
+                {
+                    log.info("Robot left the tam. Re-initialize state machine");
+                    giveFeedbackState = GiveFeedbackState.RECEIVE_ROBOT_ID;
+                }
+            }
+        });
     }
 
     /**
-     * Step function of the controller. Called every Coordinator.STEP_TAMS_INTERVAL milliseconds.
+     * Returns the time at which the data for the robot in the TAM is sent again.
+     * @return timestamp in milliseconds, or NO_DEADLINE to wait for the TAM
+     */
+    @Override
+    public long getNextDeadline()
+    {
+        return nextDeadline;
+    }
+
+    /**
+     * Handles the data received from the robot in the TAM.
+     * @param robotData  data received from the robot
+     */
+    private void receiveRobotData(int robotData)
+    {
+        log.info("Robot data: " + robotData);
+        switch (giveFeedbackState)
+        {
+            case RECEIVE_ROBOT_ID:
+                if ((robotData & robotIDbitHeader) == robotIDbitHeader)
+                {
+                    log.info("ID from robot: " + (robotData & robotIDbitMask));
+                    RobotID = (robotData & robotIDbitMask);
+                    log.info("Going to RECEIVE_ACTION state");
+                    giveFeedbackState = GiveFeedbackState.RECEIVE_ACTION;
+                }
+                break;
+
+            case RECEIVE_ACTION:
+                if ((robotData & messageTypeMask) == actionHeader)
+                {
+                    log.info("Tam " + sequenceNumber + " Action from robot: " + (robotData & messageContentMask));
+                    if ((robotData & messageContentMask) == sequenceNumber)
+                    {
+                        log.info("Right action. Go to GIVE positive FEEDBACK");
+                        feedback = positiveFeedback;
+                    }
+                    else
+                    {
+                        log.info("Wrong action. Go to GIVE negative FEEDBACK");
+                        feedback = negativeFeedback;
+                    }
+                    giveFeedbackState = GiveFeedbackState.GIVE_FEEDBACK;
+                }
+                break;
+
+            case GIVE_FEEDBACK:
+                break;
+        }
+    }
+
+    /**
+     * Step function of the controller. Called when the TAM reported a change, and regularly
+     * while data is sent to the robot in the TAM.
      */
     public void step()
     {
-    	if(tam.isRobotPresent()){ // if there is a robot in the tam
-        	// Switch LEDs off
-        	//log.info("Robot inside");
+        nextDeadline = NO_DEADLINE;
+
+        if (tam.isRobotPresent())
+        {
+            // Switch LEDs off
             tam.setLedColor(LED_OFF);
-        	switch(giveFeedbackState){
-	        	case RECEIVE_ROBOT_ID:{
-	        		log.info("State: receive robot ID");
-	        		log.info("Robot data: " + tam.getRobotDataReceived());
-	        		if ((tam.getRobotDataReceived() & robotIDbitHeader) == robotIDbitHeader){
-	        			log.info("ID from robot: " + (tam.getRobotDataReceived() & robotIDbitMask));
-	        			RobotID = (tam.getRobotDataReceived() & robotIDbitMask);
-	        			log.info("Going to RECEIVE_ACTION state");
-	        			giveFeedbackState = GiveFeedbackState.RECEIVE_ACTION;
-	        		}
-	        	}
-	        	break;
-	        	case RECEIVE_ACTION:{
-	        		log.info("State: receive action");
+
+            // send the data again and again, until the robot answers or leaves
+            switch (giveFeedbackState)
+            {
+                case RECEIVE_ROBOT_ID:
+                    break;
+
+                case RECEIVE_ACTION:
                     tam.setRobotDataToSend(response);
-	        		if ((tam.getRobotDataReceived() & messageTypeMask) == actionHeader){
-	        			log.info("Tam " + sequenceNumber + " Action from robot: " + (tam.getRobotDataReceived() & messageContentMask));
-	        			if((tam.getRobotDataReceived() & messageContentMask) == sequenceNumber){
-	        				log.info("Right action. Go to GIVE positive FEEDBACK");
-	        				feedback = positiveFeedback;
-	        				giveFeedbackState = GiveFeedbackState.GIVE_FEEDBACK;
-	        			} else {
-	        				log.info("Wrong action. Go to GIVE negative FEEDBACK");
-	        				feedback = negativeFeedback;
-	        				giveFeedbackState = GiveFeedbackState.GIVE_FEEDBACK;
-	        			}
-	        		}
-	        	}
-	        	break;
-	        	case GIVE_FEEDBACK:{
-	        		log.info("State: give feedback");
+                    nextDeadline = System.currentTimeMillis() + ROBOT_DATA_INTERVAL;
+                    break;
+
+                case GIVE_FEEDBACK:
                     tam.setRobotDataToSend(feedbackHeader | feedback);
-	        	}
-	        	break;
-        	}
-        } else {
-			feedback = negativeFeedback;
-			this.RobotID = 0;
-			if(giveFeedbackState != GiveFeedbackState.RECEIVE_ROBOT_ID ){
-				log.info("Robot left the tam. Re-initialize state machine");
-				giveFeedbackState = GiveFeedbackState.RECEIVE_ROBOT_ID;
-			}
-			
-		}
-    	switch(sequenceNumber){
-	    	case 1:{
-	    		if(!tam.isRobotPresent()){
+                    nextDeadline = System.currentTimeMillis() + ROBOT_DATA_INTERVAL;
+                    break;
+            }
+        }
+        else
+        {
+            switch (sequenceNumber)
+            {
+                case 1:
                     tam.setLedColor(LED_RED);
-		        }
-	    	}
-	    	break;
-	    	case 2:{
-	    		if(!tam.isRobotPresent()){
+                    break;
+                case 2:
                     tam.setLedColor(LED_GREEN);
-		        }
-	    	}
-	    	break;
-	    	case 3:{
-	    		if(!tam.isRobotPresent()){
+                    break;
+                case 3:
                     tam.setLedColor(LED_BLUE);
-		        }
-	    	}
-	    	break;
-	    	case 4: {
-	    		if(!tam.isRobotPresent()){
+                    break;
+                case 4:
                     tam.setLedColor(LED_TEST);
-		        }
-	    	}
-	    	break;
-    	}
+                    break;
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
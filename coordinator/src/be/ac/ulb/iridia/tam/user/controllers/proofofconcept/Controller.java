@@ -2,12 +2,13 @@ package be.ac.ulb.iridia.tam.user.controllers.proofofconcept;
 
 import be.ac.ulb.iridia.tam.common.AbstractController;
 import be.ac.ulb.iridia.tam.common.LedColor;
+import be.ac.ulb.iridia.tam.common.ReactiveController;
+import be.ac.ulb.iridia.tam.common.StateMachine;
 import be.ac.ulb.iridia.tam.common.TAMInterface;
+import be.ac.ulb.iridia.tam.common.TAMSnapshot;
 import org.apache.log4j.Logger;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.TimerTask;
 
 
 /**
@@ -17,8 +18,12 @@ import java.util.TimerTask;
  *
  * The TAM can take 3 colors: GREEN if free, RED if busy (robot is
  * working) and BLUE if the robot needs to wait).
+ *
+ * The task is a StateMachine over the states below. The controller is stepped
+ * when one of its TAMs reports a change, or when the working time of a subtask
+ * or the dead time is over.
  */
-public class Controller extends AbstractController
+public class Controller extends AbstractController implements ReactiveController
 {
     private final static Logger log = Logger.getLogger(Controller.class);
 
@@ -40,12 +45,8 @@ public class Controller extends AbstractController
     private TAMInterface tamC1;
     private TAMInterface tamC2;
     private TAMInterface tamS;
-    // current task duration timer (we need the reference to cancel the timer when the robot aborts the task)
-    private TimerTask taskDurationTimerC1;
-    private TimerTask taskDurationTimerC2;
-    private TimerTask taskDurationTimerS;
-    // timer for switching the TAM of for a certain amount of time after completion of task
-    private TimerTask deadTimeTimer;
+    // time at which the controller is stepped to set up its TAMs, 0 until the first step
+    private long setupTime;
 
     private LedColor tamC1color;
     private LedColor tamC2color;
@@ -70,15 +71,11 @@ public class Controller extends AbstractController
         S_WORKING,
         S_WAIT_LEAVE,
         SUCCESS,
+        DEAD_TIME,
         FAIL
     }
-    // current state of task
-    State state;
-
-    // mapping between states and transitions
-    protected HashMap<String, Transition> transitions;
-    protected HashMap<State, ArrayList<Transition>> outgoingTransitions;
-    protected HashMap<State, ArrayList<Transition>> incomingTransitions;
+    // state machine of the task
+    private StateMachine<State> fsm;
 
 
     /**
@@ -97,12 +94,7 @@ public class Controller extends AbstractController
         this.tamC2 = tamC2;
         this.tamS = tamS;
 
-        state = State.IDLE;
-
-        taskDurationTimerC1 = null;
-        taskDurationTimerC2 = null;
-        taskDurationTimerS = null;
-        deadTimeTimer = null;
+        setupTime = 0;
         tamC1color = LED_NO_TASK;
         tamC2color = LED_NO_TASK;
         tamScolor = LED_NO_TASK;
@@ -113,56 +105,39 @@ public class Controller extends AbstractController
         robotIds.put(tamC2, UNKNOWN_ROBOT_ID);
         robotIds.put(tamS, UNKNOWN_ROBOT_ID);
 
-        // transition maps
-        transitions = new HashMap<String, Transition>();
-        outgoingTransitions = new HashMap<State, ArrayList<Transition>>();
-        incomingTransitions = new HashMap<State, ArrayList<Transition>>();
-        for (State state : State.values())
+        // presence of the robots, shared by all transitions so each is evaluated once per state
+        StateMachine.Condition robotInC1 = new StateMachine.Condition()
         {
-            outgoingTransitions.put(state, new ArrayList<Transition>());
-            incomingTransitions.put(state, new ArrayList<Transition>());
-        }
+            public boolean evaluate()
+            {
+                return tamC1.isRobotPresent();
+            }
+        };
+        StateMachine.Condition robotInC2 = new StateMachine.Condition()
+        {
+            public boolean evaluate()
+            {
+                return tamC2.isRobotPresent();
+            }
+        };
+        StateMachine.Condition robotInS = new StateMachine.Condition()
+        {
+            public boolean evaluate()
+            {
+                return tamS.isRobotPresent();
+            }
+        };
 
-        // all standard transitions of a task are just a linear chain
-        addNewTransition(State.IDLE,           State.C_WAIT_ARRIVE);
-        addNewTransition(State.C_WAIT_ARRIVE,  State.C1_WAIT_ARRIVE);
-        addNewTransition(State.C_WAIT_ARRIVE,  State.C2_WAIT_ARRIVE);
-        addNewTransition(State.C1_WAIT_ARRIVE, State.C_WORKING);
-        addNewTransition(State.C2_WAIT_ARRIVE, State.C_WORKING);
-        addNewTransition(State.C_WORKING,      State.S_WAIT_ARRIVE);
-        addNewTransition(State.S_WAIT_ARRIVE,  State.C_WAIT_LEAVE);
-        addNewTransition(State.C_WAIT_LEAVE,   State.S_WORKING);
-        addNewTransition(State.S_WORKING,      State.S_WAIT_LEAVE);
-        addNewTransition(State.S_WAIT_LEAVE,   State.SUCCESS);
-
-        // FAIL transitions never fall through if there are no conditions
-        // if there are multiple conditions, only one has to be true to trigger the transition
-        addNewTransition(State.C1_WAIT_ARRIVE, State.FAIL, Transition.Type.OR, false);
-        addNewTransition(State.C2_WAIT_ARRIVE, State.FAIL, Transition.Type.OR, false);
-        addNewTransition(State.C_WORKING,      State.FAIL, Transition.Type.OR, false);
-        addNewTransition(State.S_WAIT_ARRIVE,  State.FAIL, Transition.Type.OR, false);
-        addNewTransition(State.C_WAIT_LEAVE,   State.FAIL, Transition.Type.OR, false);
-        addNewTransition(State.S_WORKING,      State.FAIL, Transition.Type.OR, false);
-
-        // end conditions: success of fail
-        addNewTransition(State.SUCCESS, State.IDLE);
-        addNewTransition(State.FAIL,    State.IDLE);
+        // the transitions of a state are checked in the order they are added:
+        // all standard transitions of a task are just a linear chain, FAIL transitions come last
+        StateMachine.Builder<State> builder = new StateMachine.Builder<State>(State.class);
 
         /*
          * State IDLE
          */
-        getTransition(State.IDLE, State.C_WAIT_ARRIVE).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                return (deadTimeTimer == null);
-            }
-
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.IDLE, State.C_WAIT_ARRIVE).addAction(new TransitionAction()
+        builder.transition(State.IDLE, State.C_WAIT_ARRIVE).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Announcing task");
                 log.info("i" + instance + "-" + tamC2.getId() + ": Announcing task");
@@ -176,91 +151,32 @@ public class Controller extends AbstractController
          * Both TAMs are waiting for a robot.
          */
         // we make the transition to C1_WAIT_ARRIVE only if a robot is present in C2
-        getTransition(State.C_WAIT_ARRIVE, State.C1_WAIT_ARRIVE).addCondition(new TransitionCondition()
+        builder.transition(State.C_WAIT_ARRIVE, State.C1_WAIT_ARRIVE).when(robotInC2).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamC2);
-                return tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WAIT_ARRIVE, State.C1_WAIT_ARRIVE).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC2.getId() + ": Robot '" + robotIds.get(tamC2) + "' arrives and starts to wait for robot in " + tamC1.getId());
                 tamC2color = LED_WAITING;
             }
         });
         // we make the transition to C2_WAIT_ARRIVE only if a robot is present in C1
-        getTransition(State.C_WAIT_ARRIVE, State.C2_WAIT_ARRIVE).addCondition(new TransitionCondition()
+        builder.transition(State.C_WAIT_ARRIVE, State.C2_WAIT_ARRIVE).when(robotInC1).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamC1);
-                return tamC1.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WAIT_ARRIVE, State.C2_WAIT_ARRIVE).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' arrives and starts to wait for robot in " + tamC2.getId());
                 tamC1color = LED_WAITING;
             }
         });
 
-        // Work timer used in CX_WAIT_ARRIVE, X=1|2
-        TransitionAction setupWorkTimersActionC = new TransitionAction()
-        {
-            public void execute(Transition transition)
-            {
-                // we set the taskDurationTimer so that we can cancel the timer when the task was aborted
-                taskDurationTimerC1 = new TimerTask()
-                {
-                    @Override
-                    public void run()
-                    {
-                        log.info("i" + instance + "-" + tamC1.getId() + ": Task working time is over");
-                        tamC1color = LED_WAITING;
-                        taskDurationTimerC1 = null;
-                    }
-                };
-                getTimer().schedule(taskDurationTimerC1, WORKING_DURATION);
-                // we set the taskDurationTimer so that we can cancel the timer when the task was aborted
-                taskDurationTimerC2 = new TimerTask()
-                {
-                    @Override
-                    public void run()
-                    {
-                        log.info("i" + instance + "-" + tamC2.getId() + ": Task working time is over");
-                        tamC2color = LED_WAITING;
-                        taskDurationTimerC2 = null;
-                    }
-                };
-                getTimer().schedule(taskDurationTimerC2, WORKING_DURATION);
-            }
-        };
-
         /*
          * State C1_WAIT_ARRIVE
          * There's a robot in C2. C1 is still waiting for a robot.
          */
         // we make the transition to WORKING if the robot is still present
-        getTransition(State.C1_WAIT_ARRIVE, State.C_WORKING).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamC2);
-                return tamC1.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C1_WAIT_ARRIVE, State.C_WORKING).addAction(new TransitionAction()
+        builder.transition(State.C1_WAIT_ARRIVE, State.C_WORKING).when(robotInC1).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' arrives, starts to work on subtask C1");
                 log.info("i" + instance + "-" + tamC2.getId() + ": Robot '" + robotIds.get(tamC2) + "' stops waiting, starts to work on subtask C2");
@@ -270,19 +186,10 @@ public class Controller extends AbstractController
                 tamC2color = LED_WORKING;
             }
         });
-        getTransition(State.C1_WAIT_ARRIVE, State.C_WORKING).addAction(setupWorkTimersActionC);
         // we make the transition to FAIL if the robot left
-        getTransition(State.C1_WAIT_ARRIVE, State.FAIL).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C1_WAIT_ARRIVE, State.FAIL).addAction(new TransitionAction()
+        builder.transition(State.C1_WAIT_ARRIVE, State.FAIL).unless(robotInC2).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC2.getId() + ": Robot '" + robotIds.get(tamC2) + "' aborted task during waiting for subtask C1");
                 tamC1color = LED_NO_TASK;
@@ -297,18 +204,9 @@ public class Controller extends AbstractController
          * There's a robot in C1. C2 is still waiting for a robot.
          */
         // we make the transition to WORKING if the robot is still present
-        getTransition(State.C2_WAIT_ARRIVE, State.C_WORKING).addCondition(new TransitionCondition()
+        builder.transition(State.C2_WAIT_ARRIVE, State.C_WORKING).when(robotInC2).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamC1);
-                return tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C2_WAIT_ARRIVE, State.C_WORKING).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' stops waiting, starts to work on subtask C1");
                 log.info("i" + instance + "-" + tamC2.getId() + ": Robot '" + robotIds.get(tamC2) + "' arrives, starts to work on subtask C2");
@@ -318,19 +216,10 @@ public class Controller extends AbstractController
                 tamC2color = LED_WORKING;
             }
         });
-        getTransition(State.C2_WAIT_ARRIVE, State.C_WORKING).addAction(setupWorkTimersActionC);
         // we make the transition to FAIL if the robot left
-        getTransition(State.C2_WAIT_ARRIVE, State.FAIL).addCondition(new TransitionCondition()
+        builder.transition(State.C2_WAIT_ARRIVE, State.FAIL).unless(robotInC1).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamC1.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C2_WAIT_ARRIVE, State.FAIL).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' aborted task during waiting for subtask C2");
                 tamC1color = LED_NO_TASK;
@@ -343,22 +232,13 @@ public class Controller extends AbstractController
         /*
          * State C_WORKING
          */
-        // we make the transition to WAIT_AFTER if the robot is still present
-        getTransition(State.C_WORKING, State.S_WAIT_ARRIVE).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamC1);
-                getRobotId(tamC2);
-                getRobotId(tamS);
-                return tamC1.isRobotPresent() && taskDurationTimerC1 == null && tamC2.isRobotPresent() && taskDurationTimerC2 == null;
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WORKING, State.S_WAIT_ARRIVE).addAction(new TransitionAction()
+        // we make the transition to WAIT_AFTER once the working time is over, if the robots are still present
+        builder.transition(State.C_WORKING, State.S_WAIT_ARRIVE).after(WORKING_DURATION).when(robotInC1).when(robotInC2).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
+                log.info("i" + instance + "-" + tamC1.getId() + ": Task working time is over");
+                log.info("i" + instance + "-" + tamC2.getId() + ": Task working time is over");
                 log.info("i" + instance + "-" + tamC1.getId() + ": Subtask C1 done by robot '" + robotIds.get(tamC1) + "'");
                 log.info("i" + instance + "-" + tamC2.getId() + ": Subtask C2 done by robot '" + robotIds.get(tamC2) + "'");
                 log.info("i" + instance + "-" + tamS.getId() + ": Available, waiting for robot to arrive.");
@@ -369,32 +249,14 @@ public class Controller extends AbstractController
             }
         });
         // we make the transition to FAIL if either robot left
-        getTransition(State.C_WORKING, State.FAIL).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamC1.isRobotPresent() || !tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WORKING, State.FAIL).addAction(new TransitionAction()
+        builder.transition(State.C_WORKING, State.FAIL).any().unless(robotInC1).unless(robotInC2).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 if (!tamC1.isRobotPresent())
                     log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' aborted subtask C1 during working");
                 if (!tamC2.isRobotPresent())
                     log.info("i" + instance + "-" + tamC2.getId() + ": Robot '" + robotIds.get(tamC2) + "' aborted subtask C2 during working");
-                if (taskDurationTimerC1 != null)
-                {
-                    taskDurationTimerC1.cancel();
-                    taskDurationTimerC1 = null;
-                }
-                if (taskDurationTimerC2 != null)
-                {
-                    taskDurationTimerC2.cancel();
-                    taskDurationTimerC2 = null;
-                }
                 tamC1color = LED_NO_TASK;
                 tamC2color = LED_NO_TASK;
                 tamScolor = LED_NO_TASK;
@@ -405,20 +267,9 @@ public class Controller extends AbstractController
          * State S_WAIT_ARRIVE
          */
         // we make the transition to WORKING if the robot is still present
-        getTransition(State.S_WAIT_ARRIVE, State.C_WAIT_LEAVE).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamS);
-                getRobotId(tamC1);
-                getRobotId(tamC2);
-                return tamS.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.S_WAIT_ARRIVE, State.C_WAIT_LEAVE).addAction(new TransitionAction()
+        builder.transition(State.S_WAIT_ARRIVE, State.C_WAIT_LEAVE).when(robotInS).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamS.getId() + ": Robot '" + robotIds.get(tamS) + "' arrived in subtask S");
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot '" + robotIds.get(tamC1) + "' has to leave");
@@ -431,17 +282,9 @@ public class Controller extends AbstractController
             }
         });
         // we make the transition to FAIL if either robot left
-        getTransition(State.S_WAIT_ARRIVE, State.FAIL).addCondition(new TransitionCondition()
+        builder.transition(State.S_WAIT_ARRIVE, State.FAIL).any().unless(robotInC1).unless(robotInC2).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamC1.isRobotPresent() || !tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.S_WAIT_ARRIVE, State.FAIL).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 if (!tamC1.isRobotPresent())
                     log.info("i" + instance + "-" + tamC1.getId() + ": Robot aborted subtask C1 during waiting for sequential task");
@@ -459,55 +302,24 @@ public class Controller extends AbstractController
         /*
          * State C_WAIT_LEAVE
          */
-        // we make the transition to WORKING if the robot is still present
-        getTransition(State.C_WAIT_LEAVE, State.S_WORKING).addCondition(new TransitionCondition()
+        // we make the transition to WORKING if the robots in C1 and C2 left
+        builder.transition(State.C_WAIT_LEAVE, State.S_WORKING).unless(robotInC1).unless(robotInC2).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamS);
-                return !tamC1.isRobotPresent() && !tamC2.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WAIT_LEAVE, State.S_WORKING).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamC1.getId() + ": Robot left");
                 log.info("i" + instance + "-" + tamC2.getId() + ": Robot left");
                 log.info("i" + instance + "-" + tamS.getId() + ": Subtask S started by robot '" + robotIds.get(tamS) + "'");
 
                 tamScolor = LED_WORKING;
-
-                // we set the taskDurationTimer so that we can cancel the timer when the task was aborted
-                taskDurationTimerS = new TimerTask()
-                {
-                    @Override
-                    public void run()
-                    {
-                        log.info("i" + instance + "-" + tamS.getId() + ": Subtask S working time is over");
-                        taskDurationTimerS = null;
-                    }
-                };
-
-                getTimer().schedule(taskDurationTimerS, WORKING_DURATION);
-
                 resetRobotId(tamC1);
                 resetRobotId(tamC2);
             }
         });
         // we make the transition to FAIL if sequential robot left
-        getTransition(State.C_WAIT_LEAVE, State.FAIL).addCondition(new TransitionCondition()
+        builder.transition(State.C_WAIT_LEAVE, State.FAIL).unless(robotInS).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamS.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.C_WAIT_LEAVE, State.FAIL).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamS.getId() + ": Robot '" + robotIds.get(tamS) + "' aborted subtask S during waiting");
                 tamC1color = LED_NO_TASK;
@@ -523,44 +335,23 @@ public class Controller extends AbstractController
         /*
          * State S_WORKING
          */
-        // we make the transition to WORKING if the robot is still present
-        getTransition(State.S_WORKING, State.S_WAIT_LEAVE).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                getRobotId(tamS);
-                return tamS.isRobotPresent() && taskDurationTimerS == null;
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.S_WORKING, State.S_WAIT_LEAVE).addAction(new TransitionAction()
+        // we make the transition to WAIT_LEAVE once the working time is over, if the robot is still present
+        builder.transition(State.S_WORKING, State.S_WAIT_LEAVE).after(WORKING_DURATION).when(robotInS).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
+                log.info("i" + instance + "-" + tamS.getId() + ": Subtask S working time is over");
                 log.info("i" + instance + "-" + tamS.getId() + ": Subtask S done");
                 log.info("i" + instance + "-" + tamS.getId() + ": Robot '" + robotIds.get(tamS) + "' has to leave");
                 tamScolor = LED_NO_TASK;
             }
         });
         // we make the transition to FAIL if sequential robot left
-        getTransition(State.S_WORKING, State.FAIL).addCondition(new TransitionCondition()
+        builder.transition(State.S_WORKING, State.FAIL).unless(robotInS).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamS.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.S_WORKING, State.FAIL).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamS.getId() + ": Robot '" + robotIds.get(tamS) + "' aborted subtask S during working");
-                if (taskDurationTimerS != null)
-                {
-                    taskDurationTimerS.cancel();
-                    taskDurationTimerS = null;
-                }
                 tamC1color = LED_NO_TASK;
                 tamC2color = LED_NO_TASK;
                 tamScolor = LED_NO_TASK;
@@ -574,18 +365,10 @@ public class Controller extends AbstractController
         /*
          * State S_WAIT_LEAVE
          */
-        // we make the transition to WORKING if the robot is still present
-        getTransition(State.S_WAIT_LEAVE, State.SUCCESS).addCondition(new TransitionCondition()
+        // we make the transition to SUCCESS if the robot left
+        builder.transition(State.S_WAIT_LEAVE, State.SUCCESS).unless(robotInS).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamS.isRobotPresent();
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.S_WAIT_LEAVE, State.SUCCESS).addAction(new TransitionAction()
-        {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + "-" + tamS.getId() + ": Robot '" + robotIds.get(tamS) + "' left");
                 resetRobotId(tamS);
@@ -597,32 +380,12 @@ public class Controller extends AbstractController
         /*
          * State SUCCESS
          */
-        // we make the transition to IDLE if the robot left
-        getTransition(State.SUCCESS, State.IDLE).addCondition(new TransitionCondition()
-        {
-            public boolean evaluate(Transition transition)
-            {
-                return !tamC1.isRobotPresent() && !tamC2.isRobotPresent() && !tamS.isRobotPresent() && deadTimeTimer == null;
-            }
-            public void reset(Transition transition) {}
-        });
-        getTransition(State.SUCCESS, State.IDLE).addAction(new TransitionAction()
+        // we make the transition to DEAD_TIME if all robots left
+        builder.transition(State.SUCCESS, State.DEAD_TIME).unless(robotInC1).unless(robotInC2).unless(robotInS).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + ": Task SUCCEEDED!");
-
-                deadTimeTimer = new TimerTask()
-                {
-                    @Override
-                    public void run()
-                    {
-                        log.info("i" + instance + ": Dead time is over");
-                        deadTimeTimer = null;
-                    }
-                };
-                getTimer().schedule(deadTimeTimer, DEAD_TIME_DURATION);
-
                 tamC1color = LED_NO_TASK;
                 tamC2color = LED_NO_TASK;
                 tamScolor = LED_NO_TASK;
@@ -634,20 +397,24 @@ public class Controller extends AbstractController
         });
 
         /*
-         * State FAIL
+         * State DEAD_TIME
+         * The TAMs are switched off for a while after completion of the task.
          */
-        // we make the transition to IDLE if the robot left
-        getTransition(State.FAIL, State.IDLE).addCondition(new TransitionCondition()
+        builder.transition(State.DEAD_TIME, State.IDLE).after(DEAD_TIME_DURATION).then(new StateMachine.Action()
         {
-            public boolean evaluate(Transition transition)
+            public void execute()
             {
-                return !tamC1.isRobotPresent() && !tamC2.isRobotPresent() && !tamS.isRobotPresent();
+                log.info("i" + instance + ": Dead time is over");
             }
-            public void reset(Transition transition) {}
         });
-        getTransition(State.FAIL, State.IDLE).addAction(new TransitionAction()
+
+        /*
+         * State FAIL
+         */
+        // we make the transition to IDLE if all robots left
+        builder.transition(State.FAIL, State.IDLE).unless(robotInC1).unless(robotInC2).unless(robotInS).then(new StateMachine.Action()
         {
-            public void execute(Transition transition)
+            public void execute()
             {
                 log.info("i" + instance + ": Task FAILED!");
                 tamC1color = LED_NO_TASK;
@@ -660,12 +427,15 @@ public class Controller extends AbstractController
             }
         });
 
+        fsm = builder.build(State.IDLE, System.currentTimeMillis());
+
         log.info("i" + instance + ": New TAM 3-task controller ("+tamC1.getId()+","+tamC2.getId()+","+tamS.getId()+"), starting in state "+ getState());
     }
 
     private void setLeds(TAMInterface tam, LedColor color)
     {
-        if (tam.getLedColor() == null || !tam.getLedColor().equals(color))
+        LedColor ledColor = tam.getLedColor();
+        if (ledColor == null || !ledColor.equals(color))
         {
             tam.setLedColor(color);
         }
@@ -679,8 +449,10 @@ public class Controller extends AbstractController
     {
 //        log.debug(tam.getId() + ": Trying to receive robot ID");
 //        log.debug(tam.getId() + ": Robot data: " + tam.getRobotDataReceived());
-        if (tam.isRobotPresent() && (tam.getRobotDataReceived() & ROBOT_ID_BIT_HEADER) == ROBOT_ID_BIT_HEADER) {
-            int robotId = tam.getRobotDataReceived() & ROBOT_ID_BIT_MASK;
+        // presence and data of the same status report
+        TAMSnapshot snapshot = tam.getSnapshot();
+        if (snapshot.isRobotPresent() && (snapshot.getRobotData() & ROBOT_ID_BIT_HEADER) == ROBOT_ID_BIT_HEADER) {
+            int robotId = snapshot.getRobotData() & ROBOT_ID_BIT_MASK;
             // sanity check
             if (robotId > 20 && robotId < 70) {
                 String robotIdStr = "epuck" + robotId;
@@ -705,156 +477,57 @@ public class Controller extends AbstractController
     }
 
     /**
-     * Step function of the controller. Called every Coordinator.STEP_INTERVAL milliseconds.
+     * Returns the time at which the controller must be stepped: the end of the working time of
+     * a subtask or of the dead time, or at once to set up the TAMs.
+     * @return timestamp in milliseconds, or NO_DEADLINE to wait for the TAMs
      */
-    public void step()
+    @Override
+    public long getNextDeadline()
     {
-        // step the task fsm that check conditions and switches state
-        // if we changed state, execute again to see if we can fast-switch through multiple states
-        while (checkAndExecuteTransitions()) {}
-
-//        log.debug("============== Stepping "+tam.getId()+" task state "+getState()+ " ================");
-
-        setLeds(tamC1, tamC1color);
-        setLeds(tamC2, tamC2color);
-        setLeds(tamS, tamScolor);
-
-//        log.debug("==============================");
+        return Math.min(setupTime, fsm.getNextDeadline());
     }
 
     /**
-     * Adds a new transition from a state to another. This is a helper method
-     * that creates a new transition object and adds it to the appropriate maps.
-     * @param fromState    transition from this state
-     * @param toState      transition to this state
-     * @param type         Transition.Type.AND if all conditions must be true to switch, Transition.Typ.OR if one is sufficient
-     * @param fallThrough  set to true if the transition switches if no condition is set
-     * @return new transition object
+     * Step function of the controller. Called when one of the TAMs reported a change or a deadline expired.
      */
-    public Transition addNewTransition(State fromState, State toState, Transition.Type type, boolean fallThrough)
+    public void step()
     {
-        Transition transition = new Transition(this, fromState, toState, type, fallThrough);
+        setupTime = NO_DEADLINE;
 
-        transitions.put(computeTransitionKey(fromState, toState), transition);
-        incomingTransitions.get(toState).add(transition);
-        outgoingTransitions.get(fromState).add(transition);
+        // read the ids of the robots before the transitions log them
+        getRobotId(tamC1);
+        getRobotId(tamC2);
+        getRobotId(tamS);
 
-        return transition;
-    }
-
-    /**
-     * Adds a new transition from a state to another. This is a helper method
-     * that creates a new transition object and adds it to the appropriate maps.
-     * The type will be set to Transition.Type.AND.
-     * @param fromState    transition from this state
-     * @param toState      transition to this state
-     * @param fallThrough  set to true if the transition switches if no condition is set
-     * @return new transition object
-     */
-    @SuppressWarnings("unused")
-    public Transition addNewTransition(State fromState, State toState, boolean fallThrough)
-    {
-        return addNewTransition(fromState, toState, Transition.Type.AND, fallThrough);
-    }
-
-    /**
-     * Adds a new transition from a state to another. This is a helper method
-     * that creates a new transition object and adds it to the appropriate maps.
-     * The type will be set to Transition.Type.AND and fall-through will be true.
-     * @param fromState    transition from this state
-     * @param toState      transition to this state
-     * @return new transition object
-     */
-    public Transition addNewTransition(State fromState, State toState)
-    {
-        return addNewTransition(fromState, toState, Transition.Type.AND, true);
-    }
+        // step the task fsm that check conditions and switches state
+        // if we changed state, it checks again to see if we can fast-switch through multiple states
+        fsm.step(System.currentTimeMillis());
 
-    /**
-     * Returns a transition between two states.
-     * @param fromState  transition from this state
-     * @param toState    transition to this state
-     * @return transition, or null if does not exist
-     */
-    public Transition getTransition(State fromState, State toState)
-    {
-        return transitions.get(computeTransitionKey(fromState, toState));
-    }
+//        log.debug("============== Stepping "+tam.getId()+" task state "+getState()+ " ================");
 
-    /**
-     * Returns the incoming transitions of a state.
-     * @param toState  all transitions to this state
-     * @return list of transitions (can be empty)
-     */
-    @SuppressWarnings("unused")
-    public ArrayList<Transition> getIncomingTransitions(State toState)
-    {
-        return incomingTransitions.get(toState);
-    }
+        setLeds(tamC1, tamC1color);
+        setLeds(tamC2, tamC2color);
+        setLeds(tamS, tamScolor);
 
-    /**
-     * Returns the outgoing transitions of a state.
-     * @param fromState  all transitions from this state
-     * @return list of transitions (can be empty)
-     */
-    @SuppressWarnings("unused")
-    public ArrayList<Transition> getOutgoingTransitions(State fromState)
-    {
-        return outgoingTransitions.get(fromState);
+//        log.debug("==============================");
     }
 
     /**
      * Returns the current state of this task.
-     * @return current state as AbstractTask.State
+     * @return current state as Controller.State
      */
     public State getState()
     {
-        return state;
+        return fsm.getState();
     }
 
     /**
-     * Sets a new state of this task.
+     * Sets a new state of this task, without executing any transition.
      * @param newState  new state to set
      */
     public void setState(State newState)
     {
-        if (newState != state)
-        {
-//            log.debug(this + " state changed from " + state + " to " + newState);
-            state = newState;
-        }
-    }
-
-    /**
-     * Checks and executes outgoing transitions of the current state.
-     * First transition that will be found to be executable (whose
-     * conditions are met) will be executed. This changes the current
-     * state of the task.
-     * @return true if state changed
-     */
-    private boolean checkAndExecuteTransitions()
-    {
-        // see if we can change the state
-        for (Transition transition : outgoingTransitions.get(state))
-        {
-            if (transition.execute())
-            {
-                setState(transition.getToState());
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Computes the key for storing a transition in the map.
-     * @param fromState  transition from this state
-     * @param toState    transition to this state
-     * @return key as string
-     */
-    private String computeTransitionKey(State fromState, State toState)
-    {
-        return fromState.toString()+">"+toState.toString();
+        fsm.setState(newState, System.currentTimeMillis());
     }
 
     /**
@@ -866,4 +539,4 @@ public class Controller extends AbstractController
     {
         return "Controller{state=" + getState() + '}';
     }
-}
\ No newline at end of file
+}
@@ -92,9 +92,10 @@ public class ProofOfConceptExperiment extends AbstractExperiment
                         listOfDiscoveredTams.get(i * 3 + 1),
                         listOfDiscoveredTams.get(i * 3 + 2));
 
-                // set controller only on a single tam so it gets executed only once
-                // TODO: this is a bit of a hack
+                // set controller on all involved tams; the coordinator steps it only once per tick
                 listOfDiscoveredTams.get(i * 3).setController(controller);
+                listOfDiscoveredTams.get(i * 3 + 1).setController(controller);
+                listOfDiscoveredTams.get(i * 3 + 2).setController(controller);
             }
             log.info("===================================================");
             log.info(" Completed setup, press enter to start experiment! ");
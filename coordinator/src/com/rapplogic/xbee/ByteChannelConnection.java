@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Connection backed by NIO channels, for radios that show up as a file, e.g. a pty
+ * created by socat or a serial device opened without RXTX.
+ * <p/>
+ * The input stream thread reads the channel directly into a direct buffer; the streams
+ * are only adapters for code that expects an XBeeConnection.
+ */
+public class ByteChannelConnection implements XBeeChannelConnection {
+
+	private final static Logger log = Logger.getLogger(ByteChannelConnection.class);
+	
+	private final ReadableByteChannel readChannel;
+	private final WritableByteChannel writeChannel;
+	
+	private final InputStream inputStream;
+	private final OutputStream outputStream;
+	
+	public ByteChannelConnection(ReadableByteChannel readChannel, WritableByteChannel writeChannel) {
+		this.readChannel = readChannel;
+		this.writeChannel = writeChannel;
+		this.inputStream = Channels.newInputStream(readChannel);
+		this.outputStream = Channels.newOutputStream(writeChannel);
+	}
+	
+	/**
+	 * Opens the file (e.g. /dev/pts/3) for reading and writing.
+	 * 
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static ByteChannelConnection open(String path) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		return new ByteChannelConnection(channel, channel);
+	}
+	
+	public ReadableByteChannel getReadChannel() {
+		return readChannel;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	public void close() {
+		try {
+			readChannel.close();
+		} catch (Exception e) {
+			log.warn("Exception while closing read channel", e);
+		}
+		
+		try {
+			writeChannel.close();
+		} catch (Exception e) {
+			log.warn("Exception while closing write channel", e);
+		}
+	}
+}
@@ -22,8 +22,6 @@ package com.rapplogic.xbee;
 import gnu.io.CommPortIdentifier;
 import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
 import gnu.io.UnsupportedCommOperationException;
 
 import java.io.BufferedOutputStream;
@@ -31,23 +29,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Enumeration;
-import java.util.TooManyListenersException;
 
 import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.api.XBeeException;
 
 /** 
- * This class encapsulates a RXTX serial port, providing access to input/output streams,
- * and notifying the subclass of new data events via the handleSerialData method.
+ * This class encapsulates a RXTX serial port, providing access to input/output streams.
+ * <p/>
+ * Reads block until data arrives or the receive timeout expires, so the input stream thread
+ * does not rely on data available events.
  * 
  * @author andrew
  * 
  */
-public class RxTxSerialComm implements XBeeConnection, SerialPortEventListener {
+public class RxTxSerialComm implements XBeeConnection {
 
 	private final static Logger log = Logger.getLogger(RxTxSerialComm.class);
 	
+	// a blocking read returns after this many milliseconds without data, so that close() is noticed
+	private final static int RECEIVE_TIMEOUT = 250;
+	
 	private InputStream inputStream;
 	private OutputStream outputStream;
 
@@ -57,16 +59,16 @@ public class RxTxSerialComm implements XBeeConnection, SerialPortEventListener {
 	
 	}
 	
-	public void openSerialPort(String port, int baudRate) throws PortInUseException, UnsupportedCommOperationException, TooManyListenersException, IOException, XBeeException {
+	public void openSerialPort(String port, int baudRate) throws PortInUseException, UnsupportedCommOperationException, IOException, XBeeException {
 		this.openSerialPort(port, "XBee", 0, baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE, SerialPort.FLOWCONTROL_NONE);
 	}
 	
-	public void openSerialPort(String port, String appName, int timeout, int baudRate) throws PortInUseException, UnsupportedCommOperationException, TooManyListenersException, IOException, XBeeException {
+	public void openSerialPort(String port, String appName, int timeout, int baudRate) throws PortInUseException, UnsupportedCommOperationException, IOException, XBeeException {
 		this.openSerialPort(port, appName, timeout, baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE, SerialPort.FLOWCONTROL_NONE);
 	}
 	
 	@SuppressWarnings("unchecked")
-	public void openSerialPort(String port, String appName, int timeout, int baudRate, int dataBits, int stopBits, int parity, int flowControl) throws PortInUseException, UnsupportedCommOperationException, TooManyListenersException, IOException, XBeeException {
+	public void openSerialPort(String port, String appName, int timeout, int baudRate, int dataBits, int stopBits, int parity, int flowControl) throws PortInUseException, UnsupportedCommOperationException, IOException, XBeeException {
 		// Apparently you can't query for a specific port, but instead must iterate
 		Enumeration<CommPortIdentifier> portList = CommPortIdentifier.getPortIdentifiers();
 		
@@ -99,13 +101,9 @@ public class RxTxSerialComm implements XBeeConnection, SerialPortEventListener {
 		serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
 		serialPort.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
 
-		// activate the DATA_AVAILABLE notifier
-		serialPort.notifyOnDataAvailable(true);
-		
-		// activate the OUTPUT_BUFFER_EMPTY notifier
-		//serialPort.notifyOnOutputEmpty(true);
-		
-		serialPort.addEventListener(this);
+		// read returns as soon as one byte is available, with whatever else has arrived by then, or 0 on timeout
+		serialPort.enableReceiveThreshold(1);
+		serialPort.enableReceiveTimeout(RECEIVE_TIMEOUT);
 		
 		inputStream = serialPort.getInputStream();
 		outputStream = new BufferedOutputStream(serialPort.getOutputStream());
@@ -142,32 +140,4 @@ public class RxTxSerialComm implements XBeeConnection, SerialPortEventListener {
 	public InputStream getInputStream() {
 		return inputStream;
 	}
-	
-	public void serialEvent(SerialPortEvent event) {
-		
-		switch (event.getEventType()) {	
-			case SerialPortEvent.DATA_AVAILABLE:
-
-				try {
-					if (this.getInputStream().available() > 0) {
-						try {
-							log.debug("serialEvent: " + serialPort.getInputStream().available() + " bytes available");
-							
-							synchronized (this) {
-								this.notify();										
-							}
-						} catch (Exception e) {
-							log.error("Error in handleSerialData method", e);
-						}				
-					} else {
-						log.warn("We were notified of new data but available() is returning 0");
-					}
-				} catch (IOException ex) {
-					// it's best not to throw the exception because the RXTX thread may not be prepared to handle
-					log.error("RXTX error in serialEvent method", ex);
-				}
-			default:
-				log.debug("Ignoring serial port event type: " + event.getEventType());
-		}		
-	}
-}
\ No newline at end of file
+}
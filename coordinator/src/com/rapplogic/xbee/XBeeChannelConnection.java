@@ -0,0 +1,13 @@
+package com.rapplogic.xbee;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A connection that can be read as an NIO channel.  The input stream thread reads such
+ * connections with channel reads into a direct buffer instead of going through getInputStream().
+ * <p/>
+ * The channel must block until at least one byte is available.
+ */
+public interface XBeeChannelConnection extends XBeeConnection {
+	public ReadableByteChannel getReadChannel();
+}
@@ -5,12 +5,15 @@ import java.io.OutputStream;
 
 /**
  * Represents a protocol independent connection to a XBee radio (e.g. could be a serial connection, socket, xmpp etc.)
- * Important: The implementation must call this.notify() when new data is available; otherwise the XBee input stream thread
- * will go into a forever wait.
  * <p/>
- * You must implement read(int) and available() on the InputStream and
+ * The XBee input stream thread does blocking bulk reads: you must implement read(byte[], int, int) on the InputStream
+ * so that it blocks until at least one byte is available.  It may return 0 after a timeout, which gives the thread a
+ * chance to notice that it has been closed.  A return value of -1 is treated as a lost connection.
+ * There is no need to notify() on new data.
  * <p/>
- * write(int) and flush() on the OutputStream
+ * Connections that are backed by a channel should implement XBeeChannelConnection instead.
+ * <p/>
+ * You must implement write(byte[], int, int) and flush() on the OutputStream
  * <p/>
  * It's recommended to implement close
  *  
@@ -20,8 +20,6 @@
 package com.rapplogic.xbee.api;
 
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
 
 import com.rapplogic.xbee.util.ByteUtils;
 
@@ -119,16 +117,23 @@ public enum ApiId {
 	 */
 	ERROR_RESPONSE (-1);
 	
-	private static final Map<Integer,ApiId> lookup = new HashMap<Integer,ApiId>();
+	// indexed by the api id byte, so that looking up the id of every packet neither boxes nor hashes
+	private static final ApiId[] lookup = new ApiId[0x100];
 	
 	static {
 		for(ApiId s : EnumSet.allOf(ApiId.class)) {
-			lookup.put(s.getValue(), s);
+			if (s.getValue() >= 0) {
+				lookup[s.getValue()] = s;
+			}
 		}
 	}
 	
 	public static ApiId get(int value) { 
-		return lookup.get(value); 
+		if (value < 0 || value >= lookup.length) {
+			return value == ERROR_RESPONSE.getValue() ? ERROR_RESPONSE : null;
+		}
+		
+		return lookup[value]; 
 	}
 	
     private final int value;
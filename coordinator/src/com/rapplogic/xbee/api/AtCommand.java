@@ -94,6 +94,19 @@ public class AtCommand extends XBeeRequest {
 		
 		return out.getIntArray();
 	}
+	
+	/**
+	 * Writes the same bytes as getFrameData() without the intermediate list and substrings
+	 */
+	public void writeFrameData(FrameEncoder encoder) {
+		encoder.write(this.getApiId().getValue());
+		encoder.write(this.getFrameId());
+		encoder.writeCommand(command);
+		
+		if (value != null) {
+			encoder.write(value);
+		}
+	}
 
 	public ApiId getApiId() {
 		return ApiId.AT_COMMAND;
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import com.rapplogic.xbee.util.ByteUtils;
+
+/**
+ * Reusable view of a DM RX frame (API id 0x90), for receiving without allocation.
+ * <p/>
+ * In flyweight mode (XBeeConfiguration.withFlyweightRx), FrameDecoder does not build a DMRxResponse
+ * for a DM RX frame; instead it points this view at its frame buffer and hands it to the
+ * DMRxFrameListeners.  The accessors read the un-escaped frame in place and return primitives, so a
+ * received packet creates no garbage.
+ * <p/>
+ * The view is only valid while DMRxFrameListener.processFrame runs; the next frame overwrites it.  To keep
+ * a frame, copy it with toResponse, or copy the fields that are needed.
+ * <p/>
+ * Not thread-safe: the view belongs to the input stream thread.
+ */
+public final class DMRxFrame {
+
+	// offsets in the un-escaped frame: length, api id, 64bit address, 16bit address, option, data
+	private final static int API_ID_OFFSET = 2;
+	private final static int ADDRESS64_OFFSET = 3;
+	private final static int ADDRESS16_OFFSET = 11;
+	private final static int OPTION_OFFSET = 13;
+	private final static int DATA_OFFSET = 14;
+	
+	// bytes of a frame without data: length, api id, addresses, option and checksum
+	private final static int OVERHEAD = DATA_OFFSET + 1;
+	
+	// un-escaped frame (no start byte), owned by the decoder
+	private byte[] frame;
+	private int frameLength;
+	
+	// packet as received (escape bytes and start byte included), owned by the decoder
+	private byte[] packet;
+	private int packetLength;
+	
+	DMRxFrame() {
+		
+	}
+	
+	/**
+	 * Returns true if the un-escaped frame is a complete DM RX frame.
+	 * 
+	 * @param frame
+	 * @param length
+	 * @return
+	 */
+	static boolean isDMRxFrame(byte[] frame, int length) {
+		return length >= OVERHEAD && (frame[API_ID_OFFSET] & 0xff) == ApiId.DM_RX_RESPONSE.getValue();
+	}
+	
+	/**
+	 * Points the view at a decoded frame.
+	 * 
+	 * @param frame un-escaped frame, length bytes through checksum
+	 * @param frameLength
+	 * @param packet packet as received, start byte included
+	 * @param packetLength
+	 */
+	void wrap(byte[] frame, int frameLength, byte[] packet, int packetLength) {
+		this.frame = frame;
+		this.frameLength = frameLength;
+		this.packet = packet;
+		this.packetLength = packetLength;
+	}
+	
+	/**
+	 * Returns the 64 bit address of the sender packed into a long, MSB first, as XBeeAddress64.toLong
+	 * 
+	 * @return
+	 */
+	public long getRemoteAddress64AsLong() {
+		long value = 0;
+		
+		for (int i = ADDRESS64_OFFSET; i < ADDRESS64_OFFSET + 8; i++) {
+			value = (value << 8) | (frame[i] & 0xff);
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Returns the 64 bit address of the sender.  Allocates; use getRemoteAddress64AsLong on the hot path.
+	 * 
+	 * @return
+	 */
+	public XBeeAddress64 getRemoteAddress64() {
+		int[] address = new int[8];
+		
+		for (int i = 0; i < 8; i++) {
+			address[i] = frame[ADDRESS64_OFFSET + i] & 0xff;
+		}
+		
+		return new XBeeAddress64(address);
+	}
+	
+	/**
+	 * Returns the 16 bit address of the sender, MSB first
+	 * 
+	 * @return
+	 */
+	public int getRemoteAddress16AsInt() {
+		return ((frame[ADDRESS16_OFFSET] & 0xff) << 8) | (frame[ADDRESS16_OFFSET + 1] & 0xff);
+	}
+	
+	/**
+	 * Returns the receive option byte, see DMRxBaseResponse.Option
+	 * 
+	 * @return
+	 */
+	public int getOption() {
+		return frame[OPTION_OFFSET] & 0xff;
+	}
+	
+	/**
+	 * Returns the number of data bytes
+	 * 
+	 * @return
+	 */
+	public int getDataLength() {
+		return frameLength - OVERHEAD;
+	}
+	
+	/**
+	 * Returns a data byte, as DMRxResponse.getData()[index]
+	 * 
+	 * @param index
+	 * @return the byte, 0-255
+	 */
+	public int getData(int index) {
+		if (index < 0 || index >= this.getDataLength()) {
+			throw new IndexOutOfBoundsException("Index " + index + ", data length is " + this.getDataLength());
+		}
+		
+		return frame[DATA_OFFSET + index] & 0xff;
+	}
+	
+	/**
+	 * Copies the frame into a response, exactly as it is built when flyweight mode is off (i.e. by
+	 * the decoder registered for DM_RX_RESPONSE).  The response remains valid after processFrame returns.
+	 * 
+	 * @return
+	 */
+	public XBeeResponse toResponse() {
+		int[] rawPacketBytes = new int[packetLength - 1];
+		
+		for (int i = 1; i < packetLength; i++) {
+			rawPacketBytes[i - 1] = packet[i] & 0xff;
+		}
+		
+		return new PacketParser(frame, frameLength, rawPacketBytes).parsePacket();
+	}
+	
+	/**
+	 * Returns the buffer holding the packet as received, start byte included, for recording
+	 * 
+	 * @return
+	 */
+	byte[] getPacket() {
+		return packet;
+	}
+	
+	int getPacketLength() {
+		return packetLength;
+	}
+	
+	public String toString() {
+		StringBuilder data = new StringBuilder();
+		
+		for (int i = 0; i < this.getDataLength(); i++) {
+			if (i > 0) {
+				data.append(",");
+			}
+			
+			data.append(ByteUtils.toBase16(this.getData(i)));
+		}
+		
+		return "apiId=" + ApiId.DM_RX_RESPONSE +
+			",remoteAddress64=" + Long.toHexString(this.getRemoteAddress64AsLong()) +
+			",remoteAddress16=" + Integer.toHexString(this.getRemoteAddress16AsInt()) +
+			",option=" + this.getOption() +
+			",data=" + data;
+	}
+}
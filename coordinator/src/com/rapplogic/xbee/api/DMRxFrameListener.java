@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+/**
+ * Add an implementation of this interface to xbee.addFrameListener to get DM RX frames without
+ * allocation, in flyweight mode (see XBeeConfiguration.withFlyweightRx).
+ * <p/>
+ * Unlike PacketListeners, frame listeners are called on the input stream thread, before the next packet
+ * is read: they must return quickly and must not block.  The frame is only valid until the method returns.
+ */
+public interface DMRxFrameListener {
+	
+	/**
+	 * Called for every DM RX frame received
+	 * 
+	 * @param frame reusable view of the frame; call frame.toResponse() to keep it
+	 */
+	public void processFrame(DMRxFrame frame);
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.util.ByteUtils;
+
+/**
+ * Bulk frame decoder that replaces the byte-at-a-time reading of PacketParser.
+ * <p/>
+ * Bytes are consumed from a ByteBuffer that the caller fills in bulk from the connection.
+ * The decoder finds the start byte, un-escapes and checksums the frame in place, into
+ * a frame buffer that is reused for every packet.  Once a frame is complete and verified,
+ * it is handed to PacketParser which only builds the XBeeResponse object; there is no
+ * per-byte boxing, stream call or allocation on the way.
+ * <p/>
+ * The decoder keeps its state between calls, so a frame may span any number of reads.
+ * <p/>
+ * If a frame listener is set (flyweight mode), DM RX frames are not parsed at all: the listener gets
+ * a DMRxFrame view of the frame buffer instead, so the steady stream of packets from remote radios
+ * creates no garbage.
+ * <p/>
+ * This is the default ResponseFramer.
+ * <p/>
+ * Not thread-safe: use one decoder per input stream.
+ */
+public class FrameDecoder implements ResponseFramer {
+
+	private final static Logger log = Logger.getLogger(FrameDecoder.class);
+
+	private final static int START_BYTE = XBeePacket.SpecialByte.START_BYTE.getValue();
+	private final static int ESCAPE = XBeePacket.SpecialByte.ESCAPE.getValue();
+
+	// initial capacity of the frame buffers; grows if a larger packet is announced
+	private final static int INITIAL_FRAME_CAPACITY = 256;
+
+	// decoder states
+	private final static int WAIT_START = 0;
+	private final static int LENGTH_MSB = 1;
+	private final static int LENGTH_LSB = 2;
+	private final static int FRAME_DATA = 3;
+
+	private int state = WAIT_START;
+	private boolean escaped = false;
+
+	// un-escaped packet: length msb, length lsb, frame data and checksum (no start byte)
+	private byte[] frame = new byte[INITIAL_FRAME_CAPACITY];
+	private int framePos;
+	// stated length of the frame data
+	private int frameLength;
+
+	// packet bytes as received off the radio (escape bytes and start byte included)
+	private byte[] raw = new byte[INITIAL_FRAME_CAPACITY * 2];
+	private int rawPos;
+
+	private int checksum;
+
+	// counts bytes discarded while looking for a start byte
+	private long discardedBytes;
+	
+	// receives DM RX frames instead of them being parsed, null to parse all frames
+	private DMRxFrameListener frameListener;
+	// view of the frame buffer handed to the frame listener
+	private final DMRxFrame view = new DMRxFrame();
+
+	public FrameDecoder() {
+
+	}
+
+	/**
+	 * Consumes bytes from the buffer until a complete frame has been decoded or the buffer
+	 * is exhausted.  The buffer must be in read mode (i.e. flipped); its position is advanced
+	 * past the consumed bytes.
+	 * <p/>
+	 * Like PacketParser.parsePacket, this never throws: a frame with a bad checksum or a frame that
+	 * is interrupted by a new start byte is returned as an ErrorResponse.
+	 * <p/>
+	 * DM RX frames handed to the frame listener are not returned; decoding continues with the next frame.
+	 *
+	 * @param buffer bytes read from the connection
+	 * @return the decoded response, or null if more bytes are required
+	 */
+	public XBeeResponse decode(ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			int b = buffer.get() & 0xff;
+
+			if (b == START_BYTE) {
+				if (state != WAIT_START) {
+					// with AP=2 a start byte is always escaped inside a frame, so the current frame was cut short
+					XBeeResponse error = this.error("Found start byte after " + framePos + " bytes, expected length is " + frameLength);
+					this.begin();
+					return error;
+				}
+
+				this.begin();
+				continue;
+			}
+
+			if (state == WAIT_START) {
+				discardedBytes++;
+				log.warn("expected start byte but got this " + ByteUtils.toBase16(b) + ", discarding");
+				continue;
+			}
+
+			this.appendRaw(b);
+
+			if (b == ESCAPE) {
+				escaped = true;
+				continue;
+			}
+
+			if (escaped) {
+				b = 0x20 ^ b;
+				escaped = false;
+			}
+
+			frame[framePos++] = (byte) b;
+
+			switch (state) {
+			case LENGTH_MSB:
+				state = LENGTH_LSB;
+				break;
+			case LENGTH_LSB:
+				frameLength = ((frame[0] & 0xff) << 8) + b;
+				// length bytes + frame data + checksum
+				this.ensureFrameCapacity(frameLength + 3);
+				state = FRAME_DATA;
+				break;
+			default:
+				checksum += b;
+
+				if (framePos == frameLength + 3) {
+					// that was the checksum byte
+					state = WAIT_START;
+					XBeeResponse response = this.finish();
+					
+					if (response != null) {
+						return response;
+					}
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Discards any partially decoded frame.
+	 */
+	public void reset() {
+		state = WAIT_START;
+		escaped = false;
+		framePos = 0;
+		rawPos = 0;
+	}
+
+	/**
+	 * Returns the number of bytes that were discarded because they were not part of a frame.
+	 *
+	 * @return
+	 */
+	public long getDiscardedBytes() {
+		return discardedBytes;
+	}
+	
+	/**
+	 * Sets the listener that DM RX frames are handed to instead of being parsed, which enables
+	 * flyweight mode.  The listener is called from decode, on the caller's thread.
+	 * 
+	 * @param frameListener the listener, or null to parse all frames
+	 */
+	public void setFrameListener(DMRxFrameListener frameListener) {
+		this.frameListener = frameListener;
+	}
+
+	private void begin() {
+		state = LENGTH_MSB;
+		escaped = false;
+		framePos = 0;
+		raw[0] = (byte) START_BYTE;
+		rawPos = 1;
+		frameLength = 0;
+		checksum = 0;
+	}
+
+	private XBeeResponse finish() {
+		if ((checksum & 0xff) != 0xff) {
+			return this.error("Checksum is incorrect.  Expected 0xff, but got " + (checksum & 0xff));
+		}
+		
+		if (frameListener != null && DMRxFrame.isDMRxFrame(frame, framePos)) {
+			view.wrap(frame, framePos, raw, rawPos);
+			frameListener.processFrame(view);
+			return null;
+		}
+
+		return new PacketParser(frame, framePos, this.getRawBytes()).parsePacket();
+	}
+
+	private XBeeResponse error(String message) {
+		XBeeParseException exception = new XBeeParseException(message);
+		log.error("Failed due to exception.  Returning ErrorResponse.  bytes read: " + ByteUtils.toBase16(this.getRawBytes()), exception);
+
+		ErrorResponse response = new ErrorResponse();
+		response.setErrorMsg(message);
+		response.setException(exception);
+
+		if (framePos >= 2) {
+			response.setLength(new XBeePacketLength(frame[0] & 0xff, frame[1] & 0xff));
+		}
+
+		response.setRawPacketBytes(this.getRawBytes());
+		return response;
+	}
+
+	private int[] getRawBytes() {
+		// without the start byte
+		int[] bytes = new int[Math.max(rawPos - 1, 0)];
+
+		for (int i = 1; i < rawPos; i++) {
+			bytes[i - 1] = raw[i] & 0xff;
+		}
+
+		return bytes;
+	}
+
+	private void appendRaw(int b) {
+		if (rawPos == raw.length) {
+			byte[] grown = new byte[raw.length * 2];
+			System.arraycopy(raw, 0, grown, 0, rawPos);
+			raw = grown;
+		}
+
+		raw[rawPos++] = (byte) b;
+	}
+
+	private void ensureFrameCapacity(int capacity) {
+		if (capacity > frame.length) {
+			byte[] grown = new byte[capacity];
+			System.arraycopy(frame, 0, grown, 0, framePos);
+			frame = grown;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes frame data straight into a caller-supplied byte array or ByteBuffer.
+ * <p/>
+ * This is the primitive counterpart of XBeeRequest.getXBeePacket(): instead of building the
+ * frame data as an ArrayList, copying it to an int[], copying it again into XBeePacket and once more
+ * while escaping, the request writes its frame data into a scratch buffer that is reused for every
+ * packet.  The encoder then adds the start byte, length and checksum and escapes on the fly while
+ * copying into the destination.
+ * <p/>
+ * Usage: either call encode(XBeeRequest, ...) or write the frame data yourself with reset() and
+ * write(..), followed by encodeFrame(...).
+ * <p/>
+ * Not thread-safe: use one encoder per sending thread.
+ */
+public class FrameEncoder {
+
+	private final static int START_BYTE = XBeePacket.SpecialByte.START_BYTE.getValue();
+	private final static int ESCAPE = XBeePacket.SpecialByte.ESCAPE.getValue();
+
+	// un-escaped frame data (api id onwards), reused for every packet
+	private byte[] frameData = new byte[128];
+	private int frameDataLength;
+
+	public FrameEncoder() {
+
+	}
+
+	/**
+	 * Returns the worst-case size of an escaped packet with the given amount of frame data,
+	 * that is when every byte after the start byte has to be escaped.
+	 *
+	 * @param frameDataLength
+	 * @return
+	 */
+	public static int getMaxPacketLength(int frameDataLength) {
+		// start byte + 2 length bytes + frame data + checksum, everything but the start byte may double
+		return 1 + 2 * (frameDataLength + 3);
+	}
+
+	/**
+	 * Discards any frame data written so far.
+	 */
+	public void reset() {
+		frameDataLength = 0;
+	}
+
+	/**
+	 * Appends a single byte to the frame data.
+	 *
+	 * @param b
+	 */
+	public void write(int b) {
+		if (b > 255 || b < 0) {
+			throw new RuntimeException("Packet values must not be greater than one byte (255): " + b);
+		}
+
+		if (frameDataLength == frameData.length) {
+			byte[] grown = new byte[frameData.length * 2];
+			System.arraycopy(frameData, 0, grown, 0, frameDataLength);
+			frameData = grown;
+		}
+
+		frameData[frameDataLength++] = (byte) b;
+	}
+
+	public void write(int[] bytes) {
+		for (int b : bytes) {
+			this.write(b);
+		}
+	}
+
+	public void write(XBeeAddress64 address) {
+		this.write(address.getAddress());
+	}
+
+	public void write(XBeeAddress16 address) {
+		// avoid the array allocated by getAddress()
+		this.write(address.getMsb());
+		this.write(address.getLsb());
+	}
+
+	/**
+	 * Writes the two characters of an AT command
+	 *
+	 * @param command
+	 */
+	public void writeCommand(String command) {
+		if (command.length() > 2) {
+			throw new IllegalArgumentException("Command should be two characters.  Do not include AT prefix");
+		}
+
+		this.write(command.charAt(0));
+		this.write(command.charAt(1));
+	}
+
+	/**
+	 * Returns the number of frame data bytes written since the last reset
+	 *
+	 * @return
+	 */
+	public int getFrameDataLength() {
+		return frameDataLength;
+	}
+
+	/**
+	 * Encodes the request as a complete, escaped packet into dst, starting at offset.
+	 *
+	 * @param request
+	 * @param dst
+	 * @param offset
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst is too small for the packet
+	 */
+	public int encode(XBeeRequest request, byte[] dst, int offset) {
+		this.reset();
+		request.writeFrameData(this);
+		return this.encodeFrame(dst, offset);
+	}
+
+	/**
+	 * Encodes the request as a complete, escaped packet into dst, starting at its position.
+	 * The position is advanced by the number of bytes written.
+	 *
+	 * @param request
+	 * @param dst
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst has not enough space remaining for the packet
+	 */
+	public int encode(XBeeRequest request, ByteBuffer dst) {
+		this.reset();
+		request.writeFrameData(this);
+		return this.encodeFrame(dst);
+	}
+
+	/**
+	 * Encodes the frame data written since the last reset into dst, starting at offset.
+	 *
+	 * @param dst
+	 * @param offset
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst is too small for the packet
+	 */
+	public int encodeFrame(byte[] dst, int offset) {
+		return this.encodeFrame(dst, offset, dst.length);
+	}
+
+	/**
+	 * Encodes the frame data written since the last reset into dst, starting at its position.
+	 *
+	 * @param dst
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst has not enough space remaining for the packet
+	 */
+	public int encodeFrame(ByteBuffer dst) {
+		if (dst.hasArray()) {
+			int written = this.encodeFrame(dst.array(), dst.arrayOffset() + dst.position(), dst.arrayOffset() + dst.limit());
+			dst.position(dst.position() + written);
+			return written;
+		}
+
+		int start = dst.position();
+
+		dst.put((byte) START_BYTE);
+		this.put(dst, (frameDataLength >> 8) & 0xff);
+		this.put(dst, frameDataLength & 0xff);
+
+		int checksum = 0;
+
+		for (int i = 0; i < frameDataLength; i++) {
+			int b = frameData[i] & 0xff;
+			checksum += b;
+			this.put(dst, b);
+		}
+
+		this.put(dst, 0xff - (checksum & 0xff));
+
+		return dst.position() - start;
+	}
+
+	private int encodeFrame(byte[] dst, int offset, int limit) {
+		int pos = offset;
+
+		if (pos >= limit) {
+			throw new BufferOverflowException();
+		}
+
+		dst[pos++] = (byte) START_BYTE;
+
+		// packet length does not include escape bytes or start, length and checksum bytes
+		pos = this.put(dst, pos, limit, (frameDataLength >> 8) & 0xff);
+		pos = this.put(dst, pos, limit, frameDataLength & 0xff);
+
+		// checksum is always computed on the un-escaped frame data
+		int checksum = 0;
+
+		for (int i = 0; i < frameDataLength; i++) {
+			int b = frameData[i] & 0xff;
+			checksum += b;
+			pos = this.put(dst, pos, limit, b);
+		}
+
+		pos = this.put(dst, pos, limit, 0xff - (checksum & 0xff));
+
+		return pos - offset;
+	}
+
+	private int put(byte[] dst, int pos, int limit, int b) {
+		if (XBeePacket.isSpecialByte(b)) {
+			if (pos + 1 >= limit) {
+				throw new BufferOverflowException();
+			}
+
+			dst[pos++] = (byte) ESCAPE;
+			dst[pos++] = (byte) (0x20 ^ b);
+		} else {
+			if (pos >= limit) {
+				throw new BufferOverflowException();
+			}
+
+			dst[pos++] = (byte) b;
+		}
+
+		return pos;
+	}
+
+	private void put(ByteBuffer dst, int b) {
+		if (XBeePacket.isSpecialByte(b)) {
+			dst.put((byte) ESCAPE);
+			dst.put((byte) (0x20 ^ b));
+		} else {
+			dst.put((byte) b);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Matches responses to the requests sent with XBee.sendAsync, by frame id.
+ * <p/>
+ * Frame ids are handed out from a ring, without locking: each request claims a free slot in a table
+ * indexed by frame id and keeps it until its response arrives or it times out.  The input stream thread
+ * looks up every frame id response in that table and completes the future.
+ * <p/>
+ * The ring skips 0 (no response) and DEFAULT_FRAME_ID, which stays reserved for requests that are sent
+ * without going through the correlator, so that their responses cannot complete a pending future.
+ * A response also has to be of the type that the request produces.
+ * <p/>
+ * Timeouts of all correlators run on a single shared daemon thread.
+ */
+public class FrameIdCorrelator {
+
+	private final static int FIRST_FRAME_ID = XBeeRequest.DEFAULT_FRAME_ID + 1;
+	private final static int FRAME_IDS = 0xff - XBeeRequest.DEFAULT_FRAME_ID;
+	
+	private final static ScheduledThreadPoolExecutor timeoutScheduler;
+	
+	static {
+		timeoutScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setName("FrameIdCorrelator-timeouts");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		// most requests complete; don't keep their timeouts around until they expire
+		timeoutScheduler.setRemoveOnCancelPolicy(true);
+	}
+	
+	/**
+	 * A request waiting for its response
+	 */
+	private static class Pending {
+		private final ApiId requestApiId;
+		private final CompletableFuture<XBeeResponse> future = new CompletableFuture<XBeeResponse>();
+		private volatile ScheduledFuture<?> timeout;
+		
+		private Pending(ApiId requestApiId) {
+			this.requestApiId = requestApiId;
+		}
+	}
+	
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final AtomicReferenceArray<Pending> pending = new AtomicReferenceArray<Pending>(0x100);
+	
+	public FrameIdCorrelator() {
+		
+	}
+	
+	/**
+	 * Assigns a free frame id to the request and returns the future that is completed with its response.
+	 * If the timeout expires first, the future fails with XBeeTimeoutException.  If all frame ids are in use,
+	 * the returned future has already failed with XBeeFrameIdsExhaustedException.
+	 * 
+	 * @param request
+	 * @param timeout milliseconds; zero or less waits forever
+	 * @return
+	 */
+	public CompletableFuture<XBeeResponse> register(XBeeRequest request, long timeout) {
+		final Pending p = new Pending(request.getApiId());
+		
+		for (int i = 0; i < FRAME_IDS; i++) {
+			final int frameId = FIRST_FRAME_ID + (sequence.getAndIncrement() & 0x7fffffff) % FRAME_IDS;
+			
+			if (pending.compareAndSet(frameId, null, p)) {
+				request.setFrameId(frameId);
+				
+				if (timeout > 0) {
+					p.timeout = timeoutScheduler.schedule(new Runnable() {
+						public void run() {
+							if (pending.compareAndSet(frameId, p, null)) {
+								p.future.completeExceptionally(new XBeeTimeoutException());
+							}
+						}
+					}, timeout, TimeUnit.MILLISECONDS);
+				}
+				
+				return p.future;
+			}
+		}
+		
+		p.future.completeExceptionally(new XBeeFrameIdsExhaustedException("All " + FRAME_IDS + " frame ids are in use by pending requests"));
+		return p.future;
+	}
+	
+	/**
+	 * Completes the future of the request with the same frame id, if there is one and the response matches.
+	 * Called by the input stream thread for every response.
+	 * 
+	 * @param response
+	 * @return true if a pending request was completed
+	 */
+	public boolean complete(XBeeResponse response) {
+		if (!(response instanceof XBeeFrameIdResponse)) {
+			return false;
+		}
+		
+		int frameId = ((XBeeFrameIdResponse) response).getFrameId();
+		
+		if (frameId <= 0 || frameId > 0xff) {
+			return false;
+		}
+		
+		Pending p = pending.get(frameId);
+		
+		if (p == null || !isResponseTo(p.requestApiId, response.getApiId()) || !pending.compareAndSet(frameId, p, null)) {
+			return false;
+		}
+		
+		this.cancelTimeout(p);
+		p.future.complete(response);
+		return true;
+	}
+	
+	/**
+	 * Fails the request with the frame id, e.g. because it could not be sent
+	 * 
+	 * @param frameId
+	 * @param future the future returned by register, so that a later request with the same frame id is not failed instead
+	 * @param cause
+	 */
+	public void fail(int frameId, CompletableFuture<XBeeResponse> future, Throwable cause) {
+		Pending p = pending.get(frameId);
+		
+		if (p != null && p.future == future && pending.compareAndSet(frameId, p, null)) {
+			this.cancelTimeout(p);
+			p.future.completeExceptionally(cause);
+		}
+	}
+	
+	/**
+	 * Fails all pending requests
+	 * 
+	 * @param cause
+	 */
+	public void failAll(Throwable cause) {
+		for (int i = 0; i < pending.length(); i++) {
+			Pending p = pending.getAndSet(i, null);
+			
+			if (p != null) {
+				this.cancelTimeout(p);
+				p.future.completeExceptionally(cause);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of requests waiting for a response
+	 * 
+	 * @return
+	 */
+	public int getPendingCount() {
+		int count = 0;
+		
+		for (int i = 0; i < pending.length(); i++) {
+			if (pending.get(i) != null) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	private void cancelTimeout(Pending p) {
+		ScheduledFuture<?> timeout = p.timeout;
+		
+		if (timeout != null) {
+			timeout.cancel(false);
+		}
+	}
+	
+	/**
+	 * Returns true if a request of the first type is answered with a response of the second type
+	 * 
+	 * @param request
+	 * @param response
+	 * @return
+	 */
+	private static boolean isResponseTo(ApiId request, ApiId response) {
+		switch (request) {
+		case AT_COMMAND:
+		case AT_COMMAND_QUEUE:
+			return response == ApiId.AT_RESPONSE;
+		case REMOTE_AT_REQUEST:
+		case DM_REMOTE_AT_REQUEST:
+			return response == ApiId.REMOTE_AT_RESPONSE;
+		case DM_TX_REQUEST:
+		case DM_EXPLICIT_TX_REQUEST:
+			return response == ApiId.DM_TX_STATUS_RESPONSE;
+		case TX_REQUEST_64:
+		case TX_REQUEST_16:
+			return response == ApiId.TX_STATUS_RESPONSE;
+		default:
+			return true;
+		}
+	}
+}
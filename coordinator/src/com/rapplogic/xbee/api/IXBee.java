@@ -20,6 +20,7 @@
 package com.rapplogic.xbee.api;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * XBee interface
@@ -42,6 +43,8 @@ public interface IXBee {
 
 	public XBeeResponse sendSynchronous(final XBeeRequest xbeeRequest, int timeout) throws XBeeTimeoutException, XBeeException;
 
+	public CompletableFuture<XBeeResponse> sendAsync(XBeeRequest xbeeRequest, int timeout);
+
 	public XBeeResponse getResponse() throws XBeeException;
 
 	public XBeeResponse getResponse(int timeout) throws XBeeException, XBeeTimeoutException;
@@ -20,22 +20,25 @@
 package com.rapplogic.xbee.api;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
+import com.rapplogic.xbee.XBeeChannelConnection;
 import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.capture.PacketCapture;
+import com.rapplogic.xbee.capture.PacketRecorder;
 import com.rapplogic.xbee.util.ByteUtils;
 
 /**
- * Reads data from the input stream and hands off to PacketParser for packet parsing.
+ * Reads data from the connection with blocking bulk reads and hands off to the configured ResponseFramer
+ * (FrameDecoder by default) for packet parsing.
  * Notifies XBee class when a new packet is parsed
  * <p/>
+ * In flyweight mode, DM RX frames are handed by the framer to the frame listeners, on this thread.
+ * <p/>
  * @author andrew
  *
  */
@@ -43,39 +46,112 @@ public class InputStreamThread implements Runnable {
 	
 	private final static Logger log = Logger.getLogger(InputStreamThread.class);
 	
+	// size of the buffer used for bulk reads from the connection
+	private final static int READ_BUFFER_SIZE = 1024;
+	
 	private Thread thread;
-	private ExecutorService listenerPool;
+	private final PacketDispatcher dispatcher;
 	private volatile boolean done = false;
 	private final XBeeConnection connection;
 	private XBeeConfiguration conf;
+	private final ResponseFramer framer;
+	private final FrameIdCorrelator correlator;
 	
 	public XBeeConnection getXBeeConnection() {
 		return connection;
 	}
 
-	private final BlockingQueue<XBeeResponse> responseQueue = new LinkedBlockingQueue<XBeeResponse>();
+	// queue behind XBee.getResponse, null if disabled
+	private final ResponseRing responseQueue;
 	
-	// TODO use weak references
-	private final List<PacketListener> packetListenerList = new LinkedList<PacketListener>();
+	// listeners of DM RX frames in flyweight mode
+	private final CopyOnWriteArrayList<DMRxFrameListener> frameListeners = new CopyOnWriteArrayList<DMRxFrameListener>();
+	
+	// records and delivers the DM RX frames handed over by the framer in flyweight mode
+	private final DMRxFrameListener frameDispatcher = new DMRxFrameListener() {
+		public void processFrame(DMRxFrame frame) {
+			if (log.isDebugEnabled()) {
+				log.debug("Received frame from XBee: " + frame);
+			}
+			
+			PacketRecorder recorder = conf.getPacketRecorder();
+			
+			if (recorder != null) {
+				recorder.record(PacketCapture.Direction.INBOUND, frame.getPacket(), 0, frame.getPacketLength());
+			}
+			
+			for (DMRxFrameListener listener : frameListeners) {
+				try {
+					listener.processFrame(frame);
+				} catch (Throwable th) {
+					log.warn("Exception in frame listener", th);
+				}
+			}
+		}
+	};
 	
-	public List<PacketListener> getPacketListenerList() {
-		return packetListenerList;
+	public PacketDispatcher getDispatcher() {
+		return dispatcher;
 	}
 
-	public BlockingQueue<XBeeResponse> getResponseQueue() {
+	/**
+	 * Returns the queue behind XBee.getResponse
+	 * 
+	 * @return the queue, or null if disabled by the response queue policy
+	 */
+	public ResponseRing getResponseQueue() {
 		return responseQueue;
 	}
+	
+	public void addFrameListener(DMRxFrameListener frameListener) {
+		frameListeners.add(frameListener);
+	}
+	
+	public boolean removeFrameListener(DMRxFrameListener frameListener) {
+		return frameListeners.remove(frameListener);
+	}
 
 	public InputStreamThread(final XBeeConnection connection, XBeeConfiguration conf) {
+		this(connection, conf, null);
+	}
+	
+	/**
+	 * @param connection
+	 * @param conf
+	 * @param correlator completes the futures of XBee.sendAsync; may be null
+	 */
+	public InputStreamThread(final XBeeConnection connection, XBeeConfiguration conf, FrameIdCorrelator correlator) {
 		this.connection = connection;
 		this.conf = conf;
+		this.correlator = correlator;
 		
-//		executor = Executors.newFixedThreadPool(1);
-//		executor.submit(this);
-
-        // Create an executor to deliver incoming packets to listeners. We'll use a single
-        // thread with an unbounded queue.
-		listenerPool = Executors.newSingleThreadExecutor();
+		try {
+			this.framer = conf.getResponseFramer().getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create response framer " + conf.getResponseFramer().getName(), e);
+		}
+		
+		if (conf.isFlyweightRx()) {
+			if (framer instanceof FrameDecoder) {
+				((FrameDecoder) framer).setFrameListener(frameDispatcher);
+			} else {
+				log.warn("Response framer " + conf.getResponseFramer().getName() + " does not support flyweight mode, DM RX frames are parsed");
+			}
+		}
+		
+		switch (conf.getResponseQueuePolicy()) {
+		case DISABLED:
+			responseQueue = null;
+			break;
+		case BLOCK:
+			responseQueue = new ResponseRing(conf.getMaxQueueSize(), ResponseRing.Overflow.BLOCK);
+			break;
+		default:
+			responseQueue = new ResponseRing(conf.getMaxQueueSize(), ResponseRing.Overflow.DROP_OLDEST);
+		}
+		
+		// delivers incoming packets to listeners, in order per remote radio
+		dispatcher = new PacketDispatcher(conf.getDispatchThreads(), conf.getDispatchQueueSize());
 		
 		thread = new Thread(this);
 		thread.setName("InputStreamThread");
@@ -86,91 +162,94 @@ public class InputStreamThread implements Runnable {
 	
 	private void addResponse(final XBeeResponse response) throws InterruptedException {
 		
-		// trim the queue
-		while (responseQueue.size() >= (conf.getMaxQueueSize() - 1)) {
-			log.debug("Response queue has reached the maximum size of " + conf.getMaxQueueSize() + " packets.  Trimming a packet from head of queue to make room");
-			responseQueue.poll();
+		// complete a pending sendAsync right here; the response still goes to the queue and listeners
+		if (correlator != null) {
+			correlator.complete(response);
 		}
 		
-		if (conf.getResponseQueueFilter() != null) {
-			if (conf.getResponseQueueFilter().accept(response)) {
-				responseQueue.put(response);
+		// when full, the queue drops its oldest packet or waits, depending on the response queue policy
+		if (responseQueue != null) {
+			if (conf.getResponseQueueFilter() == null || conf.getResponseQueueFilter().accept(response)) {
+				responseQueue.offer(response, 0);
 			}
-		} else {
-			responseQueue.put(response);	
 		}
 		
-		listenerPool.submit(new Runnable() {
-			public void run() {
-				// must synchronize to avoid  java.util.ConcurrentModificationException at java.util.AbstractList$Itr.checkForComodification(Unknown Source)
-				// this occurs if packet listener add/remove is called while we are iterating
-				synchronized (packetListenerList) {
-					for (PacketListener pl : packetListenerList) {
-						try {
-							if (pl != null) {
-								pl.processResponse(response);	
-							} else {
-								log.warn("PacketListener is null, size is " + packetListenerList.size());
-							}
-						} catch (Throwable th) {
-							log.warn("Exception in packet listener", th);
-						}
-					}			
-				}				
-			}
-		});
+		dispatcher.dispatch(response);
 	}
 	
 	public void run() {
 
-		int val = -1;
-		
 		XBeeResponse response = null;
-		PacketParser packetStream = null;
+		
+		// channel connections are read straight into native memory, streams into the backing array
+		ReadableByteChannel channel = null;
+		ByteBuffer buffer;
+		
+		if (connection instanceof XBeeChannelConnection) {
+			channel = ((XBeeChannelConnection) connection).getReadChannel();
+			buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		} else {
+			buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+		
+		framer.reset();
+		
+		PacketRecorder recorder = conf.getPacketRecorder();
 
 		try {
 			while (!done) {
 				try {
-					if (connection.getInputStream().available() > 0) {
-						log.debug("About to read from input stream");
-						val = connection.getInputStream().read();
-						log.debug("Read " + ByteUtils.formatByte(val) + " from input stream");
+					// blocks until at least one byte arrives; the framer keeps partial frames between reads,
+					// so the buffer is simply refilled from the start
+					buffer.clear();
+					int read;
+					
+					if (channel != null) {
+						read = channel.read(buffer);
+						buffer.flip();
+					} else {
+						read = connection.getInputStream().read(buffer.array(), 0, buffer.capacity());
+						buffer.limit(Math.max(read, 0));
+					}
+					
+					if (read < 0) {
+						throw new IOException("End of input stream");
+					}
+					
+					if (read == 0) {
+						// receive timeout, check if we are done
+						continue;
+					}
+					
+					if (log.isDebugEnabled()) {
+						log.debug("Read " + read + " bytes from input stream");
+					}
+					
+					while ((response = framer.decode(buffer)) != null) {
+						if (log.isInfoEnabled()) {
+							log.info("Received packet from XBee: " + response);	
+							log.debug("Received packet: int[] packet = {" + ByteUtils.toBase16(response.getRawPacketBytes(), ", ") + "};");	
+						}
 						
-						if (val == XBeePacket.SpecialByte.START_BYTE.getValue()) {
-							packetStream = new PacketParser(connection.getInputStream());
-							response = packetStream.parsePacket();
-							
-							if (log.isInfoEnabled()) {
-								log.info("Received packet from XBee: " + response);	
-								log.debug("Received packet: int[] packet = {" + ByteUtils.toBase16(response.getRawPacketBytes(), ", ") + "};");	
-							}
-							
-							// success
-							this.addResponse(response);
-						} else {
-							log.warn("expected start byte but got this " + ByteUtils.toBase16(val) + ", discarding");
+						if (recorder != null && response.getRawPacketBytes() != null) {
+							recorder.record(PacketCapture.Direction.INBOUND, response.getRawPacketBytes());
 						}
-					} else {
-						log.debug("No data available.. waiting for new data event");
 						
-						// we will wait here for RXTX to notify us of new data
-						synchronized (this.connection) {
-							// There's a chance that we got notified after the first in.available check
-							if (connection.getInputStream().available() > 0) {
-								continue;
-							}
-							
-							// wait until new data arrives
-							this.connection.wait();
-						}	
-					}				
+						// success
+						this.addResponse(response);
+					}
 				} catch (Exception e) {
 					if (e instanceof InterruptedException) throw ((InterruptedException)e);
 					
+					if (done) {
+						// the connection was closed while we were reading
+						break;
+					}
+					
 					log.error("Error while parsing packet:", e);
 					
 					if (e instanceof IOException) {
-						// this is thrown by RXTX if the serial device unplugged while we are reading data; if we are waiting then it will waiting forever
+						// this is thrown by RXTX if the serial device unplugged while we are reading data
 						log.error("Serial device IOException.. exiting");
 						break;
 					}
@@ -184,12 +263,10 @@ public class InputStreamThread implements Runnable {
 				connection.close();
 			}
 			
-			if (listenerPool != null) {
-				try {
-					listenerPool.shutdownNow();
-				} catch (Throwable t) {
-					log.warn("Failed to shutdown listner thread pool", t);
-				}
+			dispatcher.shutdown();
+			
+			if (responseQueue != null) {
+				responseQueue.close();
 			}
 		}
 		
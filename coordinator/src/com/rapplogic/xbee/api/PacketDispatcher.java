@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.api.digimesh.DMNodeIdentificationResponse;
+import com.rapplogic.xbee.api.digimesh.DMRxBaseResponse;
+
+/**
+ * Delivers responses to packet listeners.
+ * <p/>
+ * Listeners are kept in a copy-on-write list, so adding or removing a listener never blocks dispatch,
+ * and a listener may remove itself while it is being called.
+ * A listener can be registered for a set of ApiIds and is then only called for those.
+ * <p/>
+ * Dispatch is spread over a number of shards, each a single thread with its own bounded queue, a
+ * ResponseRing.  When a shard falls behind and its queue is full, dispatch waits for it: the input
+ * stream thread then stops reading, rather than the queue growing without bound.  Responses
+ * that carry a source address (RX packets, remote AT responses, node identification) are routed
+ * by the hash of that address, so all packets of one remote radio are delivered in order while
+ * different radios are processed concurrently.  Local responses (AT responses, TX status, modem status)
+ * always go to the first shard and so keep their relative order.  With a single shard, all responses are
+ * delivered in order of arrival, as before.
+ * <p/>
+ * Listeners must be thread-safe if there is more than one shard.
+ */
+public class PacketDispatcher {
+
+	private final static Logger log = Logger.getLogger(PacketDispatcher.class);
+	
+	/**
+	 * A listener and the api ids it is interested in
+	 */
+	private static class Registration {
+		private final PacketListener listener;
+		// null for all api ids
+		private final EnumSet<ApiId> apiIds;
+		
+		private Registration(PacketListener listener, EnumSet<ApiId> apiIds) {
+			this.listener = listener;
+			this.apiIds = apiIds;
+		}
+		
+		private boolean accept(XBeeResponse response) {
+			return apiIds == null || apiIds.contains(response.getApiId());
+		}
+	}
+	
+	/**
+	 * A dispatch thread and its queue
+	 */
+	private class Shard implements Runnable {
+		// responses waiting for delivery, stamped with the time they were queued
+		private final ResponseRing queue;
+		private final Thread thread;
+		
+		private Shard(String name, int queueSize) {
+			queue = new ResponseRing(queueSize, ResponseRing.Overflow.BLOCK);
+			thread = new Thread(this);
+			thread.setName(name);
+		}
+		
+		public void run() {
+			ResponseRing.Entry entry = new ResponseRing.Entry();
+			
+			try {
+				while (queue.take(entry)) {
+					deliver(entry.getResponse());
+					recordLatency(System.nanoTime() - entry.getStamp());
+				}
+			} catch (InterruptedException e) {
+				// shut down
+			}
+		}
+	}
+	
+	private final CopyOnWriteArrayList<Registration> listeners = new CopyOnWriteArrayList<Registration>();
+	
+	private final Shard[] shards;
+	
+	// metrics
+	private final AtomicLong dispatchedCount = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+	
+	/**
+	 * @param shardCount number of dispatch threads
+	 * @param queueSize number of responses that can wait for delivery, per thread
+	 */
+	public PacketDispatcher(int shardCount, int queueSize) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("Shard count must be > 0");
+		}
+		
+		shards = new Shard[shardCount];
+		
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard("PacketDispatcher-" + i, queueSize);
+			shards[i].thread.start();
+		}
+	}
+	
+	/**
+	 * Registers a listener for all responses
+	 * 
+	 * @param listener
+	 */
+	public void addPacketListener(PacketListener listener) {
+		listeners.add(new Registration(listener, null));
+	}
+	
+	/**
+	 * Registers a listener that is only called for responses with one of the given api ids
+	 * 
+	 * @param listener
+	 * @param apiIds
+	 */
+	public void addPacketListener(PacketListener listener, ApiId... apiIds) {
+		if (apiIds.length == 0) {
+			throw new IllegalArgumentException("At least one api id is required");
+		}
+		
+		EnumSet<ApiId> set = EnumSet.noneOf(ApiId.class);
+		
+		for (ApiId apiId : apiIds) {
+			set.add(apiId);
+		}
+		
+		listeners.add(new Registration(listener, set));
+	}
+	
+	/**
+	 * Removes all registrations of the listener
+	 * 
+	 * @param listener
+	 * @return true if the listener was registered
+	 */
+	public boolean removePacketListener(PacketListener listener) {
+		boolean removed = false;
+		
+		for (Registration registration : listeners) {
+			if (registration.listener == listener) {
+				removed |= listeners.remove(registration);
+			}
+		}
+		
+		return removed;
+	}
+	
+	/**
+	 * Queues the response for delivery to all interested listeners.  Blocks only while the queue of the
+	 * shard is full.  Must only be called by the input stream thread.
+	 * 
+	 * @param response
+	 * @throws InterruptedException if interrupted while waiting for the shard
+	 */
+	public void dispatch(final XBeeResponse response) throws InterruptedException {
+		if (!shards[this.getShard(response)].queue.offer(response, System.nanoTime())) {
+			log.warn("Dropping response, dispatcher has been shut down: " + response.getApiId());
+		}
+	}
+	
+	/**
+	 * Stops all shards.  Responses that have not been delivered yet are discarded.
+	 */
+	public void shutdown() {
+		for (Shard shard : shards) {
+			try {
+				shard.queue.close();
+				shard.thread.interrupt();
+			} catch (Throwable t) {
+				log.warn("Failed to shutdown dispatcher shard", t);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the address of the remote radio that sent the response, or null
+	 * if the response is local or does not carry an address
+	 * 
+	 * @param response
+	 * @return
+	 */
+	public static XBeeAddress64 getSourceAddress(XBeeResponse response) {
+		if (response instanceof DMRxBaseResponse) {
+			return ((DMRxBaseResponse) response).getRemoteAddress64();
+		} else if (response instanceof RemoteAtResponse) {
+			return ((RemoteAtResponse) response).getRemoteAddress64();
+		} else if (response instanceof DMNodeIdentificationResponse) {
+			return ((DMNodeIdentificationResponse) response).getRemoteAddress64();
+		}
+		
+		return null;
+	}
+	
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	/**
+	 * Returns the number of responses waiting for delivery, over all shards
+	 * 
+	 * @return
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		
+		for (Shard shard : shards) {
+			depth += shard.queue.size();
+		}
+		
+		return depth;
+	}
+	
+	public int getQueueDepth(int shard) {
+		return shards[shard].queue.size();
+	}
+	
+	/**
+	 * Returns the largest number of responses that waited for delivery in a single shard
+	 * 
+	 * @return
+	 */
+	public int getHighWaterMark() {
+		int highWaterMark = 0;
+		
+		for (Shard shard : shards) {
+			highWaterMark = Math.max(highWaterMark, shard.queue.getHighWaterMark());
+		}
+		
+		return highWaterMark;
+	}
+	
+	/**
+	 * Returns the number of times the input stream thread had to wait for a shard to catch up
+	 * 
+	 * @return
+	 */
+	public long getBlockedCount() {
+		long blocked = 0;
+		
+		for (Shard shard : shards) {
+			blocked += shard.queue.getBlockedCount();
+		}
+		
+		return blocked;
+	}
+	
+	/**
+	 * Returns the number of responses delivered to the listeners so far
+	 * 
+	 * @return
+	 */
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+	
+	/**
+	 * Returns the average time between dispatch() and the return of the last listener, in nanoseconds
+	 * 
+	 * @return
+	 */
+	public long getAverageDispatchLatencyNanos() {
+		long count = dispatchedCount.get();
+		return count == 0 ? 0 : totalLatencyNanos.get() / count;
+	}
+	
+	/**
+	 * Returns the longest time between dispatch() and the return of the last listener, in nanoseconds
+	 * 
+	 * @return
+	 */
+	public long getMaxDispatchLatencyNanos() {
+		return maxLatencyNanos.get();
+	}
+	
+	private int getShard(XBeeResponse response) {
+		if (shards.length == 1) {
+			return 0;
+		}
+		
+		XBeeAddress64 address = getSourceAddress(response);
+		
+		if (address == null) {
+			return 0;
+		}
+		
+		return (address.hashCode() & 0x7fffffff) % shards.length;
+	}
+	
+	private void deliver(XBeeResponse response) {
+		for (Registration registration : listeners) {
+			if (!registration.accept(response)) {
+				continue;
+			}
+			
+			try {
+				registration.listener.processResponse(response);
+			} catch (Throwable th) {
+				log.warn("Exception in packet listener", th);
+			}
+		}
+	}
+	
+	private void recordLatency(long latency) {
+		dispatchedCount.incrementAndGet();
+		totalLatencyNanos.addAndGet(latency);
+		
+		long max;
+		
+		while (latency > (max = maxLatencyNanos.get())) {
+			if (maxLatencyNanos.compareAndSet(max, latency)) {
+				break;
+			}
+		}
+	}
+}
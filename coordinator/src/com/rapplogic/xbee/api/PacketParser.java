@@ -46,6 +46,9 @@ import com.rapplogic.xbee.util.IntArrayOutputStream;
 /**
  * Reads a packet from the input stream, verifies checksum and creates an XBeeResponse object
  * <p/>
+ * The response object is built by the ResponseDecoder registered for the API id in the
+ * ResponseDecoderRegistry; the parse methods of this class are the built-in decoders.
+ * <p/>
  * Notes:
  * <p/>
  * Escaped bytes increase packet length but packet stated length only indicates un-escaped bytes.
@@ -73,15 +76,37 @@ public class PacketParser implements IIntArrayInputStream {
 	private ApiId apiId;
 	
 	// experiment to preserve original byte array for transfer over network (Starts with length)
-	private IntArrayOutputStream rawBytes = new IntArrayOutputStream();
+	private IntArrayOutputStream rawBytes;
+	
+	// un-escaped frame that has already been delimited and checksummed by FrameDecoder
+	private byte[] frame;
+	private int framePos;
+	private int frameEnd;
+	private int[] frameRawBytes;
 	
 	public PacketParser(InputStream in) {
 		this.in = new InputStreamWrapper(in);
+		this.rawBytes = new IntArrayOutputStream();
 	}
 	
 	// for parsing a packet from a byte array
 	public PacketParser(IIntArrayInputStream in) {
 		this.in = in;
+		this.rawBytes = new IntArrayOutputStream();
+	}
+	
+	/**
+	 * For parsing a frame decoded by FrameDecoder.  The frame starts with the length bytes and
+	 * ends with the checksum; it must already be un-escaped.
+	 * 
+	 * @param frame un-escaped frame, not including the start byte
+	 * @param length number of valid bytes in frame
+	 * @param rawPacketBytes the bytes as received off the radio, for XBeeResponse.getRawPacketBytes
+	 */
+	PacketParser(byte[] frame, int length, int[] rawPacketBytes) {
+		this.frame = frame;
+		this.frameEnd = length;
+		this.frameRawBytes = rawPacketBytes;
 	}
 	
 	/**
@@ -102,7 +127,9 @@ public class PacketParser implements IIntArrayInputStream {
 			// length of api structure, starting here (not including start byte or length bytes, or checksum)
 			this.length = new XBeePacketLength(msbLength, lsbLength);
 
-			log.debug("packet length is " + ByteUtils.formatByte(length.getLength()));
+			if (log.isDebugEnabled()) {
+				log.debug("packet length is " + ByteUtils.formatByte(length.getLength()));
+			}
 			
 			// total packet length = stated length + 1 start byte + 1 checksum byte + 2 length bytes
 			
@@ -116,39 +143,15 @@ public class PacketParser implements IIntArrayInputStream {
 			
 			log.info("Handling ApiId: " + apiId);
 			
-			// TODO parse I/O data page 12. 82 API Identifier Byte for 64 bit address A/D data (83 is for 16bit A/D data)
-			// TODO XBeeResponse should implement an abstract parse method
+			// the decoder of the api id reads the frame data, up to the checksum
+			ResponseDecoder decoder = ResponseDecoderRegistry.get(intApiId);
 			
-			if (apiId == ApiId.MODEM_STATUS_RESPONSE) {
-				parseModemStatusResponse();
-			} else if (apiId == ApiId.RX_16_RESPONSE) {
-				parseRxResponse();
-			} else if (apiId == ApiId.RX_16_IO_RESPONSE) {
-				parseRxResponse();
-			} else if (apiId == ApiId.RX_64_RESPONSE) {
-				parseRxResponse();
-			} else if (apiId == ApiId.RX_64_IO_RESPONSE) {
-				parseRxResponse();
-			} else if (apiId == ApiId.AT_RESPONSE) {
-				parseAtResponse();
-			} else if (apiId == ApiId.TX_STATUS_RESPONSE) {
-				parseTxStatusResponse();
-			} else if (apiId == ApiId.REMOTE_AT_RESPONSE) {
-				parseRemoteAtResponse();
-			} else if (apiId == ApiId.DM_TX_STATUS_RESPONSE) { 
-				parseDMTxStatusResponse();
-			} else if (apiId == ApiId.DM_RX_RESPONSE) {
-				parseDMRxResponse();
-			} else if (apiId == ApiId.DM_EXPLICIT_RX_RESPONSE) {
-				parseDMRxResponse();
-			} else if (apiId == ApiId.DM_IO_SAMPLE_RESPONSE) {
-				parseDMRxResponse();
-			} else if (apiId == ApiId.DM_IO_NODE_IDENTIFIER_RESPONSE) {
-				parseDMNodeIdentifierResponse();		
+			if (decoder != null) {
+				response = decoder.decode(this, intApiId);
 			} else {
 				// a new or unsupported api id
 				log.info("Encountered unknown API type: " + ByteUtils.toBase16(intApiId) + ".  returning GenericResponse");
-				parseGeneric(intApiId);
+				response = parseGeneric(intApiId);
 			}
 			
 			response.setChecksum(this.read("Checksum"));
@@ -160,7 +163,7 @@ public class PacketParser implements IIntArrayInputStream {
 			response.finish();
 		} catch (Exception e) {
 			// added bytes read for troubleshooting
-			log.error("Failed due to exception.  Returning ErrorResponse.  bytes read: " + ByteUtils.toBase16(rawBytes.getIntArray()), e);
+			log.error("Failed due to exception.  Returning ErrorResponse.  bytes read: " + ByteUtils.toBase16(this.getRawBytes()), e);
 			exception = e;
 			
 			response = new ErrorResponse();
@@ -172,18 +175,30 @@ public class PacketParser implements IIntArrayInputStream {
 			response.setLength(length);
 			response.setApiId(apiId);			
 			// preserve original byte array for transfer over networks
-			response.setRawPacketBytes(rawBytes.getIntArray());
+			response.setRawPacketBytes(this.getRawBytes());
 		}
 		
 		return response;
 	}
 	
+	private int[] getRawBytes() {
+		if (frame != null) {
+			return frameRawBytes;
+		}
+		
+		return rawBytes.getIntArray();
+	}
+	
 	/**
 	 * Same as read() but logs the context of the byte being read.  useful for debugging
 	 */
 	public int read(String context) throws IOException {
 		int b = this.read();
-		log.debug("Read " + context + " byte, val is " + ByteUtils.formatByte(b));
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Read " + context + " byte, val is " + ByteUtils.formatByte(b));
+		}
+		
 		return b;
 	}
 	
@@ -193,6 +208,14 @@ public class PacketParser implements IIntArrayInputStream {
 	 * @throws IOException
 	 */
 	private int readFromStream() throws IOException {
+		if (frame != null) {
+			if (framePos >= frameEnd) {
+				return -1;
+			}
+			
+			return frame[framePos++] & 0xff;
+		}
+		
 		int b = in.read();
 		// save raw bytes to transfer via network
 		rawBytes.write(b);		
@@ -218,7 +241,8 @@ public class PacketParser implements IIntArrayInputStream {
 			throw new XBeeParseException("Read -1 from input stream while reading packet!");
 		}
 		
-		if (XBeePacket.isSpecialByte(b)) {
+		// bytes of a decoded frame have been un-escaped already
+		if (frame == null && XBeePacket.isSpecialByte(b)) {
 			log.debug("Read special byte that needs to be unescaped"); 
 			
 			if (b == XBeePacket.SpecialByte.ESCAPE.getValue()) {
@@ -248,14 +272,18 @@ public class PacketParser implements IIntArrayInputStream {
 			// when computing checksum, do not include start byte, length, or checksum; when verifying, include checksum
 			checksum.addByte(b);
 			
-			log.debug("Read byte " + ByteUtils.formatByte(b) + " at position " + bytesRead + ", packet length is " + this.length.get16BitValue() + ", #escapeBytes is " + escapeBytes + ", remaining bytes is " + this.getRemainingBytes());
+			if (log.isDebugEnabled()) {
+				log.debug("Read byte " + ByteUtils.formatByte(b) + " at position " + bytesRead + ", packet length is " + this.length.get16BitValue() + ", #escapeBytes is " + escapeBytes + ", remaining bytes is " + this.getRemainingBytes());
+			}
 			
 			// escape bytes are not included in the stated packet length
 			if (this.getFrameDataBytesRead() >= (length.get16BitValue() + 1)) {
 				// this is checksum and final byte of packet
 				done = true;
 				
-				log.debug("Checksum byte is " + b);
+				if (log.isDebugEnabled()) {
+					log.debug("Checksum byte is " + b);
+				}
 				
 				if (!checksum.verify()) {
 					throw new XBeeParseException("Checksum is incorrect.  Expected 0xff, but got " + checksum.getChecksum());
@@ -266,108 +294,137 @@ public class PacketParser implements IIntArrayInputStream {
 		return b;
 	}
 
-	private void parseRemoteAtResponse() throws IOException {
+	XBeeResponse parseRemoteAtResponse() throws IOException {
 		
-		response = new RemoteAtResponse();
+		RemoteAtResponse response = new RemoteAtResponse();
 		
-		((RemoteAtResponse)response).setFrameId(this.read("Remote AT Response Frame Id"));
+		response.setFrameId(this.read("Remote AT Response Frame Id"));
 
-		((RemoteAtResponse)response).setRemoteAddress64(this.parseAddress64());
-		((RemoteAtResponse)response).setRemoteAddress16(this.parseAddress16());
+		response.setRemoteAddress64(this.parseAddress64());
+		response.setRemoteAddress16(this.parseAddress16());
 		
 		char cmd1 = (char)this.read("Command char 1");
 		char cmd2 = (char)this.read("Command char 2");
-		//((RemoteAtResponse)response).setCommand(new String(new char[] {cmd1, cmd2}));
-		((RemoteAtResponse)response).setChar1(cmd1);
-		((RemoteAtResponse)response).setChar2(cmd2);
+		//response.setCommand(new String(new char[] {cmd1, cmd2}));
+		response.setChar1(cmd1);
+		response.setChar2(cmd2);
 		
 		int status = this.read("AT Response Status");
-		((RemoteAtResponse)response).setStatus(RemoteAtResponse.Status.get(status));
+		response.setStatus(RemoteAtResponse.Status.get(status));
+		
+		response.setValue(this.readRemainingBytes());
 		
-		((RemoteAtResponse)response).setValue(this.readRemainingBytes());
+		return response;
 	}
 	
-	private void parseAtResponse() throws IOException {
+	XBeeResponse parseAtResponse() throws IOException {
 		//log.debug("AT Response");
 		
-		response = new AtCommandResponse();
+		AtCommandResponse response = new AtCommandResponse();
 		
-		((AtCommandResponse)response).setFrameId(this.read("AT Response Frame Id"));
-		((AtCommandResponse)response).setChar1(this.read("AT Response Char 1"));
-		((AtCommandResponse)response).setChar2(this.read("AT Response Char 2"));
-		((AtCommandResponse)response).setStatus(Status.get(this.read("AT Response Status")));
+		response.setFrameId(this.read("AT Response Frame Id"));
+		response.setChar1(this.read("AT Response Char 1"));
+		response.setChar2(this.read("AT Response Char 2"));
+		response.setStatus(Status.get(this.read("AT Response Status")));
 							
-		((AtCommandResponse)response).setValue(this.readRemainingBytes());
+		response.setValue(this.readRemainingBytes());
+		
+		return response;
 	}
 
-	private void parseDMTxStatusResponse() throws IOException {
+	XBeeResponse parseDMTxStatusResponse() throws IOException {
 		
-		response = new DMTxStatusResponse();
+		DMTxStatusResponse response = new DMTxStatusResponse();
 		
-		((DMTxStatusResponse)response).setFrameId(this.read("DM Tx Status Frame Id"));
+		response.setFrameId(this.read("DM Tx Status Frame Id"));
 
-		((DMTxStatusResponse)response).setRemoteAddress16(this.parseAddress16());
-		((DMTxStatusResponse)response).setRetryCount(this.read("DM Tx Status Tx Count"));
+		response.setRemoteAddress16(this.parseAddress16());
+		response.setRetryCount(this.read("DM Tx Status Tx Count"));
 		
 		int deliveryStatus = this.read("DM Tx Status Delivery Status");
-		((DMTxStatusResponse)response).setDeliveryStatus(DMTxStatusResponse.DeliveryStatus.get(deliveryStatus));
+		response.setDeliveryStatus(DMTxStatusResponse.DeliveryStatus.get(deliveryStatus));
 		
 		int discoveryStatus = this.read("DM Tx Status Discovery Status");
-		((DMTxStatusResponse)response).setDiscoveryStatus(DMTxStatusResponse.DiscoveryStatus.get(discoveryStatus));
+		response.setDiscoveryStatus(DMTxStatusResponse.DiscoveryStatus.get(discoveryStatus));
+		
+		return response;
 	}
 
-	private void parseDMRxResponse() throws IOException {
+	XBeeResponse parseDMRxResponse() throws IOException {
 		
-		// TODO this needs OO refactoring
-		if (this.apiId == ApiId.DM_IO_SAMPLE_RESPONSE) {
-			response = new DMRxIoSampleResponse();
-		} else if (this.apiId == ApiId.DM_RX_RESPONSE){
-			response = new DMRxResponse();	
-		} else {
-			response = new DMExplicitRxResponse();
-		}
+		DMRxResponse response = new DMRxResponse();
+		parseDMRxBaseResponse(response);
+		response.setData(this.readRemainingBytes());
 		
-		((DMRxBaseResponse)response).setRemoteAddress64(this.parseAddress64());
-		((DMRxBaseResponse)response).setRemoteAddress16(this.parseAddress16());
+		return response;
+	}
+	
+	XBeeResponse parseDMExplicitRxResponse() throws IOException {
 		
-		if (this.apiId == ApiId.DM_EXPLICIT_RX_RESPONSE) {
-			((DMExplicitRxResponse)response).setSourceEndpoint(this.read("Reading Source Endpoint"));
-			((DMExplicitRxResponse)response).setDestinationEndpoint(this.read("Reading Destination Endpoint"));
-			DoubleByte clusterId = new DoubleByte();
-			clusterId.setMsb(this.read("Reading Cluster Id MSB"));
-			clusterId.setLsb(this.read("Reading Cluster Id LSB"));
-			((DMExplicitRxResponse)response).setClusterId(clusterId);
-			
-			DoubleByte profileId = new DoubleByte();
-			profileId.setMsb(this.read("Reading Profile Id MSB"));
-			profileId.setMsb(this.read("Reading Profile Id LSB"));
-			((DMExplicitRxResponse)response).setProfileId(profileId);
-		}
+		DMExplicitRxResponse response = new DMExplicitRxResponse();
+		
+		response.setRemoteAddress64(this.parseAddress64());
+		response.setRemoteAddress16(this.parseAddress16());
+		
+		response.setSourceEndpoint(this.read("Reading Source Endpoint"));
+		response.setDestinationEndpoint(this.read("Reading Destination Endpoint"));
+		DoubleByte clusterId = new DoubleByte();
+		clusterId.setMsb(this.read("Reading Cluster Id MSB"));
+		clusterId.setLsb(this.read("Reading Cluster Id LSB"));
+		response.setClusterId(clusterId);
+		
+		DoubleByte profileId = new DoubleByte();
+		profileId.setMsb(this.read("Reading Profile Id MSB"));
+		profileId.setMsb(this.read("Reading Profile Id LSB"));
+		response.setProfileId(profileId);
 		
 		int option = this.read("DM RX Response Option");
-		((DMRxBaseResponse)response).setOption(DMRxBaseResponse.Option.get(option));
+		response.setOption(DMRxBaseResponse.Option.get(option));
 		
-		if (this.apiId == ApiId.DM_IO_SAMPLE_RESPONSE) {
-			parseDMIoSampleResponse((DMRxIoSampleResponse)response);
-		} else {		
-			((DMRxResponse)response).setData(this.readRemainingBytes());			
-		}
+		response.setData(this.readRemainingBytes());
+		
+		return response;
+	}
+	
+	XBeeResponse parseDMIoSampleResponse() throws IOException {
+		
+		DMRxIoSampleResponse response = new DMRxIoSampleResponse();
+		parseDMRxBaseResponse(response);
+		// TODO expose as interface
+		response.parse(this);
+		
+		return response;
 	}
 	
-	private void parseDMNodeIdentifierResponse() throws IOException {
+	/**
+	 * Reads the addresses and the option that start the frame data of all DigiMesh receive packets.
+	 * Public for decoders of DM RX responses that are registered by applications.
+	 * 
+	 * @param response the response to set them on
+	 * @throws IOException
+	 */
+	public void parseDMRxBaseResponse(DMRxBaseResponse response) throws IOException {
+		response.setRemoteAddress64(this.parseAddress64());
+		response.setRemoteAddress16(this.parseAddress16());
+		
+		int option = this.read("DM RX Response Option");
+		response.setOption(DMRxBaseResponse.Option.get(option));
+	}
+	
+	XBeeResponse parseDMNodeIdentifierResponse() throws IOException {
 			
-		response = new DMNodeIdentificationResponse();
+		DMNodeIdentificationResponse response = new DMNodeIdentificationResponse();
 
 
-        ((DMNodeIdentificationResponse)response).setSenderAddress64(this.parseAddress64());
-        ((DMNodeIdentificationResponse)response).setSenderAddress16(this.parseAddress16());
+        response.setSenderAddress64(this.parseAddress64());
+        response.setSenderAddress16(this.parseAddress16());
 
         int option = this.read("Option");
-		((DMNodeIdentificationResponse)response).setOption(DMNodeIdentificationResponse.Option.get(option));		
+		response.setOption(DMNodeIdentificationResponse.Option.get(option));		
 
 		// again with the addresses
-        ((DMNodeIdentificationResponse)response).setRemoteAddress64(this.parseAddress64());
-        ((DMNodeIdentificationResponse)response).setRemoteAddress16(this.parseAddress16());
+        response.setRemoteAddress64(this.parseAddress64());
+        response.setRemoteAddress16(this.parseAddress16());
 
 		StringBuffer ni = new StringBuffer();
 		
@@ -378,34 +435,37 @@ public class PacketParser implements IIntArrayInputStream {
 			ni.append((char)ch);			
 		}
 		
-		((DMNodeIdentificationResponse)response).setNodeIdentifier(ni.toString());
-		((DMNodeIdentificationResponse)response).setParentAddress(this.parseAddress16());		
+		response.setNodeIdentifier(ni.toString());
+		response.setParentAddress(this.parseAddress16());		
+		
+		return response;
     }
 	
-	private void parseDMIoSampleResponse(DMRxIoSampleResponse response) throws IOException {
-		// TODO expose as interface
-		response.parse(this);
-	}
-	
-	private void parseModemStatusResponse() throws IOException {		
-		response = new ModemStatusResponse();
-		((ModemStatusResponse)response).setStatus(ModemStatusResponse.Status.get(this.read("Modem Status")));
+	XBeeResponse parseModemStatusResponse() throws IOException {		
+		ModemStatusResponse response = new ModemStatusResponse();
+		response.setStatus(ModemStatusResponse.Status.get(this.read("Modem Status")));
+		
+		return response;
 	}
 	
-	private void parseGeneric(int intApiId) throws IOException {
+	private XBeeResponse parseGeneric(int intApiId) throws IOException {
 		//eat packet bytes -- they will be save to bytearray and stored in response
 		this.readRemainingBytes();
-		response = new GenericResponse();
+		GenericResponse response = new GenericResponse();
 		// TODO gotta save it because it isn't know to the enum apiId won't
-		((GenericResponse)response).setGenericApiId(intApiId);
+		response.setGenericApiId(intApiId);
+		
+		return response;
 	}	
 	
 	/**
 	 * 
 	 * @throws IOException
 	 */
-	private void parseRxResponse() throws IOException {
+	XBeeResponse parseRxResponse() throws IOException {
 		//TODO untested after 64-bit refactoring
+		XBeeResponse response;
+		
 		if (apiId == ApiId.RX_16_RESPONSE || apiId == ApiId.RX_64_RESPONSE) {
 			if (apiId == ApiId.RX_16_RESPONSE) {
 				response = new RxResponse16();	
@@ -439,7 +499,7 @@ public class PacketParser implements IIntArrayInputStream {
 			int bytesRead = this.getFrameDataBytesRead();
 			
 			for (int i = 0; i < length.getLength() - bytesRead; i++) {
-				payload[i] = this.read("Payload byte " + i);
+				payload[i] = this.read();
 				//log.debug("rx data payload [" + i + "] " + payload[i]);
 			}				
 			
@@ -449,26 +509,30 @@ public class PacketParser implements IIntArrayInputStream {
 			log.debug("this is a I/O sample!");
 			((RxResponseIoSample)response).parse(this);
 		}
+		
+		return response;
 	}
 	
-	private void parseTxStatusResponse() throws IOException {
+	XBeeResponse parseTxStatusResponse() throws IOException {
 		//log.debug("TxStatus");
 		
-		response = new TxStatusResponse();
+		TxStatusResponse response = new TxStatusResponse();
 		
 		// parse TxStatus
 		
 		// frame id
 		int frameId = this.read("TxStatus Frame Id");
-		((TxStatusResponse)response).setFrameId(frameId);
+		response.setFrameId(frameId);
 		
 		//log.debug("frame id is " + frameId);
 
 		// Status: 0=Success, 1= No Ack, 2= CCA Failure, 3= Purge
 		int status = this.read("TX Status");
-		((TxStatusResponse)response).setStatus(TxStatusResponse.Status.get(status));
+		response.setStatus(TxStatusResponse.Status.get(status));
 		
 		//log.debug("status is " + status);
+		
+		return response;
 	}
 		
 	/**
@@ -476,7 +540,7 @@ public class PacketParser implements IIntArrayInputStream {
 	 * @return
 	 * @throws IOException
 	 */
-	private int[] readRemainingBytes() throws IOException {
+	public int[] readRemainingBytes() throws IOException {
 		
 		// minus one since we don't read the checksum
 		int[] value = new int[this.getRemainingBytes() - 1];
@@ -484,7 +548,7 @@ public class PacketParser implements IIntArrayInputStream {
 		log.debug("There are " + value.length + " remaining bytes");
 		
 		for (int i = 0; i < value.length; i++) {
-			value[i] = this.read("Remaining bytes " + i);
+			value[i] = this.read();
 		}
 		
 		return value;
@@ -494,7 +558,7 @@ public class PacketParser implements IIntArrayInputStream {
 		XBeeAddress64 addr = new XBeeAddress64();
 		
 		for (int i = 0; i < 8; i++) {
-			addr.getAddress()[i] = this.read("64-bit Address byte " + i);
+			addr.getAddress()[i] = this.read();
 		}	
 		
 		return addr;
@@ -542,6 +606,14 @@ public class PacketParser implements IIntArrayInputStream {
 		this.bytesRead = bytesRead;
 	}
 
+	/**
+	 * The API id of the packet being parsed, UNKNOWN if the id is not known to ApiId
+	 * @return
+	 */
+	public ApiId getApiId() {
+		return apiId;
+	}
+	
 	public boolean isDone() {
 		return done;
 	}
@@ -161,6 +161,22 @@ public class RemoteAtRequest extends AtCommand {
 		return out.getIntArray();
 	}
 	
+	/**
+	 * Writes the same bytes as getFrameData() without the intermediate list and substrings
+	 */
+	public void writeFrameData(FrameEncoder encoder) {
+		encoder.write(this.getApiId().getValue());
+		encoder.write(this.getFrameId());
+		encoder.write(remoteAddr64);
+		encoder.write(remoteAddr16);
+		encoder.write(applyChanges ? 2 : 0);
+		encoder.writeCommand(this.getCommand());
+		
+		if (this.getValue() != null) {
+			encoder.write(this.getValue());
+		}
+	}
+	
 	public ApiId getApiId() {
 		return ApiId.REMOTE_AT_REQUEST;
 	}
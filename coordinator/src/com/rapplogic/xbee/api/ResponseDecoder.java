@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+/**
+ * Builds the response object of one API id from the frame data.
+ * <p/>
+ * A decoder is called by PacketParser after the length and the API id have been read; it reads the
+ * rest of the frame data, up to but not including the checksum, through the parser (read,
+ * parseAddress64, parseAddress16, readRemainingBytes).  Length, API id, checksum and raw bytes are
+ * set on the returned response by the parser.
+ * <p/>
+ * Decoders are registered by API id in the ResponseDecoderRegistry.  A decoder is shared by all
+ * parsers and must be stateless.
+ */
+public interface ResponseDecoder {
+	
+	/**
+	 * Reads the frame data following the API id and builds the response.
+	 * 
+	 * @param parser parser positioned after the API id
+	 * @param apiId the API id of the frame, 0-255
+	 * @return the response, never null
+	 * @throws IOException if the frame is malformed; the parser returns an ErrorResponse
+	 */
+	public XBeeResponse decode(PacketParser parser, int apiId) throws IOException;
+}
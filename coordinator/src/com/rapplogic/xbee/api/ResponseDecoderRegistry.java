@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+/**
+ * Table of the ResponseDecoders of all API ids, indexed by the API id byte.
+ * <p/>
+ * PacketParser looks up the decoder of every frame here; frames without a decoder are returned as
+ * GenericResponse.  The built-in decoders cover the responses of the Series 1 (wpan) and DigiMesh
+ * modules.  Applications may register their own decoders, for new frame types or to replace a built-in
+ * decoder, e.g. to turn their own payloads into typed responses.
+ * <p/>
+ * The table is replaced as a whole on every change, so parsers never lock and see either the old or
+ * the new table.  Register decoders before opening the connection.
+ * <p/>
+ * Thread safe
+ */
+public class ResponseDecoderRegistry {
+
+	private final static int SIZE = 0x100;
+	
+	private static volatile ResponseDecoder[] decoders = createBuiltInDecoders();
+	
+	private ResponseDecoderRegistry() {
+	}
+	
+	/**
+	 * Returns the decoder of an API id.
+	 * 
+	 * @param apiId the API id byte, 0-255
+	 * @return the decoder, or null if frames of this API id are not decoded
+	 */
+	public static ResponseDecoder get(int apiId) {
+		return decoders[apiId & 0xff];
+	}
+	
+	/**
+	 * Registers a decoder, replacing the decoder of the same API id.
+	 * 
+	 * @param apiId the API id byte, 0-255
+	 * @param decoder the decoder, or null to return frames of this API id as GenericResponse
+	 * @return the decoder that was replaced, or null
+	 */
+	public static synchronized ResponseDecoder register(int apiId, ResponseDecoder decoder) {
+		if (apiId < 0 || apiId >= SIZE) {
+			throw new IllegalArgumentException("API id " + apiId + " is not a byte");
+		}
+		
+		ResponseDecoder[] updated = decoders.clone();
+		ResponseDecoder replaced = updated[apiId];
+		updated[apiId] = decoder;
+		decoders = updated;
+		return replaced;
+	}
+	
+	/**
+	 * Registers a decoder, replacing the decoder of the same API id.
+	 * 
+	 * @param apiId the API id
+	 * @param decoder the decoder, or null to return frames of this API id as GenericResponse
+	 * @return the decoder that was replaced, or null
+	 */
+	public static ResponseDecoder register(ApiId apiId, ResponseDecoder decoder) {
+		return register(apiId.getValue(), decoder);
+	}
+	
+	/**
+	 * Returns the built-in decoder of an API id, e.g. to delegate to it from a registered decoder.
+	 * 
+	 * @param apiId the API id
+	 * @return the built-in decoder, or null if there is none
+	 */
+	public static ResponseDecoder getBuiltIn(ApiId apiId) {
+		return BuiltIn.DECODERS[apiId.getValue() & 0xff];
+	}
+	
+	/**
+	 * Removes all registered decoders and restores the built-in decoders.
+	 */
+	public static synchronized void reset() {
+		decoders = createBuiltInDecoders();
+	}
+	
+	private static ResponseDecoder[] createBuiltInDecoders() {
+		return BuiltIn.DECODERS.clone();
+	}
+	
+	/**
+	 * The decoders of the responses known to PacketParser, one class per response type
+	 */
+	private static class BuiltIn {
+		
+		private final static ResponseDecoder[] DECODERS = new ResponseDecoder[SIZE];
+		
+		static {
+			ResponseDecoder rx = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseRxResponse();
+				}
+			};
+			
+			DECODERS[ApiId.MODEM_STATUS_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseModemStatusResponse();
+				}
+			};
+			DECODERS[ApiId.RX_16_RESPONSE.getValue()] = rx;
+			DECODERS[ApiId.RX_16_IO_RESPONSE.getValue()] = rx;
+			DECODERS[ApiId.RX_64_RESPONSE.getValue()] = rx;
+			DECODERS[ApiId.RX_64_IO_RESPONSE.getValue()] = rx;
+			DECODERS[ApiId.AT_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseAtResponse();
+				}
+			};
+			DECODERS[ApiId.TX_STATUS_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseTxStatusResponse();
+				}
+			};
+			DECODERS[ApiId.REMOTE_AT_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseRemoteAtResponse();
+				}
+			};
+			DECODERS[ApiId.DM_TX_STATUS_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseDMTxStatusResponse();
+				}
+			};
+			DECODERS[ApiId.DM_RX_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseDMRxResponse();
+				}
+			};
+			DECODERS[ApiId.DM_EXPLICIT_RX_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseDMExplicitRxResponse();
+				}
+			};
+			DECODERS[ApiId.DM_IO_SAMPLE_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseDMIoSampleResponse();
+				}
+			};
+			DECODERS[ApiId.DM_IO_NODE_IDENTIFIER_RESPONSE.getValue()] = new ResponseDecoder() {
+				public XBeeResponse decode(PacketParser parser, int apiId) throws IOException {
+					return parser.parseDMNodeIdentifierResponse();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Framing stage of the input stream thread: turns the bytes read from the connection into responses.
+ * <p/>
+ * The framer is fed whatever a single read returned, which may hold any number of packets or only part
+ * of one.  It must keep partial frames between calls.  Each connection gets its own instance, created
+ * from the class configured with XBeeConfiguration.withResponseFramer; implementations need a public
+ * no-arg constructor.
+ * <p/>
+ * The default implementation is FrameDecoder.
+ */
+public interface ResponseFramer {
+	
+	/**
+	 * Consumes bytes from the buffer until a response is complete or the buffer is exhausted.
+	 * The buffer is in read mode; its position must be advanced past the consumed bytes.
+	 * 
+	 * @param buffer
+	 * @return the next response, or null if more bytes are required
+	 */
+	public XBeeResponse decode(ByteBuffer buffer);
+	
+	/**
+	 * Discards any partially decoded frame
+	 */
+	public void reset();
+}
@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of responses between the input stream thread and its consumers.
+ * <p/>
+ * The ring is an array of slots allocated up front, so queueing a response allocates nothing and the
+ * queue can never hold more than its capacity.  There is a single producer, the input stream thread,
+ * which owns the tail; any number of consumers claim slots by advancing the head with compare-and-set.
+ * Neither side takes a lock.
+ * <p/>
+ * When the ring is full, the producer either drops the oldest response (the head is advanced by the
+ * producer, so a consumer that was about to take it retries with the next one) or blocks until a consumer
+ * makes room, pushing back on the connection.
+ * <p/>
+ * Each slot also holds a timestamp given by the producer, e.g. to measure the time a response was queued.
+ * A slot keeps a reference to its last response until it is reused.
+ */
+public class ResponseRing {
+
+	/**
+	 * What the producer does when the ring is full
+	 */
+	public enum Overflow {
+		// replace the oldest response
+		DROP_OLDEST,
+		// wait until a consumer has taken a response
+		BLOCK
+	}
+	
+	/**
+	 * A response and its timestamp, as taken from the ring.  Consumers on the hot path reuse one entry.
+	 */
+	public static class Entry {
+		private XBeeResponse response;
+		private long stamp;
+		
+		public XBeeResponse getResponse() {
+			return response;
+		}
+		
+		public long getStamp() {
+			return stamp;
+		}
+	}
+	
+	// maximum time a waiting thread parks before it checks the ring again
+	private final static long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final Entry[] slots;
+	private final int capacity;
+	private final Overflow overflow;
+	
+	// sequence of the next response to take; advanced by consumers, and by the producer to drop
+	private final AtomicLong head = new AtomicLong();
+	// sequence of the next response to put; only written by the producer
+	private volatile long tail;
+	
+	// consumers waiting for a response, woken by the producer
+	private final ConcurrentLinkedQueue<Thread> waitingConsumers = new ConcurrentLinkedQueue<Thread>();
+	// producer waiting for room, woken by consumers
+	private volatile Thread waitingProducer;
+	
+	private volatile boolean closed = false;
+	
+	// metrics, only written by the producer
+	private volatile long offeredCount;
+	private volatile long droppedCount;
+	private volatile long blockedCount;
+	private volatile int highWaterMark;
+	
+	public ResponseRing(int capacity, Overflow overflow) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be > 0");
+		}
+		
+		if (overflow == null) {
+			throw new IllegalArgumentException("Overflow cannot be null");
+		}
+		
+		this.capacity = capacity;
+		this.overflow = overflow;
+		this.slots = new Entry[capacity];
+		
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Entry();
+		}
+	}
+	
+	/**
+	 * Puts a response at the tail of the ring.  Must only be called by the producer thread.
+	 * 
+	 * @param response
+	 * @param stamp stored with the response
+	 * @return false if the ring has been closed
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public boolean offer(XBeeResponse response, long stamp) throws InterruptedException {
+		long sequence = tail;
+		
+		while (sequence - head.get() >= capacity) {
+			if (closed) {
+				return false;
+			}
+			
+			if (overflow == Overflow.DROP_OLDEST) {
+				long oldest = head.get();
+				
+				if (sequence - oldest >= capacity && head.compareAndSet(oldest, oldest + 1)) {
+					droppedCount++;
+				}
+			} else {
+				this.awaitRoom(sequence);
+			}
+		}
+		
+		if (closed) {
+			return false;
+		}
+		
+		// no consumer reads the slot before the tail is published
+		Entry slot = slots[(int) (sequence % capacity)];
+		slot.response = response;
+		slot.stamp = stamp;
+		tail = sequence + 1;
+		
+		offeredCount++;
+		
+		int size = (int) (sequence + 1 - head.get());
+		
+		if (size > highWaterMark) {
+			highWaterMark = size;
+		}
+		
+		if (!waitingConsumers.isEmpty()) {
+			for (Thread consumer : waitingConsumers) {
+				LockSupport.unpark(consumer);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Takes the response at the head of the ring, if there is one
+	 * 
+	 * @param entry receives the response and its timestamp
+	 * @return false if the ring is empty
+	 */
+	public boolean poll(Entry entry) {
+		while (true) {
+			long sequence = head.get();
+			
+			if (sequence >= tail) {
+				return false;
+			}
+			
+			Entry slot = slots[(int) (sequence % capacity)];
+			XBeeResponse response = slot.response;
+			long stamp = slot.stamp;
+			
+			// the slot cannot be reused before the head has moved past it, so the values read are
+			// those of this sequence if the head still points to it
+			if (head.compareAndSet(sequence, sequence + 1)) {
+				entry.response = response;
+				entry.stamp = stamp;
+				
+				Thread producer = waitingProducer;
+				
+				if (producer != null) {
+					LockSupport.unpark(producer);
+				}
+				
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Takes the response at the head of the ring, waiting up to the timeout for one to arrive
+	 * 
+	 * @param entry receives the response and its timestamp
+	 * @param timeout
+	 * @param unit
+	 * @return false if the timeout expired or the ring was closed
+	 * @throws InterruptedException
+	 */
+	public boolean poll(Entry entry, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		
+		Thread current = Thread.currentThread();
+		
+		while (!this.poll(entry)) {
+			long remaining = deadline - System.nanoTime();
+			
+			if (remaining <= 0 || closed) {
+				return false;
+			}
+			
+			// register before checking again, so the producer cannot publish unnoticed in between
+			waitingConsumers.add(current);
+			
+			try {
+				if (head.get() >= tail) {
+					LockSupport.parkNanos(this, Math.min(remaining, PARK_NANOS));
+				}
+			} finally {
+				waitingConsumers.remove(current);
+			}
+			
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Takes the response at the head of the ring, waiting until one arrives
+	 * 
+	 * @param entry receives the response and its timestamp
+	 * @return false if the ring was closed
+	 * @throws InterruptedException
+	 */
+	public boolean take(Entry entry) throws InterruptedException {
+		while (!closed) {
+			if (this.poll(entry, Long.MAX_VALUE / 2, TimeUnit.NANOSECONDS)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Discards all queued responses
+	 */
+	public void clear() {
+		Entry entry = new Entry();
+		
+		while (this.poll(entry)) {
+			// discard
+		}
+	}
+	
+	/**
+	 * Closes the ring: the producer no longer queues or waits, and waiting consumers return
+	 */
+	public void close() {
+		closed = true;
+		
+		Thread producer = waitingProducer;
+		
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+		
+		for (Thread consumer : waitingConsumers) {
+			LockSupport.unpark(consumer);
+		}
+	}
+	
+	/**
+	 * Returns the number of responses in the ring
+	 * 
+	 * @return
+	 */
+	public int size() {
+		// read the head first, so that the size is never negative
+		long first = head.get();
+		return (int) Math.max(0, Math.min(capacity, tail - first));
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public Overflow getOverflow() {
+		return overflow;
+	}
+	
+	/**
+	 * Returns the number of responses put into the ring so far
+	 * 
+	 * @return
+	 */
+	public long getOfferedCount() {
+		return offeredCount;
+	}
+	
+	/**
+	 * Returns the number of responses that were dropped, unread, because the ring was full
+	 * 
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+	
+	/**
+	 * Returns the number of times the producer had to wait for room
+	 * 
+	 * @return
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+	
+	/**
+	 * Returns the largest number of responses that were in the ring at the same time
+	 * 
+	 * @return
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+	
+	private void awaitRoom(long sequence) throws InterruptedException {
+		blockedCount++;
+		waitingProducer = Thread.currentThread();
+		
+		try {
+			// register before checking again, so a consumer cannot make room unnoticed in between
+			while (!closed && sequence - head.get() >= capacity) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+				
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			waitingProducer = null;
+		}
+	}
+}
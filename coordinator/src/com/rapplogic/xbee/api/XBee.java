@@ -20,14 +20,15 @@
 package com.rapplogic.xbee.api;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.RxTxSerialComm;
 import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.capture.PacketCapture;
 import com.rapplogic.xbee.util.ByteUtils;
 
 /**
@@ -43,6 +44,11 @@ public class XBee implements IXBee {
 	
 	// object to synchronize on to protect access to sendPacket
 	private Object sendPacketBlock = new Object();
+	// encoder and packet buffer, reused for every request; guarded by sendPacketBlock
+	private final FrameEncoder encoder = new FrameEncoder();
+	private byte[] sendBuffer = new byte[256];
+	// matches responses to the requests of sendAsync
+	private final FrameIdCorrelator correlator = new FrameIdCorrelator();
 	private XBeeConnection xbeeConnection;
 	private InputStreamThread parser;	
 	private XBeeConfiguration conf;
@@ -163,7 +169,7 @@ public class XBee implements IXBee {
 		try {			
 			this.xbeeConnection = conn;
 			
-			parser = new InputStreamThread(this.xbeeConnection, conf);
+			parser = new InputStreamThread(this.xbeeConnection, conf, correlator);
 			
 			// startup heuristics
 			if (conf.isStartupChecks()) {
@@ -181,9 +187,21 @@ public class XBee implements IXBee {
 			throw new IllegalStateException("No connection");
 		}
 		
-		synchronized (parser.getPacketListenerList()) {
-			this.parser.getPacketListenerList().add(packetListener);	
+		this.parser.getDispatcher().addPacketListener(packetListener);
+	}
+	
+	/**
+	 * Adds a listener that is only called for responses with one of the given api ids
+	 * 
+	 * @param packetListener
+	 * @param apiIds
+	 */
+	public void addPacketListener(PacketListener packetListener, ApiId... apiIds) { 
+		if (parser == null) {
+			throw new IllegalStateException("No connection");
 		}
+		
+		this.parser.getDispatcher().addPacketListener(packetListener, apiIds);
 	}
 
 	public void removePacketListener(PacketListener packetListener) {
@@ -191,14 +209,71 @@ public class XBee implements IXBee {
 			throw new IllegalStateException("No connection");
 		}
 		
-		synchronized (parser.getPacketListenerList()) {
-			this.parser.getPacketListenerList().remove(packetListener);
+		this.parser.getDispatcher().removePacketListener(packetListener);
+	}
+	
+	/**
+	 * Adds a listener of DM RX frames, called on the input stream thread.  Only used in flyweight mode,
+	 * see XBeeConfiguration.withFlyweightRx
+	 * 
+	 * @param frameListener
+	 */
+	public void addFrameListener(DMRxFrameListener frameListener) {
+		if (parser == null) {
+			throw new IllegalStateException("No connection");
+		}
+		
+		this.parser.addFrameListener(frameListener);
+	}
+	
+	public void removeFrameListener(DMRxFrameListener frameListener) {
+		if (parser == null) {
+			throw new IllegalStateException("No connection");
 		}
+		
+		this.parser.removeFrameListener(frameListener);
 	}
 	
+	/**
+	 * Returns the dispatcher that delivers responses to packet listeners, e.g. for its metrics
+	 * 
+	 * @return
+	 */
+	public PacketDispatcher getPacketDispatcher() {
+		if (parser == null) {
+			throw new IllegalStateException("No connection");
+		}
+		
+		return parser.getDispatcher();
+	}
+	
+	/**
+	 * Encodes the request straight into a reusable byte array and writes the whole
+	 * packet to the output stream at once.
+	 * <p/>
+	 * Thread safe: the packet is encoded and written while holding sendPacketBlock.
+	 * 
+	 * @param request
+	 * @throws IOException
+	 */
 	public void sendRequest(XBeeRequest request) throws IOException {
-		log.info("Sending request to XBee: " + request);
-		this.sendPacket(request.getXBeePacket());
+		if (log.isInfoEnabled()) {
+			log.info("Sending request to XBee: " + request);
+		}
+		
+		synchronized (sendPacketBlock) {
+			encoder.reset();
+			request.writeFrameData(encoder);
+			
+			int maxLength = FrameEncoder.getMaxPacketLength(encoder.getFrameDataLength());
+			
+			if (sendBuffer.length < maxLength) {
+				sendBuffer = new byte[maxLength];
+			}
+			
+			int length = encoder.encodeFrame(sendBuffer, 0);
+			this.write(sendBuffer, length);
+		}
 	}
 	
 	/** 
@@ -235,12 +310,43 @@ public class XBee implements IXBee {
 		if (log.isInfoEnabled()) {
 			log.info("sending packet to XBee " + ByteUtils.toBase16(packet));	
 		}
-
-        for (int aPacket : packet) {
-        	xbeeConnection.getOutputStream().write(aPacket);
-        }
-
-        xbeeConnection.getOutputStream().flush();
+		
+		byte[] bytes = new byte[packet.length];
+		
+		for (int i = 0; i < packet.length; i++) {
+			bytes[i] = (byte) packet[i];
+		}
+		
+		synchronized (sendPacketBlock) {
+			this.write(bytes, bytes.length);
+		}
+	}
+	
+	/**
+	 * Writes the packet with a single call and flushes, so that the serial driver gets the
+	 * complete frame rather than one byte per write, and records it if a packet recorder is configured.
+	 * Caller must hold sendPacketBlock.
+	 * 
+	 * @param packet
+	 * @param length
+	 * @throws IOException
+	 */
+	private void write(byte[] packet, int length) throws IOException {
+		if (!this.isConnected()) {
+			throw new RuntimeException("XBee is not connected");
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("writing " + length + " bytes to XBee");
+		}
+		
+		// recorded first, so the capture never has a response before its request
+		if (conf.getPacketRecorder() != null) {
+			conf.getPacketRecorder().record(PacketCapture.Direction.OUTBOUND, packet, 0, length);
+		}
+		
+		xbeeConnection.getOutputStream().write(packet, 0, length);
+		xbeeConnection.getOutputStream().flush();
 	}
 
 	/**
@@ -281,7 +387,7 @@ public class XBee implements IXBee {
 	 * corresponding response (response that has same frame id).
 	 * <p/>
 	 * This method returns the first response object with a matching frame id, within the timeout
-	 * period, so it is important to use a unique frame id (relative to previous subsequent requests).
+	 * period.  The frame id is assigned by sendAsync, so concurrent calls do not get each other's responses.
 	 * <p/>
 	 * This method must only be called with requests that receive a response of
 	 * type XBeeFrameIdResponse.  All other request types will timeout.
@@ -307,52 +413,73 @@ public class XBee implements IXBee {
 			throw new XBeeException("Frame Id cannot be 0 for a synchronous call -- it will always timeout as there is no response!");
 		}		
 
-		PacketListener pl = null;
-		
 		try {
-			final List<XBeeResponse> container = new LinkedList<XBeeResponse>();
-
-			// this makes it thread safe -- prevents multiple threads from writing to output stream simultaneously
-			synchronized (sendPacketBlock) {
-				this.sendRequest(xbeeRequest);	
-			}
-			
-			pl = new PacketListener() {
-				// TODO handle error response as well
-				public void processResponse(XBeeResponse response) {
-					if (response instanceof XBeeFrameIdResponse && ((XBeeFrameIdResponse)response).getFrameId() == xbeeRequest.getFrameId()) {
-						// frame id matches -- yay we found it
-						container.add(response);
-						
-						synchronized(container) {
-							container.notify();	
-						}
-						
-					}
-				}
-			};
-			
-			this.addPacketListener(pl);
-			
-			synchronized (container) {
-				try {
-					container.wait(timeout);
-				} catch (InterruptedException e) { }
-			}
-			
-			if (container.size() == 0) {
-				// we didn't find a matching packet
-				throw new XBeeTimeoutException();
+			return this.sendAsync(xbeeRequest, timeout).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof XBeeException) {
+				throw (XBeeException) e.getCause();
 			}
 			
-			return (XBeeResponse) container.get(0);
-		} catch (IOException io) {
-			throw new XBeeException(io);
-		} finally {
-			if (pl != null) {
-				this.removePacketListener(pl);
-			}
+			throw new XBeeException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XBeeException("Interrupted while waiting for response", e);
+		}
+	}
+	
+	/**
+	 * Sends the request and returns a future that is completed with the response that has the
+	 * same frame id.  The frame id of the request is replaced with one that is not used by any other
+	 * pending request, so any number of requests can be in flight at the same time.
+	 * <p/>
+	 * The future fails with XBeeTimeoutException if there is no response within the timeout, with
+	 * XBeeFrameIdsExhaustedException if no frame id was free (the request is not sent), or with
+	 * XBeeException if the request could not be sent.
+	 * <p/>
+	 * The future is completed by the input stream thread: use the async variants of CompletableFuture
+	 * (e.g. thenAcceptAsync) for anything that takes time.
+	 * <p/>
+	 * This method must only be called with requests that receive a response of
+	 * type XBeeFrameIdResponse.  As with sendSynchronous, the response is also delivered to the response
+	 * queue and the packet listeners.
+	 * <p/>
+	 * This method is thread-safe
+	 * 
+	 * @param xbeeRequest
+	 * @param timeout milliseconds to wait for the response; zero waits forever
+	 * @return
+	 */
+	public CompletableFuture<XBeeResponse> sendAsync(XBeeRequest xbeeRequest, int timeout) {
+		CompletableFuture<XBeeResponse> future = correlator.register(xbeeRequest, timeout);
+		
+		if (future.isDone()) {
+			// no frame id available
+			return future;
 		}
+		
+		try {
+			this.sendRequest(xbeeRequest);
+		} catch (Exception e) {
+			correlator.fail(xbeeRequest.getFrameId(), future, new XBeeException(e));
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Uses sendSynchronous timeout defined in XBeeConfiguration (default is 5000ms)
+	 */
+	public CompletableFuture<XBeeResponse> sendAsync(XBeeRequest xbeeRequest) {
+		return this.sendAsync(xbeeRequest, conf.getSendSynchronousTimeout());
+	}
+	
+	/**
+	 * Returns the number of sendAsync requests that are waiting for a response
+	 * 
+	 * @return
+	 */
+	public int getPendingRequestCount() {
+		return correlator.getPendingCount();
 	}
 	
 	/**
@@ -397,17 +524,26 @@ public class XBee implements IXBee {
 	}
 	
 	private XBeeResponse getResponseTimeout(Integer timeout) throws XBeeException, XBeeTimeoutException {
-		XBeeResponse response;
+		ResponseRing responseQueue = this.getResponseQueue();
+		
+		if (responseQueue == null) {
+			throw new IllegalStateException("The response queue is disabled by the response queue policy");
+		}
+		
+		ResponseRing.Entry entry = new ResponseRing.Entry();
+		
 		try {
 			if (timeout != null) {
-				response = parser.getResponseQueue().poll(timeout, TimeUnit.MILLISECONDS);	
-			} else {
-				response = parser.getResponseQueue().take();
+				responseQueue.poll(entry, timeout, TimeUnit.MILLISECONDS);
+			} else if (!responseQueue.take(entry)) {
+				throw new XBeeException("Connection closed while waiting for a packet");
 			}
 		} catch (InterruptedException e) {
 			throw new XBeeException("Error while attempting to remove packet from queue", e);
 		}
 		
+		XBeeResponse response = entry.getResponse();
+		
 		if (response == null && timeout > 0) {
 			throw new XBeeTimeoutException();
 		}
@@ -428,7 +564,7 @@ public class XBee implements IXBee {
 		// shutdown parser thread
 		if (parser != null) {
 			parser.setDone(true);
-			// interrupts thread, if waiting.  does not interrupt thread if blocking on read
+			// interrupts channel reads; stream reads return within the receive timeout and then see done
 			// serial port close will be closed prior to thread exit
 			parser.interrupt();
 		}
@@ -439,6 +575,8 @@ public class XBee implements IXBee {
 			log.warn("Failed to close output stream", e);
 		}
 		
+		correlator.failAll(new XBeeException("XBee connection was closed"));
+		
 		parser = null;
 		xbeeConnection = null;
 	}
@@ -503,10 +641,38 @@ public class XBee implements IXBee {
 		this.sequentialFrameId = val;
 	}		
 	
+	/**
+	 * Returns the number of packets waiting in the response queue
+	 * 
+	 * @return
+	 */
+	public int getResponseQueueSize() {
+		if (parser == null || parser.getResponseQueue() == null) {
+			return 0;
+		}
+		
+		return parser.getResponseQueue().size();
+	}
+	
 	/**
 	 * Removes all packets off of the response queue
 	 */
 	public void clearResponseQueue() {
-		parser.getResponseQueue().clear();
+		if (parser.getResponseQueue() != null) {
+			parser.getResponseQueue().clear();
+		}
+	}
+	
+	/**
+	 * Returns the queue behind getResponse, e.g. for its metrics
+	 * 
+	 * @return the queue, or null if it is disabled by the response queue policy
+	 */
+	public ResponseRing getResponseQueue() {
+		if (parser == null) {
+			throw new IllegalStateException("No connection");
+		}
+		
+		return parser.getResponseQueue();
 	}
 }
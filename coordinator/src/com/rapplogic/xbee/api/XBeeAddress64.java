@@ -110,4 +110,19 @@ public class XBeeAddress64 extends XBeeAddress  {
 	public int[] getAddress() {
 		return address;
 	}
+
+	/**
+	 * Packs the address into a long, MSB first.  Cheaper than toString() as a key for lookups.
+	 * 
+	 * @return the address as a long
+	 */
+	public long toLong() {
+		long value = 0;
+		
+		for (int i = 0; i < address.length; i++) {
+			value = (value << 8) | (address[i] & 0xff);
+		}
+		
+		return value;
+	}
 }
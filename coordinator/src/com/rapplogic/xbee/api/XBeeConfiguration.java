@@ -1,11 +1,31 @@
 package com.rapplogic.xbee.api;
 
+import com.rapplogic.xbee.capture.PacketRecorder;
+
 public class XBeeConfiguration {
 
+	/**
+	 * What happens to responses when the queue behind getResponse(..) is full
+	 */
+	public enum ResponseQueuePolicy {
+		// the oldest response is dropped
+		DROP_OLDEST,
+		// the input stream thread waits until the application takes a response
+		BLOCK,
+		// there is no queue, responses are only delivered to listeners
+		DISABLED
+	}
+	
 	private boolean startupChecks = true;
 	private int maxQueueSize = 100;
+	private ResponseQueuePolicy responseQueuePolicy = ResponseQueuePolicy.DROP_OLDEST;
+	private int dispatchQueueSize = 1024;
 	private int sendSynchronousTimeout = 5000;
 	private ResponseQueueFilter responseQueueFilter;
+	private Class<? extends ResponseFramer> responseFramer = FrameDecoder.class;
+	private int dispatchThreads = 1;
+	private PacketRecorder packetRecorder;
+	private boolean flyweightRx = false;
 	
 	private final ResponseQueueFilter noRequestResponseQueueFilter = new ResponseQueueFilter() {
 		public boolean accept(XBeeResponse response) {
@@ -33,7 +53,7 @@ public class XBeeConfiguration {
 
 	/**
 	 * Sets the maximum size of the internal queue that supports the getResponse(..) method.
-	 * Packets are removed from the head of the queue once this limit is reached.  The default is 100
+	 * What happens once this limit is reached depends on the response queue policy.  The default is 100
 	 * 
 	 * @param size
 	 */
@@ -46,11 +66,99 @@ public class XBeeConfiguration {
 		return this;
 	}
 	
+	/**
+	 * Sets what happens when the queue behind getResponse(..) is full: DROP_OLDEST removes packets from the
+	 * head of the queue; BLOCK stops reading from the connection until a packet is taken, so only use it if
+	 * the application always calls getResponse; DISABLED does not queue packets at all, for applications that
+	 * only use listeners and sendSynchronous/sendAsync.  The default is DROP_OLDEST
+	 * 
+	 * @param responseQueuePolicy
+	 */
+	public XBeeConfiguration withResponseQueuePolicy(ResponseQueuePolicy responseQueuePolicy) {
+		if (responseQueuePolicy == null) {
+			throw new IllegalArgumentException("Response queue policy cannot be null");
+		}
+		
+		this.responseQueuePolicy = responseQueuePolicy;
+		return this;
+	}
+	
 	public XBeeConfiguration withResponseQueueFilter(ResponseQueueFilter filter) {
 		this.responseQueueFilter = filter;
 		return this;
 	}
 
+	/**
+	 * Sets the framing stage of the input stream thread.  A new instance is created for every
+	 * connection, so the class must have a public no-arg constructor.  The default is FrameDecoder
+	 * 
+	 * @param responseFramer
+	 */
+	public XBeeConfiguration withResponseFramer(Class<? extends ResponseFramer> responseFramer) {
+		if (responseFramer == null) {
+			throw new IllegalArgumentException("Response framer cannot be null");
+		}
+		
+		this.responseFramer = responseFramer;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of threads that deliver responses to packet listeners.  Responses from the same
+	 * remote radio are always delivered in order by the same thread; with more than one thread, listeners must
+	 * be thread-safe.  The default is 1
+	 * 
+	 * @param threads
+	 */
+	public XBeeConfiguration withDispatchThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Threads must be > 0");
+		}
+		
+		this.dispatchThreads = threads;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of responses that can wait for delivery to packet listeners, per dispatch thread.
+	 * When a dispatch thread falls this far behind, the input stream thread waits for it, so a burst of
+	 * packets cannot grow the heap without bound.  The default is 1024
+	 * 
+	 * @param size
+	 */
+	public XBeeConfiguration withDispatchQueueSize(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Size must be > 0");
+		}
+		
+		this.dispatchQueueSize = size;
+		return this;
+	}
+	
+	/**
+	 * Records every packet sent and received to a capture file, for replay with ReplayConnection.
+	 * The recorder is not closed with the connection.  The default is no recording
+	 * 
+	 * @param packetRecorder
+	 */
+	public XBeeConfiguration withPacketRecorder(PacketRecorder packetRecorder) {
+		this.packetRecorder = packetRecorder;
+		return this;
+	}
+	
+	/**
+	 * Enables flyweight mode: DM RX frames are no longer parsed into responses, but handed as a reusable
+	 * DMRxFrame view to the listeners added with XBee.addFrameListener, on the input stream thread.
+	 * They are not delivered to packet listeners, nor added to the response queue.  Requires the
+	 * default response framer.  The default is false
+	 * 
+	 * @param flyweightRx
+	 */
+	public XBeeConfiguration withFlyweightRx(boolean flyweightRx) {
+		this.flyweightRx = flyweightRx;
+		return this;
+	}
+	
 	public XBeeConfiguration withSendSynchronousTimeout(int sendSynchronousTimeout) {
 		this.sendSynchronousTimeout = sendSynchronousTimeout;
 		return this;
@@ -74,6 +182,10 @@ public class XBeeConfiguration {
 		return maxQueueSize;
 	}
 
+	public ResponseQueuePolicy getResponseQueuePolicy() {
+		return responseQueuePolicy;
+	}
+
 	public ResponseQueueFilter getResponseQueueFilter() {
 		return responseQueueFilter;
 	}
@@ -81,4 +193,24 @@ public class XBeeConfiguration {
 	public int getSendSynchronousTimeout() {
 		return sendSynchronousTimeout;
 	}
+
+	public int getDispatchThreads() {
+		return dispatchThreads;
+	}
+
+	public int getDispatchQueueSize() {
+		return dispatchQueueSize;
+	}
+
+	public Class<? extends ResponseFramer> getResponseFramer() {
+		return responseFramer;
+	}
+
+	public PacketRecorder getPacketRecorder() {
+		return packetRecorder;
+	}
+
+	public boolean isFlyweightRx() {
+		return flyweightRx;
+	}
 }
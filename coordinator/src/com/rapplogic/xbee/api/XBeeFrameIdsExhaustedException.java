@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+/**
+ * Indicates a request could not be sent with XBee.sendAsync because all frame ids are in use
+ * by pending requests.  The request was not sent.
+ * <p/>
+ * @see FrameIdCorrelator
+ */
+public class XBeeFrameIdsExhaustedException extends XBeeException {
+
+	private static final long serialVersionUID = -3160573372481102614L;
+	
+	public XBeeFrameIdsExhaustedException(String message) {
+		super(message);
+	}
+}
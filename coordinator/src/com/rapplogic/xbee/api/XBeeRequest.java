@@ -61,6 +61,25 @@ public abstract class XBeeRequest implements Serializable {
 
 	public abstract int[] getFrameData();
 
+	/**
+	 * Writes the frame data of this request to the encoder.
+	 * <p/>
+	 * The default implementation copies getFrameData(); requests that are sent frequently
+	 * override this to write their fields directly and avoid the intermediate lists and arrays.
+	 * Overrides must produce exactly the same bytes as getFrameData().
+	 * 
+	 * @param encoder
+	 */
+	public void writeFrameData(FrameEncoder encoder) {
+		int[] frameData = this.getFrameData();
+		
+		if (frameData == null) {
+			throw new RuntimeException("frame data is null");
+		}
+		
+		encoder.write(frameData);
+	}
+
 	public ApiId getApiId() {
 		return apiId;
 	}
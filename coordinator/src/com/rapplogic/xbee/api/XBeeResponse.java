@@ -114,15 +114,20 @@ public abstract class XBeeResponse implements Serializable {
 	
 	/**
 	 * Returns an array of all bytes (after being un-escaped) in the packet except the start byte.
+	 * Un-escaped on first use, as the parser works on the un-escaped frame and few callers need this.
 	 * @return
 	 */
 	public int[] getProcessedPacketBytes() {
+		if (processedPacketBytes == null && rawPacketBytes != null) {
+			processedPacketBytes = XBeePacket.unEscapePacket(rawPacketBytes);
+		}
+		
 		return processedPacketBytes;
 	}
 
 	public void setRawPacketBytes(int[] packetBytes) {
 		this.rawPacketBytes = packetBytes;
-		this.processedPacketBytes = XBeePacket.unEscapePacket(packetBytes);
+		this.processedPacketBytes = null;
 	}
 	
 	/**
@@ -20,6 +20,7 @@
 package com.rapplogic.xbee.api.digimesh;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.util.ByteUtils;
@@ -154,6 +155,30 @@ public class DMExplicitTxRequest extends DMTxRequest
 		return frameData.getIntArray();
 	}
 	
+	/**
+	 * Writes the same bytes as getFrameData(), with the explicit bytes in place
+	 */
+	public void writeFrameData(FrameEncoder encoder) {
+		this.checkPayloadSize();
+		
+		encoder.write(this.getApiId().getValue());
+		encoder.write(this.getFrameId());
+		encoder.write(this.getDestAddr64());
+		encoder.write(this.getDestAddr16());
+		// source endpoint
+		encoder.write(this.getSourceEndpoint());
+		// dest endpoint
+		encoder.write(this.getDestinationEndpoint());
+		// cluster id
+		encoder.write(this.getClusterId().getMsb());
+		encoder.write(this.getClusterId().getLsb());
+		// profile id
+		encoder.write(this.getProfileId().getMsb());
+		encoder.write(this.getProfileId().getLsb());
+		this.writeOptions(encoder);
+		encoder.write(this.getPayload());
+	}
+	
 	public ApiId getApiId() {
 		return ApiId.DM_EXPLICIT_TX_REQUEST;
 	}
@@ -20,6 +20,7 @@
 package com.rapplogic.xbee.api.digimesh;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeRequest;
@@ -132,9 +133,7 @@ public class DMTxRequest extends XBeeRequest {
 	
 	protected IntArrayOutputStream getFrameDataAsIntArrayOutputStream() {
 
-		if (this.getMaxPayloadSize() > 0 && payload.length > this.getMaxPayloadSize()) {
-			throw new IllegalArgumentException("Payload exceeds user-defined maximum payload size of " + this.getMaxPayloadSize() + " bytes.  Please package into multiple packets");
-		}
+		this.checkPayloadSize();
 		
 		IntArrayOutputStream out = new IntArrayOutputStream();
 		
@@ -165,6 +164,36 @@ public class DMTxRequest extends XBeeRequest {
 		return this.getFrameDataAsIntArrayOutputStream().getIntArray();
 	}
 	
+	/**
+	 * Writes the same bytes as getFrameData() without the intermediate list
+	 */
+	public void writeFrameData(FrameEncoder encoder) {
+		this.checkPayloadSize();
+		
+		encoder.write(this.getApiId().getValue());
+		encoder.write(this.getFrameId());
+		encoder.write(destAddr64);
+		encoder.write(destAddr16);
+		this.writeOptions(encoder);
+		encoder.write(payload);
+	}
+	
+	/**
+	 * Writes broadcast radius and options byte
+	 * 
+	 * @param encoder
+	 */
+	protected void writeOptions(FrameEncoder encoder) {
+		encoder.write(broadcastRadius);
+		encoder.write(option.getValue());
+	}
+	
+	protected void checkPayloadSize() {
+		if (this.getMaxPayloadSize() > 0 && payload.length > this.getMaxPayloadSize()) {
+			throw new IllegalArgumentException("Payload exceeds user-defined maximum payload size of " + this.getMaxPayloadSize() + " bytes.  Please package into multiple packets");
+		}
+	}
+	
 	public ApiId getApiId() {
 		return ApiId.DM_TX_REQUEST;
 	}
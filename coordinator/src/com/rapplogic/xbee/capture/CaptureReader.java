@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.capture;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.rapplogic.xbee.capture.PacketCapture.Direction;
+
+/**
+ * Reads a capture file written by PacketRecorder, one record at a time.
+ * <p/>
+ * The file is read through a read-only memory mapping that is moved along in chunks, so captures
+ * of any length can be read.  The reader is a cursor: next() moves to the next record, the getters
+ * return the fields of the current record.
+ * <p/>
+ * Not thread-safe
+ */
+public class CaptureReader {
+
+	// size of the region that is mapped at a time
+	private final static int MAP_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long fileLength;
+	private final long startTime;
+
+	private MappedByteBuffer buffer;
+	// file position of the start of the mapped region
+	private long bufferPosition;
+
+	private Direction direction;
+	private int length;
+	private long timestamp;
+	// position of the packet of the current record in the buffer
+	private int packetPosition;
+
+	/**
+	 * Opens a capture file and reads its header.
+	 *
+	 * @param path
+	 * @throws IOException if the file is not a capture file
+	 */
+	public CaptureReader(String path) throws IOException {
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+		try {
+			fileLength = channel.size();
+
+			if (fileLength < PacketCapture.HEADER_LENGTH) {
+				throw new IOException("Not a capture file: " + path);
+			}
+
+			this.map(0);
+
+			if (buffer.getInt() != PacketCapture.MAGIC) {
+				throw new IOException("Not a capture file: " + path);
+			}
+
+			int version = buffer.getInt();
+
+			if (version != PacketCapture.VERSION) {
+				throw new IOException("Unsupported capture file version " + version + ": " + path);
+			}
+
+			startTime = buffer.getLong();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false at the end of the capture
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if (direction != null) {
+			// skip the packet of the current record
+			buffer.position(packetPosition + length);
+		}
+
+		direction = null;
+
+		if (!this.ensure(PacketCapture.RECORD_HEADER_LENGTH)) {
+			return false;
+		}
+
+		Direction next = Direction.get(buffer.get());
+
+		if (next == null) {
+			// end marker of a capture that was not closed
+			return false;
+		}
+
+		int nextLength = buffer.getShort() & 0xffff;
+		long nextTimestamp = buffer.getLong();
+
+		if (!this.ensure(nextLength)) {
+			throw new IOException("Capture file ends within a packet");
+		}
+
+		direction = next;
+		length = nextLength;
+		timestamp = nextTimestamp;
+		packetPosition = buffer.position();
+
+		return true;
+	}
+
+	/**
+	 * Returns the wall clock time at which recording started, in milliseconds since the epoch
+	 *
+	 * @return
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Returns the time at which the packet of the current record was recorded, in nanoseconds since recording started
+	 *
+	 * @return
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the length of the packet of the current record
+	 *
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns a byte of the packet of the current record
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int getPacketByte(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+		}
+
+		return buffer.get(packetPosition + index) & 0xff;
+	}
+
+	/**
+	 * Copies the packet of the current record, start byte included.
+	 *
+	 * @param dst must have room for getLength() bytes
+	 * @param offset
+	 */
+	public void getPacket(byte[] dst, int offset) {
+		// next() positions the buffer explicitly, so the position can be used here
+		buffer.position(packetPosition);
+		buffer.get(dst, offset, length);
+	}
+
+	public void close() throws IOException {
+		buffer = null;
+		channel.close();
+	}
+
+	/**
+	 * Makes sure the next count bytes are mapped, moving the mapping along if needed.
+	 *
+	 * @return false if the file has less than count bytes left
+	 */
+	private boolean ensure(int count) throws IOException {
+		long position = bufferPosition + buffer.position();
+
+		if (fileLength - position < count) {
+			return false;
+		}
+
+		if (buffer.remaining() < count) {
+			this.map(position);
+		}
+
+		return true;
+	}
+
+	private void map(long position) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, fileLength - position));
+		bufferPosition = position;
+	}
+}
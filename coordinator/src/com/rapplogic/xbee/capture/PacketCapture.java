@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.capture;
+
+/**
+ * Layout of a packet capture file, as written by PacketRecorder and read by CaptureReader.
+ * <p/>
+ * The file starts with a header: magic (int), version (int) and the wall clock time at which
+ * recording started (long, milliseconds since the epoch).  It is followed by one record per
+ * packet: direction (byte), packet length (unsigned short), timestamp (long, nanoseconds since
+ * recording started) and the packet as it went over the wire, i.e. start byte, escaped length,
+ * frame data and checksum.  All values are big-endian.
+ * <p/>
+ * A direction of zero marks the end of the records; this is what a recorder that was not closed
+ * leaves behind in the unused part of the file.
+ */
+public class PacketCapture {
+
+	public final static int MAGIC = 0x58424350; // "XBCP"
+	public final static int VERSION = 1;
+
+	public final static int HEADER_LENGTH = 16;
+	public final static int RECORD_HEADER_LENGTH = 11;
+
+	// largest packet that fits in a record
+	public final static int MAX_PACKET_LENGTH = 0xffff;
+
+	public enum Direction {
+		// received from the radio
+		INBOUND (1),
+		// sent to the radio
+		OUTBOUND (2);
+
+		private final int value;
+
+		Direction(int value) {
+			this.value = value;
+		}
+
+		public static Direction get(int value) {
+			switch (value) {
+			case 1:
+				return INBOUND;
+			case 2:
+				return OUTBOUND;
+			default:
+				return null;
+			}
+		}
+
+		public int getValue() {
+			return value;
+		}
+	}
+
+	private PacketCapture() {
+
+	}
+}
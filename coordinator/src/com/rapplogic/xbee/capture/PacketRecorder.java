@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.capture;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.api.XBeePacket;
+import com.rapplogic.xbee.capture.PacketCapture.Direction;
+
+/**
+ * Appends every packet that goes over a connection to a capture file, for replay with ReplayConnection.
+ * <p/>
+ * The file is written through a memory mapping that is moved along in chunks, so recording a packet
+ * is a copy into memory: no system call and no allocation on the receive or send path.  Since the
+ * mapping belongs to the OS, what has been recorded survives a crash of the JVM.
+ * <p/>
+ * Install with XBeeConfiguration.withPacketRecorder; the input stream thread records inbound packets,
+ * XBee.sendRequest and sendPacket record outbound packets.
+ * <p/>
+ * A recorder that fails to write logs the error once and stops recording, it never fails the connection.
+ * <p/>
+ * Thread safe
+ */
+public class PacketRecorder {
+
+	private final static Logger log = Logger.getLogger(PacketRecorder.class);
+
+	// size of the region that is mapped at a time
+	private final static int MAP_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private final static int START_BYTE = XBeePacket.SpecialByte.START_BYTE.getValue();
+
+	private final FileChannel channel;
+	private final long startNanos;
+
+	private MappedByteBuffer buffer;
+	// file position of the start of the mapped region
+	private long bufferPosition;
+
+	private long packetCount;
+	private boolean closed;
+
+	/**
+	 * Creates the capture file, replacing an existing file.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public PacketRecorder(String path) throws IOException {
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		startNanos = System.nanoTime();
+
+		try {
+			this.map(0);
+			buffer.putInt(PacketCapture.MAGIC);
+			buffer.putInt(PacketCapture.VERSION);
+			buffer.putLong(System.currentTimeMillis());
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records a packet as received, with the bytes of XBeeResponse.getRawPacketBytes (i.e. without start byte).
+	 *
+	 * @param direction
+	 * @param rawPacketBytes
+	 */
+	public synchronized void record(Direction direction, int[] rawPacketBytes) {
+		if (!this.begin(direction, rawPacketBytes.length + 1)) {
+			return;
+		}
+
+		buffer.put((byte) START_BYTE);
+
+		for (int b : rawPacketBytes) {
+			buffer.put((byte) b);
+		}
+	}
+
+	/**
+	 * Records a complete packet, start byte included.
+	 *
+	 * @param direction
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void record(Direction direction, byte[] packet, int offset, int length) {
+		if (!this.begin(direction, length)) {
+			return;
+		}
+
+		buffer.put(packet, offset, length);
+	}
+
+	/**
+	 * Returns the number of packets recorded so far
+	 *
+	 * @return
+	 */
+	public synchronized long getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * Flushes the recorded packets to disk and truncates the file to the recorded length.
+	 * Packets recorded after close are ignored.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		try {
+			long length = bufferPosition + buffer.position();
+			buffer.force();
+			buffer = null;
+
+			channel.truncate(length);
+			channel.close();
+
+			log.info("Recorded " + packetCount + " packets, " + length + " bytes");
+		} catch (IOException e) {
+			log.error("Failed to close capture file", e);
+		}
+	}
+
+	/**
+	 * Writes the record header, moving the mapping along if the record does not fit.
+	 *
+	 * @return false if the packet is not recorded
+	 */
+	private boolean begin(Direction direction, int length) {
+		if (closed) {
+			return false;
+		}
+
+		if (length > PacketCapture.MAX_PACKET_LENGTH) {
+			log.warn("Not recording packet of " + length + " bytes");
+			return false;
+		}
+
+		long timestamp = System.nanoTime() - startNanos;
+
+		try {
+			if (buffer.remaining() < PacketCapture.RECORD_HEADER_LENGTH + length) {
+				this.map(bufferPosition + buffer.position());
+			}
+		} catch (IOException e) {
+			log.error("Failed to extend capture file, recording stopped", e);
+			closed = true;
+
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+
+			}
+
+			return false;
+		}
+
+		buffer.put((byte) direction.getValue());
+		buffer.putShort((short) length);
+		buffer.putLong(timestamp);
+
+		packetCount++;
+		return true;
+	}
+
+	private void map(long position) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, MAP_CHUNK_SIZE);
+		bufferPosition = position;
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.XBeePacket;
+import com.rapplogic.xbee.capture.PacketCapture.Direction;
+
+/**
+ * Connection that plays back the inbound packets of a capture file, so a recorded session can be fed
+ * through the input stream thread, the parser and the packet listeners again.
+ * <p/>
+ * Packets are either delivered with the timing they were recorded with, or as fast as they are read.
+ * Outbound packets are discarded, but they keep the replay in step with the code under test: a response
+ * to a local AT command is held back until as many AT commands have been sent as had been sent when it
+ * was recorded, so synchronous requests such as the startup checks get their response.  If the command
+ * is not sent within GATE_TIMEOUT, the response is delivered anyway.
+ * <p/>
+ * Packets must be written whole, as XBee does.
+ * <p/>
+ * When the capture is exhausted, reads block until the connection is closed.
+ */
+public class ReplayConnection implements XBeeConnection {
+
+	private final static Logger log = Logger.getLogger(ReplayConnection.class);
+
+	// time a response to an AT command waits for its command, in milliseconds
+	public final static long GATE_TIMEOUT = 5000;
+
+	private final static int START_BYTE = XBeePacket.SpecialByte.START_BYTE.getValue();
+	private final static int ESCAPE = XBeePacket.SpecialByte.ESCAPE.getValue();
+
+	private final CaptureReader reader;
+	private final boolean realTime;
+
+	private final InputStream inputStream = new ReplayInputStream();
+	private final OutputStream outputStream = new ReplayOutputStream();
+
+	// inbound packet being delivered; only used by the reading thread
+	private byte[] packet = new byte[256];
+	private int packetPosition;
+	private int packetLength;
+
+	// time the first packet was delivered and its recorded timestamp, in nanoseconds
+	private long replayStart;
+	private long recordingStart = -1;
+	// time spent waiting for AT commands, added to the recorded timestamps
+	private long gateDelay;
+
+	// AT commands that were sent before the current record was recorded
+	private int recordedAtCommands;
+
+	// the fields below are guarded by this
+	private int sentAtCommands;
+	private long inboundPackets;
+	private long outboundPackets;
+	private boolean finished;
+	private boolean closed;
+
+	/**
+	 * @param reader capture to play back, positioned at the start
+	 * @param realTime true to deliver packets with their recorded timing, false to deliver them as fast as possible
+	 */
+	public ReplayConnection(CaptureReader reader, boolean realTime) {
+		this.reader = reader;
+		this.realTime = realTime;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Returns the number of inbound packets delivered so far
+	 *
+	 * @return
+	 */
+	public synchronized long getInboundPacketCount() {
+		return inboundPackets;
+	}
+
+	/**
+	 * Returns the number of packets written to the connection so far
+	 *
+	 * @return
+	 */
+	public synchronized long getOutboundPacketCount() {
+		return outboundPackets;
+	}
+
+	/**
+	 * Returns true once the last inbound packet of the capture has been delivered
+	 *
+	 * @return
+	 */
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Waits until the last inbound packet of the capture has been delivered.
+	 *
+	 * @param timeout milliseconds to wait; zero waits forever
+	 * @return true if the replay has finished
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitFinished(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (!finished && !closed) {
+			if (timeout == 0) {
+				this.wait();
+			} else {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (remaining <= 0) {
+					break;
+				}
+
+				this.wait(remaining);
+			}
+		}
+
+		return finished;
+	}
+
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			this.notifyAll();
+		}
+
+		try {
+			reader.close();
+		} catch (IOException e) {
+			log.warn("Failed to close capture file", e);
+		}
+	}
+
+	/**
+	 * Reads up to the next inbound packet of the capture and waits until it is due.
+	 *
+	 * @return false at the end of the capture
+	 */
+	private boolean nextInbound() throws IOException {
+		while (reader.next()) {
+			if (reader.getDirection() == Direction.OUTBOUND) {
+				this.readPacket();
+
+				if (isAtCommand(packet, 0, packetLength)) {
+					recordedAtCommands++;
+				}
+
+				continue;
+			}
+
+			this.readPacket();
+
+			if (recordingStart < 0) {
+				recordingStart = reader.getTimestamp();
+				replayStart = System.nanoTime();
+			}
+
+			if (realTime) {
+				this.awaitTime(replayStart + reader.getTimestamp() - recordingStart + gateDelay);
+			}
+
+			if (getApiId(packet, 0, packetLength) == ApiId.AT_RESPONSE.getValue()) {
+				long start = System.nanoTime();
+				this.awaitAtCommands(recordedAtCommands);
+				gateDelay += System.nanoTime() - start;
+			}
+
+			synchronized (this) {
+				inboundPackets++;
+			}
+
+			return true;
+		}
+
+		synchronized (this) {
+			log.info("Replay finished after " + inboundPackets + " inbound packets");
+			finished = true;
+			this.notifyAll();
+		}
+
+		return false;
+	}
+
+	private void readPacket() {
+		if (packet.length < reader.getLength()) {
+			packet = new byte[reader.getLength()];
+		}
+
+		reader.getPacket(packet, 0);
+		packetPosition = 0;
+		packetLength = reader.getLength();
+	}
+
+	private synchronized void awaitTime(long time) throws IOException {
+		long remaining;
+
+		while (!closed && (remaining = time - System.nanoTime()) > 0) {
+			this.await(remaining / 1000000, (int) (remaining % 1000000));
+		}
+	}
+
+	private synchronized void awaitAtCommands(int count) throws IOException {
+		long deadline = System.currentTimeMillis() + GATE_TIMEOUT;
+		long remaining;
+
+		while (!closed && sentAtCommands < count) {
+			remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				log.warn("AT command " + count + " of the capture was not sent within " + GATE_TIMEOUT + "ms, delivering its response anyway");
+				// carry on as if it had been sent
+				sentAtCommands = count;
+				break;
+			}
+
+			this.await(remaining, 0);
+		}
+	}
+
+	private void await(long millis, int nanos) throws IOException {
+		try {
+			this.wait(millis, nanos);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while replaying");
+		}
+	}
+
+	private synchronized void awaitClose() throws IOException {
+		while (!closed) {
+			this.await(0, 0);
+		}
+	}
+
+	private synchronized void written(byte[] b, int off, int len) {
+		outboundPackets++;
+
+		if (isAtCommand(b, off, len)) {
+			sentAtCommands++;
+			this.notifyAll();
+		}
+	}
+
+	private static boolean isAtCommand(byte[] packet, int offset, int length) {
+		int apiId = getApiId(packet, offset, length);
+		return apiId == ApiId.AT_COMMAND.getValue() || apiId == ApiId.AT_COMMAND_QUEUE.getValue();
+	}
+
+	/**
+	 * Returns the api id of an escaped packet, i.e. the first byte after the length
+	 *
+	 * @return the api id, or -1 if the packet is too short
+	 */
+	private static int getApiId(byte[] packet, int offset, int length) {
+		if (length == 0 || (packet[offset] & 0xff) != START_BYTE) {
+			return -1;
+		}
+
+		int unescaped = 0;
+
+		for (int i = offset + 1; i < offset + length; i++) {
+			int b = packet[i] & 0xff;
+
+			if (b == ESCAPE) {
+				if (++i == offset + length) {
+					return -1;
+				}
+
+				b = 0x20 ^ (packet[i] & 0xff);
+			}
+
+			if (unescaped++ == 2) {
+				return b;
+			}
+		}
+
+		return -1;
+	}
+
+	private class ReplayInputStream extends InputStream {
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = this.read(b, 0, 1);
+			return read < 0 ? -1 : b[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (packetPosition == packetLength && !nextInbound()) {
+				awaitClose();
+				return -1;
+			}
+
+			int count = Math.min(len, packetLength - packetPosition);
+			System.arraycopy(packet, packetPosition, b, off, count);
+			packetPosition += count;
+
+			return count;
+		}
+	}
+
+	private class ReplayOutputStream extends OutputStream {
+
+		public void write(int b) {
+			// only whole packets are counted
+		}
+
+		public void write(byte[] b, int off, int len) {
+			written(b, off, len);
+		}
+	}
+}